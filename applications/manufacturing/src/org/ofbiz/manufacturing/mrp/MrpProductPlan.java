@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.mrp;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javolution.util.FastList;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityUtil;
+import org.ofbiz.manufacturing.bom.BOMNode;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.LocalDispatcher;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * The MRP plan of one product at one bill of material level: the stock on hand and the orders to propose for the
+ * product's events, ordered by date.
+ * <p>The plan is made without writing anything, so the plans of the products of a level can be made in parallel;
+ * MrpServices.executeMrp then writes the events and requirements of each plan in the order of the products, as if
+ * it had planned them one after the other.
+ */
+class MrpProductPlan implements Callable<MrpProductPlan> {
+
+    public static final String module = MrpProductPlan.class.getName();
+
+    /** An order to propose for one event, with what is needed to write it */
+    static class Proposal {
+        final ProposedOrder proposedOrder;
+        final Timestamp eventDate;
+        final boolean isBuilt;
+        final List<BOMNode> components;
+        final Map<String, Object> routingTaskStartDate;
+
+        Proposal(ProposedOrder proposedOrder, Timestamp eventDate, boolean isBuilt, List<BOMNode> components, Map<String, Object> routingTaskStartDate) {
+            this.proposedOrder = proposedOrder;
+            this.eventDate = eventDate;
+            this.isBuilt = isBuilt;
+            this.components = components;
+            this.routingTaskStartDate = routingTaskStartDate;
+        }
+    }
+
+    protected final List<GenericValue> events;
+    protected final String productId;
+    protected final String facilityId;
+    protected final String manufacturingFacilityId;
+    protected final String mrpName;
+    protected final GenericValue userLogin;
+    protected final Locale locale;
+    protected final LocalDispatcher dispatcher;
+    protected final Delegator delegator;
+
+    protected GenericValue product = null;
+    protected GenericValue productFacility = null;
+    protected BigDecimal initialQoh = BigDecimal.ZERO;
+    protected boolean qohFailed = false;
+    protected final List<Proposal> proposals = FastList.newInstance();
+    /** The error to return from executeMrp, in place of the writes of the plan */
+    protected Map<String, Object> error = null;
+
+    /**
+     * @param events The MrpEventView values of the product at the level, ordered by eventDate
+     */
+    MrpProductPlan(List<GenericValue> events, String facilityId, String manufacturingFacilityId, String mrpName, GenericValue userLogin, Locale locale,
+            LocalDispatcher dispatcher, Delegator delegator) {
+        this.events = events;
+        this.productId = events.get(0).getString("productId");
+        this.facilityId = facilityId;
+        this.manufacturingFacilityId = manufacturingFacilityId;
+        this.mrpName = mrpName;
+        this.userLogin = userLogin;
+        this.locale = locale;
+        this.dispatcher = dispatcher;
+        this.delegator = delegator;
+    }
+
+    public MrpProductPlan call() {
+        plan();
+        return this;
+    }
+
+    /** Makes the plan like the loop of MrpServices.executeMrp did for the events of one product */
+    protected void plan() {
+        GenericValue firstEvent = events.get(0);
+        BigDecimal firstEventQuantity = firstEvent.getBigDecimal("quantity");
+        BigDecimal positiveEventQuantity = firstEventQuantity.compareTo(BigDecimal.ZERO) > 0 ? firstEventQuantity: firstEventQuantity.negate();
+        try {
+            product = firstEvent.getRelatedOne("Product", true);
+            productFacility = EntityUtil.getFirst(product.getRelated("ProductFacility", UtilMisc.toMap("facilityId", facilityId), null, true));
+        } catch (GenericEntityException e) {
+            error = ServiceUtil.returnError(UtilProperties.getMessage(MrpServices.resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+            return;
+        }
+        // unlike MrpServices.findProductMrpQoh, the error event is written with the plan
+        try {
+            initialQoh = MrpServices.readProductMrpQoh(productId, facilityId, dispatcher);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error calling getProductInventoryAvailableByFacility service", module);
+            qohFailed = true;
+            initialQoh = BigDecimal.ZERO;
+        }
+        // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
+        // as well and cause problems
+        int daysToShip = 0;
+        BigDecimal reorderQuantity = BigDecimal.ONE.negate();
+        BigDecimal minimumStock = BigDecimal.ZERO;
+        if (productFacility != null) {
+            reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
+            minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
+            if ("SALES_ORDER_SHIP".equals(firstEvent.getString("mrpEventTypeId"))) {
+                daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
+            }
+        }
+        List<BOMNode> components = getComponents(positiveEventQuantity);
+        if (components == null) {
+            return;
+        }
+        boolean isBuilt = UtilValidate.isNotEmpty(components) && components.get(0).getParentNode().isManufactured();
+
+        BigDecimal stockTmp = initialQoh;
+        for (GenericValue event : events) {
+            stockTmp = stockTmp.add(event.getBigDecimal("quantity"));
+            if (stockTmp.compareTo(minimumStock) < 0) {
+                BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
+                //need to buy or build the product as we have not enough stock
+                Timestamp eventDate = event.getTimestamp("eventDate");
+                // to be just before the requirement
+                eventDate.setTime(eventDate.getTime()-1);
+                ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
+                proposedOrder.setMrpName(mrpName);
+                // calculate the ProposedOrder quantity and update the quantity object property.
+                proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, null);
+
+                // The components are also loaded thru the configurator
+                Map<String, Object> serviceResponse = getManufacturingComponents(proposedOrder.getQuantity());
+                if (serviceResponse == null) {
+                    return;
+                }
+                components = UtilGenerics.checkList(serviceResponse.get("components"));
+                String routingId = (String)serviceResponse.get("workEffortId");
+                GenericValue routing = null;
+                if (routingId != null) {
+                    try {
+                        routing = delegator.findOne("WorkEffort", UtilMisc.toMap("workEffortId", routingId), false);
+                    } catch (GenericEntityException e) {
+                        error = ServiceUtil.returnError(UtilProperties.getMessage(MrpServices.resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                        return;
+                    }
+                }
+                isBuilt = UtilValidate.isNotEmpty(components) && components.get(0).getParentNode().isManufactured();
+
+                // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
+                Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, routing, delegator, dispatcher, userLogin);
+                proposals.add(new Proposal(proposedOrder, eventDate, isBuilt, components, routingTaskStartDate));
+                stockTmp = stockTmp.add(proposedOrder.getQuantity());
+            }
+        }
+    }
+
+    private List<BOMNode> getComponents(BigDecimal quantity) {
+        Map<String, Object> serviceResponse = getManufacturingComponents(quantity);
+        if (serviceResponse == null) {
+            return null;
+        }
+        List<BOMNode> components = UtilGenerics.checkList(serviceResponse.get("components"));
+        return components != null ? components : FastList.<BOMNode>newInstance();
+    }
+
+    private Map<String, Object> getManufacturingComponents(BigDecimal quantity) {
+        try {
+            return dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", productId, "quantity", quantity, "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
+        } catch (Exception e) {
+            error = ServiceUtil.returnError(UtilProperties.getMessage(MrpServices.resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", productId), locale));
+            return null;
+        }
+    }
+
+    /** Returns the events of the level grouped by product, in the order of the list */
+    static List<List<GenericValue>> groupByProduct(List<GenericValue> levelEvents) {
+        List<List<GenericValue>> productEvents = FastList.newInstance();
+        List<GenericValue> currentEvents = null;
+        String currentProductId = null;
+        for (GenericValue event : levelEvents) {
+            String productId = event.getString("productId");
+            if (currentEvents == null || !productId.equals(currentProductId)) {
+                currentEvents = FastList.newInstance();
+                productEvents.add(currentEvents);
+                currentProductId = productId;
+            }
+            currentEvents.add(event);
+        }
+        return productEvents;
+    }
+}
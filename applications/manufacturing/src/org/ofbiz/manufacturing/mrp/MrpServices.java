@@ -22,17 +22,20 @@ package org.ofbiz.manufacturing.mrp;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javolution.util.FastList;
 import javolution.util.FastMap;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
-import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
@@ -62,6 +65,8 @@ public class MrpServices {
 
     public static final String module = MrpServices.class.getName();
     public static final String resource = "ManufacturingUiLabels";
+    /** The most threads planning the products of a level, each one holds a database connection while it reads */
+    public static final int MAX_THREAD_COUNT = 16;
 
     public static Map<String, Object> initMrpEvents(DispatchContext ctx, Map<String, ? extends Object> context) {
         Delegator delegator = ctx.getDelegator();
@@ -486,18 +491,26 @@ public class MrpServices {
         return findProductMrpQoh(mrpId, product.getString("productId"), facilityId, dispatcher, delegator);
     }
     public static BigDecimal findProductMrpQoh(String mrpId, String productId, String facilityId, LocalDispatcher dispatcher, Delegator delegator) {
-        Map<String, Object> resultMap = null;
         try {
-            if (facilityId == null) {
-                resultMap = dispatcher.runSync("getProductInventoryAvailable", UtilMisc.toMap("productId", productId));
-            } else {
-                resultMap = dispatcher.runSync("getInventoryAvailableByFacility", UtilMisc.toMap("productId", productId, "facilityId", facilityId));
-            }
+            return readProductMrpQoh(productId, facilityId, dispatcher);
         } catch (GenericServiceException e) {
             Debug.logError(e, "Error calling getProductInventoryAvailableByFacility service", module);
             logMrpError(mrpId, productId, "Unable to count inventory", delegator);
             return BigDecimal.ZERO;
         }
+    }
+
+    /**
+     * Reads the quantity on hand of the product like findProductMrpQoh, but leaves the error to the caller,
+     * which can log the MRP error event later.
+     */
+    public static BigDecimal readProductMrpQoh(String productId, String facilityId, LocalDispatcher dispatcher) throws GenericServiceException {
+        Map<String, Object> resultMap = null;
+        if (facilityId == null) {
+            resultMap = dispatcher.runSync("getProductInventoryAvailable", UtilMisc.toMap("productId", productId));
+        } else {
+            resultMap = dispatcher.runSync("getInventoryAvailableByFacility", UtilMisc.toMap("productId", productId, "facilityId", facilityId));
+        }
         return ((BigDecimal)resultMap.get("quantityOnHandTotal"));
     }
 
@@ -619,26 +632,12 @@ public class MrpServices {
         }
 
         int bomLevelWithNoEvent = 0;
-        BigDecimal stockTmp = BigDecimal.ZERO;
-        String oldProductId = null;
-        String productId = null;
-        GenericValue product = null;
-        GenericValue productFacility = null;
-        BigDecimal eventQuantity = BigDecimal.ZERO;
-        Timestamp eventDate = null;
-        BigDecimal reorderQuantity = BigDecimal.ZERO;
-        BigDecimal minimumStock = BigDecimal.ZERO;
-        int daysToShip = 0;
-        List<BOMNode> components = null;
-        boolean isBuilt = false;
-        GenericValue routing = null;
+        List<GenericValue> listInventoryEventForMRP = null;
 
         String mrpId = delegator.getNextSeqId("MrpEvent");
 
         Map<String, Object> result = null;
         Map<String, Object> parameters = null;
-        List<GenericValue> listInventoryEventForMRP = null;
-        ListIterator<GenericValue> iteratorListInventoryEventForMRP = null;
 
         // Initialization of the MrpEvent table, This table will contain the products we want to buy or build.
         parameters = UtilMisc.<String, Object>toMap("mrpId", mrpId, "reInitialize", Boolean.TRUE, "defaultYearsOffset", defaultYearsOffset, "userLogin", userLogin);
@@ -649,160 +648,108 @@ public class MrpServices {
         } catch (GenericServiceException e) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorRunningInitMrpEvents", UtilMisc.toMap("errorString", e.getMessage()), locale));
         }
+
+        // with more than one thread the products of a level are planned in parallel, then their events and requirements are written in order by this thread
+        int threadCount = context.get("threadCount") != null ? ((Integer) context.get("threadCount")).intValue() : 1;
+        threadCount = Math.max(1, Math.min(threadCount, MAX_THREAD_COUNT));
+        ScheduledExecutorService executor = threadCount > 1 ? ExecutionPool.getExecutor(null, "OFBiz-mrp-" + mrpId, threadCount, false) : null;
         long bomLevel = 0;
-        do {
-            // Find all products in MrpEventView, ordered by bom and eventDate
-            EntityCondition filterByConditions = null;
-            if (bomLevel == 0) {
-                filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
-                                            EntityOperator.OR,
-                                            EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel)));
-            } else {
-                filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel));
-            }
-            try {
-                listInventoryEventForMRP = delegator.findList("MrpEventView", filterByConditions, null, UtilMisc.toList("productId", "eventDate"), null, false);
-            } catch (GenericEntityException e) {
-                Long bomLevelToString = new Long(bomLevel);
-                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", bomLevelToString.toString(), "errorString", e.getMessage()), locale));
-            }
+        try {
+            do {
+                // Find all products in MrpEventView, ordered by bom and eventDate
+                EntityCondition filterByConditions = null;
+                if (bomLevel == 0) {
+                    filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
+                                                EntityOperator.OR,
+                                                EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel)));
+                } else {
+                    filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel));
+                }
+                long levelStartTime = System.currentTimeMillis();
+                try {
+                    listInventoryEventForMRP = delegator.findList("MrpEventView", filterByConditions, null, UtilMisc.toList("productId", "eventDate"), null, false);
+                } catch (GenericEntityException e) {
+                    Long bomLevelToString = new Long(bomLevel);
+                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", bomLevelToString.toString(), "errorString", e.getMessage()), locale));
+                }
 
-            if (UtilValidate.isNotEmpty(listInventoryEventForMRP)) {
-                bomLevelWithNoEvent = 0;
+                if (UtilValidate.isNotEmpty(listInventoryEventForMRP)) {
+                    bomLevelWithNoEvent = 0;
 
-                oldProductId = "";
-                for (GenericValue inventoryEventForMRP : listInventoryEventForMRP) {
-                    productId = inventoryEventForMRP.getString("productId");
-                    eventQuantity = inventoryEventForMRP.getBigDecimal("quantity");
+                    List<MrpProductPlan> plans = FastList.newInstance();
+                    for (List<GenericValue> productEvents : MrpProductPlan.groupByProduct(listInventoryEventForMRP)) {
+                        plans.add(new MrpProductPlan(productEvents, facilityId, manufacturingFacilityId, mrpName, userLogin, locale, dispatcher, delegator));
+                    }
+                    try {
+                        planProducts(plans, executor);
+                    } catch (Exception e) {
+                        Long bomLevelToString = new Long(bomLevel);
+                        return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", bomLevelToString.toString(), "errorString", e.getMessage()), locale));
+                    }
+                    long planEndTime = System.currentTimeMillis();
 
-                    if (!productId.equals(oldProductId)) {
-                        BigDecimal positiveEventQuantity = eventQuantity.compareTo(BigDecimal.ZERO) > 0 ? eventQuantity: eventQuantity.negate();
-                        // It's a new product, so it's necessary to  read the MrpQoh
-                        try {
-                            product = inventoryEventForMRP.getRelatedOne("Product", true);
-                            productFacility = EntityUtil.getFirst(product.getRelated("ProductFacility", UtilMisc.toMap("facilityId", facilityId), null, true));
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                    int proposalCount = 0;
+                    for (MrpProductPlan plan : plans) {
+                        if (plan.error != null) {
+                            return plan.error;
+                        }
+                        GenericValue product = plan.product;
+                        String productId = plan.productId;
+                        if (plan.qohFailed) {
+                            logMrpError(mrpId, productId, "Unable to count inventory", delegator);
                         }
-                        stockTmp = findProductMrpQoh(mrpId, product, facilityId, dispatcher, delegator);
                         try {
                             InventoryEventPlannedServices.createOrUpdateMrpEvent(UtilMisc.<String, Object>toMap("mrpId", mrpId,
-                                    "productId", product.getString("productId"), 
-                                    "mrpEventTypeId", "INITIAL_QOH", "eventDate", now), 
-                                    stockTmp, facilityId, null, false, delegator);
+                                    "productId", productId,
+                                    "mrpEventTypeId", "INITIAL_QOH", "eventDate", now),
+                                    plan.initialQoh, facilityId, null, false, delegator);
                         } catch (GenericEntityException e) {
                             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
                         }
-                        // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
-                        // as well and cause problems
-                        daysToShip = 0;
-                        if (productFacility != null) {
-                            reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
-                            minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
-                            if ("SALES_ORDER_SHIP".equals(inventoryEventForMRP.getString("mrpEventTypeId"))) {
-                                daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
+                        for (MrpProductPlan.Proposal proposal : plan.proposals) {
+                            ProposedOrder proposedOrder = proposal.proposedOrder;
+                            if (proposal.isBuilt) {
+                                // process the product components
+                                processBomComponent(mrpId, product, proposedOrder.getQuantity(), proposedOrder.getRequirementStartDate(), proposal.routingTaskStartDate, proposal.components);
                             }
-                        } else {
-                            minimumStock = BigDecimal.ZERO;
-                            reorderQuantity = BigDecimal.ONE.negate();
-                        }
-                        // -----------------------------------------------------
-                        // The components are also loaded thru the configurator
-                        Map<String, Object> serviceResponse = null;
-                        try {
-                            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", positiveEventQuantity, "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
-                        } catch (Exception e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        }
-                        components = UtilGenerics.checkList(serviceResponse.get("components"));
-                        if (UtilValidate.isNotEmpty(components)) {
-                            BOMNode node = (components.get(0)).getParentNode();
-                            isBuilt = node.isManufactured();
-                        } else {
-                            isBuilt = false;
-                        }
-                        // #####################################################
-
-                        oldProductId = productId;
-                    }
-
-                    stockTmp = stockTmp.add(eventQuantity);
-                    if (stockTmp.compareTo(minimumStock) < 0) {
-                        BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
-                        //need to buy or build the product as we have not enough stock
-                        eventDate = inventoryEventForMRP.getTimestamp("eventDate");
-                        // to be just before the requirement
-                        eventDate.setTime(eventDate.getTime()-1);
-                        ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
-                        proposedOrder.setMrpName(mrpName);
-                        // calculate the ProposedOrder quantity and update the quantity object property.
-                        proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, iteratorListInventoryEventForMRP);
-
-                        // -----------------------------------------------------
-                        // The components are also loaded thru the configurator
-                        Map<String, Object> serviceResponse = null;
-                        try {
-                            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", proposedOrder.getQuantity(), "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
-                        } catch (Exception e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        }
-                        components = UtilGenerics.checkList(serviceResponse.get("components"));
-                        String routingId = (String)serviceResponse.get("workEffortId");
-                        if (routingId != null) {
+                            // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
+                            String requirementId = null;
+                            if (plan.productFacility != null) {
+                                requirementId = proposedOrder.create(ctx, userLogin);
+                            }
+                            if (UtilValidate.isEmpty(plan.productFacility) && !proposal.isBuilt) {
+                                logMrpError(mrpId, productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created.", delegator);
+                            }
+                            String eventName = null;
+                            if (UtilValidate.isNotEmpty(requirementId)) {
+                                eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
+                            }
+                            Map<String, Object> eventMap = UtilMisc.<String, Object>toMap("productId", productId,
+                                                          "mrpId", mrpId,
+                                                          "eventDate", proposal.eventDate,
+                                                          "mrpEventTypeId", (proposal.isBuilt? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"));
                             try {
-                                routing = delegator.findOne("WorkEffort", UtilMisc.toMap("workEffortId", routingId), false);
+                                InventoryEventPlannedServices.createOrUpdateMrpEvent(eventMap, proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0), delegator);
                             } catch (GenericEntityException e) {
-                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
                             }
-                        } else {
-                            routing = null;
-                        }
-                        if (UtilValidate.isNotEmpty(components)) {
-                            BOMNode node = (components.get(0)).getParentNode();
-                            isBuilt = node.isManufactured();
-                        } else {
-                            isBuilt = false;
-                        }
-                        // #####################################################
-
-                        // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
-                        Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, routing, delegator, dispatcher, userLogin);
-                        if (isBuilt) {
-                            // process the product components
-                            processBomComponent(mrpId, product, proposedOrder.getQuantity(), proposedOrder.getRequirementStartDate(), routingTaskStartDate, components);
-                        }
-                        // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
-                        String requirementId = null;
-                        if (productFacility != null) {
-                            requirementId = proposedOrder.create(ctx, userLogin);
-                        }
-                        if (UtilValidate.isEmpty(productFacility) && !isBuilt) {
-                            logMrpError(mrpId, productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created.", delegator);
-                        }
-                        String eventName = null;
-                        if (UtilValidate.isNotEmpty(requirementId)) {
-                            eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
-                        }
-                        Map<String, Object> eventMap = UtilMisc.<String, Object>toMap("productId", product.getString("productId"),
-                                                      "mrpId", mrpId,
-                                                      "eventDate", eventDate,
-                                                      "mrpEventTypeId", (isBuilt? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"));
-                        try {
-                            InventoryEventPlannedServices.createOrUpdateMrpEvent(eventMap, proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0), delegator);
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
+                            proposalCount++;
                         }
-                        //
-                        stockTmp = stockTmp.add(proposedOrder.getQuantity());
                     }
+                    Debug.logInfo("MRP [" + mrpId + "] bom level " + bomLevel + ": " + listInventoryEventForMRP.size() + " events, " + plans.size() + " products, "
+                            + proposalCount + " proposed orders; planned in " + (planEndTime - levelStartTime) + "ms, written in " + (System.currentTimeMillis() - planEndTime) + "ms", module);
+                } else {
+                    bomLevelWithNoEvent += 1;
                 }
-            } else {
-                bomLevelWithNoEvent += 1;
-            }
 
-            bomLevel += 1;
-            // if there are 3 levels with no inventoryEvenPanned we stop
-        } while (bomLevelWithNoEvent < 3);
+                bomLevel += 1;
+                // if there are 3 levels with no inventoryEvenPanned we stop
+            } while (bomLevelWithNoEvent < 3);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
 
         result = FastMap.newInstance();
         List<Object> msgResult = FastList.newInstance();
@@ -811,4 +758,26 @@ public class MrpServices {
         Debug.logInfo("return from executeMrp", module);
         return result;
     }
+
+    /**
+     * Makes the plans, with the executor when there is one or else one after the other in this thread.
+     * Planning only reads the product, inventory, bill of material and routing data, which the run does not write, and
+     * the events of the run are passed to the plans by this thread, so the plans can be made outside of the transaction
+     * of executeMrp.
+     */
+    private static void planProducts(List<MrpProductPlan> plans, ExecutorService executor) throws InterruptedException, ExecutionException {
+        if (executor == null || plans.size() < 2) {
+            for (MrpProductPlan plan : plans) {
+                plan.call();
+            }
+            return;
+        }
+        List<Future<MrpProductPlan>> futures = FastList.newInstance();
+        for (MrpProductPlan plan : plans) {
+            futures.add(executor.submit(plan));
+        }
+        for (Future<MrpProductPlan> future : futures) {
+            future.get();
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Checks that the MRP run planning the products of a level in parallel writes the same events and proposed
+ * requirements as the run planning them in the service thread.
+ */
+public class MrpTest extends OFBizTestCase {
+
+    protected GenericValue userLogin = null;
+
+    public MrpTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = delegator.findOne("UserLogin", UtilMisc.toMap("userLoginId", "system"), false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testParallelPlanning() throws Exception {
+        executeMrp(1);
+        List<String> mrpEvents = getMrpEvents();
+        List<String> requirements = getProposedRequirements();
+        assertFalse("MRP events of the demo data", mrpEvents.isEmpty());
+
+        // each run removes the events and proposed requirements of the previous one
+        executeMrp(4);
+        assertEquals("MRP events", mrpEvents, getMrpEvents());
+        assertEquals("Proposed requirements", requirements, getProposedRequirements());
+    }
+
+    private void executeMrp(int threadCount) throws Exception {
+        Map<String, Object> context = FastMap.newInstance();
+        context.put("facilityId", "WebStoreWarehouse");
+        context.put("mrpName", "MrpTest");
+        context.put("threadCount", Integer.valueOf(threadCount));
+        context.put("userLogin", userLogin);
+        Map<String, Object> result = dispatcher.runSync("executeMrp", context);
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+    }
+
+    /** The events without the mrpId and requirement ids, which are new in each run */
+    private List<String> getMrpEvents() throws Exception {
+        List<String> mrpEvents = FastList.newInstance();
+        for (GenericValue mrpEvent: delegator.findList("MrpEvent", null, null, null, null, false)) {
+            String eventName = mrpEvent.getString("eventName");
+            if (eventName != null && eventName.startsWith("*")) {
+                eventName = "*requirement*";
+            }
+            mrpEvents.add(mrpEvent.getString("productId") + " " + mrpEvent.getString("mrpEventTypeId") + " " + toDay(mrpEvent.getTimestamp("eventDate"))
+                    + " " + mrpEvent.getString("facilityId") + " " + toString(mrpEvent.getBigDecimal("quantity")) + " " + mrpEvent.getString("isLate") + " " + eventName);
+        }
+        Collections.sort(mrpEvents);
+        return mrpEvents;
+    }
+
+    private List<String> getProposedRequirements() throws Exception {
+        List<String> requirements = FastList.newInstance();
+        for (GenericValue requirement: delegator.findByAnd("Requirement", UtilMisc.toMap("statusId", "REQ_PROPOSED"), null, false)) {
+            requirements.add(requirement.getString("productId") + " " + requirement.getString("requirementTypeId") + " " + requirement.getString("facilityId")
+                    + " " + toString(requirement.getBigDecimal("quantity")) + " " + toDay(requirement.getTimestamp("requiredByDate"))
+                    + " " + toDay(requirement.getTimestamp("requirementStartDate")));
+        }
+        Collections.sort(requirements);
+        return requirements;
+    }
+
+    /** The dates made from the time of the run differ by the time between the runs, so only their day is compared */
+    private static String toDay(Timestamp timestamp) {
+        return timestamp == null ? null : new java.sql.Date(timestamp.getTime()).toString();
+    }
+
+    private static String toString(BigDecimal quantity) {
+        return quantity == null ? null : quantity.stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.shoppingcart.product;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.EntityIndexCache;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+
+/**
+ * The rules, conditions and actions of all ProductPromos of a delegator, with the products and
+ * categories that can trigger each promotion.
+ * <p>A rule with a condition that needs a quantity or an amount of certain products can only run
+ * when one of those products is in the cart. A promotion whose rules all have such a condition is
+ * indexed by those products and categories, and is skipped for a cart that has none of them; the
+ * other promotions are always run. The trigger products are read without the date, exclude and
+ * and-group filters of ProductPromoWorker.getPromoRuleCondProductIds, so they include all the
+ * products it returns at any time.
+ * <p>The index is kept in the order.ProductPromoIndex cache, it is read again on first use after one
+ * of the promotion entities changed or the cache was cleared.
+ */
+public final class ProductPromoIndex {
+
+    public static final String module = ProductPromoIndex.class.getName();
+
+    private static final EntityIndexCache<ProductPromoIndex> indexCache = new EntityIndexCache<ProductPromoIndex>("order.ProductPromoIndex",
+            "ProductPromo", "ProductPromoRule", "ProductPromoCond", "ProductPromoAction", "ProductPromoProduct", "ProductPromoCategory", "ProductCategoryRollup") {
+        @Override
+        protected ProductPromoIndex makeValue(Delegator delegator) throws GenericEntityException {
+            return new ProductPromoIndex(delegator);
+        }
+    };
+
+    private final Delegator delegator;
+    private final Promos promos;
+
+    private ProductPromoIndex(Delegator delegator) throws GenericEntityException {
+        this.delegator = delegator;
+        this.promos = new Promos(delegator);
+    }
+
+    /** Returns the index of the delegator, read again if a promotion entity changed or its cache was cleared since */
+    public static ProductPromoIndex getInstance(Delegator delegator) throws GenericEntityException {
+        return indexCache.get(delegator);
+    }
+
+    /** Returns the conditions of the rule ordered by productPromoCondSeqId, or null if the rule is not in the index */
+    public List<GenericValue> getConditions(String productPromoId, String productPromoRuleId) throws GenericEntityException {
+        return promos.conditions.get(UtilMisc.toList(productPromoId, productPromoRuleId));
+    }
+
+    /** Returns the actions of the rule ordered by productPromoActionSeqId, or null if the rule is not in the index */
+    public List<GenericValue> getActions(String productPromoId, String productPromoRuleId) throws GenericEntityException {
+        return promos.actions.get(UtilMisc.toList(productPromoId, productPromoRuleId));
+    }
+
+    /** Returns true if a condition of the promotion is on the order total */
+    public boolean hasOrderTotalCondition(String productPromoId) throws GenericEntityException {
+        return promos.orderTotalPromoIds.contains(productPromoId);
+    }
+
+    /**
+     * Returns the ids of the promotions that can run for the products in the cart: the promotions
+     * that are not indexed and the ones indexed by a product in the cart or by one of its categories.
+     */
+    public Set<String> getCandidatePromoIds(ShoppingCart cart) throws GenericEntityException {
+        Set<String> promoIds = new HashSet<String>(promos.unindexedPromoIds);
+        Set<String> productIds = new HashSet<String>();
+        for (ShoppingCartItem cartItem: cart.items()) {
+            if (cartItem.getIsPromo()) {
+                continue;
+            }
+            if (cartItem.getProductId() != null) {
+                productIds.add(cartItem.getProductId());
+            }
+            if (cartItem.getParentProductId() != null) {
+                productIds.add(cartItem.getParentProductId());
+            }
+        }
+        for (String productId: productIds) {
+            Set<String> ids = promos.promoIdsByProduct.get(productId);
+            if (ids != null) {
+                promoIds.addAll(ids);
+            }
+            if (!promos.promoIdsByCategory.isEmpty()) {
+                List<GenericValue> productCategoryMembers = delegator.findByAnd("ProductCategoryMember", UtilMisc.toMap("productId", productId), null, true);
+                for (GenericValue productCategoryMember: productCategoryMembers) {
+                    ids = promos.promoIdsByCategory.get(productCategoryMember.getString("productCategoryId"));
+                    if (ids != null) {
+                        promoIds.addAll(ids);
+                    }
+                }
+            }
+        }
+        return promoIds;
+    }
+
+    /**
+     * Returns true if the condition fails when none of its products is in the cart: a
+     * PPIP_PRODUCT_QUANT or PPIP_PRODUCT_AMOUNT condition with a quantity or amount to reach, or a
+     * PPIP_PRODUCT_TOTAL condition that the total of no items does not pass.
+     */
+    private static boolean needsProducts(GenericValue productPromoCond) {
+        String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
+        String condValue = productPromoCond.getString("condValue");
+        try {
+            if ("PPIP_PRODUCT_QUANT".equals(inputParamEnumId)) {
+                return UtilValidate.isEmpty(condValue) || new BigDecimal(condValue).compareTo(BigDecimal.ZERO) > 0;
+            } else if ("PPIP_PRODUCT_AMOUNT".equals(inputParamEnumId)) {
+                return UtilValidate.isNotEmpty(condValue) && new BigDecimal(condValue).compareTo(BigDecimal.ZERO) > 0;
+            } else if ("PPIP_PRODUCT_TOTAL".equals(inputParamEnumId)) {
+                if (UtilValidate.isEmpty(condValue)) {
+                    return false;
+                }
+                int compare = BigDecimal.ZERO.compareTo(new BigDecimal(condValue));
+                String operatorEnumId = productPromoCond.getString("operatorEnumId");
+                return ("PPC_EQ".equals(operatorEnumId) && compare != 0) || ("PPC_GT".equals(operatorEnumId) && compare <= 0) || ("PPC_GTE".equals(operatorEnumId) && compare < 0);
+            }
+        } catch (NumberFormatException e) {
+            // ProductPromoWorker reports it when the promotion is run
+        }
+        return false;
+    }
+
+    /** The promotions read at one time, never changed once made */
+    private static final class Promos {
+        private final Map<List<String>, List<GenericValue>> conditions = new HashMap<List<String>, List<GenericValue>>();
+        private final Map<List<String>, List<GenericValue>> actions = new HashMap<List<String>, List<GenericValue>>();
+        private final Set<String> orderTotalPromoIds = new HashSet<String>();
+        private final Set<String> unindexedPromoIds = new HashSet<String>();
+        private final Map<String, Set<String>> promoIdsByProduct = new HashMap<String, Set<String>>();
+        private final Map<String, Set<String>> promoIdsByCategory = new HashMap<String, Set<String>>();
+
+        private Promos(Delegator delegator) throws GenericEntityException {
+            long startTime = System.currentTimeMillis();
+            Map<String, List<List<String>>> ruleKeysByPromo = new HashMap<String, List<List<String>>>();
+            for (GenericValue rule: delegator.findList("ProductPromoRule", null, null, null, null, true)) {
+                List<String> ruleKey = UtilMisc.toList(rule.getString("productPromoId"), rule.getString("productPromoRuleId"));
+                conditions.put(ruleKey, new ArrayList<GenericValue>());
+                actions.put(ruleKey, new ArrayList<GenericValue>());
+                List<List<String>> ruleKeys = ruleKeysByPromo.get(rule.getString("productPromoId"));
+                if (ruleKeys == null) {
+                    ruleKeys = new ArrayList<List<String>>();
+                    ruleKeysByPromo.put(rule.getString("productPromoId"), ruleKeys);
+                }
+                ruleKeys.add(ruleKey);
+            }
+            for (GenericValue condition: delegator.findList("ProductPromoCond", null, null, UtilMisc.toList("productPromoId", "productPromoRuleId", "productPromoCondSeqId"), null, true)) {
+                List<GenericValue> ruleConditions = conditions.get(UtilMisc.toList(condition.getString("productPromoId"), condition.getString("productPromoRuleId")));
+                if (ruleConditions != null) {
+                    ruleConditions.add(condition);
+                }
+                if ("PPIP_ORDER_TOTAL".equals(condition.getString("inputParamEnumId"))) {
+                    orderTotalPromoIds.add(condition.getString("productPromoId"));
+                }
+            }
+            for (GenericValue action: delegator.findList("ProductPromoAction", null, null, UtilMisc.toList("productPromoId", "productPromoRuleId", "productPromoActionSeqId"), null, true)) {
+                List<GenericValue> ruleActions = actions.get(UtilMisc.toList(action.getString("productPromoId"), action.getString("productPromoRuleId")));
+                if (ruleActions != null) {
+                    ruleActions.add(action);
+                }
+            }
+            for (Map.Entry<List<String>, List<GenericValue>> entry: conditions.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            for (Map.Entry<List<String>, List<GenericValue>> entry: actions.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+
+            Map<String, List<GenericValue>> promoProducts = new HashMap<String, List<GenericValue>>();
+            for (GenericValue promoProduct: delegator.findList("ProductPromoProduct", null, null, null, null, true)) {
+                getPromoList(promoProducts, promoProduct.getString("productPromoId")).add(promoProduct);
+            }
+            Map<String, List<GenericValue>> promoCategories = new HashMap<String, List<GenericValue>>();
+            for (GenericValue promoCategory: delegator.findList("ProductPromoCategory", null, null, null, null, true)) {
+                getPromoList(promoCategories, promoCategory.getString("productPromoId")).add(promoCategory);
+            }
+            Map<String, Set<String>> subCategoryIds = new HashMap<String, Set<String>>();
+            for (GenericValue rollup: delegator.findList("ProductCategoryRollup", null, null, null, null, true)) {
+                Set<String> childIds = subCategoryIds.get(rollup.getString("parentProductCategoryId"));
+                if (childIds == null) {
+                    childIds = new HashSet<String>();
+                    subCategoryIds.put(rollup.getString("parentProductCategoryId"), childIds);
+                }
+                childIds.add(rollup.getString("productCategoryId"));
+            }
+
+            for (Map.Entry<String, List<List<String>>> entry: ruleKeysByPromo.entrySet()) {
+                String productPromoId = entry.getKey();
+                Set<String> triggerProductIds = new HashSet<String>();
+                Set<String> triggerCategoryIds = new HashSet<String>();
+                boolean allRulesNeedProducts = true;
+                for (List<String> ruleKey: entry.getValue()) {
+                    GenericValue productsCondition = null;
+                    for (GenericValue condition: conditions.get(ruleKey)) {
+                        if (needsProducts(condition)) {
+                            productsCondition = condition;
+                            break;
+                        }
+                    }
+                    if (productsCondition == null) {
+                        allRulesNeedProducts = false;
+                        break;
+                    }
+                    addTriggers(productsCondition, promoProducts.get(productPromoId), promoCategories.get(productPromoId), subCategoryIds, triggerProductIds, triggerCategoryIds);
+                }
+                if (!allRulesNeedProducts) {
+                    unindexedPromoIds.add(productPromoId);
+                    continue;
+                }
+                for (String productId: triggerProductIds) {
+                    getPromoSet(promoIdsByProduct, productId).add(productPromoId);
+                }
+                for (String productCategoryId: triggerCategoryIds) {
+                    getPromoSet(promoIdsByCategory, productCategoryId).add(productPromoId);
+                }
+            }
+            if (Debug.infoOn()) Debug.logInfo("Read " + ruleKeysByPromo.size() + " promotions, " + unindexedPromoIds.size() + " not indexed, in " + (System.currentTimeMillis() - startTime) + "ms", module);
+        }
+
+        /** Adds the products and categories included for the condition, for the whole promotion or for the condition itself */
+        private static void addTriggers(GenericValue condition, List<GenericValue> promoProducts, List<GenericValue> promoCategories, Map<String, Set<String>> subCategoryIds,
+                Set<String> triggerProductIds, Set<String> triggerCategoryIds) {
+            if (promoProducts != null) {
+                for (GenericValue promoProduct: promoProducts) {
+                    if (appliesTo(promoProduct, condition)) {
+                        triggerProductIds.add(promoProduct.getString("productId"));
+                    }
+                }
+            }
+            if (promoCategories != null) {
+                for (GenericValue promoCategory: promoCategories) {
+                    if (appliesTo(promoCategory, condition)) {
+                        if ("Y".equals(promoCategory.getString("includeSubCategories"))) {
+                            addCategoryAndSubCategories(promoCategory.getString("productCategoryId"), subCategoryIds, triggerCategoryIds);
+                        } else {
+                            triggerCategoryIds.add(promoCategory.getString("productCategoryId"));
+                        }
+                    }
+                }
+            }
+        }
+
+        private static boolean appliesTo(GenericValue promoProductOrCategory, GenericValue condition) {
+            if ("PPPA_EXCLUDE".equals(promoProductOrCategory.getString("productPromoApplEnumId"))) {
+                return false;
+            }
+            String productPromoRuleId = promoProductOrCategory.getString("productPromoRuleId");
+            String productPromoCondSeqId = promoProductOrCategory.getString("productPromoCondSeqId");
+            if ("_NA_".equals(productPromoRuleId) && "_NA_".equals(productPromoCondSeqId)) {
+                return true;
+            }
+            return condition.getString("productPromoRuleId").equals(productPromoRuleId) && condition.getString("productPromoCondSeqId").equals(productPromoCondSeqId);
+        }
+
+        private static void addCategoryAndSubCategories(String productCategoryId, Map<String, Set<String>> subCategoryIds, Set<String> categoryIds) {
+            if (!categoryIds.add(productCategoryId)) {
+                return;
+            }
+            Set<String> childIds = subCategoryIds.get(productCategoryId);
+            if (childIds != null) {
+                for (String childId: childIds) {
+                    addCategoryAndSubCategories(childId, subCategoryIds, categoryIds);
+                }
+            }
+        }
+
+        private static List<GenericValue> getPromoList(Map<String, List<GenericValue>> valuesByPromo, String productPromoId) {
+            List<GenericValue> values = valuesByPromo.get(productPromoId);
+            if (values == null) {
+                values = new ArrayList<GenericValue>();
+                valuesByPromo.put(productPromoId, values);
+            }
+            return values;
+        }
+
+        private static Set<String> getPromoSet(Map<String, Set<String>> promoIdsByKey, String key) {
+            Set<String> promoIds = promoIdsByKey.get(key);
+            if (promoIds == null) {
+                promoIds = new HashSet<String>();
+                promoIdsByKey.put(key, promoIds);
+            }
+            return promoIds;
+        }
+    }
+}
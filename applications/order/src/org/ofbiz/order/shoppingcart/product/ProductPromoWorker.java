@@ -291,6 +291,15 @@ public class ProductPromoWorker {
     }
 
     public static void doPromotions(ShoppingCart cart, List<GenericValue> productPromoList, LocalDispatcher dispatcher) {
+        ProductPromoWorker.doPromotions(cart, productPromoList, dispatcher, true);
+    }
+
+    /**
+     * Applies the promotions to the cart.
+     * @param useIndex When true the promotions that none of the products in the cart can trigger are skipped, see ProductPromoIndex;
+     *     when false all promotions are run, which gives the same result
+     */
+    public static void doPromotions(ShoppingCart cart, List<GenericValue> productPromoList, LocalDispatcher dispatcher, boolean useIndex) {
         // this is called when a user logs in so that per customer limits are honored, called by cart when new userlogin is set
         // there is code to store ProductPromoUse information when an order is placed
         // ProductPromoUses are ignored if the corresponding order is cancelled
@@ -319,7 +328,8 @@ public class ProductPromoWorker {
             // NOTE: on this run, with isolatedTestRun passed as false it should not apply any adjustments
             //  or track which cart items are used for which promotions, but it will track ProductPromoUseInfo and
             //  useLimits; we are basicly just trying to run each promo "independently" to see how much each is worth
-            runProductPromos(productPromoList, cart, delegator, dispatcher, nowTimestamp, true);
+            ProductPromoIndex promoIndex = useIndex ? ProductPromoIndex.getInstance(delegator) : null;
+            runProductPromos(productPromoList, cart, delegator, dispatcher, nowTimestamp, true, promoIndex);
 
             // NOTE: after that first pass we could remove any that have a 0 totalDiscountAmount from the run list, but we won't because by the time they are run the cart may have changed enough to get them to go; also, certain actions like free shipping should always be run even though we won't know what the totalDiscountAmount is at the time the promotion is run
             // each ProductPromoUseInfo on the shopping cart will contain it's total value, so add up all totals for each promoId and put them in a List of Maps
@@ -330,7 +340,7 @@ public class ProductPromoWorker {
             List<Map<Object, Object>> productPromoDiscountMapListOrderTotal = FastList.newInstance();
             for (GenericValue productPromo : productPromoList) {
                 Map<Object, Object> productPromoDiscountMap = UtilGenerics.checkMap(UtilMisc.toMap("productPromo", productPromo, "totalDiscountAmount", cart.getProductPromoUseTotalDiscount(productPromo.getString("productPromoId"))));
-                if (hasOrderTotalCondition(productPromo, delegator)) {
+                if (hasOrderTotalCondition(productPromo, delegator, promoIndex)) {
                     productPromoDiscountMapListOrderTotal.add(productPromoDiscountMap);
                 } else {
                     productPromoDiscountMapList.add(productPromoDiscountMap);
@@ -355,7 +365,7 @@ public class ProductPromoWorker {
 
             // okay, all ready, do the real run, clearing the temporary result first...
             cart.clearAllPromotionInformation();
-            runProductPromos(sortedProductPromoList, cart, delegator, dispatcher, nowTimestamp, false);
+            runProductPromos(sortedProductPromoList, cart, delegator, dispatcher, nowTimestamp, false, promoIndex);
         } catch (NumberFormatException e) {
             Debug.logError(e, "Number not formatted correctly in promotion rules, not completed...", module);
         } catch (GenericEntityException e) {
@@ -366,6 +376,13 @@ public class ProductPromoWorker {
     }
 
     protected static boolean hasOrderTotalCondition(GenericValue productPromo, Delegator delegator) throws GenericEntityException {
+        return hasOrderTotalCondition(productPromo, delegator, null);
+    }
+
+    protected static boolean hasOrderTotalCondition(GenericValue productPromo, Delegator delegator, ProductPromoIndex promoIndex) throws GenericEntityException {
+        if (promoIndex != null) {
+            return promoIndex.hasOrderTotalCondition(productPromo.getString("productPromoId"));
+        }
         boolean hasOtCond = false;
         List<GenericValue> productPromoConds = delegator.findByAnd("ProductPromoCond", UtilMisc.toMap("productPromoId", productPromo.get("productPromoId")), UtilMisc.toList("productPromoCondSeqId"), true);
         for (GenericValue productPromoCond : productPromoConds) {
@@ -379,6 +396,11 @@ public class ProductPromoWorker {
     }
 
     protected static void runProductPromos(List<GenericValue> productPromoList, ShoppingCart cart, Delegator delegator, LocalDispatcher dispatcher, Timestamp nowTimestamp, boolean isolatedTestRun) throws GeneralException {
+        runProductPromos(productPromoList, cart, delegator, dispatcher, nowTimestamp, isolatedTestRun, null);
+    }
+
+    protected static void runProductPromos(List<GenericValue> productPromoList, ShoppingCart cart, Delegator delegator, LocalDispatcher dispatcher, Timestamp nowTimestamp, boolean isolatedTestRun,
+            ProductPromoIndex promoIndex) throws GeneralException {
         String partyId = cart.getPartyId();
 
         // this is our safety net; we should never need to loop through the rules more than a certain number of times, this is that number and may have to be changed for insanely large promo sets...
@@ -401,8 +423,16 @@ public class ProductPromoWorker {
                     break;
                 }
 
+                // the promotions that can run for the products now in the cart, the others would not change it
+                Set<String> candidatePromoIds = promoIndex != null ? promoIndex.getCandidatePromoIds(cart) : null;
+
                 for (GenericValue productPromo : productPromoList) {
                     String productPromoId = productPromo.getString("productPromoId");
+                    // a promo requiring a code is still run for an existing order, it adds the order's codes to the entered codes
+                    if (candidatePromoIds != null && !candidatePromoIds.contains(productPromoId) && !("Y".equals(productPromo.getString("requireCode")) && cart.getOrderId() != null)) {
+                        if (Debug.verboseOn()) Debug.logVerbose("Skipping promotion [" + productPromoId + "], no product in the cart can trigger it", module);
+                        continue;
+                    }
 
                     List<GenericValue> productPromoRules = productPromo.getRelated("ProductPromoRule", null, null, true);
                     if (UtilValidate.isNotEmpty(productPromoRules)) {
@@ -436,7 +466,7 @@ public class ProductPromoWorker {
                                     GenericValue productPromoCode = productPromoCodeIter.next();
                                     String productPromoCodeId = productPromoCode.getString("productPromoCodeId");
                                     Long codeUseLimit = getProductPromoCodeUseLimit(productPromoCode, partyId, delegator);
-                                    if (runProductPromoRules(cart, cartChanged, useLimit, true, productPromoCodeId, codeUseLimit, maxUseLimit, productPromo, productPromoRules, dispatcher, delegator, nowTimestamp)) {
+                                    if (runProductPromoRules(cart, cartChanged, useLimit, true, productPromoCodeId, codeUseLimit, maxUseLimit, productPromo, productPromoRules, dispatcher, delegator, nowTimestamp, promoIndex)) {
                                         cartChanged = true;
                                     }
 
@@ -448,7 +478,7 @@ public class ProductPromoWorker {
                             }
                         } else {
                             try {
-                                if (runProductPromoRules(cart, cartChanged, useLimit, false, null, null, maxUseLimit, productPromo, productPromoRules, dispatcher, delegator, nowTimestamp)) {
+                                if (runProductPromoRules(cart, cartChanged, useLimit, false, null, null, maxUseLimit, productPromo, productPromoRules, dispatcher, delegator, nowTimestamp, promoIndex)) {
                                     cartChanged = true;
                                 }
                             } catch (RuntimeException e) {
@@ -737,6 +767,11 @@ public class ProductPromoWorker {
 
     protected static boolean runProductPromoRules(ShoppingCart cart, boolean cartChanged, Long useLimit, boolean requireCode, String productPromoCodeId, Long codeUseLimit, long maxUseLimit,
         GenericValue productPromo, List<GenericValue> productPromoRules, LocalDispatcher dispatcher, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException, UseLimitException {
+        return runProductPromoRules(cart, cartChanged, useLimit, requireCode, productPromoCodeId, codeUseLimit, maxUseLimit, productPromo, productPromoRules, dispatcher, delegator, nowTimestamp, null);
+    }
+
+    protected static boolean runProductPromoRules(ShoppingCart cart, boolean cartChanged, Long useLimit, boolean requireCode, String productPromoCodeId, Long codeUseLimit, long maxUseLimit,
+        GenericValue productPromo, List<GenericValue> productPromoRules, LocalDispatcher dispatcher, Delegator delegator, Timestamp nowTimestamp, ProductPromoIndex promoIndex) throws GenericEntityException, UseLimitException {
         String productPromoId = productPromo.getString("productPromoId");
         while ((useLimit == null || useLimit.longValue() > cart.getProductPromoUseCount(productPromoId)) &&
                 (!requireCode || UtilValidate.isNotEmpty(productPromoCodeId)) &&
@@ -753,9 +788,12 @@ public class ProductPromoWorker {
                 boolean performActions = true;
 
                 // loop through conditions for rule, if any false, set allConditionsTrue to false
-                List<GenericValue> productPromoConds = delegator.findByAnd("ProductPromoCond", UtilMisc.toMap("productPromoId", productPromo.get("productPromoId")), UtilMisc.toList("productPromoCondSeqId"), true);
-                productPromoConds = EntityUtil.filterByAnd(productPromoConds, UtilMisc.toMap("productPromoRuleId", productPromoRule.get("productPromoRuleId")));
-                // using the other method to consolodate cache entries because the same cache is used elsewhere: List productPromoConds = productPromoRule.getRelated("ProductPromoCond", null, UtilMisc.toList("productPromoCondSeqId"), true);
+                List<GenericValue> productPromoConds = promoIndex != null ? promoIndex.getConditions(productPromoId, productPromoRule.getString("productPromoRuleId")) : null;
+                if (productPromoConds == null) {
+                    productPromoConds = delegator.findByAnd("ProductPromoCond", UtilMisc.toMap("productPromoId", productPromo.get("productPromoId")), UtilMisc.toList("productPromoCondSeqId"), true);
+                    productPromoConds = EntityUtil.filterByAnd(productPromoConds, UtilMisc.toMap("productPromoRuleId", productPromoRule.get("productPromoRuleId")));
+                    // using the other method to consolodate cache entries because the same cache is used elsewhere: List productPromoConds = productPromoRule.getRelated("ProductPromoCond", null, UtilMisc.toList("productPromoCondSeqId"), true);
+                }
                 if (Debug.verboseOn()) Debug.logVerbose("Checking " + productPromoConds.size() + " conditions for rule " + productPromoRule, module);
 
                 Iterator<GenericValue> productPromoCondIter = UtilMisc.toIterator(productPromoConds);
@@ -774,7 +812,10 @@ public class ProductPromoWorker {
                 if (performActions) {
                     // perform all actions, either apply or unapply
 
-                    List<GenericValue> productPromoActions = productPromoRule.getRelated("ProductPromoAction", null, UtilMisc.toList("productPromoActionSeqId"), true);
+                    List<GenericValue> productPromoActions = promoIndex != null ? promoIndex.getActions(productPromoId, productPromoRule.getString("productPromoRuleId")) : null;
+                    if (productPromoActions == null) {
+                        productPromoActions = productPromoRule.getRelated("ProductPromoAction", null, UtilMisc.toList("productPromoActionSeqId"), true);
+                    }
                     Iterator<GenericValue> productPromoActionIter = UtilMisc.toIterator(productPromoActions);
                     while (productPromoActionIter != null && productPromoActionIter.hasNext()) {
                         GenericValue productPromoAction = productPromoActionIter.next();
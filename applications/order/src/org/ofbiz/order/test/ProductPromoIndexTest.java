@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.test;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCart.ProductPromoUseInfo;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+import org.ofbiz.order.shoppingcart.product.ProductPromoIndex;
+import org.ofbiz.order.shoppingcart.product.ProductPromoWorker;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Checks that skipping the promotions through ProductPromoIndex gives the same cart as running all of them.
+ */
+public class ProductPromoIndexTest extends OFBizTestCase {
+
+    public ProductPromoIndexTest(String name) {
+        super(name);
+    }
+
+    public void testPromotionsWithoutTriggerProducts() throws Exception {
+        assertSamePromotions("GZ-1000", "1");
+    }
+
+    public void testPromotionsWithTriggerProducts() throws Exception {
+        assertSamePromotions("GZ-7000", "1", "GZ-8544", "2", "GZ-1005", "1", "GZ-2644", "4");
+    }
+
+    public void testIndexReadAgain() throws Exception {
+        ProductPromoIndex promoIndex = ProductPromoIndex.getInstance(delegator);
+        assertSame("cached", promoIndex, ProductPromoIndex.getInstance(delegator));
+        UtilCache.clearCachesThatStartWith("order.ProductPromoIndex");
+        ProductPromoIndex clearedIndex = ProductPromoIndex.getInstance(delegator);
+        assertNotSame("read again after the cache was cleared", promoIndex, clearedIndex);
+        GenericValue productPromo = delegator.findOne("ProductPromo", UtilMisc.toMap("productPromoId", "9000"), false);
+        productPromo.set("promoText", "Test Promo 1 changed");
+        productPromo.store();
+        assertNotSame("read again after a promotion changed", clearedIndex, ProductPromoIndex.getInstance(delegator));
+    }
+
+    private void assertSamePromotions(String... productIdsAndQuantities) throws Exception {
+        ShoppingCart indexedCart = makeCart(productIdsAndQuantities);
+        ShoppingCart referenceCart = makeCart(productIdsAndQuantities);
+        ProductPromoWorker.doPromotions(indexedCart, null, dispatcher, true);
+        ProductPromoWorker.doPromotions(referenceCart, null, dispatcher, false);
+
+        assertEquals("Promotion uses", getPromoUses(referenceCart), getPromoUses(indexedCart));
+        assertEquals("Number of items", referenceCart.items().size(), indexedCart.items().size());
+        for (int i = 0; i < referenceCart.items().size(); i++) {
+            ShoppingCartItem referenceItem = referenceCart.findCartItem(i);
+            ShoppingCartItem indexedItem = indexedCart.findCartItem(i);
+            assertEquals("Item product", referenceItem.getProductId(), indexedItem.getProductId());
+            assertEquals("Item quantity", 0, referenceItem.getQuantity().compareTo(indexedItem.getQuantity()));
+            assertEquals("Item adjustments", referenceItem.getAdjustments().size(), indexedItem.getAdjustments().size());
+            assertEquals("Item total", 0, referenceItem.getItemSubTotal().compareTo(indexedItem.getItemSubTotal()));
+        }
+        assertEquals("Order adjustments", referenceCart.getAdjustments().size(), indexedCart.getAdjustments().size());
+        assertEquals("Grand total", 0, referenceCart.getGrandTotal().compareTo(indexedCart.getGrandTotal()));
+    }
+
+    private ShoppingCart makeCart(String[] productIdsAndQuantities) throws Exception {
+        ShoppingCart cart = new ShoppingCart(delegator, "9000", Locale.US, "USD");
+        for (int i = 0; i < productIdsAndQuantities.length; i += 2) {
+            cart.addOrIncreaseItem(productIdsAndQuantities[i], null, new BigDecimal(productIdsAndQuantities[i + 1]), null, null, null, null, null, null, null,
+                    "DemoCatalog", null, null, null, null, dispatcher);
+        }
+        return cart;
+    }
+
+    private static Map<String, BigDecimal> getPromoUses(ShoppingCart cart) {
+        Map<String, BigDecimal> promoUses = FastMap.newInstance();
+        Iterator<ProductPromoUseInfo> promoUseIter = cart.getProductPromoUseInfoIter();
+        while (promoUseIter.hasNext()) {
+            ProductPromoUseInfo promoUse = promoUseIter.next();
+            BigDecimal totalDiscountAmount = promoUses.get(promoUse.productPromoId);
+            promoUses.put(promoUse.productPromoId, totalDiscountAmount == null ? promoUse.totalDiscountAmount.stripTrailingZeros() : totalDiscountAmount.add(promoUse.totalDiscountAmount).stripTrailingZeros());
+        }
+        return promoUses;
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.price;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.EntityIndexCache;
+
+/**
+ * All ProductPriceRules of a delegator with their conditions and actions, indexed by the value of
+ * the equality condition that selects them.
+ * <p>A rule with a PRC_EQ condition on the product, category, catalog, store group, web site, party
+ * or currency can only apply when the input has that value, so it is only returned for it. The
+ * other rules are returned for every input. The conditions are still checked by the caller; the
+ * index only removes the rules that cannot match.
+ * <p>The index is read with three queries and kept in the product.PriceRuleIndex cache, it is read
+ * again on first use after one of the price rule entities changed or the cache was cleared.
+ */
+public final class PriceRuleIndex {
+
+    public static final String module = PriceRuleIndex.class.getName();
+
+    /** The input parameters rules are indexed by, in the order they are preferred when a rule has several */
+    private static final String[] INDEXED_INPUT_PARAMS = {"PRIP_PRODUCT_ID", "PRIP_PARTY_ID", "PRIP_PROD_CAT_ID",
+        "PRIP_PROD_CLG_ID", "PRIP_WEBSITE_ID", "PRIP_PROD_SGRP_ID", "PRIP_CURRENCY_UOMID"};
+
+    private static final EntityIndexCache<PriceRuleIndex> indexCache = new EntityIndexCache<PriceRuleIndex>("product.PriceRuleIndex",
+            "ProductPriceRule", "ProductPriceCond", "ProductPriceAction") {
+        @Override
+        protected PriceRuleIndex makeValue(Delegator delegator) throws GenericEntityException {
+            return new PriceRuleIndex(delegator);
+        }
+    };
+
+    private final Delegator delegator;
+    private final Rules rules;
+
+    private PriceRuleIndex(Delegator delegator) throws GenericEntityException {
+        this.delegator = delegator;
+        this.rules = new Rules(delegator);
+    }
+
+    /** Returns the index of the delegator, read again if a price rule entity changed or its cache was cleared since */
+    public static PriceRuleIndex getInstance(Delegator delegator) throws GenericEntityException {
+        return indexCache.get(delegator);
+    }
+
+    /**
+     * Returns the rules that may apply to the inputs, in the order of their ids like the rules
+     * returned by PriceServices.makeProducePriceRuleList.
+     */
+    public List<GenericValue> findRules(String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId, String webSiteId, String partyId, String currencyUomId) throws GenericEntityException {
+        Set<String> ruleIds = new LinkedHashSet<String>(rules.unindexedRuleIds);
+        rules.addRuleIds(ruleIds, "PRIP_PRODUCT_ID", productId);
+        rules.addRuleIds(ruleIds, "PRIP_PROD_CLG_ID", prodCatalogId);
+        rules.addRuleIds(ruleIds, "PRIP_PROD_SGRP_ID", productStoreGroupId);
+        rules.addRuleIds(ruleIds, "PRIP_WEBSITE_ID", webSiteId);
+        rules.addRuleIds(ruleIds, "PRIP_PARTY_ID", partyId);
+        rules.addRuleIds(ruleIds, "PRIP_CURRENCY_UOMID", currencyUomId);
+        Map<String, Set<String>> categoryRuleIds = rules.ruleIdsByInput.get("PRIP_PROD_CAT_ID");
+        if (categoryRuleIds != null) {
+            // only the categories with rules are checked, against the cached category members of the product
+            addCategoryRuleIds(ruleIds, categoryRuleIds, productId);
+            if (UtilValidate.isNotEmpty(virtualProductId)) {
+                addCategoryRuleIds(ruleIds, categoryRuleIds, virtualProductId);
+            }
+        }
+        List<GenericValue> productPriceRules = new ArrayList<GenericValue>(ruleIds.size());
+        for (String ruleId: rules.ruleIds) {
+            if (ruleIds.contains(ruleId)) {
+                productPriceRules.add(rules.rules.get(ruleId));
+            }
+        }
+        return productPriceRules;
+    }
+
+    private void addCategoryRuleIds(Set<String> ruleIds, Map<String, Set<String>> categoryRuleIds, String productId) throws GenericEntityException {
+        List<GenericValue> productCategoryMembers = delegator.findByAnd("ProductCategoryMember", UtilMisc.toMap("productId", productId), null, true);
+        for (GenericValue productCategoryMember: productCategoryMembers) {
+            Set<String> ids = categoryRuleIds.get(productCategoryMember.getString("productCategoryId"));
+            if (ids != null) {
+                ruleIds.addAll(ids);
+            }
+        }
+    }
+
+    /** Returns the conditions of the rule, or null if the rule is not in the index */
+    public List<GenericValue> getConditions(String productPriceRuleId) throws GenericEntityException {
+        return rules.conditions.get(productPriceRuleId);
+    }
+
+    /** Returns the actions of the rule, or null if the rule is not in the index */
+    public List<GenericValue> getActions(String productPriceRuleId) throws GenericEntityException {
+        return rules.actions.get(productPriceRuleId);
+    }
+
+    /** The rules read at one time, never changed once made */
+    private static final class Rules {
+        private final List<String> ruleIds = new ArrayList<String>();
+        private final Map<String, GenericValue> rules = new HashMap<String, GenericValue>();
+        private final Map<String, List<GenericValue>> conditions = new HashMap<String, List<GenericValue>>();
+        private final Map<String, List<GenericValue>> actions = new HashMap<String, List<GenericValue>>();
+        private final Set<String> unindexedRuleIds = new LinkedHashSet<String>();
+        /** The rule ids by input parameter and by the value of its equality condition */
+        private final Map<String, Map<String, Set<String>>> ruleIdsByInput = new HashMap<String, Map<String, Set<String>>>();
+
+        private Rules(Delegator delegator) throws GenericEntityException {
+            long startTime = System.currentTimeMillis();
+            for (GenericValue rule: delegator.findList("ProductPriceRule", null, null, UtilMisc.toList("productPriceRuleId"), null, true)) {
+                String ruleId = rule.getString("productPriceRuleId");
+                ruleIds.add(ruleId);
+                rules.put(ruleId, rule);
+                conditions.put(ruleId, new ArrayList<GenericValue>());
+                actions.put(ruleId, new ArrayList<GenericValue>());
+            }
+            for (GenericValue condition: delegator.findList("ProductPriceCond", null, null, UtilMisc.toList("productPriceRuleId", "productPriceCondSeqId"), null, true)) {
+                List<GenericValue> ruleConditions = conditions.get(condition.getString("productPriceRuleId"));
+                if (ruleConditions != null) {
+                    ruleConditions.add(condition);
+                }
+            }
+            for (GenericValue action: delegator.findList("ProductPriceAction", null, null, UtilMisc.toList("productPriceRuleId", "productPriceActionSeqId"), null, true)) {
+                List<GenericValue> ruleActions = actions.get(action.getString("productPriceRuleId"));
+                if (ruleActions != null) {
+                    ruleActions.add(action);
+                }
+            }
+            for (String ruleId: ruleIds) {
+                List<GenericValue> ruleConditions = conditions.get(ruleId);
+                conditions.put(ruleId, Collections.unmodifiableList(ruleConditions));
+                actions.put(ruleId, Collections.unmodifiableList(actions.get(ruleId)));
+                GenericValue indexCondition = null;
+                for (String inputParamEnumId: INDEXED_INPUT_PARAMS) {
+                    for (GenericValue condition: ruleConditions) {
+                        if (inputParamEnumId.equals(condition.getString("inputParamEnumId")) && "PRC_EQ".equals(condition.getString("operatorEnumId")) && condition.get("condValue") != null) {
+                            indexCondition = condition;
+                            break;
+                        }
+                    }
+                    if (indexCondition != null) {
+                        break;
+                    }
+                }
+                if (indexCondition == null) {
+                    unindexedRuleIds.add(ruleId);
+                    continue;
+                }
+                String inputParamEnumId = indexCondition.getString("inputParamEnumId");
+                Map<String, Set<String>> ruleIdsByValue = ruleIdsByInput.get(inputParamEnumId);
+                if (ruleIdsByValue == null) {
+                    ruleIdsByValue = new HashMap<String, Set<String>>();
+                    ruleIdsByInput.put(inputParamEnumId, ruleIdsByValue);
+                }
+                Set<String> valueRuleIds = ruleIdsByValue.get(indexCondition.getString("condValue"));
+                if (valueRuleIds == null) {
+                    valueRuleIds = new LinkedHashSet<String>();
+                    ruleIdsByValue.put(indexCondition.getString("condValue"), valueRuleIds);
+                }
+                valueRuleIds.add(ruleId);
+            }
+            if (Debug.infoOn()) Debug.logInfo("Read " + ruleIds.size() + " price rules, " + unindexedRuleIds.size() + " not indexed, in " + (System.currentTimeMillis() - startTime) + "ms", module);
+        }
+
+        private void addRuleIds(Set<String> ruleIds, String inputParamEnumId, String value) {
+            if (UtilValidate.isEmpty(value)) {
+                return;
+            }
+            Map<String, Set<String>> ruleIdsByValue = ruleIdsByInput.get(inputParamEnumId);
+            if (ruleIdsByValue != null) {
+                Set<String> valueRuleIds = ruleIdsByValue.get(value);
+                if (valueRuleIds != null) {
+                    ruleIds.addAll(valueRuleIds);
+                }
+            }
+        }
+    }
+}
@@ -20,11 +20,9 @@ package org.ofbiz.product.price;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TreeSet;
 
 import javolution.util.FastList;
 import javolution.util.FastMap;
@@ -98,7 +96,7 @@ public class PriceServices {
 
         String findAllQuantityPricesStr = (String) context.get("findAllQuantityPrices");
         boolean findAllQuantityPrices = "Y".equals(findAllQuantityPricesStr);
-        boolean optimizeForLargeRuleSet = "Y".equals(context.get("optimizeForLargeRuleSet"));
+        boolean useRuleIndex = !"N".equals(context.get("useRuleIndex"));
 
         String agreementId = (String) context.get("agreementId");
 
@@ -421,7 +419,8 @@ public class PriceServices {
             if (errorResult != null) return errorResult;
         } else {
             try {
-                List<GenericValue> allProductPriceRules = makeProducePriceRuleList(delegator, optimizeForLargeRuleSet, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyDefaultUomId);
+                PriceRuleIndex priceRuleIndex = useRuleIndex ? PriceRuleIndex.getInstance(delegator) : null;
+                List<GenericValue> allProductPriceRules = makeProducePriceRuleList(delegator, priceRuleIndex, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyDefaultUomId);
                 allProductPriceRules = EntityUtil.filterByDate(allProductPriceRules, true);
 
                 List<GenericValue> quantityProductPriceRules = null;
@@ -431,7 +430,7 @@ public class PriceServices {
                     quantityProductPriceRules = FastList.newInstance();
                     nonQuantityProductPriceRules = FastList.newInstance();
                     for (GenericValue productPriceRule: allProductPriceRules) {
-                        List<GenericValue> productPriceCondList = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("productPriceRuleId", productPriceRule.get("productPriceRuleId")), null, true);
+                        List<GenericValue> productPriceCondList = getProductPriceConds(delegator, productPriceRule.getString("productPriceRuleId"), priceRuleIndex);
 
                         boolean foundQuantityInputParam = false;
                         // only consider a rule if all conditions except the quantity condition are true
@@ -467,7 +466,7 @@ public class PriceServices {
                         Map<String, Object> quantCalcResults = calcPriceResultFromRules(ruleListToUse, listPrice, defaultPrice, promoPrice,
                             wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
                             averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId,
-                            webSiteId, partyId, null, currencyDefaultUomId, delegator, nowTimestamp, locale);
+                            webSiteId, partyId, null, currencyDefaultUomId, delegator, nowTimestamp, locale, priceRuleIndex);
                         Map<String, Object> quantErrorResult = addGeneralResults(quantCalcResults, competitivePriceValue, specialPromoPriceValue, productStore,
                             checkIncludeVat, currencyDefaultUomId, productId, quantity, partyId, dispatcher, locale);
                         if (quantErrorResult != null) return quantErrorResult;
@@ -483,7 +482,7 @@ public class PriceServices {
                     Map<String, Object> calcResults = calcPriceResultFromRules(allProductPriceRules, listPrice, defaultPrice, promoPrice,
                         wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
                         averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId,
-                        webSiteId, partyId, BigDecimal.ONE, currencyDefaultUomId, delegator, nowTimestamp, locale);
+                        webSiteId, partyId, BigDecimal.ONE, currencyDefaultUomId, delegator, nowTimestamp, locale, priceRuleIndex);
                     result.putAll(calcResults);
                     // The orderItemPriceInfos out parameter requires a special treatment:
                     // the list of OrderItemPriceInfos generated by the price rule is appended to
@@ -501,7 +500,7 @@ public class PriceServices {
                     Map<String, Object> calcResults = calcPriceResultFromRules(allProductPriceRules, listPrice, defaultPrice, promoPrice,
                         wholesalePrice, maximumPriceValue, minimumPriceValue, validPriceFound,
                         averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId,
-                        webSiteId, partyId, quantity, currencyDefaultUomId, delegator, nowTimestamp, locale);
+                        webSiteId, partyId, quantity, currencyDefaultUomId, delegator, nowTimestamp, locale, priceRuleIndex);
                     result.putAll(calcResults);
                     // The orderItemPriceInfos out parameter requires a special treatment:
                     // the list of OrderItemPriceInfos generated by the price rule is appended to
@@ -638,153 +637,37 @@ public class PriceServices {
         return null;
     }
 
+    /**
+     * Returns the price rules that may apply to the inputs, from the PriceRuleIndex of the delegator.
+     * The optimizeForLargeRuleSet parameter is not used anymore, the index is small enough for any rule set.
+     */
     public static List<GenericValue> makeProducePriceRuleList(Delegator delegator, boolean optimizeForLargeRuleSet, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId, String webSiteId, String partyId, String currencyUomId) throws GenericEntityException {
-        List<GenericValue> productPriceRules = null;
-
-        // At this point we have two options: optimize for large ruleset, or optimize for small ruleset
-        // NOTE: This only effects the way that the rules to be evaluated are selected.
-        // For large rule sets we can do a cached pre-filter to limit the rules that need to be evaled for a specific product.
-        // Genercally I don't think that rule sets will get that big though, so the default is optimize for smaller rule set.
-        if (optimizeForLargeRuleSet) {
-            // ========= find all rules that must be run for each input type; this is kind of like a pre-filter to slim down the rules to run =========
-            // utilTimer.timerString("Before create rule id list", module);
-            TreeSet<String> productPriceRuleIds = new TreeSet<String>();
-
-            // ------- These are all of the conditions that DON'T depend on the current inputs -------
-
-            // by productCategoryId
-            // for we will always include any rules that go by category, shouldn't be too many to iterate through each time and will save on cache entries
-            // note that we always want to put the category, quantity, etc ones that find all rules with these conditions in separate cache lists so that they can be easily cleared
-            Collection<GenericValue> productCategoryIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PROD_CAT_ID"), null, true);
-            if (UtilValidate.isNotEmpty(productCategoryIdConds)) {
-                for (GenericValue productCategoryIdCond: productCategoryIdConds) {
-                    productPriceRuleIds.add(productCategoryIdCond.getString("productPriceRuleId"));
-                }
-            }
-
-            // by productFeatureId
-            Collection<GenericValue> productFeatureIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PROD_FEAT_ID"), null, true);
-            if (UtilValidate.isNotEmpty(productFeatureIdConds)) {
-                for (GenericValue productFeatureIdCond: productFeatureIdConds) {
-                    productPriceRuleIds.add(productFeatureIdCond.getString("productPriceRuleId"));
-                }
-            }
-
-            // by quantity -- should we really do this one, ie is it necessary?
-            // we could say that all rules with quantity on them must have one of these other values
-            // but, no we'll do it the other way, any that have a quantity will always get compared
-            Collection<GenericValue> quantityConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_QUANTITY"), null, true);
-            if (UtilValidate.isNotEmpty(quantityConds)) {
-                for (GenericValue quantityCond: quantityConds) {
-                    productPriceRuleIds.add(quantityCond.getString("productPriceRuleId"));
-                }
-            }
-
-            // by roleTypeId
-            Collection<GenericValue> roleTypeIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_ROLE_TYPE"), null, true);
-            if (UtilValidate.isNotEmpty(roleTypeIdConds)) {
-                for (GenericValue roleTypeIdCond: roleTypeIdConds) {
-                    productPriceRuleIds.add(roleTypeIdCond.getString("productPriceRuleId"));
-                }
-            }
-
-            // TODO, not supported yet: by groupPartyId
-            // TODO, not supported yet: by partyClassificationGroupId
-            // later: (by partyClassificationTypeId)
-
-            // by listPrice
-            Collection<GenericValue> listPriceConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_LIST_PRICE"), null, true);
-            if (UtilValidate.isNotEmpty(listPriceConds)) {
-                for (GenericValue listPriceCond: listPriceConds) {
-                    productPriceRuleIds.add(listPriceCond.getString("productPriceRuleId"));
-                }
-            }
-
-            // ------- These are all of them that DO depend on the current inputs -------
-
-            // by productId
-            Collection<GenericValue> productIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PRODUCT_ID", "condValue", productId), null, true);
-            if (UtilValidate.isNotEmpty(productIdConds)) {
-                for (GenericValue productIdCond: productIdConds) {
-                    productPriceRuleIds.add(productIdCond.getString("productPriceRuleId"));
-                }
-            }
-
-            // by virtualProductId, if not null
-            if (virtualProductId != null) {
-                Collection<GenericValue> virtualProductIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PRODUCT_ID", "condValue", virtualProductId), null, true);
-                if (UtilValidate.isNotEmpty(virtualProductIdConds)) {
-                    for (GenericValue virtualProductIdCond: virtualProductIdConds) {
-                        productPriceRuleIds.add(virtualProductIdCond.getString("productPriceRuleId"));
-                    }
-                }
-            }
-
-            // by prodCatalogId - which is optional in certain cases
-            if (UtilValidate.isNotEmpty(prodCatalogId)) {
-                Collection<GenericValue> prodCatalogIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PROD_CLG_ID", "condValue", prodCatalogId), null, true);
-                if (UtilValidate.isNotEmpty(prodCatalogIdConds)) {
-                    for (GenericValue prodCatalogIdCond: prodCatalogIdConds) {
-                        productPriceRuleIds.add(prodCatalogIdCond.getString("productPriceRuleId"));
-                    }
-                }
-            }
-
-            // by productStoreGroupId
-            if (UtilValidate.isNotEmpty(productStoreGroupId)) {
-                Collection<GenericValue> storeGroupConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PROD_SGRP_ID", "condValue", productStoreGroupId), null, true);
-                if (UtilValidate.isNotEmpty(storeGroupConds)) {
-                    for (GenericValue storeGroupCond: storeGroupConds) {
-                        productPriceRuleIds.add(storeGroupCond.getString("productPriceRuleId"));
-                    }
-                }
-            }
-
-            // by webSiteId
-            if (UtilValidate.isNotEmpty(webSiteId)) {
-                Collection<GenericValue> webSiteIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_WEBSITE_ID", "condValue", webSiteId), null, true);
-                if (UtilValidate.isNotEmpty(webSiteIdConds)) {
-                    for (GenericValue webSiteIdCond: webSiteIdConds) {
-                        productPriceRuleIds.add(webSiteIdCond.getString("productPriceRuleId"));
-                    }
-                }
-            }
-
-            // by partyId
-            if (UtilValidate.isNotEmpty(partyId)) {
-                Collection<GenericValue> partyIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_PARTY_ID", "condValue", partyId), null, true);
-                if (UtilValidate.isNotEmpty(partyIdConds)) {
-                    for (GenericValue partyIdCond: partyIdConds) {
-                        productPriceRuleIds.add(partyIdCond.getString("productPriceRuleId"));
-                    }
-                }
-            }
-
-            // by currencyUomId
-            Collection<GenericValue> currencyUomIdConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("inputParamEnumId", "PRIP_CURRENCY_UOMID", "condValue", currencyUomId), null, true);
-            if (UtilValidate.isNotEmpty(currencyUomIdConds)) {
-                for (GenericValue currencyUomIdCond: currencyUomIdConds) {
-                    productPriceRuleIds.add(currencyUomIdCond.getString("productPriceRuleId"));
-                }
-            }
+        return makeProducePriceRuleList(delegator, PriceRuleIndex.getInstance(delegator), productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyUomId);
+    }
 
-            productPriceRules = FastList.newInstance();
-            for (String productPriceRuleId: productPriceRuleIds) {
-                GenericValue productPriceRule = delegator.findOne("ProductPriceRule", UtilMisc.toMap("productPriceRuleId", productPriceRuleId), true);
-                if (productPriceRule == null) continue;
-                productPriceRules.add(productPriceRule);
-            }
-        } else {
-            // this would be nice, but we can't cache this so easily...
-            // List pprExprs = UtilMisc.toList(EntityCondition.makeCondition("thruDate", EntityOperator.EQUALS, null),
-            // EntityCondition.makeCondition("thruDate", EntityOperator.GREATER_THAN, UtilDateTime.nowTimestamp()));
-            // productPriceRules = delegator.findByOr("ProductPriceRule", pprExprs);
+    /** Returns the price rules that may apply to the inputs from the index, or all price rules ordered by id when the index is null */
+    private static List<GenericValue> makeProducePriceRuleList(Delegator delegator, PriceRuleIndex priceRuleIndex, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId, String webSiteId, String partyId, String currencyUomId) throws GenericEntityException {
+        if (priceRuleIndex == null) {
+            return delegator.findList("ProductPriceRule", null, null, UtilMisc.toList("productPriceRuleId"), null, true);
+        }
+        return priceRuleIndex.findRules(productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, currencyUomId);
+    }
 
-            productPriceRules = delegator.findList("ProductPriceRule", null, null, null, null, true);
-            if (productPriceRules == null) productPriceRules = FastList.newInstance();
+    private static List<GenericValue> getProductPriceConds(Delegator delegator, String productPriceRuleId, PriceRuleIndex priceRuleIndex) throws GenericEntityException {
+        List<GenericValue> productPriceConds = priceRuleIndex != null ? priceRuleIndex.getConditions(productPriceRuleId) : null;
+        if (productPriceConds == null) {
+            // a rule created after the index was read
+            productPriceConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("productPriceRuleId", productPriceRuleId), null, true);
         }
+        return productPriceConds;
+    }
 
-        return productPriceRules;
+    private static List<GenericValue> getProductPriceActions(Delegator delegator, String productPriceRuleId, PriceRuleIndex priceRuleIndex) throws GenericEntityException {
+        List<GenericValue> productPriceActions = priceRuleIndex != null ? priceRuleIndex.getActions(productPriceRuleId) : null;
+        if (productPriceActions == null) {
+            productPriceActions = delegator.findByAnd("ProductPriceAction", UtilMisc.toMap("productPriceRuleId", productPriceRuleId), null, true);
+        }
+        return productPriceActions;
     }
 
     public static Map<String, Object> calcPriceResultFromRules(List<GenericValue> productPriceRules, BigDecimal listPrice, BigDecimal defaultPrice, BigDecimal promoPrice,
@@ -792,6 +675,20 @@ public class PriceServices {
         GenericValue averageCostValue, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId,
         String webSiteId, String partyId, BigDecimal quantity, String currencyUomId, Delegator delegator, Timestamp nowTimestamp,
         Locale locale) throws GenericEntityException {
+        return calcPriceResultFromRules(productPriceRules, listPrice, defaultPrice, promoPrice, wholesalePrice, maximumPriceValue, minimumPriceValue,
+                validPriceFound, averageCostValue, productId, virtualProductId, prodCatalogId, productStoreGroupId, webSiteId, partyId, quantity,
+                currencyUomId, delegator, nowTimestamp, locale, PriceRuleIndex.getInstance(delegator));
+    }
+
+    /**
+     * Applies the price rules, reading their conditions and actions from the priceRuleIndex, or with
+     * queries when it is null.
+     */
+    public static Map<String, Object> calcPriceResultFromRules(List<GenericValue> productPriceRules, BigDecimal listPrice, BigDecimal defaultPrice, BigDecimal promoPrice,
+        BigDecimal wholesalePrice, GenericValue maximumPriceValue, GenericValue minimumPriceValue, boolean validPriceFound,
+        GenericValue averageCostValue, String productId, String virtualProductId, String prodCatalogId, String productStoreGroupId,
+        String webSiteId, String partyId, BigDecimal quantity, String currencyUomId, Delegator delegator, Timestamp nowTimestamp,
+        Locale locale, PriceRuleIndex priceRuleIndex) throws GenericEntityException {
 
         Map<String, Object> calcResults = FastMap.newInstance();
 
@@ -830,7 +727,7 @@ public class PriceServices {
             // check all conditions
             boolean allTrue = true;
             StringBuilder condsDescription = new StringBuilder();
-            List<GenericValue> productPriceConds = delegator.findByAnd("ProductPriceCond", UtilMisc.toMap("productPriceRuleId", productPriceRuleId), null, true);
+            List<GenericValue> productPriceConds = getProductPriceConds(delegator, productPriceRuleId, priceRuleIndex);
             for (GenericValue productPriceCond: productPriceConds) {
 
                 totalConds++;
@@ -872,7 +769,7 @@ public class PriceServices {
                     isSale = true;
                 }
 
-                List<GenericValue> productPriceActions = delegator.findByAnd("ProductPriceAction", UtilMisc.toMap("productPriceRuleId", productPriceRuleId), null, true);
+                List<GenericValue> productPriceActions = getProductPriceActions(delegator, productPriceRuleId, priceRuleIndex);
                 for (GenericValue productPriceAction: productPriceActions) {
 
                     totalActions++;
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.product.price.PriceRuleIndex;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Compares the prices of calculateProductPrice using the PriceRuleIndex with the prices of the price rule queries.
+ */
+public class PriceRuleIndexTest extends OFBizTestCase {
+
+    public PriceRuleIndexTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // the test delegator only rolls back at the end of the run, so the rules of an earlier test are still there
+        if (delegator.findOne("ProductPriceRule", UtilMisc.toMap("productPriceRuleId", "PRIDX_PRODUCT"), false) != null) {
+            return;
+        }
+        Timestamp fromDate = UtilDateTime.nowTimestamp();
+        delegator.create("ProductCategory", UtilMisc.toMap("productCategoryId", "PRIDX_CAT", "productCategoryTypeId", "CATALOG_CATEGORY"));
+        delegator.create("ProductCategoryMember", UtilMisc.toMap("productCategoryId", "PRIDX_CAT", "productId", "GZ-2002", "fromDate", fromDate));
+        delegator.create("ProductCategory", UtilMisc.toMap("productCategoryId", "PRIDX_VCAT", "productCategoryTypeId", "CATALOG_CATEGORY"));
+        delegator.create("ProductCategoryMember", UtilMisc.toMap("productCategoryId", "PRIDX_VCAT", "productId", "GZ-1006", "fromDate", fromDate));
+
+        createRule("PRIDX_PRODUCT", "PRICE_POL", "-10");
+        createCondition("PRIDX_PRODUCT", "01", "PRIP_PRODUCT_ID", "PRC_EQ", "GZ-2002");
+        createRule("PRIDX_VIRTUAL", "PRICE_POL", "-5");
+        createCondition("PRIDX_VIRTUAL", "01", "PRIP_PROD_CAT_ID", "PRC_EQ", "PRIDX_VCAT");
+        createRule("PRIDX_CATEGORY", "PRICE_POD", "-1");
+        createCondition("PRIDX_CATEGORY", "01", "PRIP_PROD_CAT_ID", "PRC_EQ", "PRIDX_CAT");
+        createRule("PRIDX_PARTY", "PRICE_POL", "-20");
+        createCondition("PRIDX_PARTY", "01", "PRIP_PRODUCT_ID", "PRC_EQ", "GZ-2002");
+        createCondition("PRIDX_PARTY", "02", "PRIP_PARTY_ID", "PRC_EQ", "DemoCustomer");
+        createRule("PRIDX_QUANTITY", "PRICE_POL", "-30");
+        createCondition("PRIDX_QUANTITY", "01", "PRIP_PRODUCT_ID", "PRC_EQ", "GZ-2002");
+        createCondition("PRIDX_QUANTITY", "02", "PRIP_QUANTITY", "PRC_GTE", "10");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private void createRule(String productPriceRuleId, String productPriceActionTypeId, String amount) throws Exception {
+        delegator.create("ProductPriceRule", UtilMisc.toMap("productPriceRuleId", productPriceRuleId, "ruleName", productPriceRuleId, "isSale", "N"));
+        delegator.create("ProductPriceAction", UtilMisc.toMap("productPriceRuleId", productPriceRuleId, "productPriceActionSeqId", "01",
+                "productPriceActionTypeId", productPriceActionTypeId, "amount", new BigDecimal(amount)));
+    }
+
+    private void createCondition(String productPriceRuleId, String productPriceCondSeqId, String inputParamEnumId, String operatorEnumId, String condValue) throws Exception {
+        delegator.create("ProductPriceCond", UtilMisc.toMap("productPriceRuleId", productPriceRuleId, "productPriceCondSeqId", productPriceCondSeqId,
+                "inputParamEnumId", inputParamEnumId, "operatorEnumId", operatorEnumId, "condValue", condValue));
+    }
+
+    private Map<String, Object> calculatePrice(String productId, String partyId, String quantity, String findAllQuantityPrices, String useRuleIndex) throws Exception {
+        Map<String, Object> context = FastMap.newInstance();
+        context.put("product", delegator.findOne("Product", UtilMisc.toMap("productId", productId), false));
+        context.put("currencyUomId", "USD");
+        context.put("partyId", partyId);
+        context.put("quantity", new BigDecimal(quantity));
+        context.put("findAllQuantityPrices", findAllQuantityPrices);
+        context.put("useRuleIndex", useRuleIndex);
+        Map<String, Object> result = dispatcher.runSync("calculateProductPrice", context);
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        return result;
+    }
+
+    private static Set<String> getRuleIds(Map<String, Object> result) {
+        Set<String> ruleIds = new TreeSet<String>();
+        List<GenericValue> orderItemPriceInfos = UtilGenerics.checkList(result.get("orderItemPriceInfos"));
+        if (orderItemPriceInfos != null) {
+            for (GenericValue orderItemPriceInfo: orderItemPriceInfos) {
+                ruleIds.add(orderItemPriceInfo.getString("productPriceRuleId"));
+            }
+        }
+        return ruleIds;
+    }
+
+    private static List<Object> getQuantityPrices(Map<String, Object> result) {
+        List<Object> quantityPrices = FastList.newInstance();
+        List<Map<String, Object>> allQuantityPrices = UtilGenerics.checkList(result.get("allQuantityPrices"));
+        if (allQuantityPrices != null) {
+            for (Map<String, Object> quantityPrice: allQuantityPrices) {
+                GenericValue quantityProductPriceRule = (GenericValue) quantityPrice.get("quantityProductPriceRule");
+                quantityPrices.add(quantityProductPriceRule.getString("productPriceRuleId"));
+                quantityPrices.add(quantityPrice.get("price"));
+            }
+        }
+        return quantityPrices;
+    }
+
+    private void assertSamePrices(String productId, String partyId, String quantity, String findAllQuantityPrices, String... expectedRuleIds) throws Exception {
+        String message = productId + " " + partyId + " " + quantity;
+        Map<String, Object> indexed = calculatePrice(productId, partyId, quantity, findAllQuantityPrices, "Y");
+        Map<String, Object> queried = calculatePrice(productId, partyId, quantity, findAllQuantityPrices, "N");
+        for (String key: UtilMisc.toList("price", "basePrice", "listPrice", "isSale", "validPriceFound")) {
+            assertEquals(message + " " + key, queried.get(key), indexed.get(key));
+        }
+        assertEquals(message + " rules", getRuleIds(queried), getRuleIds(indexed));
+        assertEquals(message + " quantity prices", getQuantityPrices(queried), getQuantityPrices(indexed));
+        for (String expectedRuleId: expectedRuleIds) {
+            assertTrue(message + " applies " + expectedRuleId, getRuleIds(indexed).contains(expectedRuleId));
+        }
+    }
+
+    public void testIndexHasNewRules() throws Exception {
+        PriceRuleIndex priceRuleIndex = PriceRuleIndex.getInstance(delegator);
+        assertNotNull("conditions of a rule created in setUp", priceRuleIndex.getConditions("PRIDX_QUANTITY"));
+        assertEquals("conditions of a rule created in setUp", 2, priceRuleIndex.getConditions("PRIDX_QUANTITY").size());
+    }
+
+    public void testProductRule() throws Exception {
+        assertSamePrices("GZ-2002", null, "1", "N", "PRIDX_PRODUCT", "PRIDX_CATEGORY");
+    }
+
+    public void testVirtualProductCategoryRule() throws Exception {
+        assertSamePrices("GZ-1006-3", null, "1", "N", "PRIDX_VIRTUAL");
+    }
+
+    public void testPartyRule() throws Exception {
+        assertSamePrices("GZ-2002", "DemoCustomer", "1", "N", "PRIDX_PRODUCT", "PRIDX_PARTY");
+    }
+
+    public void testQuantityBreakRule() throws Exception {
+        assertSamePrices("GZ-2002", null, "10", "N", "PRIDX_PRODUCT", "PRIDX_QUANTITY");
+        assertSamePrices("GZ-2002", null, "1", "Y");
+        Map<String, Object> result = calculatePrice("GZ-2002", null, "1", "Y", "Y");
+        assertTrue("quantity break in all quantity prices", getQuantityPrices(result).contains("PRIDX_QUANTITY"));
+    }
+}
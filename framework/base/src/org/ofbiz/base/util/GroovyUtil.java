@@ -20,7 +20,6 @@ package org.ofbiz.base.util;
 
 import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
-import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 
 import java.io.IOException;
@@ -35,6 +34,7 @@ import javolution.util.FastMap;
 import org.codehaus.groovy.control.CompilationFailedException;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import org.ofbiz.base.location.FlexibleLocation;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.base.util.cache.UtilCache;
 
 /**
@@ -46,9 +46,16 @@ public class GroovyUtil {
     public static final String module = GroovyUtil.class.getName();
 
     private static final UtilCache<String, Class<?>> parsedScripts = UtilCache.createUtilCache("script.GroovyLocationParsedCache", 0, 0, false);
+    /** The script classes of the expressions of eval, by expression; the LRU expressions are removed past the limit, the load count is the number of compilations */
+    private static final UtilCache<String, Class<?>> parsedExpressions = UtilCache.createUtilCache("script.GroovyExpressionParsedCache", 1000, 0, false);
+    private static final CacheLoader<String, Class<?>> expressionParser = new CacheLoader<String, Class<?>>() {
+        public Class<?> load(String expression) {
+            return parseClass(expression);
+        }
+    };
 
     /**
-     * Evaluate a Groovy condition or expression
+     * Evaluate a Groovy condition or expression, compiled once by {@link #getExpressionClass(String)}
      * @param expression The expression to evaluate
      * @param context The context to use in evaluation (re-written)
      * @see <a href="StringUtil.html#convertOperatorSubstitutions(java.lang.String)">StringUtil.convertOperatorSubstitutions(java.lang.String)</a>
@@ -67,13 +74,12 @@ public class GroovyUtil {
             Debug.logVerbose("Using Context -- " + context, module);
         }
         try {
-            GroovyShell shell = new GroovyShell(getBinding(context));
-            o = shell.evaluate(StringUtil.convertOperatorSubstitutions(expression));
+            Binding binding = getBinding(context);
+            o = InvokerHelper.createScript(getExpressionClass(StringUtil.convertOperatorSubstitutions(expression)), binding).run();
             if (Debug.verboseOn()) {
                 Debug.logVerbose("Evaluated to -- " + o, module);
             }
             // read back the context info
-            Binding binding = shell.getContext();
             context.putAll(binding.getVariables());
         } catch (CompilationFailedException e) {
             Debug.logError(e, "Groovy Evaluation error.", module);
@@ -82,6 +88,22 @@ public class GroovyUtil {
         return o;
     }
 
+    /**
+     * Returns the script class of an expression, compiled once and cached
+     * @param expression The expression, with the operator substitutions converted
+     * @return The script class
+     * @throws CompilationFailedException
+     */
+    public static Class<?> getExpressionClass(String expression) throws CompilationFailedException {
+        try {
+            return parsedExpressions.get(expression, expressionParser);
+        } catch (GeneralException e) {
+            // only when interrupted while another thread compiles the expression
+            Debug.logWarning(e, "Could not get the cached script class of a Groovy expression, compiling it", module);
+            return parseClass(expression);
+        }
+    }
+
     /** Returns a <code>Binding</code> instance initialized with the
      * variables contained in <code>context</code>. If <code>context</code>
      * is <code>null</code>, an empty <code>Binding</code> is returned.
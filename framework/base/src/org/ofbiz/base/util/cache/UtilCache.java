@@ -30,20 +30,26 @@ import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javolution.util.FastList;
 import javolution.util.FastMap;
+import javolution.util.FastSet;
 import jdbm.helper.FastIterator;
 import jdbm.htree.HTree;
 
 import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilObject;
@@ -61,6 +67,8 @@ import com.googlecode.concurrentlinkedhashmap.EvictionListener;
  *   <li>Keeps track of when each element was loaded into the cache
  *   <li>Using the expireTime can report whether a given element has expired
  *   <li>Counts misses and hits
+ *   <li>Loads missing elements with a {@link CacheLoader} or {@link CacheBulkLoader}, concurrent misses on
+ *       a key share one load, and can reload elements in the background shortly before they expire
  * </ul>
  *
  */
@@ -93,6 +101,15 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
     /** A count of the number of cache misses on removes */
     protected AtomicLong removeMissCount = new AtomicLong(0);
 
+    /** A count of the number of loads done by a CacheLoader or CacheBulkLoader */
+    protected AtomicLong loadCount = new AtomicLong(0);
+    /** The total time spent loading, in nanoseconds */
+    protected AtomicLong loadTimeNanos = new AtomicLong(0);
+    /** A count of the number of misses that waited for a load already in progress instead of loading again */
+    protected AtomicLong coalescedMissCount = new AtomicLong(0);
+    /** A count of the number of elements reloaded in the background before they expired */
+    protected AtomicLong refreshAheadCount = new AtomicLong(0);
+
     /** The maximum number of elements in the cache.
      * If set to 0, there will be no limit on the number of elements in the cache.
      */
@@ -104,6 +121,11 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
      */
     protected long expireTimeNanos = 0;
 
+    /** Specifies how long before an element expires it is reloaded in the background, when it is read with a loader.
+     * If set to 0, elements are not reloaded before they expire.
+     */
+    protected long refreshAheadNanos = 0;
+
     /** Specifies whether or not to use soft references for this cache, defaults to false */
     protected boolean useSoftReference = false;
 
@@ -119,6 +141,11 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
 
     protected JdbmRecordManager jdbmMgr;
 
+    /** The loads in progress by key, so that concurrent misses on a key share one load */
+    private final ConcurrentMap<Object, FutureTask<V>> inFlightLoads = new ConcurrentHashMap<Object, FutureTask<V>>();
+
+    private static final ScheduledExecutorService refreshAheadExecutor = ExecutionPool.getExecutor(new ThreadGroup("UtilCache"), "UtilCache(refresh-ahead)", -1, false);
+
     // weak ref on this
     private static final ConcurrentMap<String, JdbmRecordManager> fileManagers = new ConcurrentHashMap<String, JdbmRecordManager>();
 
@@ -227,6 +254,10 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
             if (UtilValidate.isNotEmpty(value)) {
                 this.expireTimeNanos = TimeUnit.NANOSECONDS.convert(Long.parseLong(value), TimeUnit.MILLISECONDS);
             }
+            value = getPropertyParam(res, propNames, "refreshAheadTime");
+            if (UtilValidate.isNotEmpty(value)) {
+                this.refreshAheadNanos = TimeUnit.NANOSECONDS.convert(Long.parseLong(value), TimeUnit.MILLISECONDS);
+            }
             value = getPropertyParam(res, propNames, "useSoftReference");
             if (value != null) {
                 useSoftReference = "true".equals(value);
@@ -440,7 +471,10 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
      * @return The value of the element specified by the key
      */
     public V get(Object key) {
-        boolean countGet = true;
+        return getInternal(key, true);
+    }
+
+    private V getInternal(Object key, boolean countGet) {
         Object nulledKey = fromKey(key);
         CacheLine<V> line = memoryTable.get(nulledKey);
         if (line == null) {
@@ -455,15 +489,15 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
                     value = null;
                 }
                 if (value == null) {
-                    missCountNotFound.incrementAndGet();
+                    if (countGet) missCountNotFound.incrementAndGet();
                     return null;
                 } else {
-                    hitCount.incrementAndGet();
+                    if (countGet) hitCount.incrementAndGet();
                 }
                 memoryTable.put(nulledKey, createCacheLine(UtilGenerics.<K>cast(key), value, expireTimeNanos));
                 return value;
             } else {
-                missCountNotFound.incrementAndGet();
+                if (countGet) missCountNotFound.incrementAndGet();
             }
         } else {
             if (countGet) hitCount.incrementAndGet();
@@ -471,6 +505,190 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return line != null ? line.getValue() : null;
     }
 
+    /** Gets an element from the cache, loading it with the loader if it is not in the cache.
+     * If another thread is already loading the key this waits for that load instead of loading again.
+     * If a refreshAheadTime is configured and the element expires within that time, it is reloaded in the background.
+     * @param key The key for the element
+     * @param loader Loads the element if it is not in the cache
+     * @return The value of the element, or null if the loader found none
+     */
+    public V get(K key, CacheLoader<K, V> loader) throws GeneralException {
+        V value = get(key);
+        if (value != null) {
+            if (refreshAheadNanos > 0 && expireTimeNanos > 0) {
+                CacheLine<V> line = memoryTable.get(fromKey(key));
+                if (line != null && line.getLoadTimeNanos() > 0 && System.nanoTime() > line.getExpireTimeNanos() - refreshAheadNanos) {
+                    refreshAhead(key, loader);
+                }
+            }
+            return value;
+        }
+        Object nulledKey = fromKey(key);
+        FutureTask<V> load = createLoad(key, loader);
+        FutureTask<V> inFlightLoad = inFlightLoads.putIfAbsent(nulledKey, load);
+        if (inFlightLoad != null) {
+            coalescedMissCount.incrementAndGet();
+            return waitForLoad(inFlightLoad);
+        }
+        // a load may have finished between the miss and registering this one
+        value = getInternal(key, false);
+        if (value != null) {
+            inFlightLoads.remove(nulledKey, load);
+            return value;
+        }
+        return runLoad(key, load);
+    }
+
+    /** Gets the elements for the keys from the cache, loading those not in the cache with one call to the bulkLoader.
+     * Keys that another thread is already loading are not passed to the bulkLoader, this waits for those loads instead.
+     * @param keys The keys for the elements
+     * @param bulkLoader Loads the elements that are not in the cache
+     * @return The values by key, keys without a value are not in the Map
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys, final CacheBulkLoader<K, V> bulkLoader) throws GeneralException {
+        Map<K, V> result = FastMap.newInstance();
+        final Set<K> keysToLoad = FastSet.newInstance();
+        for (K key: keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            } else {
+                keysToLoad.add(key);
+            }
+        }
+        if (keysToLoad.isEmpty()) {
+            return result;
+        }
+
+        // the per key loads registered below all take their value from this one bulk load
+        final FutureTask<Map<K, V>> bulkLoad = new FutureTask<Map<K, V>>(new Callable<Map<K, V>>() {
+            public Map<K, V> call() throws Exception {
+                long startTime = System.nanoTime();
+                try {
+                    Map<K, V> values = bulkLoader.loadAll(keysToLoad);
+                    return values != null ? values : Collections.<K, V>emptyMap();
+                } finally {
+                    loadCount.incrementAndGet();
+                    loadTimeNanos.addAndGet(System.nanoTime() - startTime);
+                }
+            }
+        });
+        Map<K, FutureTask<V>> loads = FastMap.newInstance();
+        Map<K, FutureTask<V>> inFlightLoadsToWaitFor = FastMap.newInstance();
+        Iterator<K> it = keysToLoad.iterator();
+        while (it.hasNext()) {
+            final K key = it.next();
+            FutureTask<V> load = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    bulkLoad.run();
+                    try {
+                        return bulkLoad.get().get(key);
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            });
+            FutureTask<V> inFlightLoad = inFlightLoads.putIfAbsent(fromKey(key), load);
+            if (inFlightLoad != null) {
+                coalescedMissCount.incrementAndGet();
+                inFlightLoadsToWaitFor.put(key, inFlightLoad);
+                it.remove();
+            } else {
+                loads.put(key, load);
+            }
+        }
+        GeneralException loadException = null;
+        for (Map.Entry<K, FutureTask<V>> entry: loads.entrySet()) {
+            try {
+                V value = runLoad(entry.getKey(), entry.getValue());
+                if (value != null) {
+                    result.put(entry.getKey(), value);
+                }
+            } catch (GeneralException e) {
+                // keep going so every registered load is finished and unregistered
+                loadException = e;
+            }
+        }
+        if (loadException != null) {
+            throw loadException;
+        }
+        for (Map.Entry<K, FutureTask<V>> entry: inFlightLoadsToWaitFor.entrySet()) {
+            V value = waitForLoad(entry.getValue());
+            if (value != null) {
+                result.put(entry.getKey(), value);
+            }
+        }
+        return result;
+    }
+
+    private FutureTask<V> createLoad(final K key, final CacheLoader<K, V> loader) {
+        return new FutureTask<V>(new Callable<V>() {
+            public V call() throws Exception {
+                long startTime = System.nanoTime();
+                try {
+                    return loader.load(key);
+                } finally {
+                    loadCount.incrementAndGet();
+                    loadTimeNanos.addAndGet(System.nanoTime() - startTime);
+                }
+            }
+        });
+    }
+
+    /** Runs a load registered in inFlightLoads, caches the value unless the key was removed meanwhile, and unregisters the load */
+    private V runLoad(K key, FutureTask<V> load) throws GeneralException {
+        Object nulledKey = fromKey(key);
+        try {
+            load.run();
+            V value = waitForLoad(load);
+            // if the key was removed from the cache while loading the value may be stale, so it is returned but not cached
+            if (inFlightLoads.remove(nulledKey, load) && value != null) {
+                put(key, value);
+            }
+            return value;
+        } finally {
+            inFlightLoads.remove(nulledKey, load);
+        }
+    }
+
+    private void refreshAhead(final K key, CacheLoader<K, V> loader) {
+        final FutureTask<V> load = createLoad(key, loader);
+        if (inFlightLoads.putIfAbsent(fromKey(key), load) != null) {
+            // already being loaded
+            return;
+        }
+        refreshAheadCount.incrementAndGet();
+        refreshAheadExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    runLoad(key, load);
+                } catch (GeneralException e) {
+                    // the element stays in the cache until it expires
+                    Debug.logWarning(e, "Error refreshing element with key [" + key + "] in cache [" + name + "]", module);
+                }
+            }
+        });
+    }
+
+    private V waitForLoad(FutureTask<V> load) throws GeneralException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Interrupted while loading element in cache [" + name + "]", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralException) {
+                throw (GeneralException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GeneralException("Error loading element in cache [" + name + "]", cause);
+        }
+    }
+
     public Collection<V> values() {
         if (fileTable != null) {
             List<V> values = FastList.newInstance();
@@ -560,6 +778,8 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
             if (Debug.verboseOn()) Debug.logVerbose("In UtilCache tried to remove with null key, using NullObject" + this.name, module);
         }
         Object nulledKey = fromKey(key);
+        // a load in progress may have read the removed value, don't let it cache it
+        inFlightLoads.remove(nulledKey);
         CacheLine<V> oldCacheLine;
         V oldValue;
         if (fileTable != null) {
@@ -617,6 +837,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
 
     /** Removes all elements from this cache */
     public synchronized void erase() {
+        inFlightLoads.clear();
         if (fileTable != null) {
             // FIXME: erase from memory too
             synchronized (this) {
@@ -719,6 +940,23 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return this.removeMissCount.get();
     }
 
+    public long getLoadCount() {
+        return this.loadCount.get();
+    }
+
+    /** Returns the total time spent in loads, in milliseconds */
+    public long getLoadTimeMillis() {
+        return TimeUnit.MILLISECONDS.convert(this.loadTimeNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getCoalescedMissCount() {
+        return this.coalescedMissCount.get();
+    }
+
+    public long getRefreshAheadCount() {
+        return this.refreshAheadCount.get();
+    }
+
     /** Clears the hit and miss counters
      */
     public void clearCounters() {
@@ -728,6 +966,10 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         this.missCountSoftRef.set(0);
         this.removeHitCount.set(0);
         this.removeMissCount.set(0);
+        this.loadCount.set(0);
+        this.loadTimeNanos.set(0);
+        this.coalescedMissCount.set(0);
+        this.refreshAheadCount.set(0);
     }
 
     public void setMaxInMemory(int newInMemory) {
@@ -786,6 +1028,15 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return TimeUnit.MILLISECONDS.convert(expireTimeNanos, TimeUnit.NANOSECONDS);
     }
 
+    /** Sets how long before it expires an element read with a loader is reloaded in the background, 0 turns this off */
+    public void setRefreshAheadTime(long refreshAheadTimeMillis) {
+        this.refreshAheadNanos = refreshAheadTimeMillis > 0 ? TimeUnit.NANOSECONDS.convert(refreshAheadTimeMillis, TimeUnit.MILLISECONDS) : 0;
+    }
+
+    public long getRefreshAheadTime() {
+        return TimeUnit.MILLISECONDS.convert(refreshAheadNanos, TimeUnit.NANOSECONDS);
+    }
+
     /** Set whether or not the cache lines should use a soft reference to the data */
     public void setUseSoftReference(boolean useSoftReference) {
         if (this.useSoftReference != useSoftReference) {
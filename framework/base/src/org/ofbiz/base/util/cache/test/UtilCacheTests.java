@@ -22,16 +22,29 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javolution.util.FastList;
 
 import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilObject;
+import org.ofbiz.base.util.cache.CacheBulkLoader;
 import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.base.util.cache.UtilCache;
 
 @SuppressWarnings("serial")
@@ -433,4 +446,91 @@ public class UtilCacheTests extends GenericTestCaseBase implements Serializable
         assertNull("not-key(0)", cache.get("0"));
         assertTrue("empty", cache.isEmpty());
     }
+
+    public void testLoaderCoalescesMisses() throws Exception {
+        final UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            public String load(String key) throws GeneralException {
+                loads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new GeneralException(e);
+                }
+                return "value-" + key;
+            }
+        };
+        int threadCount = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<String>> futures = FastList.newInstance();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return cache.get("key", loader);
+                    }
+                }));
+            }
+            // hold the load until every other thread waits for it
+            while (cache.getCoalescedMissCount() < threadCount - 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<String> future: futures) {
+                assertEquals("loaded value", "value-key", future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("loads", 1, loads.get());
+        assertEquals("load count", 1, cache.getLoadCount());
+        assertEquals("cached value", "value-key", cache.get("key"));
+        assertEquals("cached value with loader", "value-key", cache.get("key", loader));
+        assertEquals("loads after hit", 1, loads.get());
+    }
+
+    public void testGetAll() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        cache.put("a", "A");
+        final Set<String> loadedKeys = new HashSet<String>();
+        Map<String, String> values = cache.getAll(UtilMisc.toList("a", "b", "c"), new CacheBulkLoader<String, String>() {
+            public Map<String, String> loadAll(Collection<String> keys) {
+                loadedKeys.addAll(keys);
+                Map<String, String> values = new HashMap<String, String>();
+                values.put("b", "B");
+                return values;
+            }
+        });
+        assertEquals("loaded keys", UtilMisc.toSet("b", "c"), loadedKeys);
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "A");
+        expected.put("b", "B");
+        assertEquals("values", expected, values);
+        assertEquals("cached b", "B", cache.get("b"));
+        assertNull("not cached c", cache.get("c"));
+        assertEquals("load count", 1, cache.getLoadCount());
+    }
+
+    public void testRefreshAhead() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 2000, false, false);
+        cache.setRefreshAheadTime(1500);
+        final AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            public String load(String key) {
+                return key + loads.incrementAndGet();
+            }
+        };
+        assertEquals("first load", "key1", cache.get("key", loader));
+        Thread.sleep(700);
+        // within the refresh ahead time, the cached value is returned and reloaded in the background
+        assertEquals("before refresh", "key1", cache.get("key", loader));
+        long end = System.currentTimeMillis() + 1000;
+        while (!"key2".equals(cache.get("key")) && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("refreshed", "key2", cache.get("key"));
+        assertEquals("refresh ahead count", 1, cache.getRefreshAheadCount());
+    }
 }
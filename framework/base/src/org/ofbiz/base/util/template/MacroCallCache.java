@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.template;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.rmi.server.UID;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.ofbiz.base.util.cache.UtilCache;
+
+import freemarker.core.Environment;
+import freemarker.template.SimpleHash;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.Template;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+
+/**
+ * Runs single macro calls such as <code>&lt;@renderLabel text="Name" /&gt;</code> in an existing
+ * FreeMarker Environment without parsing a new Template for every call.
+ * <p>
+ * The argument values of the call (string literals, numbers and booleans) are taken out and passed
+ * in a hash, so calls of the same macro with the same argument names share one parsed Template.
+ * Calls that can not be split this way - list or hash arguments, interpolations in string literals,
+ * nested content - are parsed as a one-off Template, like before.
+ */
+public final class MacroCallCache {
+
+    public static final String module = MacroCallCache.class.getName();
+    /** Name of the variable that holds the argument hash read by the cached templates. */
+    public static final String ARGS_VARIABLE = "macroCallArgs";
+    private static final UtilCache<String, Template> macroCallTemplates = UtilCache.createUtilCache("template.ftl.macroCall", 0, 0, false);
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+    private MacroCallCache() {}
+
+    /**
+     * Runs a macro call in the given environment, the same as including a Template parsed from
+     * <code>macroCall</code>.
+     */
+    public static void include(Environment environment, String macroCall) throws TemplateException, IOException {
+        SimpleHash args = new SimpleHash();
+        String shape = makeShape(macroCall, args);
+        if (shape == null) {
+            Reader templateReader = new StringReader(macroCall);
+            Template template = new Template(new UID().toString(), templateReader, FreeMarkerWorker.getDefaultOfbizConfig());
+            templateReader.close();
+            environment.include(template);
+            return;
+        }
+        Template template = macroCallTemplates.get(shape);
+        if (template == null) {
+            Reader templateReader = new StringReader(shape);
+            template = new Template(shape, templateReader, FreeMarkerWorker.getDefaultOfbizConfig());
+            templateReader.close();
+            template = macroCallTemplates.putIfAbsentAndGet(shape, template);
+        }
+        environment.setVariable(ARGS_VARIABLE, args);
+        environment.include(template);
+    }
+
+    /**
+     * Returns the macro call with each argument value replaced by a reference into the
+     * {@link #ARGS_VARIABLE} hash and puts the values in <code>args</code>, or returns null
+     * if the call can not be split into a shape and values.
+     */
+    static String makeShape(String macroCall, SimpleHash args) {
+        String call = macroCall.trim();
+        if (!call.startsWith("<@") || !call.endsWith("/>")) {
+            return null;
+        }
+        int end = call.length() - 2;
+        int pos = 2;
+        while (pos < end && isNameChar(call.charAt(pos))) {
+            pos++;
+        }
+        if (pos == 2) {
+            return null;
+        }
+        StringBuilder shape = new StringBuilder(call.substring(0, pos));
+        Set<String> argNames = new HashSet<String>();
+        while (true) {
+            int whitespaceStart = pos;
+            while (pos < end && Character.isWhitespace(call.charAt(pos))) {
+                pos++;
+            }
+            if (pos == end) {
+                break;
+            }
+            if (pos == whitespaceStart) {
+                return null;
+            }
+            int nameStart = pos;
+            while (pos < end && isNameChar(call.charAt(pos))) {
+                pos++;
+            }
+            if (pos == nameStart || pos == end || call.charAt(pos) != '=') {
+                return null;
+            }
+            String argName = call.substring(nameStart, pos);
+            if (!argNames.add(argName)) {
+                return null;
+            }
+            pos++;
+            if (pos == end) {
+                return null;
+            }
+            TemplateModel value;
+            if (call.charAt(pos) == '"') {
+                StringBuilder literal = new StringBuilder();
+                pos++;
+                while (pos < end && call.charAt(pos) != '"') {
+                    char c = call.charAt(pos);
+                    if (c == '\\') {
+                        pos++;
+                        if (pos == end) {
+                            return null;
+                        }
+                        char escaped = unescape(call.charAt(pos));
+                        if (escaped == 0) {
+                            return null;
+                        }
+                        literal.append(escaped);
+                    } else {
+                        literal.append(c);
+                    }
+                    pos++;
+                }
+                if (pos == end) {
+                    return null;
+                }
+                pos++;
+                String text = literal.toString();
+                if (text.indexOf("${") >= 0 || text.indexOf("#{") >= 0) {
+                    // the literal is interpolated by FreeMarker, leave it to the template
+                    return null;
+                }
+                value = new SimpleScalar(text);
+            } else {
+                int valueStart = pos;
+                while (pos < end && !Character.isWhitespace(call.charAt(pos))) {
+                    pos++;
+                }
+                String token = call.substring(valueStart, pos);
+                if ("true".equals(token)) {
+                    value = TemplateBooleanModel.TRUE;
+                } else if ("false".equals(token)) {
+                    value = TemplateBooleanModel.FALSE;
+                } else if (NUMBER_PATTERN.matcher(token).matches()) {
+                    // FreeMarker number literals are BigDecimals too
+                    value = new SimpleNumber(new BigDecimal(token));
+                } else {
+                    return null;
+                }
+            }
+            args.put(argName, value);
+            shape.append(' ').append(argName).append('=').append(ARGS_VARIABLE).append('.').append(argName);
+        }
+        return shape.append(" />").toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /** Returns the character for a FreeMarker string literal escape, or 0 for escapes not handled here. */
+    private static char unescape(char c) {
+        switch (c) {
+            case '"': return '"';
+            case '\'': return '\'';
+            case '\\': return '\\';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'l': return '<';
+            case 'g': return '>';
+            case 'a': return '&';
+            case '{': return '{';
+            default: return 0;
+        }
+    }
+}
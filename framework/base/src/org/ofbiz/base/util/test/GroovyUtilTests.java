@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.GroovyUtil;
+import org.ofbiz.base.util.cache.UtilCache;
+
+public class GroovyUtilTests extends GenericTestCaseBase {
+    public GroovyUtilTests(String name) {
+        super(name);
+    }
+
+    private static Map<String, Object> makeContext(int a, int b) {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("a", a);
+        context.put("b", b);
+        return context;
+    }
+
+    public void testEvalCompiledOnce() throws Exception {
+        UtilCache<String, Class<?>> cache = UtilCache.findCache("script.GroovyExpressionParsedCache");
+        // unique to this test, so it is compiled by this test
+        String expression = "a * b + " + System.nanoTime();
+        long loadCount = cache.getLoadCount();
+        long hitCount = cache.getHitCount();
+        Object first = GroovyUtil.eval(expression, makeContext(2, 3));
+        Object second = GroovyUtil.eval(expression, makeContext(4, 5));
+        assertEquals("second evaluation, other binding", ((Number) first).longValue() + 14, ((Number) second).longValue());
+        assertEquals("compiled once", loadCount + 1, cache.getLoadCount());
+        assertEquals("cache hit", hitCount + 1, cache.getHitCount());
+        assertSame("same script class", GroovyUtil.getExpressionClass(expression), GroovyUtil.getExpressionClass(expression));
+    }
+
+    public void testEvalOperatorSubstitutions() throws Exception {
+        assertEquals("@and", Boolean.TRUE, GroovyUtil.eval("a @lt b @and b @gt 0", makeContext(1, 2)));
+        assertEquals("@or", Boolean.FALSE, GroovyUtil.eval("a @gteq b @or b @lteq 0", makeContext(1, 2)));
+    }
+
+    public void testEvalContext() throws Exception {
+        Map<String, Object> context = makeContext(6, 7);
+        assertEquals("result", 42, GroovyUtil.eval("c = a * b; return c", context));
+        assertEquals("variable read back", 42, context.get("c"));
+        context = makeContext(1, 1);
+        GroovyUtil.eval("c = a * b; return c", context);
+        assertEquals("variable of the binding only", 1, context.get("c"));
+    }
+
+    public void testEvalCompilationFailure() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                GroovyUtil.eval("a +* b", makeContext(1, 2));
+                fail("compilation failure " + i);
+            } catch (CompilationFailedException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.rmi.server.UID;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.template.FreeMarkerWorker;
+import org.ofbiz.base.util.template.MacroCallCache;
+
+import freemarker.core.Environment;
+import freemarker.template.Template;
+
+public class MacroCallCacheTests extends GenericTestCaseBase {
+
+    public static final String module = MacroCallCacheTests.class.getName();
+    private static final String MACRO_LIBRARY =
+            "<#macro renderCell text class=\"\" alert=false span=1><td<#if class?has_content> class=\"${class}\"</#if><#if span != 1> colspan=\"${span}\"</#if>><#if alert><b></#if>${text}<#if alert></b></#if></td></#macro>"
+            + "<#macro renderRowOpen index><tr class=\"<#if index % 2 == 0>even<#else>odd</#if>\"></#macro>"
+            + "<#macro renderRowClose></tr></#macro>"
+            + "<#macro renderOptions options><#list options as option>[${option}]</#list></#macro>";
+    private static final int ROW_COUNT = 200;
+    private static final int COLUMN_COUNT = 8;
+    private static final int RUN_COUNT = 5;
+
+    public MacroCallCacheTests(String name) {
+        super(name);
+    }
+
+    private Environment makeEnvironment(StringWriter writer) throws Exception {
+        Template library = new Template("MacroCallCacheTests", new StringReader(MACRO_LIBRARY), FreeMarkerWorker.getDefaultOfbizConfig());
+        return FreeMarkerWorker.renderTemplate(library, new HashMap<String, Object>(), writer);
+    }
+
+    private String renderCached(List<String> macroCalls) throws Exception {
+        StringWriter writer = new StringWriter();
+        Environment environment = makeEnvironment(writer);
+        for (String macroCall : macroCalls) {
+            MacroCallCache.include(environment, macroCall);
+        }
+        return writer.toString();
+    }
+
+    // the way MacroFormRenderer ran each macro call before the cache
+    private String renderParsed(List<String> macroCalls) throws Exception {
+        StringWriter writer = new StringWriter();
+        Environment environment = makeEnvironment(writer);
+        for (String macroCall : macroCalls) {
+            environment.include(new Template(new UID().toString(), new StringReader(macroCall), FreeMarkerWorker.getDefaultOfbizConfig()));
+        }
+        return writer.toString();
+    }
+
+    private void assertSameOutput(String label, String... macroCalls) throws Exception {
+        List<String> calls = new ArrayList<String>();
+        for (String macroCall : macroCalls) {
+            calls.add(macroCall);
+        }
+        assertEquals(label, renderParsed(calls), renderCached(calls));
+    }
+
+    public void testOutput() throws Exception {
+        assertSameOutput("string literal", "<@renderCell text=\"Order 1000\" />");
+        assertSameOutput("number and boolean", "<@renderCell text=\"x\" class=\"tabletext\" alert=true span=2 />", "<@renderRowOpen index=3 />");
+        assertSameOutput("escapes", "<@renderCell text=\"say \\\"hi\\\" \\\\ \\lb\\g\" />");
+        assertSameOutput("empty literal", "<@renderCell text=\"\" />");
+        assertSameOutput("interpolation", "<@renderCell text=\"${'interpolated'}\" />");
+        assertSameOutput("list argument", "<@renderOptions options=[\"a\", \"b\"] />");
+        assertSameOutput("no arguments", "<@renderRowClose />");
+        assertSameOutput("same shape, other values", "<@renderCell text=\"one\" alert=false />", "<@renderCell text=\"two\" alert=true />");
+    }
+
+    private List<String> makeListFormCalls() {
+        List<String> macroCalls = new ArrayList<String>(ROW_COUNT * (COLUMN_COUNT + 2));
+        for (int row = 0; row < ROW_COUNT; row++) {
+            macroCalls.add("<@renderRowOpen index=" + row + " />");
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                macroCalls.add("<@renderCell text=\"Row " + row + " column " + column + "\" class=\"tabletext\" alert=" + (row % 7 == 0) + " span=1 />");
+            }
+            macroCalls.add("<@renderRowClose />");
+        }
+        return macroCalls;
+    }
+
+    public void testListFormBenchmark() throws Exception {
+        List<String> macroCalls = makeListFormCalls();
+        assertEquals("list form output", renderParsed(macroCalls), renderCached(macroCalls));
+        long parsedMillis = 0;
+        long cachedMillis = 0;
+        for (int i = 0; i < RUN_COUNT; i++) {
+            long startTime = System.currentTimeMillis();
+            renderParsed(macroCalls);
+            parsedMillis += System.currentTimeMillis() - startTime;
+            startTime = System.currentTimeMillis();
+            renderCached(macroCalls);
+            cachedMillis += System.currentTimeMillis() - startTime;
+        }
+        Debug.logInfo("Rendering a " + ROW_COUNT + " row list form (" + macroCalls.size() + " macro calls), average of " + RUN_COUNT + " runs: "
+                + (parsedMillis / RUN_COUNT) + "ms parsing each call, " + (cachedMillis / RUN_COUNT) + "ms with cached macro calls", module);
+    }
+}
@@ -142,6 +142,22 @@ public interface Delegator {
 
     public GenericDelegator cloneDelegator(String delegatorName);
 
+    /**
+     * Creates the Entities from the List of GenericValue instances in the
+     * persistent store. <br/>Unlike storeAll this does not check whether the
+     * entities exist, it only does inserts. When the datasource has a
+     * batch-size configured consecutive values of the same entity are sent in
+     * JDBC batches. <br/>These inserts all happen in one transaction, so they
+     * will either all succeed or all fail, if the data source supports
+     * transactions.
+     *
+     * @param values
+     *            List of GenericValue instances containing the entities to
+     *            create
+     * @return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException;
+
     /**
      * Creates a Entity in the form of a GenericValue and write it to the
      * datasource
@@ -1224,6 +1240,12 @@ public interface Delegator {
      */
     public void setSequencer(SequenceUtil sequencer);
 
+    /**
+     * Returns the SequenceUtil that hands out the sequenced ids, or null if none was
+     * needed yet; see SequenceUtil.getBankMetrics for its allocation metrics.
+     */
+    public SequenceUtil getSequencer();
+
     /**
      * Store the Entity from the GenericValue to the persistent store
      *
@@ -24,6 +24,7 @@ import java.net.URL;
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -114,6 +115,8 @@ public class GenericDelegator implements Delegator {
     protected static ThreadLocal<List<String>> sessionIdentifierStack = new ThreadLocal<List<String>>();
 
     private boolean testMode = false;
+    /** The batch size set with {@link #setBatchSize(int)}, -1 to use the batch-size of the datasources */
+    private int batchSize = -1;
     private boolean testRollbackInProgress = false;
     private static final AtomicReferenceFieldUpdater<GenericDelegator, LinkedBlockingDeque<?>> testOperationsUpdater = UtilGenerics.cast(AtomicReferenceFieldUpdater.newUpdater(GenericDelegator.class, LinkedBlockingDeque.class, "testOperations"));
     private volatile LinkedBlockingDeque<TestOperation> testOperations = null;
@@ -1362,7 +1365,17 @@ public class GenericDelegator implements Delegator {
         try {
             beganTransaction = TransactionUtil.begin();
 
-            for (GenericValue value: values) {
+            int index = 0;
+            while (index < values.size()) {
+                GenericValue value = values.get(index);
+                List<GenericValue> batch = this.getNextBatch(values, index);
+                if (batch != null) {
+                    numberChanged += this.storeAllBatch(batch, doCacheClear, createDummyFks);
+                    index += batch.size();
+                    continue;
+                }
+                index++;
+
                 String entityName = value.getEntityName();
                 GenericPK primaryKey = value.getPrimaryKey();
                 GenericHelper helper = getEntityHelper(entityName);
@@ -1387,25 +1400,8 @@ public class GenericDelegator implements Delegator {
                     this.create(value, doCacheClear);
                     numberChanged++;
                 } else {
-                    // don't send fields that are the same, and if no fields have changed, update nothing
-                    ModelEntity modelEntity = value.getModelEntity();
-                    GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
-                    boolean atLeastOneField = false;
-                    Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
-                    while (nonPksIter.hasNext()) {
-                        ModelField modelField = nonPksIter.next();
-                        String fieldName = modelField.getName();
-                        if (value.containsKey(fieldName)) {
-                            Object fieldValue = value.get(fieldName);
-                            Object oldValue = existing.get(fieldName);
-                            if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
-                                toStore.put(fieldName, fieldValue);
-                                atLeastOneField = true;
-                            }
-                        }
-                    }
-
-                    if (atLeastOneField) {
+                    GenericValue toStore = this.makeChangedValue(value, existing);
+                    if (toStore != null) {
                         if (createDummyFks) {
                             value.checkFks(true);
                         }
@@ -1423,6 +1419,221 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /** Returns a value with the primary key of <code>value</code> and only the fields that differ from <code>existing</code>, or null if nothing changed. */
+    private GenericValue makeChangedValue(GenericValue value, GenericValue existing) {
+        // don't send fields that are the same, and if no fields have changed, update nothing
+        ModelEntity modelEntity = value.getModelEntity();
+        GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
+        boolean atLeastOneField = false;
+        Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
+        while (nonPksIter.hasNext()) {
+            ModelField modelField = nonPksIter.next();
+            String fieldName = modelField.getName();
+            if (value.containsKey(fieldName)) {
+                Object fieldValue = value.get(fieldName);
+                Object oldValue = existing.get(fieldName);
+                if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
+                    toStore.put(fieldName, fieldValue);
+                    atLeastOneField = true;
+                }
+            }
+        }
+        return atLeastOneField ? toStore : null;
+    }
+
+    /**
+     * Returns the run of values starting at <code>index</code> that can be written to the datasource in one
+     * JDBC batch, or null if the value at <code>index</code> has to be written on its own. A run holds consecutive
+     * values of the same entity so that the order of writes across entities (and so foreign keys) is preserved,
+     * never holds the same primary key twice and is at most {@link #getBatchSize(String)} long.
+     */
+    private <T extends GenericEntity> List<T> getNextBatch(List<T> values, int index) throws GenericEntityException {
+        T first = values.get(index);
+        ModelEntity modelEntity = first.getModelEntity();
+        // test mode keeps a copy of each changed row and lock enabled entities are refreshed after each write,
+        // both are handled by the single value operations
+        if (testMode || modelEntity instanceof ModelViewEntity || modelEntity.lock() || !first.containsPrimaryKey()) {
+            return null;
+        }
+        int batchSize = this.getBatchSize(first.getEntityName());
+        if (batchSize <= 1) {
+            return null;
+        }
+        List<T> batch = new LinkedList<T>();
+        Set<GenericPK> primaryKeys = new HashSet<GenericPK>();
+        for (int i = index; i < values.size() && batch.size() < batchSize; i++) {
+            T value = values.get(i);
+            if (!first.getEntityName().equals(value.getEntityName()) || !value.containsPrimaryKey() || !primaryKeys.add(value.getPrimaryKey())) {
+                break;
+            }
+            batch.add(value);
+        }
+        return batch.size() > 1 ? batch : null;
+    }
+
+    /**
+     * Returns the number of values of the entity that the createAll, storeAll and removeAll operations write in one
+     * JDBC batch: the size set with {@link #setBatchSize(int)}, or else the batch-size of the datasource of the entity.
+     * In test mode each value is written on its own and this returns 0.
+     */
+    public int getBatchSize(String entityName) {
+        if (testMode) {
+            return 0;
+        }
+        if (this.batchSize >= 0) {
+            return this.batchSize;
+        }
+        GenericHelperInfo helperInfo = this.getEntityHelperInfo(entityName);
+        if (helperInfo != null) {
+            Datasource datasource = EntityConfigUtil.getDatasource(helperInfo.getHelperBaseName());
+            if (datasource != null) {
+                return datasource.getBatchSize();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the batch size of the createAll, storeAll and removeAll operations of this delegator for all entities,
+     * in place of the batch-size of their datasources; -1 goes back to the datasources. Meant for a clone of a
+     * delegator, ie in a test, as the delegators of the DelegatorFactory are shared.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(-1, batchSize);
+    }
+
+    /** Stores a batch of values of the same entity, looking up the existing rows with one query and then doing batched inserts followed by batched updates. */
+    private int storeAllBatch(List<GenericValue> values, boolean doCacheClear, boolean createDummyFks) throws GenericEntityException {
+        GenericHelper helper = getEntityHelper(values.get(0).getEntityName());
+        List<GenericPK> primaryKeys = new LinkedList<GenericPK>();
+        for (GenericValue value: values) {
+            primaryKeys.add(value.getPrimaryKey());
+        }
+        // NOTE: don't use findAllByPrimaryKeys on the delegator because we don't want to the ECA events to fire and such
+        Map<GenericPK, GenericValue> existingValues = new HashMap<GenericPK, GenericValue>();
+        for (GenericValue existing: helper.findAllByPrimaryKeys(primaryKeys)) {
+            this.decryptFields(existing);
+            existingValues.put(existing.getPrimaryKey(), existing);
+        }
+
+        List<GenericValue> toCreate = new LinkedList<GenericValue>();
+        List<GenericValue> toStore = new LinkedList<GenericValue>();
+        for (GenericValue value: values) {
+            GenericValue existing = existingValues.get(value.getPrimaryKey());
+            GenericValue changedValue = null;
+            if (existing != null) {
+                changedValue = this.makeChangedValue(value, existing);
+                if (changedValue == null) {
+                    continue;
+                }
+            }
+            if (createDummyFks) {
+                value.checkFks(true);
+            }
+            if (existing == null) {
+                toCreate.add(value);
+            } else {
+                toStore.add(changedValue);
+            }
+        }
+        return this.createAllBatch(toCreate, doCacheClear) + this.storeBatch(toStore, doCacheClear);
+    }
+
+    /** Does what {@link #create(GenericValue, boolean)} does for each value, with all values inserted in one batch. */
+    private int createAllBatch(List<GenericValue> values, boolean doCacheClear) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(values.get(0).getEntityName());
+        GenericHelper helper = getEntityHelper(values.get(0).getEntityName());
+        for (GenericValue value: values) {
+            ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_CREATE, value, false);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_CREATE, value, false);
+            value.setDelegator(this);
+            this.encryptFields(value);
+            // if audit log on for any fields, save new value with no old value because it's a create
+            if (value.getModelEntity().getHasFieldWithAuditLog()) {
+                createEntityAuditLogAll(value, false, false);
+            }
+        }
+
+        int numberCreated = helper.createAll(values);
+
+        for (GenericValue value: values) {
+            if (doCacheClear) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_CREATE, value, false);
+                this.clearCacheLine(value);
+            }
+            ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_CREATE, value, false);
+        }
+        return numberCreated;
+    }
+
+    /** Does what {@link #store(GenericValue, boolean)} does for each value, with all values updated in batches. */
+    private int storeBatch(List<GenericValue> values, boolean doCacheClear) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(values.get(0).getEntityName());
+        GenericHelper helper = getEntityHelper(values.get(0).getEntityName());
+        for (GenericValue value: values) {
+            ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_STORE, value, false);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_STORE, value, false);
+            this.encryptFields(value);
+            // if audit log on for any fields, save old value before the update so we still have both
+            if (value.getModelEntity().getHasFieldWithAuditLog()) {
+                createEntityAuditLogAll(value, true, false);
+            }
+        }
+
+        int numberStored = helper.storeAll(values);
+
+        for (GenericValue value: values) {
+            if (doCacheClear) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, value, false);
+                this.clearCacheLine(value);
+            }
+            ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_STORE, value, false);
+        }
+        return numberStored;
+    }
+
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#createAll(java.util.List)
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+
+        int numberCreated = 0;
+
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+
+            int index = 0;
+            while (index < values.size()) {
+                List<GenericValue> batch = this.getNextBatch(values, index);
+                if (batch != null) {
+                    numberCreated += this.createAllBatch(batch, true);
+                    index += batch.size();
+                } else {
+                    this.create(values.get(index), true);
+                    numberCreated++;
+                    index++;
+                }
+            }
+            TransactionUtil.commit(beganTransaction);
+            return numberCreated;
+        } catch (Exception e) {
+            String errMsg = "Failure in createAll operation: " + e.toString() + ". Rolling back transaction.";
+            Debug.logError(e, errMsg, module);
+            TransactionUtil.rollback(beganTransaction, errMsg, e);
+            throw new GenericEntityException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#removeAll(java.lang.String)
      */
@@ -1451,12 +1662,21 @@ public class GenericDelegator implements Delegator {
         int numRemoved = 0;
 
         try {
-            for (GenericEntity value: dummyPKs) {
+            int index = 0;
+            while (index < dummyPKs.size()) {
+                List<? extends GenericEntity> batch = this.getNextBatch(dummyPKs, index);
+                if (batch != null) {
+                    numRemoved += this.removeAllBatch(batch, doCacheClear);
+                    index += batch.size();
+                    continue;
+                }
+                GenericEntity value = dummyPKs.get(index);
                 if (value.containsPrimaryKey()) {
                     numRemoved += this.removeByPrimaryKey(value.getPrimaryKey(), doCacheClear);
                 } else {
                     numRemoved += this.removeByAnd(value.getEntityName(), value.getAllFields(), doCacheClear);
                 }
+                index++;
             }
             TransactionUtil.commit(beganTransaction);
             return numRemoved;
@@ -1468,6 +1688,36 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /** Does what {@link #removeByPrimaryKey(GenericPK, boolean)} does for each value, with all rows deleted in one batch. */
+    private int removeAllBatch(List<? extends GenericEntity> values, boolean doCacheClear) throws GenericEntityException {
+        String entityName = values.get(0).getEntityName();
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+        GenericHelper helper = getEntityHelper(entityName);
+        List<GenericPK> primaryKeys = new LinkedList<GenericPK>();
+        for (GenericEntity value: values) {
+            GenericPK primaryKey = value.getPrimaryKey();
+            ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+            // if audit log on for any fields, save old value before removing so it's still there
+            if (primaryKey.getModelEntity().getHasFieldWithAuditLog()) {
+                createEntityAuditLogAll(this.findOne(entityName, primaryKey, false), true, true);
+            }
+            primaryKeys.add(primaryKey);
+        }
+
+        int numRemoved = helper.removeAll(primaryKeys);
+
+        for (GenericPK primaryKey: primaryKeys) {
+            if (doCacheClear) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+                this.clearCacheLine(primaryKey);
+            }
+            this.saveEntitySyncRemoveInfo(primaryKey);
+            ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_REMOVE, primaryKey, false);
+        }
+        return numRemoved;
+    }
+
     // ======================================
     // ======= Find Methods =================
     // ======================================
@@ -2424,6 +2674,13 @@ public class GenericDelegator implements Delegator {
         this.sequencer = sequencer;
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#getSequencer()
+     */
+    public SequenceUtil getSequencer() {
+        return this.sequencer;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#refreshSequencer()
      */
@@ -2697,6 +2954,7 @@ public class GenericDelegator implements Delegator {
         newDelegator.originalDelegatorName = getOriginalDelegatorName();
         newDelegator.entityEcaHandler = this.entityEcaHandler;
         newDelegator.crypto = this.crypto;
+        newDelegator.batchSize = this.batchSize;
         // In case this delegator is in testMode give it a reference to
         // the rollback list
         newDelegator.testMode = this.testMode;
@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.entity.cache;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -38,10 +39,29 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
 
     public static final String module = AbstractEntityConditionCache.class.getName();
 
+    // the condition index of each entity name, narrows down the conditions a storeHook has to evaluate
+    private final ConcurrentMap<String, EntityConditionIndex<ConcurrentMap<K, V>>> conditionIndexes = new ConcurrentHashMap<String, EntityConditionIndex<ConcurrentMap<K, V>>>();
+
     protected AbstractEntityConditionCache(String delegatorName, String id) {
         super(delegatorName, id);
     }
 
+    @Override
+    protected UtilCache<EntityCondition, ConcurrentMap<K, V>> getOrCreateCache(String entityName) {
+        UtilCache<EntityCondition, ConcurrentMap<K, V>> cache = super.getOrCreateCache(entityName);
+        EntityConditionIndex<ConcurrentMap<K, V>> index = conditionIndexes.get(entityName);
+        if (index == null || !index.isFor(cache)) {
+            // the listener must be in place before a condition is put in the cache, or the index would miss it
+            synchronized (conditionIndexes) {
+                index = conditionIndexes.get(entityName);
+                if (index == null || !index.isFor(cache)) {
+                    conditionIndexes.put(entityName, EntityConditionIndex.register(cache));
+                }
+            }
+        }
+        return cache;
+    }
+
     protected V get(String entityName, EntityCondition condition, K key) {
         ConcurrentMap<K, V> conditionCache = getConditionCache(entityName, condition);
         if (conditionCache == null) return null;
@@ -182,7 +202,7 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
     }
 
     protected <T1 extends Map<String, Object>, T2 extends Map<String, Object>> void storeHook(String entityName, boolean isPK, List<T1> oldValues, List<T2> newValues) {
-        UtilCache<EntityCondition, Map<K, V>> entityCache = UtilCache.findCache(getCacheName(entityName));
+        UtilCache<EntityCondition, ConcurrentMap<K, V>> entityCache = UtilCache.findCache(getCacheName(entityName));
         // for info about cache clearing
         if (UtilValidate.isEmpty(newValues) || newValues.get(0) == null) {
             //Debug.logInfo("In storeHook (cache clear) for entity name [" + entityName + "], got entity cache with name: " + (entityCache == null ? "[No cache found to remove from]" : entityCache.getName()), module);
@@ -190,7 +210,17 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         if (entityCache == null) {
             return;
         }
-        for (EntityCondition condition: entityCache.getCacheLineKeys()) {
+        // a PK store removes the conditions that the old value does not match, so it has to look at all of them
+        EntityConditionIndex<ConcurrentMap<K, V>> index = isPK ? null : conditionIndexes.get(entityName);
+        Collection<? extends EntityCondition> conditions = null;
+        if (index != null && index.isFor(entityCache)) {
+            conditions = index.getCandidates(oldValues, newValues);
+        }
+        boolean indexed = conditions != null;
+        if (!indexed) {
+            conditions = entityCache.getCacheLineKeys();
+        }
+        for (EntityCondition condition: conditions) {
             //Debug.logInfo("In storeHook entityName [" + entityName + "] checking against condition: " + condition, module);
             boolean shouldRemove = false;
             if (condition == null) {
@@ -231,6 +261,8 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
                 if (Debug.verboseOn()) Debug.logVerbose("In storeHook, matched condition, removing from cache for entityName [" + entityName + "] in cache with name [" + entityCache.getName() + "] entry with condition: " + condition, module);
                 // doesn't work anymore since this is a copy of the cache keySet, can call remove directly though with a concurrent mod exception: cacheKeyIter.remove();
                 entityCache.remove(condition);
+            } else if (indexed && !entityCache.containsKey(condition)) {
+                index.prune(condition);
             }
         }
     }
@@ -19,6 +19,7 @@
 package org.ofbiz.entity.cache;
 
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
@@ -36,6 +37,7 @@ public class Cache {
     protected EntityObjectCache entityObjectCache;
 
     protected String delegatorName;
+    protected final CopyOnWriteArrayList<EntityCacheListener> listeners = new CopyOnWriteArrayList<EntityCacheListener>();
 
     public Cache(String delegatorName) {
         this.delegatorName = delegatorName;
@@ -44,15 +46,35 @@ public class Cache {
         entityListCache = new EntityListCache(delegatorName);
     }
 
+    public void addListener(EntityCacheListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(EntityCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    protected void notifyListeners(String entityName) {
+        for (EntityCacheListener listener: listeners) {
+            try {
+                listener.entityCacheCleared(delegatorName, entityName);
+            } catch (RuntimeException e) {
+                Debug.logError(e, "Error notifying entity cache listener " + listener, module);
+            }
+        }
+    }
+
     public void clear() {
         entityCache.clear();
         entityListCache.clear();
         entityObjectCache.clear();
+        notifyListeners(null);
     }
 
     public void remove(String entityName) {
         entityCache.remove(entityName);
         entityListCache.remove(entityName);
+        notifyListeners(entityName);
     }
 
     public GenericValue get(GenericPK pk) {
@@ -96,13 +118,16 @@ public class Cache {
     public List<GenericValue> remove(String entityName, EntityCondition condition, List<String> orderBy) {
         entityCache.remove(entityName, condition);
         entityObjectCache.remove(entityName, condition);
-        return entityListCache.remove(entityName, condition, orderBy);
+        List<GenericValue> oldEntities = entityListCache.remove(entityName, condition, orderBy);
+        notifyListeners(entityName);
+        return oldEntities;
     }
 
     public void remove(String entityName, EntityCondition condition) {
         entityCache.remove(entityName, condition);
         entityListCache.remove(entityName, condition);
         entityObjectCache.remove(entityName, condition);
+        notifyListeners(entityName);
     }
 
     public <T> T remove(String entityName, EntityCondition condition, String name) {
@@ -117,6 +142,7 @@ public class Cache {
         entityObjectCache.remove(entity);
         // entityListCache.storeHook(entity, null);
         // entityObjectCache.storeHook(entity, null);
+        notifyListeners(entity.getEntityName());
         return oldEntity;
     }
 
@@ -128,6 +154,7 @@ public class Cache {
         entityObjectCache.remove(pk);
         // entityListCache.storeHook(pk, null);
         // entityObjectCache.storeHook(pk, null);
+        notifyListeners(pk.getEntityName());
         return oldEntity;
     }
 }
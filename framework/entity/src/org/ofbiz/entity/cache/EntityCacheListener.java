@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+/**
+ * Notified when the entity cache of a delegator is cleared for an entity, which the delegator does on every write
+ * of an entity that is not never-cache, including the clears received from other servers. Lets caches outside the
+ * entity engine that are built from entity data follow the entity cache.
+ */
+public interface EntityCacheListener {
+
+    /** Called after cache lines of the entity were cleared, entityName is null when all caches were cleared */
+    public void entityCacheCleared(String delegatorName, String entityName);
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionList;
+import org.ofbiz.entity.condition.EntityConditionValue;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityFieldMap;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityOperator;
+
+/**
+ * Indexes the conditions of one entity condition cache by a field/value pair that a value must
+ * have to match them, so a store only has to evaluate the conditions the stored value could match.
+ * <p>A condition is indexed by the first <code>field = value</code> expression required by its top
+ * level AND; conditions without one (OR lists, date filters, functions, ...) are always evaluated.
+ * The index follows the cache through a listener; lines that leave the cache without a removal
+ * event (LRU eviction, collected soft references) are pruned by the store that finds them.
+ */
+final class EntityConditionIndex<V> implements CacheListener<EntityCondition, V> {
+
+    // ConcurrentHashMap can hold neither a null condition key nor a null field value
+    private static final Object NULL_KEY = new Object();
+
+    private final UtilCache<EntityCondition, V> cache;
+    private final ConcurrentMap<String, ConcurrentMap<Object, Set<Object>>> byFieldValue = new ConcurrentHashMap<String, ConcurrentMap<Object, Set<Object>>>();
+    private final Set<Object> unindexed = newConcurrentSet();
+
+    private EntityConditionIndex(UtilCache<EntityCondition, V> cache) {
+        this.cache = cache;
+    }
+
+    /** Creates an index listening to the cache, and adds the conditions that are already cached */
+    static <V> EntityConditionIndex<V> register(UtilCache<EntityCondition, V> cache) {
+        EntityConditionIndex<V> index = new EntityConditionIndex<V>(cache);
+        cache.addListener(index);
+        for (EntityCondition condition: cache.getCacheLineKeys()) {
+            index.add(condition);
+        }
+        return index;
+    }
+
+    private static Set<Object> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    }
+
+    boolean isFor(UtilCache<?, ?> cache) {
+        return this.cache == cache;
+    }
+
+    /** Returns the field/value pair the condition is indexed by, or null when any value could match it */
+    static Object[] getIndexPair(EntityCondition condition) {
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            Object lhs = expr.getLhs();
+            Object rhs = expr.getRhs();
+            if (lhs instanceof EntityCondition && rhs instanceof EntityCondition) {
+                if (EntityOperator.AND.equals(expr.getOperator())) {
+                    Object[] pair = getIndexPair((EntityCondition) lhs);
+                    return pair != null ? pair : getIndexPair((EntityCondition) rhs);
+                }
+            } else if (EntityOperator.EQUALS.equals(expr.getOperator()) && lhs instanceof EntityFieldValue
+                    && !(rhs instanceof EntityConditionValue) && rhs != EntityOperator.WILDCARD) {
+                return new Object[] {((EntityFieldValue) lhs).getFieldName(), rhs};
+            }
+        } else if (condition instanceof EntityFieldMap) {
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            // all the expressions of a field map share one comparison operator, so the first one decides
+            if (EntityOperator.AND.equals(fieldMap.getOperator()) && fieldMap.getFieldKeyIterator().hasNext()) {
+                return getIndexPair(fieldMap.getCondition(0));
+            }
+        } else if (condition instanceof EntityConditionList<?>) {
+            EntityConditionList<?> conditionList = (EntityConditionList<?>) condition;
+            if (EntityOperator.AND.equals(conditionList.getOperator())) {
+                Iterator<? extends EntityCondition> it = conditionList.getConditionIterator();
+                while (it.hasNext()) {
+                    Object[] pair = getIndexPair(it.next());
+                    if (pair != null) {
+                        return pair;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Object toKey(Object value) {
+        return value == null ? NULL_KEY : value;
+    }
+
+    synchronized void add(EntityCondition condition) {
+        Object[] pair = condition != null ? getIndexPair(condition) : null;
+        if (pair == null) {
+            unindexed.add(toKey(condition));
+            return;
+        }
+        ConcurrentMap<Object, Set<Object>> byValue = byFieldValue.get(pair[0]);
+        if (byValue == null) {
+            byValue = new ConcurrentHashMap<Object, Set<Object>>();
+            byFieldValue.put((String) pair[0], byValue);
+        }
+        Set<Object> conditions = byValue.get(toKey(pair[1]));
+        if (conditions == null) {
+            conditions = newConcurrentSet();
+            byValue.put(toKey(pair[1]), conditions);
+        }
+        conditions.add(condition);
+    }
+
+    synchronized void remove(EntityCondition condition) {
+        Object[] pair = condition != null ? getIndexPair(condition) : null;
+        if (pair == null) {
+            unindexed.remove(toKey(condition));
+            return;
+        }
+        ConcurrentMap<Object, Set<Object>> byValue = byFieldValue.get(pair[0]);
+        if (byValue == null) {
+            return;
+        }
+        Set<Object> conditions = byValue.get(toKey(pair[1]));
+        if (conditions != null && conditions.remove(condition) && conditions.isEmpty()) {
+            byValue.remove(toKey(pair[1]));
+            if (byValue.isEmpty()) {
+                byFieldValue.remove(pair[0]);
+            }
+        }
+    }
+
+    /** Drops a condition that is no longer cached; a concurrent put of the same condition indexes it again */
+    void prune(EntityCondition condition) {
+        remove(condition);
+        if (cache.containsKey(condition)) {
+            add(condition);
+        }
+    }
+
+    /**
+     * Returns the conditions any of the values could match, or null if they can't be narrowed down
+     * and all the cached conditions must be evaluated.
+     */
+    Set<EntityCondition> getCandidates(List<? extends Map<String, Object>> oldValues, List<? extends Map<String, Object>> newValues) {
+        // a HashSet, as the null condition can be cached
+        Set<EntityCondition> candidates = new HashSet<EntityCondition>();
+        for (Object condition: unindexed) {
+            candidates.add(condition == NULL_KEY ? null : (EntityCondition) condition);
+        }
+        for (Map.Entry<String, ConcurrentMap<Object, Set<Object>>> entry: byFieldValue.entrySet()) {
+            if (!addCandidates(candidates, entry.getKey(), entry.getValue(), oldValues) || !addCandidates(candidates, entry.getKey(), entry.getValue(), newValues)) {
+                return null;
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean addCandidates(Set<EntityCondition> candidates, String fieldName, ConcurrentMap<Object, Set<Object>> byValue, List<? extends Map<String, Object>> values) {
+        if (values == null) {
+            return true;
+        }
+        for (Map<String, Object> value: values) {
+            Object fieldValue;
+            // the same lookup as EntityFieldValue.getValue, so a candidate is found exactly when its expression matches
+            if (value == null || value instanceof GenericEntity.NULL) {
+                fieldValue = null;
+            } else {
+                try {
+                    fieldValue = value.get(fieldName);
+                } catch (IllegalArgumentException e) {
+                    // not a field of this value, let the conditions decide
+                    return false;
+                }
+            }
+            if (fieldValue == EntityOperator.WILDCARD) {
+                return false;
+            }
+            Set<Object> conditions = byValue.get(toKey(fieldValue));
+            if (conditions != null) {
+                for (Object condition: conditions) {
+                    candidates.add((EntityCondition) condition);
+                }
+            }
+        }
+        return true;
+    }
+
+    public void noteKeyAddition(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue) {
+        add(key);
+    }
+
+    public void noteKeyRemoval(UtilCache<EntityCondition, V> cache, EntityCondition key, V oldValue) {
+        remove(key);
+    }
+
+    public void noteKeyUpdate(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue, V oldValue) {
+        add(key);
+    }
+}
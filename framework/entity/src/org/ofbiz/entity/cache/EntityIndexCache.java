@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.cache.CacheLoader;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+
+/**
+ * Keeps, for each delegator, one value read from all the rows of some entities, like an index of rules, in a
+ * UtilCache keyed by delegator name.
+ * <p>The value is made on first use, and made again after the entity cache of one of the entities was cleared,
+ * which the delegator does on every write, or after the UtilCache itself was cleared, ie by the Clear All Caches
+ * of webtools. Concurrent first uses wait for one value to be made, and a value made while the entities changed
+ * is returned but not cached.
+ */
+public abstract class EntityIndexCache<V> {
+
+    private final UtilCache<String, V> cache;
+    private final Set<String> entityNames;
+    private final EntityCacheListener listener = new EntityCacheListener() {
+        public void entityCacheCleared(String delegatorName, String entityName) {
+            if (entityName == null || entityNames.contains(entityName)) {
+                // all delegators, the clones of a delegator share its entity cache under other delegator names
+                cache.clear();
+            }
+        }
+    };
+
+    /**
+     * @param cacheName The name of the UtilCache
+     * @param entityNames The entities the values are read from
+     */
+    protected EntityIndexCache(String cacheName, String... entityNames) {
+        this.cache = UtilCache.getOrCreateUtilCache(cacheName, 0, 0, 0, false, false, cacheName);
+        this.entityNames = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(entityNames)));
+    }
+
+    /** Returns the value of the delegator, made with {@link #makeValue(Delegator)} if it is not in the cache */
+    public V get(final Delegator delegator) throws GenericEntityException {
+        try {
+            return cache.get(delegator.getDelegatorName(), new CacheLoader<String, V>() {
+                public V load(String delegatorName) throws GeneralException {
+                    // before reading the entities, so that a change made while reading drops the value
+                    delegator.getCache().addListener(listener);
+                    return makeValue(delegator);
+                }
+            });
+        } catch (GenericEntityException e) {
+            throw e;
+        } catch (GeneralException e) {
+            throw new GenericEntityException(e);
+        }
+    }
+
+    /** Reads the entities of the delegator and makes the value, which is never changed once made */
+    protected abstract V makeValue(Delegator delegator) throws GenericEntityException;
+}
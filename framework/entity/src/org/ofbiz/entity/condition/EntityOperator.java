@@ -206,6 +206,16 @@ public abstract class EntityOperator<L, R, T> extends EntityConditionBase {
         codeString = code;
     }
 
+    /** Returns the registered operator with the same id, so that a deserialized operator is the shared instance */
+    protected Object readResolve() {
+        for (EntityOperator<?,?,?> operator: registry.values()) {
+            if (operator.idInt == this.idInt) {
+                return operator;
+            }
+        }
+        return this;
+    }
+
     public String getCode() {
         if (codeString == null) {
             return "null";
@@ -46,6 +46,8 @@ public final class InlineJdbc extends JdbcElement {
     private final int poolDeadlockRetrywait; // type = xs:nonNegativeInteger
     private final String poolJdbcTestStmt; // type = xs:string
     private final String poolXaWrapperClass; // type = xs:string
+    private final boolean poolPreparedStatements;
+    private final int poolMaxPreparedStatements; // type = xs:nonNegativeInteger
 
     InlineJdbc(Element element) throws GenericEntityConfException {
         super(element);
@@ -149,6 +151,17 @@ public final class InlineJdbc extends JdbcElement {
         }
         this.poolJdbcTestStmt = element.getAttribute("pool-jdbc-test-stmt").intern();
         this.poolXaWrapperClass = element.getAttribute("pool-xa-wrapper-class").intern();
+        this.poolPreparedStatements = "true".equals(element.getAttribute("pool-prepared-statements"));
+        String poolMaxPreparedStatements = element.getAttribute("pool-max-prepared-statements");
+        if (poolMaxPreparedStatements.isEmpty()) {
+            this.poolMaxPreparedStatements = 100;
+        } else {
+            try {
+                this.poolMaxPreparedStatements = Integer.parseInt(poolMaxPreparedStatements);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-max-prepared-statements attribute is invalid" + lineNumberText);
+            }
+        }
     }
 
     /** Returns the value of the <code>jdbc-driver</code> attribute. */
@@ -225,4 +238,14 @@ public final class InlineJdbc extends JdbcElement {
     public String getPoolXaWrapperClass() {
         return this.poolXaWrapperClass;
     }
+
+    /** Returns the value of the <code>pool-prepared-statements</code> attribute. */
+    public boolean getPoolPreparedStatements() {
+        return this.poolPreparedStatements;
+    }
+
+    /** Returns the value of the <code>pool-max-prepared-statements</code> attribute. */
+    public int getPoolMaxPreparedStatements() {
+        return this.poolMaxPreparedStatements;
+    }
 }
@@ -35,6 +35,9 @@ import org.apache.commons.dbcp.managed.LocalXAConnectionFactory;
 import org.apache.commons.dbcp.managed.ManagedDataSource;
 import org.apache.commons.dbcp.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.dbcp.managed.XAConnectionFactory;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilValidate;
@@ -111,8 +114,15 @@ public class DBCPConnectionFactory implements ConnectionFactoryInterface {
         pool.setMinIdle(minSize);
         pool.setMaxWait(120000);
 
+        // prepared statement pool, one per connection so that the same SQL is not prepared again on it
+        KeyedObjectPoolFactory stmtPoolFactory = null;
+        int maxPreparedStatements = jdbcElement.getPoolMaxPreparedStatements();
+        if (jdbcElement.getPoolPreparedStatements()) {
+            stmtPoolFactory = new GenericKeyedObjectPoolFactory(null, -1, GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL, 0, 1, maxPreparedStatements > 0 ? maxPreparedStatements : -1);
+        }
+
         // create the pool object factory
-        PoolableConnectionFactory factory = new PoolableManagedConnectionFactory(xacf, pool, null, null, true, true);
+        PoolableConnectionFactory factory = new PoolableManagedConnectionFactory(xacf, pool, stmtPoolFactory, null, true, true);
         factory.setValidationQuery("select 1 from entity_key_store where key_name = ''");
         factory.setDefaultReadOnly(false);
 
@@ -133,8 +143,11 @@ public class DBCPConnectionFactory implements ConnectionFactoryInterface {
         pool.setFactory(factory);
 
         // mds = new ManagedDataSource(pool, xacf.getTransactionRegistry());
-        mds = new DebugManagedDataSource(pool, xacf.getTransactionRegistry()); // Useful to debug the usage of connections in the pool
-        mds.setAccessToUnderlyingConnectionAllowed(true);
+        DebugManagedDataSource dmds = new DebugManagedDataSource(pool, xacf.getTransactionRegistry()); // Useful to debug the usage of connections in the pool
+        dmds.setAccessToUnderlyingConnectionAllowed(true);
+        dmds.setMetricsName("DataSource: " + cacheKey);
+        dmds.setPreparedStatementPool(jdbcElement.getPoolPreparedStatements(), maxPreparedStatements);
+        mds = dmds;
 
         // cache the pool
         dsCache.putIfAbsent(cacheKey, mds);
@@ -24,16 +24,33 @@ import org.apache.commons.dbcp.managed.TransactionRegistry;
 import org.apache.commons.pool.ObjectPool;
 
 import org.apache.commons.pool.impl.GenericObjectPool;
+import org.ofbiz.base.metrics.Metrics;
+import org.ofbiz.base.metrics.MetricsFactory;
 import org.ofbiz.base.util.Debug;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class DebugManagedDataSource extends ManagedDataSource {
 
     public static final String module = DebugManagedDataSource.class.getName();
+    /** Upper bounds, in milliseconds, of the borrow latency histogram buckets; the last bucket has no upper bound */
+    public static final long[] BORROW_LATENCY_BUCKETS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    private Metrics metrics = MetricsFactory.NULL_METRICS;
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeNanos = new AtomicLong();
+    private final AtomicLong maxBorrowTimeNanos = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitTimeNanos = new AtomicLong();
+    private final AtomicLongArray borrowLatencyHistogram = new AtomicLongArray(BORROW_LATENCY_BUCKETS.length + 1);
+    private boolean poolPreparedStatements = false;
+    private int maxPreparedStatements = 0;
 
     public DebugManagedDataSource() {
         super();
@@ -42,8 +59,51 @@ public class DebugManagedDataSource extends ManagedDataSource {
         super(pool, transactionRegistry);
     }
 
+    /** Also records the time taken to borrow a connection in the <code>Metrics</code> with the given name */
+    public void setMetricsName(String name) {
+        this.metrics = MetricsFactory.getInstance(name, 100, 1000, 0.7, 0.0);
+    }
+
+    /** Records the prepared statement pool settings of the connections, for getInfo */
+    public void setPreparedStatementPool(boolean poolPreparedStatements, int maxPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+        this.maxPreparedStatements = maxPreparedStatements;
+    }
+
     @Override
     public Connection getConnection() throws SQLException {
+        // a borrow from an exhausted pool waits for another thread to return a connection
+        boolean exhausted = false;
+        if (super._pool instanceof GenericObjectPool) {
+            GenericObjectPool objectPool = (GenericObjectPool)super._pool;
+            exhausted = objectPool.getMaxActive() > 0 && objectPool.getNumIdle() == 0 && objectPool.getNumActive() >= objectPool.getMaxActive();
+        }
+        long startTime = System.nanoTime();
+        try {
+            return borrowConnection();
+        } finally {
+            long elapsed = System.nanoTime() - startTime;
+            borrowCount.incrementAndGet();
+            borrowTimeNanos.addAndGet(elapsed);
+            long max = maxBorrowTimeNanos.get();
+            while (elapsed > max && !maxBorrowTimeNanos.compareAndSet(max, elapsed)) {
+                max = maxBorrowTimeNanos.get();
+            }
+            if (exhausted) {
+                waitCount.incrementAndGet();
+                waitTimeNanos.addAndGet(elapsed);
+            }
+            long elapsedMillis = elapsed / 1000000;
+            int bucket = 0;
+            while (bucket < BORROW_LATENCY_BUCKETS.length && elapsedMillis >= BORROW_LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            borrowLatencyHistogram.incrementAndGet(bucket);
+            metrics.recordServiceRate(1, elapsedMillis);
+        }
+    }
+
+    private Connection borrowConnection() throws SQLException {
         if (Debug.verboseOn()) {
             if (super._pool instanceof GenericObjectPool) {
                 GenericObjectPool objectPool = (GenericObjectPool)super._pool;
@@ -68,6 +128,21 @@ public class DebugManagedDataSource extends ManagedDataSource {
             dataSourceInfo.put("poolMinEvictableIdleTimeMillis", objectPool.getMinEvictableIdleTimeMillis());
             dataSourceInfo.put("poolMinIdle", objectPool.getMinIdle());
         }
+        // read before the borrow count, which a borrow increments first, so the histogram never counts more borrows
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+        for (int i = 0; i <= BORROW_LATENCY_BUCKETS.length; i++) {
+            String label = i < BORROW_LATENCY_BUCKETS.length ? "<" + BORROW_LATENCY_BUCKETS[i] + "ms" : ">=" + BORROW_LATENCY_BUCKETS[i - 1] + "ms";
+            histogram.put(label, borrowLatencyHistogram.get(i));
+        }
+        long borrows = borrowCount.get();
+        dataSourceInfo.put("poolBorrowCount", borrows);
+        dataSourceInfo.put("poolBorrowTimeAvgMillis", borrows > 0 ? borrowTimeNanos.get() / borrows / 1000000.0 : 0.0);
+        dataSourceInfo.put("poolBorrowTimeMaxMillis", maxBorrowTimeNanos.get() / 1000000.0);
+        dataSourceInfo.put("poolWaitCount", waitCount.get());
+        dataSourceInfo.put("poolWaitTimeMillis", waitTimeNanos.get() / 1000000);
+        dataSourceInfo.put("poolBorrowLatencyHistogram", histogram);
+        dataSourceInfo.put("poolPreparedStatements", poolPreparedStatements);
+        dataSourceInfo.put("poolMaxPreparedStatements", maxPreparedStatements);
         return dataSourceInfo;
     }
 
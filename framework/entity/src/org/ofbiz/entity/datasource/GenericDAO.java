@@ -20,12 +20,15 @@ package org.ofbiz.entity.datasource;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -77,6 +80,8 @@ public class GenericDAO {
 
     private static final ConcurrentHashMap<String, GenericDAO> genericDAOs = new ConcurrentHashMap<String, GenericDAO>();
     private static final ThreadGroup GENERIC_DAO_THREAD_GROUP = new ThreadGroup("GenericDAO");
+    /** Maximum number of primary keys per query in {@link #selectByPrimaryKeys(ModelEntity, List)}; kept below the 1000 element IN limit of some databases. */
+    public static final int PK_SELECT_CHUNK_SIZE = 500;
     private final GenericHelperInfo helperInfo;
     private final ModelFieldTypeReader modelFieldTypeReader;
     private final Datasource datasource;
@@ -138,6 +143,24 @@ public class GenericDAO {
             return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
         }
 
+        setInsertStamps(entity, modelEntity, fieldsToSave);
+        String sql = makeInsertSql(modelEntity, fieldsToSave);
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            int retVal = sqlP.executeUpdate();
+
+            entity.synchronizedWithDatasource();
+            return retVal;
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    private void setInsertStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -170,28 +193,85 @@ public class GenericDAO {
                 addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
             }
         }
+    }
 
+    private String makeInsertSql(ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
 
         modelEntity.colNameString(fieldsToSave, sqlB, "");
         sqlB.append(") VALUES (");
         modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
-        String sql = sqlB.append(")").toString();
+        return sqlB.append(")").toString();
+    }
 
-        try {
-            sqlP.prepareStatement(sql);
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            int retVal = sqlP.executeUpdate();
+    /**
+     * Inserts a list of entities of the same type using a single JDBC batch.
+     * View entities are inserted one at a time.
+     *
+     * @param entities The entities to insert, all of the same entity type
+     * @return int representing number of rows effected by this operation
+     * @throws GenericEntityException
+     */
+    public int batchInsert(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+        if (modelEntity instanceof ModelViewEntity) {
+            int retVal = 0;
+            for (GenericEntity entity : entities) {
+                retVal += insert(entity);
+            }
+            return retVal;
+        }
 
-            entity.synchronizedWithDatasource();
+        List<ModelField> fieldsToSave = modelEntity.getFieldsUnmodifiable();
+        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+        try {
+            sqlP.prepareStatement(makeInsertSql(modelEntity, fieldsToSave));
+            for (GenericEntity entity : entities) {
+                checkSameEntity(modelEntity, entity);
+                setInsertStamps(entity, modelEntity, fieldsToSave);
+                SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+            }
+            int retVal = countBatchUpdates(sqlP.executeBatch(), entities, false);
+            for (GenericEntity entity : entities) {
+                entity.synchronizedWithDatasource();
+            }
             return retVal;
         } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
+            sqlP.rollback();
+            throw new GenericEntityException("Error while batch inserting " + entities.size() + " [" + modelEntity.getEntityName() + "] values", e);
         } finally {
             sqlP.close();
         }
     }
 
+    private void checkSameEntity(ModelEntity modelEntity, GenericEntity entity) throws GenericEntityException {
+        if (!modelEntity.getEntityName().equals(entity.getEntityName())) {
+            throw new GenericModelException("Cannot batch values of entity [" + entity.getEntityName() + "] with values of entity [" + modelEntity.getEntityName() + "]");
+        }
+    }
+
+    private int countBatchUpdates(int[] updateCounts, List<? extends GenericEntity> entities, boolean mustExist) throws GenericEntityException {
+        int retVal = 0;
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                // the driver executed the row but does not report how many rows were touched
+                retVal++;
+            } else if (updateCounts[i] == 0 && mustExist) {
+                throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entities.get(i).toString());
+            } else {
+                retVal += updateCounts[i];
+            }
+        }
+        return retVal;
+    }
+
     public int updateAll(GenericEntity entity) throws GenericEntityException {
         ModelEntity modelEntity = entity.getModelEntity();
 
@@ -262,6 +342,29 @@ public class GenericDAO {
             }
         }
 
+        setUpdateStamps(entity, modelEntity, fieldsToSave);
+
+        int retVal = 0;
+
+        try {
+            sqlP.prepareStatement(makeUpdateSql(entity, modelEntity, fieldsToSave));
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+            retVal = sqlP.executeUpdate();
+            entity.synchronizedWithDatasource();
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+        } finally {
+            sqlP.close();
+        }
+
+        if (retVal == 0) {
+            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
+        }
+        return retVal;
+    }
+
+    private void setUpdateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -276,30 +379,94 @@ public class GenericDAO {
             entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
             addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
         }
+    }
 
+    private String makeUpdateSql(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         StringBuilder sql = new StringBuilder().append("UPDATE ").append(modelEntity.getTableName(datasource)).append(" SET ");
         modelEntity.colNameString(fieldsToSave, sql, "", "=?, ", "=?", false);
         sql.append(" WHERE ");
         SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        return sql.toString();
+    }
+
+    /**
+     * Updates a list of entities of the same type using JDBC batches. Like {@link #update(GenericEntity)}
+     * only the non-primary key fields present in each entity are written, so the entities are grouped by
+     * that set of fields and each group is sent as one batch. Lock-enabled and view entities are updated
+     * one at a time.
+     *
+     * @param entities The entities to update, all of the same entity type
+     * @return int representing number of rows effected by this operation
+     * @throws GenericEntityException
+     */
+    public int batchUpdate(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+        if (modelEntity instanceof ModelViewEntity || modelEntity.lock()) {
+            int retVal = 0;
+            for (GenericEntity entity : entities) {
+                retVal += update(entity);
+            }
+            return retVal;
+        }
 
         int retVal = 0;
+        Map<List<ModelField>, List<GenericEntity>> entitiesByFields = new LinkedHashMap<List<ModelField>, List<GenericEntity>>();
+        for (GenericEntity entity : entities) {
+            checkSameEntity(modelEntity, entity);
+            List<ModelField> fieldsToSave = new LinkedList<ModelField>();
+            Collection<String> keys = entity.getAllKeys();
+            Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
+            while (nopkIter.hasNext()) {
+                ModelField curField = nopkIter.next();
+                if (keys.contains(curField.getName())) {
+                    fieldsToSave.add(curField);
+                }
+            }
+            if (fieldsToSave.isEmpty()) {
+                // same as singleUpdate: nothing to write, but effectively updated
+                retVal++;
+                continue;
+            }
+            setUpdateStamps(entity, modelEntity, fieldsToSave);
+            List<GenericEntity> group = entitiesByFields.get(fieldsToSave);
+            if (group == null) {
+                group = new LinkedList<GenericEntity>();
+                entitiesByFields.put(fieldsToSave, group);
+            }
+            group.add(entity);
+        }
 
+        SQLProcessor sqlP = new SQLProcessor(helperInfo);
         try {
-            sqlP.prepareStatement(sql.toString());
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
-            retVal = sqlP.executeUpdate();
-            entity.synchronizedWithDatasource();
+            for (Map.Entry<List<ModelField>, List<GenericEntity>> entry : entitiesByFields.entrySet()) {
+                List<ModelField> fieldsToSave = entry.getKey();
+                List<GenericEntity> group = entry.getValue();
+                sqlP.prepareStatement(makeUpdateSql(group.get(0), modelEntity, fieldsToSave));
+                for (GenericEntity entity : group) {
+                    SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                    SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                    sqlP.addBatch();
+                }
+                retVal += countBatchUpdates(sqlP.executeBatch(), group, true);
+                for (GenericEntity entity : group) {
+                    entity.synchronizedWithDatasource();
+                }
+                // release the statement before preparing the one for the next group of fields
+                sqlP.close();
+            }
+            return retVal;
         } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+            sqlP.rollback();
+            throw new GenericEntityException("Error while batch updating " + entities.size() + " [" + modelEntity.getEntityName() + "] values", e);
         } finally {
             sqlP.close();
         }
-
-        if (retVal == 0) {
-            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
-        }
-        return retVal;
     }
 
     public int updateByCondition(ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
@@ -552,6 +719,53 @@ public class GenericDAO {
         }
     }
 
+    /**
+     * Selects the existing rows for a list of primary keys of the same entity. Entities with a single primary
+     * key field use <code>pk IN (...)</code>, others an OR of the primary key fields; either way the keys are
+     * sent in chunks of at most {@link #PK_SELECT_CHUNK_SIZE} per query. Keys that do not exist are omitted
+     * from the result.
+     *
+     * @param modelEntity The ModelEntity of the primary keys
+     * @param primaryKeys The primary keys to select
+     * @return List of GenericValue objects for the rows found
+     * @throws GenericEntityException
+     */
+    public List<GenericValue> selectByPrimaryKeys(ModelEntity modelEntity, List<? extends GenericEntity> primaryKeys) throws GenericEntityException {
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for primary keys");
+        }
+        if (modelEntity.getPksSize() <= 0) {
+            throw new GenericEntityException("Entity has no primary keys, cannot select by primary key");
+        }
+
+        List<GenericValue> results = new LinkedList<GenericValue>();
+        for (int start = 0; start < primaryKeys.size(); start += PK_SELECT_CHUNK_SIZE) {
+            List<? extends GenericEntity> chunk = primaryKeys.subList(start, Math.min(start + PK_SELECT_CHUNK_SIZE, primaryKeys.size()));
+            EntityCondition condition;
+            if (modelEntity.getPksSize() == 1) {
+                String pkName = modelEntity.getOnlyPk().getName();
+                List<Object> pkValues = new ArrayList<Object>(chunk.size());
+                for (GenericEntity primaryKey : chunk) {
+                    pkValues.add(primaryKey.get(pkName));
+                }
+                condition = EntityCondition.makeCondition(pkName, EntityOperator.IN, pkValues);
+            } else {
+                List<EntityCondition> pkConditions = new ArrayList<EntityCondition>(chunk.size());
+                for (GenericEntity primaryKey : chunk) {
+                    pkConditions.add(EntityCondition.makeCondition(primaryKey.getPrimaryKey().getAllFields()));
+                }
+                condition = EntityCondition.makeCondition(pkConditions, EntityOperator.OR);
+            }
+            EntityListIterator eli = selectListIteratorByCondition(modelEntity, condition, null, null, null, null);
+            try {
+                results.addAll(eli.getCompleteList());
+            } finally {
+                eli.close();
+            }
+        }
+        return results;
+    }
+
     public void partialSelect(GenericEntity entity, Set<String> keys) throws GenericEntityException {
         ModelEntity modelEntity = entity.getModelEntity();
 
@@ -1191,6 +1405,49 @@ public class GenericDAO {
         return retVal;
     }
 
+    /**
+     * Deletes a list of entities of the same type by primary key using a single JDBC batch.
+     *
+     * @param entities The entities to delete, all of the same entity type
+     * @return int representing number of rows effected by this operation
+     * @throws GenericEntityException
+     */
+    public int batchDelete(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+        if (modelEntity instanceof ModelViewEntity) {
+            throw new org.ofbiz.entity.GenericNotImplementedException("Operation delete not supported yet for view entities");
+        }
+
+        StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
+        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entities.get(0), "AND");
+
+        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+        try {
+            sqlP.prepareStatement(sql.toString());
+            for (GenericEntity entity : entities) {
+                checkSameEntity(modelEntity, entity);
+                SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+            }
+            int retVal = countBatchUpdates(sqlP.executeBatch(), entities, false);
+            for (GenericEntity entity : entities) {
+                entity.removedFromDatasource();
+            }
+            return retVal;
+        } catch (GenericDataSourceException e) {
+            sqlP.rollback();
+            throw new GenericDataSourceException("Exception while batch deleting " + entities.size() + " [" + modelEntity.getEntityName() + "] values", e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
     public int deleteByCondition(ModelEntity modelEntity, EntityCondition condition) throws GenericEntityException {
         SQLProcessor sqlP = new SQLProcessor(helperInfo);
 
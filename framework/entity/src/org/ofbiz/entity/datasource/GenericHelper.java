@@ -122,6 +122,24 @@ public interface GenericHelper {
      */
     public int store(GenericValue value) throws GenericEntityException;
 
+    /** Creates a list of new entity rows, all of the same entity, sending them to the datasource in one batch where supported
+     *@param values The GenericValue instances to create
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException;
+
+    /** Stores a list of existing entity rows, all of the same entity, sending them to the datasource in batches where supported
+     *@param values The GenericValue instances to store; like store only the fields present in each value are written
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException;
+
+    /** Removes a list of entity rows by primary key, all of the same entity, sending them to the datasource in one batch where supported
+     *@param primaryKeys The primary keys of the rows to remove
+     *@return int representing number of rows effected by this operation
+     */
+    public int removeAll(List<GenericPK> primaryKeys) throws GenericEntityException;
+
     /** Check the datasource to make sure the entity definitions are correct, optionally adding missing entities or fields on the server
      *@param modelEntities Map of entityName names and ModelEntity values
      *@param messages List to put any result messages in
@@ -18,7 +18,9 @@
  *******************************************************************************/
 package org.ofbiz.entity.datasource;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -111,10 +113,18 @@ public class GenericHelperDAO implements GenericHelper {
         if (primaryKeys == null) return null;
         List<GenericValue> results = new LinkedList<GenericValue>();
 
+        // one query per entity (and chunk of keys) instead of one per key
+        Map<String, List<GenericPK>> primaryKeysByEntity = new LinkedHashMap<String, List<GenericPK>>();
         for (GenericPK primaryKey: primaryKeys) {
-            GenericValue result = this.findByPrimaryKey(primaryKey);
-
-            if (result != null) results.add(result);
+            List<GenericPK> entityPrimaryKeys = primaryKeysByEntity.get(primaryKey.getEntityName());
+            if (entityPrimaryKeys == null) {
+                entityPrimaryKeys = new ArrayList<GenericPK>();
+                primaryKeysByEntity.put(primaryKey.getEntityName(), entityPrimaryKeys);
+            }
+            entityPrimaryKeys.add(primaryKey);
+        }
+        for (List<GenericPK> entityPrimaryKeys: primaryKeysByEntity.values()) {
+            results.addAll(genericDAO.selectByPrimaryKeys(entityPrimaryKeys.get(0).getModelEntity(), entityPrimaryKeys));
         }
         return results;
     }
@@ -191,6 +201,39 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.updateByCondition(modelEntity, fieldsToSet, condition);
     }
 
+    /** Creates a list of new entity rows, all of the same entity, using a JDBC batch insert
+     *@param values The GenericValue instances to create
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        return genericDAO.batchInsert(values);
+    }
+
+    /** Stores a list of existing entity rows, all of the same entity, using JDBC batch updates
+     *@param values The GenericValue instances to store; like store only the fields present in each value are written
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        return genericDAO.batchUpdate(values);
+    }
+
+    /** Removes a list of entity rows by primary key, all of the same entity, using a JDBC batch delete
+     *@param primaryKeys The primary keys of the rows to remove
+     *@return int representing number of rows effected by this operation
+     */
+    public int removeAll(List<GenericPK> primaryKeys) throws GenericEntityException {
+        if (primaryKeys == null) {
+            return 0;
+        }
+        return genericDAO.batchDelete(primaryKeys);
+    }
+
     /** Check the datasource to make sure the entity definitions are correct, optionally adding missing entities or fields on the server
      *@param modelEntities Map of entityName names and ModelEntity values
      *@param messages List to put any result messages in
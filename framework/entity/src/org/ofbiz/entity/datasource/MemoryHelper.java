@@ -425,6 +425,17 @@ public class MemoryHelper implements GenericHelper {
         }
     }
 
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        int count = 0;
+        for (GenericValue gv: values) {
+            if (addToCache(gv)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
     public int storeAll(List<GenericValue> values) throws GenericEntityException {
         int count = 0;
         for (GenericValue gv: values) {
@@ -369,6 +369,9 @@ public class SQLProcessor {
             if (maxRows > 0) {
                 _ps.setMaxRows(maxRows);
                 if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.prepareStatement] max rows set : " + maxRows, module);
+            } else if (_ps.getMaxRows() != 0) {
+                // a statement from the prepared statement pool keeps the max rows of its previous use
+                _ps.setMaxRows(0);
             }
             this.setFetchSize(_ps, fetchSize);
         } catch (SQLException sqle) {
@@ -425,6 +428,36 @@ public class SQLProcessor {
         }
     }
 
+    /**
+     * Add the current set of parameters to the batch of the prepared statement
+     * and reset the parameter index so the next row can be set.
+     *
+     * @throws GenericDataSourceException
+     */
+    public void addBatch() throws GenericDataSourceException {
+        try {
+            _ps.addBatch();
+            _ind = 1;
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while adding batch for the following:" + _sql, sqle);
+        }
+    }
+
+    /**
+     * Execute the batch of the prepared statement
+     *
+     * @return  The update counts, one per batched row
+     * @throws GenericDataSourceException
+     */
+    public int[] executeBatch() throws GenericDataSourceException {
+        try {
+            return _ps.executeBatch();
+        } catch (SQLException sqle) {
+            this.checkLockWaitInfo(sqle);
+            throw new GenericDataSourceException("SQL Exception while executing batch for the following:" + _sql, sqle);
+        }
+    }
+
     /**
      * Execute update based on the SQL statement given
      *
@@ -867,6 +900,9 @@ public class SQLProcessor {
         // otherwise only set if the size is > -1 (0 is sometimes used to note ALL rows)
         if (fetchSize > -1) {
             stmt.setFetchSize(fetchSize);
+        } else if (stmt.getFetchSize() != 0) {
+            // a statement from the prepared statement pool keeps the fetch size of its previous use
+            stmt.setFetchSize(0);
         }
     }
 
@@ -89,8 +89,9 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
     protected Integer sequenceBankSize = null;
 
     /** Synchronization object used to control access to the ModelField collection objects.
-     * A single lock is used for all ModelField collections so collection updates are atomic. */
-    private final Object fieldsLock = new Object();
+     * A single lock is used for all ModelField collections so collection updates are atomic.
+     * An empty array rather than an Object because it must be serializable, see ModelReaderSnapshot. */
+    private final Object fieldsLock = new Object[0];
 
     /** Model fields in the order they were defined. This list duplicates the values in fieldsMap, but
      *  we must keep the list in its original sequence for SQL DISTINCT operations to work properly. */
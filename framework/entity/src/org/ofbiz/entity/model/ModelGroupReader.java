@@ -19,6 +19,7 @@
 package org.ofbiz.entity.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -26,8 +27,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.ofbiz.base.component.ComponentConfig;
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.config.MainResourceHandler;
 import org.ofbiz.base.config.ResourceHandler;
@@ -99,6 +104,14 @@ public class ModelGroupReader implements Serializable {
         getGroupCache();
     }
 
+    private static Callable<Document> createDocumentCallable(final ResourceHandler entityGroupResourceHandler) {
+        return new Callable<Document>() {
+            public Document call() throws GenericConfigException {
+                return entityGroupResourceHandler.getDocument();
+            }
+        };
+    }
+
     public Map<String, String> getGroupCache() {
         if (this.groupCache == null) { // don't want to block here
             synchronized (ModelGroupReader.class) {
@@ -111,13 +124,20 @@ public class ModelGroupReader implements Serializable {
                     UtilTimer utilTimer = new UtilTimer();
                     // utilTimer.timerString("[ModelGroupReader.getGroupCache] Before getDocument");
 
-                    int i = 0;
+                    // parse the files in parallel, then read them in order
+                    List<Future<Document>> futures = new ArrayList<Future<Document>>(this.entityGroupResourceHandlers.size());
                     for (ResourceHandler entityGroupResourceHandler: this.entityGroupResourceHandlers) {
+                        futures.add(ExecutionPool.GLOBAL_EXECUTOR.submit(createDocumentCallable(entityGroupResourceHandler)));
+                    }
+                    int i = 0;
+                    for (Future<Document> future: futures) {
                         Document document = null;
 
                         try {
-                            document = entityGroupResourceHandler.getDocument();
-                        } catch (GenericConfigException e) {
+                            document = future.get();
+                        } catch (ExecutionException e) {
+                            Debug.logError(e.getCause(), "Error loading entity group model", module);
+                        } catch (InterruptedException e) {
                             Debug.logError(e, "Error loading entity group model", module);
                         }
                         if (document == null) {
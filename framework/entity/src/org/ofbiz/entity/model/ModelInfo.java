@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.entity.model;
 
+import java.io.Serializable;
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -32,7 +33,8 @@ import org.w3c.dom.Element;
  *
  */
 @ThreadSafe
-public final class ModelInfo {
+@SuppressWarnings("serial")
+public final class ModelInfo implements Serializable {
 
     public static final ModelInfo DEFAULT = new ModelInfo("None", "None", getCopyrightString(), "None", "1.0", "");
 
@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.entity.model;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,8 +30,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.ofbiz.base.component.ComponentConfig;
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.config.MainResourceHandler;
 import org.ofbiz.base.config.ResourceHandler;
@@ -91,8 +96,29 @@ public class ModelReader implements Serializable {
 
         if (reader == null) {
             reader = new ModelReader(tempModelName);
-            // preload caches...
-            reader.getEntityCache();
+            File snapshotDir = ModelReaderSnapshot.getSnapshotDir();
+            String sourceHash = null;
+            if (snapshotDir != null) {
+                try {
+                    sourceHash = ModelReaderSnapshot.getSourceHash(reader.entityResourceHandlers);
+                } catch (Exception e) {
+                    Debug.logWarning(e, "Could not hash the entity model files, not using the entity model snapshot", module);
+                }
+            }
+            ModelReader snapshotReader = null;
+            if (sourceHash != null) {
+                snapshotReader = ModelReaderSnapshot.read(snapshotDir, tempModelName, sourceHash);
+            }
+            if (snapshotReader != null) {
+                if (Debug.infoOn()) Debug.logInfo("Loaded entity model [" + tempModelName + "] from the snapshot in " + snapshotDir, module);
+                reader = snapshotReader;
+            } else {
+                // preload caches...
+                reader.getEntityCache();
+                if (sourceHash != null && reader.entityCache != null) {
+                    ModelReaderSnapshot.write(snapshotDir, reader, sourceHash);
+                }
+            }
             reader = readers.putIfAbsentAndGet(tempModelName, reader);
         }
         return reader;
@@ -124,32 +150,86 @@ public class ModelReader implements Serializable {
         }
     }
 
-    private ModelEntity buildEntity(ResourceHandler entityResourceHandler, Element curEntityElement, int i, ModelInfo def) throws GenericEntityException {
-        boolean isEntity = "entity".equals(curEntityElement.getNodeName());
-        String entityName = UtilXml.checkEmpty(curEntityElement.getAttribute("entity-name")).intern();
-        boolean redefinedEntity = "true".equals(curEntityElement.getAttribute("redefinition"));
+    /** The entities read from one entity model file, see readResource */
+    private static final class ResourceEntities {
+        private final ResourceHandler entityResourceHandler;
+        private final List<ModelEntity> entities = new ArrayList<ModelEntity>();
+        private final Set<String> redefinedEntityNames = new HashSet<String>();
+        private final List<Element> extendEntityElements = new ArrayList<Element>();
 
-        // add entityName to appropriate resourceHandlerEntities collection
-        Collection<String> resourceHandlerEntityNames = resourceHandlerEntities.get(entityResourceHandler);
+        private ResourceEntities(ResourceHandler entityResourceHandler) {
+            this.entityResourceHandler = entityResourceHandler;
+        }
+    }
 
-        if (resourceHandlerEntityNames == null) {
-            resourceHandlerEntityNames = new LinkedList<String>();
-            resourceHandlerEntities.put(entityResourceHandler, resourceHandlerEntityNames);
+    private Callable<ResourceEntities> createResourceReaderCallable(final ResourceHandler entityResourceHandler) {
+        return new Callable<ResourceEntities>() {
+            public ResourceEntities call() throws Exception {
+                return readResource(entityResourceHandler);
+            }
+        };
+    }
+
+    /** Parses one entity model file and builds its entities; may run on several threads at once, so it only reads the
+     * shared state of this reader, the entities are added to it by registerEntity */
+    private ResourceEntities readResource(ResourceHandler entityResourceHandler) throws GenericEntityException {
+        UtilTimer utilTimer = new UtilTimer();
+        // utilTimer.timerString("Before getDocument in file " + entityFileName);
+        Document document = null;
+
+        try {
+            document = entityResourceHandler.getDocument();
+        } catch (GenericConfigException e) {
+            throw new GenericEntityConfException("Error getting document from resource handler", e);
+        }
+        if (document == null) {
+            throw new GenericEntityConfException("Could not get document for " + entityResourceHandler.toString());
         }
-        resourceHandlerEntityNames.add(entityName);
 
-        // check to see if entity with same name has already been read
-        if (entityCache.containsKey(entityName) && !redefinedEntity) {
-            Debug.logWarning("WARNING: Entity " + entityName +
-                " is defined more than once, most recent will over-write " +
-                "previous definition(s)", module);
-            Debug.logWarning("WARNING: Entity " + entityName + " was found in " +
-                entityResourceHandler + ", but was already defined in " +
-                entityResourceHandlerMap.get(entityName).toString(), module);
+        // utilTimer.timerString("Before getDocumentElement in " + entityResourceHandler.toString());
+        Element docElement = document.getDocumentElement();
+
+        if (docElement == null) {
+            return null;
+        }
+        docElement.normalize();
+        Node curChild = docElement.getFirstChild();
+
+        ModelInfo def = ModelInfo.createFromElements(ModelInfo.DEFAULT, docElement);
+        ResourceEntities resourceEntities = new ResourceEntities(entityResourceHandler);
+        int i = 0;
+
+        if (curChild != null) {
+            utilTimer.timerString("Before start of entity loop in " + entityResourceHandler.toString());
+            do {
+                boolean isEntity = "entity".equals(curChild.getNodeName());
+                boolean isViewEntity = "view-entity".equals(curChild.getNodeName());
+                boolean isExtendEntity = "extend-entity".equals(curChild.getNodeName());
+
+                if ((isEntity || isViewEntity) && curChild.getNodeType() == Node.ELEMENT_NODE) {
+                    i++;
+                    Element curEntityElement = (Element) curChild;
+                    ModelEntity modelEntity = buildEntity(entityResourceHandler, curEntityElement, i, def);
+                    if (modelEntity != null) {
+                        resourceEntities.entities.add(modelEntity);
+                        if ("true".equals(curEntityElement.getAttribute("redefinition"))) {
+                            resourceEntities.redefinedEntityNames.add(modelEntity.getEntityName());
+                        }
+                    }
+                } else if (isExtendEntity && curChild.getNodeType() == Node.ELEMENT_NODE) {
+                    resourceEntities.extendEntityElements.add((Element) curChild);
+                }
+            } while ((curChild = curChild.getNextSibling()) != null);
+        } else {
+            Debug.logWarning("No child nodes found.", module);
         }
+        utilTimer.timerString("Finished " + entityResourceHandler.toString() + " - Total Entities: " + i + " FINISHED");
+        return resourceEntities;
+    }
 
-        // add entityName, entityFileName pair to entityResourceHandlerMap map
-        entityResourceHandlerMap.put(entityName, entityResourceHandler);
+    private ModelEntity buildEntity(ResourceHandler entityResourceHandler, Element curEntityElement, int i, ModelInfo def) throws GenericEntityException {
+        boolean isEntity = "entity".equals(curEntityElement.getNodeName());
+        String entityName = UtilXml.checkEmpty(curEntityElement.getAttribute("entity-name")).intern();
 
         // utilTimer.timerString("  After entityEntityName -- " + i + " --");
         // ModelEntity entity = createModelEntity(curEntity, utilTimer);
@@ -184,6 +264,30 @@ public class ModelReader implements Serializable {
         return modelEntity;
     }
 
+    private void registerEntity(ResourceHandler entityResourceHandler, String entityName, boolean redefinedEntity) {
+        // add entityName to appropriate resourceHandlerEntities collection
+        Collection<String> resourceHandlerEntityNames = resourceHandlerEntities.get(entityResourceHandler);
+
+        if (resourceHandlerEntityNames == null) {
+            resourceHandlerEntityNames = new LinkedList<String>();
+            resourceHandlerEntities.put(entityResourceHandler, resourceHandlerEntityNames);
+        }
+        resourceHandlerEntityNames.add(entityName);
+
+        // check to see if entity with same name has already been read
+        if (entityCache.containsKey(entityName) && !redefinedEntity) {
+            Debug.logWarning("WARNING: Entity " + entityName +
+                " is defined more than once, most recent will over-write " +
+                "previous definition(s)", module);
+            Debug.logWarning("WARNING: Entity " + entityName + " was found in " +
+                entityResourceHandler + ", but was already defined in " +
+                entityResourceHandlerMap.get(entityName).toString(), module);
+        }
+
+        // add entityName, entityFileName pair to entityResourceHandlerMap map
+        entityResourceHandlerMap.put(entityName, entityResourceHandler);
+    }
+
     public Map<String, ModelEntity> getEntityCache() throws GenericEntityException {
         if (entityCache == null) { // don't want to block here
             synchronized (ModelReader.class) {
@@ -199,58 +303,36 @@ public class ModelReader implements Serializable {
                     List<ModelViewEntity> tempViewEntityList = new LinkedList<ModelViewEntity>();
                     List<Element> tempExtendEntityElementList = new LinkedList<Element>();
 
-                    UtilTimer utilTimer = new UtilTimer();
-
+                    // parse the files and build their entities in parallel, then add them in the order of the files
+                    List<Future<ResourceEntities>> futures = new ArrayList<Future<ResourceEntities>>(entityResourceHandlers.size());
                     for (ResourceHandler entityResourceHandler: entityResourceHandlers) {
-
-                        // utilTimer.timerString("Before getDocument in file " + entityFileName);
-                        Document document = null;
-
+                        futures.add(ExecutionPool.GLOBAL_EXECUTOR.submit(createResourceReaderCallable(entityResourceHandler)));
+                    }
+                    for (Future<ResourceEntities> future: futures) {
+                        ResourceEntities resourceEntities = null;
                         try {
-                            document = entityResourceHandler.getDocument();
-                        } catch (GenericConfigException e) {
-                            throw new GenericEntityConfException("Error getting document from resource handler", e);
-                        }
-                        if (document == null) {
-                            throw new GenericEntityConfException("Could not get document for " + entityResourceHandler.toString());
+                            resourceEntities = future.get();
+                        } catch (ExecutionException e) {
+                            if (e.getCause() instanceof GenericEntityException) {
+                                throw (GenericEntityException) e.getCause();
+                            }
+                            throw new GenericEntityConfException("Error reading entity definitions", e.getCause());
+                        } catch (InterruptedException e) {
+                            throw new GenericEntityConfException("Interrupted while reading entity definitions", e);
                         }
-
-                        // utilTimer.timerString("Before getDocumentElement in " + entityResourceHandler.toString());
-                        Element docElement = document.getDocumentElement();
-
-                        if (docElement == null) {
+                        if (resourceEntities == null) {
                             return null;
                         }
-                        docElement.normalize();
-                        Node curChild = docElement.getFirstChild();
-
-                        ModelInfo def = ModelInfo.createFromElements(ModelInfo.DEFAULT, docElement);
-                        int i = 0;
-
-                        if (curChild != null) {
-                            utilTimer.timerString("Before start of entity loop in " + entityResourceHandler.toString());
-                            do {
-                                boolean isEntity = "entity".equals(curChild.getNodeName());
-                                boolean isViewEntity = "view-entity".equals(curChild.getNodeName());
-                                boolean isExtendEntity = "extend-entity".equals(curChild.getNodeName());
-
-                                if ((isEntity || isViewEntity) && curChild.getNodeType() == Node.ELEMENT_NODE) {
-                                    i++;
-                                    ModelEntity modelEntity = buildEntity(entityResourceHandler, (Element) curChild, i, def);
-                                    // put the view entity in a list to get ready for the second pass to populate fields...
-                                    if (isViewEntity) {
-                                        tempViewEntityList.add((ModelViewEntity) modelEntity);
-                                    } else {
-                                        entityCache.put(modelEntity.getEntityName(), modelEntity);
-                                    }
-                                } else if (isExtendEntity && curChild.getNodeType() == Node.ELEMENT_NODE) {
-                                    tempExtendEntityElementList.add((Element) curChild);
-                                }
-                            } while ((curChild = curChild.getNextSibling()) != null);
-                        } else {
-                            Debug.logWarning("No child nodes found.", module);
+                        for (ModelEntity modelEntity: resourceEntities.entities) {
+                            registerEntity(resourceEntities.entityResourceHandler, modelEntity.getEntityName(), resourceEntities.redefinedEntityNames.contains(modelEntity.getEntityName()));
+                            // put the view entity in a list to get ready for the second pass to populate fields...
+                            if (modelEntity instanceof ModelViewEntity) {
+                                tempViewEntityList.add((ModelViewEntity) modelEntity);
+                            } else {
+                                entityCache.put(modelEntity.getEntityName(), modelEntity);
+                            }
                         }
-                        utilTimer.timerString("Finished " + entityResourceHandler.toString() + " - Total Entities: " + i + " FINISHED");
+                        tempExtendEntityElementList.addAll(resourceEntities.extendEntityElements);
                     }
 
                     // all entity elements in, now go through extend-entity elements and add their stuff
@@ -586,25 +668,31 @@ TEMP_VIEW_LOOP:
 
     ModelEntity createModelEntity(Element entityElement, UtilTimer utilTimer, ModelInfo def) {
         if (entityElement == null) return null;
-        this.numEntities++;
+        synchronized (this) {
+            this.numEntities++;
+        }
         ModelEntity entity = new ModelEntity(this, entityElement, utilTimer, def);
         return entity;
     }
 
     ModelEntity createModelViewEntity(Element entityElement, UtilTimer utilTimer, ModelInfo def) {
         if (entityElement == null) return null;
-        this.numViewEntities++;
+        synchronized (this) {
+            this.numViewEntities++;
+        }
         ModelViewEntity entity = new ModelViewEntity(this, entityElement, utilTimer, def);
         return entity;
     }
 
     public ModelRelation createRelation(ModelEntity entity, Element relationElement) {
-        this.numRelations++;
+        synchronized (this) {
+            this.numRelations++;
+        }
         ModelRelation relation = ModelRelation.create(entity, relationElement, false);
         return relation;
     }
 
-    public void incrementFieldCount(int amount) {
+    public synchronized void incrementFieldCount(int amount) {
         this.numFields += amount;
     }
 }
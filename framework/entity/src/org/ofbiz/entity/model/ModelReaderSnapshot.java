@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+import org.apache.commons.codec.binary.Hex;
+import org.ofbiz.base.config.GenericConfigException;
+import org.ofbiz.base.config.ResourceHandler;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+
+/**
+ * Serialized copy of a fully loaded ModelReader, so that a restart with unchanged entity definitions does not
+ * parse them again.
+ * <p>The snapshot is stored with a hash of the entity model files and of the entity engine classes, it is only
+ * used when both hashes match. Enabled by setting entity.model.snapshot.dir in general.properties.
+ */
+public final class ModelReaderSnapshot {
+
+    public static final String module = ModelReaderSnapshot.class.getName();
+
+    private ModelReaderSnapshot() {}
+
+    /** Returns the directory of the snapshots, or null when they are disabled */
+    public static File getSnapshotDir() {
+        String snapshotDir = UtilProperties.getPropertyValue("general", "entity.model.snapshot.dir");
+        if (UtilValidate.isEmpty(snapshotDir)) {
+            return null;
+        }
+        return new File(snapshotDir);
+    }
+
+    /** Returns a hash of the content of the given entity model files and of the entity engine classes */
+    public static String getSourceHash(Collection<ResourceHandler> resourceHandlers) throws GenericConfigException, IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        URL classUrl = ModelReader.class.getResource("ModelReader.class");
+        if (classUrl != null) {
+            digest.update((classUrl.toExternalForm() + ":" + classUrl.openConnection().getLastModified()).getBytes("UTF-8"));
+        }
+        byte[] buffer = new byte[8192];
+        for (ResourceHandler resourceHandler: resourceHandlers) {
+            digest.update(resourceHandler.getFullLocation().getBytes("UTF-8"));
+            InputStream in = resourceHandler.getStream();
+            try {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new String(Hex.encodeHex(digest.digest()));
+    }
+
+    /** Reads the snapshot of the named reader from the directory, returns null when there is none or when it was
+     * written for other sources */
+    public static ModelReader read(File snapshotDir, String modelName, String sourceHash) {
+        File snapshotFile = new File(snapshotDir, modelName + ".ser");
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            if (!sourceHash.equals(in.readUTF())) {
+                Debug.logInfo("Entity model [" + modelName + "] changed since the snapshot was written, reading the entity definitions", module);
+                return null;
+            }
+            return (ModelReader) in.readObject();
+        } catch (Exception e) {
+            // an incompatible class or a damaged file, the caller reads the definitions again and replaces it
+            Debug.logWarning("Could not read entity model snapshot [" + snapshotFile + "]: " + e, module);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Debug.logError(e, module);
+                }
+            }
+        }
+    }
+
+    /** Writes the snapshot of the reader, which must have loaded its entities, to the directory */
+    public static void write(File snapshotDir, ModelReader reader, String sourceHash) {
+        if (!snapshotDir.exists() && !snapshotDir.mkdirs()) {
+            Debug.logWarning("Could not create the entity model snapshot directory [" + snapshotDir + "]", module);
+            return;
+        }
+        File snapshotFile = new File(snapshotDir, reader.modelName + ".ser");
+        // write to a new file and rename it, so that another server starting at the same time never reads half a file
+        File tempFile = new File(snapshotDir, reader.modelName + ".ser." + System.nanoTime());
+        ObjectOutputStream out = null;
+        try {
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeUTF(sourceHash);
+            out.writeObject(reader);
+            out.close();
+            out = null;
+            if (snapshotFile.exists() && !snapshotFile.delete()) {
+                Debug.logWarning("Could not replace entity model snapshot [" + snapshotFile + "]", module);
+            } else if (!tempFile.renameTo(snapshotFile)) {
+                Debug.logWarning("Could not rename entity model snapshot [" + tempFile + "] to [" + snapshotFile + "]", module);
+            }
+        } catch (IOException e) {
+            Debug.logWarning(e, "Could not write entity model snapshot [" + snapshotFile + "]", module);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Debug.logError(e, module);
+                }
+            }
+            tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericDelegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.testtools.EntityTestCase;
+
+/**
+ * Checks the results of the createAll, storeAll and removeAll operations when they write JDBC batches, with runs
+ * shorter than the batch size and values written on their own, against the single row writes of a batch size of 1.
+ * The delegator of the tests is in test mode, which never uses batches, so the operations run on a clone of the
+ * configured delegator with the batch size set on it.
+ */
+public class EntityBatchPathTests extends EntityTestCase {
+
+    private static final int ROW_COUNT = 7;
+    private static final String TYPE_ID = "BATCHPATH-TYPE";
+    private static final EntityCondition TEST_CONDITION = EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "BATCHPATH-%");
+
+    private GenericDelegator batchDelegator = null;
+
+    public EntityBatchPathTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        batchDelegator = DelegatorFactory.getDelegator(delegator.getOriginalDelegatorName()).cloneDelegator();
+        removeTestRows();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        removeTestRows();
+    }
+
+    private void removeTestRows() throws Exception {
+        batchDelegator.removeByCondition("Testing", TEST_CONDITION);
+        batchDelegator.removeByAnd("TestingType", "testingTypeId", TYPE_ID);
+    }
+
+    private GenericValue makeTesting(int i, String description) {
+        GenericValue value = batchDelegator.makeValue("Testing", "testingId", "BATCHPATH-" + i);
+        value.set("description", description);
+        return value;
+    }
+
+    private String getDescription(int i) throws Exception {
+        GenericValue value = batchDelegator.findOne("Testing", false, "testingId", "BATCHPATH-" + i);
+        return value != null ? value.getString("description") : null;
+    }
+
+    public void testBatchSize() throws Exception {
+        assertEquals("test mode delegator", 0, delegator.cloneDelegator().getBatchSize("Testing"));
+        batchDelegator.setBatchSize(3);
+        assertEquals("batch size set", 3, batchDelegator.getBatchSize("Testing"));
+        assertEquals("batch size kept by clone", 3, batchDelegator.cloneDelegator().getBatchSize("Testing"));
+        batchDelegator.setBatchSize(-1);
+        assertEquals("datasource batch size", batchDelegator.getBatchSize("TestingType"), batchDelegator.getBatchSize("Testing"));
+    }
+
+    public void testBatchedWrites() throws Exception {
+        // runs of 3, 3 and 1 for the rows
+        batchDelegator.setBatchSize(3);
+        checkWrites("batch size 3");
+    }
+
+    public void testSingleRowWrites() throws Exception {
+        // no batches at all, the same results as the batched writes
+        batchDelegator.setBatchSize(1);
+        checkWrites("batch size 1");
+    }
+
+    private void checkWrites(String label) throws Exception {
+        // the type is written on its own and before the rows referring to it
+        List<GenericValue> values = new ArrayList<GenericValue>();
+        values.add(batchDelegator.makeValue("TestingType", "testingTypeId", TYPE_ID, "description", "batch path"));
+        for (int i = 0; i < 4; i++) {
+            GenericValue value = makeTesting(i, "created");
+            value.set("testingTypeId", TYPE_ID);
+            value.set("testingSize", Long.valueOf(i));
+            values.add(value);
+        }
+        assertEquals(label + ": createAll count", 5, batchDelegator.createAll(values));
+        assertEquals(label + ": rows created", 4, batchDelegator.findCountByCondition("Testing", TEST_CONDITION, null, null));
+        assertEquals(label + ": row type", TYPE_ID, batchDelegator.findOne("Testing", false, "testingId", "BATCHPATH-3").getString("testingTypeId"));
+
+        // a row twice ends a run, the later value wins; an unchanged row is not counted
+        values = new ArrayList<GenericValue>();
+        values.add(makeTesting(0, "stored"));
+        values.add(makeTesting(1, "created"));
+        values.add(makeTesting(0, "stored again"));
+        for (int i = 2; i < ROW_COUNT; i++) {
+            values.add(makeTesting(i, "stored"));
+        }
+        assertEquals(label + ": storeAll count", ROW_COUNT, batchDelegator.storeAll(values));
+        assertEquals(label + ": stored twice", "stored again", getDescription(0));
+        assertEquals(label + ": unchanged", "created", getDescription(1));
+        for (int i = 2; i < ROW_COUNT; i++) {
+            assertEquals(label + ": stored " + i, "stored", getDescription(i));
+        }
+        assertEquals(label + ": field not in the stored value kept", Long.valueOf(3), batchDelegator.findOne("Testing", false, "testingId", "BATCHPATH-3").getLong("testingSize"));
+        assertEquals(label + ": rows stored", ROW_COUNT, batchDelegator.findCountByCondition("Testing", TEST_CONDITION, null, null));
+
+        // a value without primary key is removed by its fields, on its own
+        List<GenericEntity> dummyPKs = new ArrayList<GenericEntity>();
+        dummyPKs.add(batchDelegator.makeValue("Testing", "description", "stored again"));
+        for (int i = 1; i < 5; i++) {
+            dummyPKs.add(makeTesting(i, null).getPrimaryKey());
+        }
+        assertEquals(label + ": removeAll count", 5, batchDelegator.removeAll(dummyPKs));
+        assertEquals(label + ": rows left", 2, batchDelegator.findCountByCondition("Testing", TEST_CONDITION, null, null));
+        assertNull(label + ": removed by fields", getDescription(0));
+        assertEquals(label + ": not removed", "stored", getDescription(5));
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.config.EntityConfigUtil;
+import org.ofbiz.entity.config.model.Datasource;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Loads a large number of rows with one value at a time and with the createAll, storeAll
+ * and removeAll operations, logging the time each takes. The batched operations only use
+ * JDBC batches when the batch-size attribute is set on the datasource of the Testing entity.
+ */
+public class EntityBatchWriteTests extends EntityTestCase {
+
+    public static final String module = EntityBatchWriteTests.class.getName();
+    public static final int ROW_COUNT = 100000;
+    // the number of values passed to each createAll/storeAll/removeAll call, and to each transaction, like an import would do
+    public static final int CHUNK_SIZE = 1000;
+    private static final EntityCondition TEST_CONDITION = EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "BATCH-%");
+
+    public EntityBatchWriteTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        delegator.removeByCondition("Testing", TEST_CONDITION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByCondition("Testing", TEST_CONDITION);
+    }
+
+    private List<GenericValue> makeValues(String prefix, int start, String description) {
+        List<GenericValue> values = new ArrayList<GenericValue>(CHUNK_SIZE);
+        for (int i = start; i < start + CHUNK_SIZE && i < ROW_COUNT; i++) {
+            GenericValue value = delegator.makeValue("Testing", "testingId", prefix + i);
+            value.set("description", description);
+            value.set("testingSize", Long.valueOf(i));
+            values.add(value);
+        }
+        return values;
+    }
+
+    private void logTime(String operation, long startTime) {
+        long millis = System.currentTimeMillis() - startTime;
+        Debug.logInfo(operation + " of " + ROW_COUNT + " Testing rows took " + millis + "ms (" + (ROW_COUNT * 1000L / Math.max(millis, 1)) + " rows/s)", module);
+    }
+
+    public void testBatchWrites() throws Exception {
+        Datasource datasource = EntityConfigUtil.getDatasource(delegator.getGroupHelperInfo(delegator.getEntityGroupName("Testing")).getHelperBaseName());
+        Debug.logInfo("Testing entity datasource batch-size is " + (datasource != null ? datasource.getBatchSize() : 0), module);
+
+        // baseline: one create per row
+        long startTime = System.currentTimeMillis();
+        for (int start = 0; start < ROW_COUNT; start += CHUNK_SIZE) {
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                for (GenericValue value : makeValues("BATCH-ONE-", start, "created")) {
+                    delegator.create(value);
+                }
+                TransactionUtil.commit(beganTransaction);
+            } catch (Exception e) {
+                TransactionUtil.rollback(beganTransaction, "Error creating Testing rows one at a time", e);
+                throw e;
+            }
+        }
+        logTime("create one at a time", startTime);
+        assertEquals("Rows created one at a time", ROW_COUNT, delegator.findCountByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "BATCH-ONE-%"), null, null));
+
+        startTime = System.currentTimeMillis();
+        for (int start = 0; start < ROW_COUNT; start += CHUNK_SIZE) {
+            assertEquals("Rows created by createAll", Math.min(CHUNK_SIZE, ROW_COUNT - start), delegator.createAll(makeValues("BATCH-ALL-", start, "created")));
+        }
+        logTime("createAll", startTime);
+        assertEquals("Rows created by createAll", ROW_COUNT, delegator.findCountByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "BATCH-ALL-%"), null, null));
+
+        // storeAll over existing rows: one lookup per chunk, then updates of the changed description only
+        startTime = System.currentTimeMillis();
+        for (int start = 0; start < ROW_COUNT; start += CHUNK_SIZE) {
+            delegator.storeAll(makeValues("BATCH-ALL-", start, "stored"));
+        }
+        logTime("storeAll (update)", startTime);
+        assertEquals("Rows updated by storeAll", ROW_COUNT, delegator.findCountByCondition("Testing", EntityCondition.makeCondition(
+                EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "BATCH-ALL-%"),
+                EntityCondition.makeCondition("description", EntityOperator.EQUALS, "stored")), null, null));
+        GenericValue lastValue = delegator.findOne("Testing", false, "testingId", "BATCH-ALL-" + (ROW_COUNT - 1));
+        assertEquals("Unchanged field kept by storeAll", Long.valueOf(ROW_COUNT - 1), lastValue.getLong("testingSize"));
+
+        startTime = System.currentTimeMillis();
+        for (int start = 0; start < ROW_COUNT; start += CHUNK_SIZE) {
+            List<GenericPK> primaryKeys = new ArrayList<GenericPK>(CHUNK_SIZE);
+            for (GenericValue value : makeValues("BATCH-ALL-", start, null)) {
+                primaryKeys.add(value.getPrimaryKey());
+            }
+            delegator.removeAll(primaryKeys);
+        }
+        logTime("removeAll", startTime);
+        assertEquals("Rows left after removeAll", 0, delegator.findCountByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "BATCH-ALL-%"), null, null));
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.EntityListCache;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.testtools.EntityTestCase;
+
+/**
+ * Checks which cached conditions a store removes from the entity list cache, and logs the time a
+ * store takes as the number of cached conditions grows, for conditions the stored value can be
+ * looked up by (field equals value) and for conditions that have to be evaluated one by one (OR).
+ */
+public class EntityConditionCacheTests extends EntityTestCase {
+
+    public static final String module = EntityConditionCacheTests.class.getName();
+    public static final int STORE_COUNT = 1000;
+
+    private EntityListCache listCache;
+
+    public EntityConditionCacheTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        listCache = new EntityListCache(delegator.getDelegatorName());
+        listCache.remove("Testing");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        listCache.remove("Testing");
+    }
+
+    private void cache(EntityCondition condition) {
+        listCache.put("Testing", condition, new ArrayList<GenericValue>());
+    }
+
+    private boolean isCached(EntityCondition condition) {
+        return listCache.get("Testing", condition) != null;
+    }
+
+    public void testStoreHookRemovesMatchingConditions() throws Exception {
+        EntityCondition sameType = EntityCondition.makeCondition("testingTypeId", "CACHE-T5");
+        EntityCondition otherType = EntityCondition.makeCondition("testingTypeId", "CACHE-T6");
+        EntityCondition sameTypeOldDescription = EntityCondition.makeCondition(UtilMisc.toMap("testingTypeId", "CACHE-T5", "description", "old"));
+        EntityCondition sameTypeFieldMap = EntityCondition.makeCondition(UtilMisc.toMap("testingTypeId", "CACHE-T5"));
+        EntityCondition sameTypeList = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("testingSize", EntityOperator.GREATER_THAN, Long.valueOf(0)),
+                EntityCondition.makeCondition("testingTypeId", "CACHE-T5")), EntityOperator.AND);
+        EntityCondition orMatching = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("testingTypeId", "CACHE-T5"),
+                EntityCondition.makeCondition("description", "none")), EntityOperator.OR);
+        EntityCondition orNotMatching = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("testingTypeId", "CACHE-T6"),
+                EntityCondition.makeCondition("description", "new")), EntityOperator.OR);
+        EntityCondition greaterThan = EntityCondition.makeCondition("testingSize", EntityOperator.GREATER_THAN, Long.valueOf(0));
+        List<EntityCondition> conditions = UtilMisc.toList(sameType, otherType, sameTypeOldDescription, sameTypeFieldMap, sameTypeList);
+        conditions.addAll(UtilMisc.toList(orMatching, orNotMatching, greaterThan, null));
+        for (EntityCondition condition: conditions) {
+            cache(condition);
+        }
+
+        GenericValue oldValue = delegator.makeValue("Testing", "testingId", "CACHE-1", "testingTypeId", "CACHE-T5", "description", "old", "testingSize", Long.valueOf(1));
+        GenericValue newValue = delegator.makeValue("Testing", "testingId", "CACHE-1", "testingTypeId", "CACHE-T5", "description", "new", "testingSize", Long.valueOf(1));
+        listCache.storeHook(oldValue, newValue);
+
+        // a condition is removed when the old value matches it, and the new value matches it too
+        assertFalse("equals condition removed", isCached(sameType));
+        assertFalse("field map condition removed", isCached(sameTypeFieldMap));
+        assertFalse("and list condition removed", isCached(sameTypeList));
+        assertFalse("matching or condition removed", isCached(orMatching));
+        assertFalse("greater than condition removed", isCached(greaterThan));
+        assertFalse("null condition removed", isCached(null));
+        assertTrue("other value condition kept", isCached(otherType));
+        assertTrue("condition the new value does not match kept", isCached(sameTypeOldDescription));
+        assertTrue("or condition the old value does not match kept", isCached(orNotMatching));
+
+        // removed conditions leave the index, so caching one again makes a store find it again
+        cache(sameType);
+        listCache.storeHook(oldValue, newValue);
+        assertFalse("recached equals condition removed", isCached(sameType));
+    }
+
+    public void testStoreHookTimeByConditionCount() throws Exception {
+        GenericValue oldValue = delegator.makeValue("Testing", "testingId", "CACHE-1", "testingTypeId", "CACHE-NONE", "description", "old");
+        GenericValue newValue = delegator.makeValue("Testing", "testingId", "CACHE-1", "testingTypeId", "CACHE-NONE", "description", "new");
+        for (int conditionCount = 100; conditionCount <= 10000; conditionCount *= 10) {
+            listCache.remove("Testing");
+            for (int i = 0; i < conditionCount; i++) {
+                cache(EntityCondition.makeCondition("testingTypeId", "CACHE-EQ-" + i));
+            }
+            long equalsNanos = timeStores(oldValue, newValue);
+            listCache.remove("Testing");
+            for (int i = 0; i < conditionCount; i++) {
+                cache(EntityCondition.makeCondition(UtilMisc.toList(
+                        EntityCondition.makeCondition("testingTypeId", "CACHE-OR-" + i),
+                        EntityCondition.makeCondition("description", "CACHE-OR-" + i)), EntityOperator.OR));
+            }
+            long orNanos = timeStores(oldValue, newValue);
+            Debug.logInfo("Store with " + conditionCount + " cached Testing conditions took " + (equalsNanos / STORE_COUNT / 1000) + "us (indexed equals conditions) and "
+                    + (orNanos / STORE_COUNT / 1000) + "us (evaluated or conditions)", module);
+        }
+    }
+
+    private long timeStores(GenericValue oldValue, GenericValue newValue) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < STORE_COUNT; i++) {
+            listCache.storeHook(oldValue, newValue);
+        }
+        return System.nanoTime() - startTime;
+    }
+}
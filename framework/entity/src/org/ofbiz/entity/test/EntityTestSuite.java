@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.entity.test;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.sql.Blob;
 import java.sql.Date;
@@ -28,6 +29,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import javax.transaction.Transaction;
+
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.Observable;
 import org.ofbiz.base.util.Observer;
@@ -40,14 +43,19 @@ import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.EntityCacheListener;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
 import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.config.model.Datasource;
 import org.ofbiz.entity.config.EntityConfigUtil;
+import org.ofbiz.entity.connection.DBCPConnectionFactory;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
+import org.ofbiz.entity.model.ModelReader;
+import org.ofbiz.entity.model.ModelReaderSnapshot;
+import org.ofbiz.entity.model.ModelViewEntity;
 import org.ofbiz.entity.testtools.EntityTestCase;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
@@ -88,6 +96,31 @@ public class EntityTestSuite extends EntityTestCase {
         assertNull("TestingType.newDesc field model is null", modelField);
     }
     
+    /*
+     * Tests writing the entity model to a snapshot and reading it back.
+     */
+    public void testModelReaderSnapshot() throws Exception {
+        String modelName = EntityConfigUtil.getDelegator(delegator.getDelegatorBaseName()).getEntityModelReader();
+        File snapshotDir = new File(System.getProperty("java.io.tmpdir"), "ofbiz-entity-model-test-" + System.nanoTime());
+        try {
+            ModelReaderSnapshot.write(snapshotDir, delegator.getModelReader(), "test-hash");
+            assertNull("snapshot of other sources not read", ModelReaderSnapshot.read(snapshotDir, modelName, "other-hash"));
+            ModelReader snapshotReader = ModelReaderSnapshot.read(snapshotDir, modelName, "test-hash");
+            assertNotNull("snapshot read", snapshotReader);
+            assertEquals("same entities", delegator.getModelReader().getEntityNames(), snapshotReader.getEntityNames());
+            ModelEntity testing = snapshotReader.getModelEntity("Testing");
+            assertEquals("same fields", delegator.getModelEntity("Testing").getAllFieldNames(), testing.getAllFieldNames());
+            assertEquals("same relations", delegator.getModelEntity("Testing").getRelationsSize(), testing.getRelationsSize());
+            ModelViewEntity view = (ModelViewEntity) snapshotReader.getModelEntity("TestingNodeAndMember");
+            assertEquals("same view members", ((ModelViewEntity) delegator.getModelEntity("TestingNodeAndMember")).getMemberModelMemberEntities().keySet(), view.getMemberModelMemberEntities().keySet());
+        } finally {
+            for (File file: snapshotDir.listFiles()) {
+                file.delete();
+            }
+            snapshotDir.delete();
+        }
+    }
+
     /*
      * Tests storing values with the delegator's .create, .makeValue, and .storeAll methods
      */
@@ -234,6 +267,31 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals("View retrieved from cache has the correct member description", "New Testing Subtype #9", testValue.getString("subtypeDescription"));
     }
 
+    /*
+     * Tests that entity cache listeners are told which entity was cleared
+     */
+    public void testEntityCacheListener() throws Exception {
+        final List<String> clearedEntityNames = new ArrayList<String>();
+        EntityCacheListener listener = new EntityCacheListener() {
+            public void entityCacheCleared(String delegatorName, String entityName) {
+                clearedEntityNames.add(entityName);
+            }
+        };
+        delegator.getCache().addListener(listener);
+        try {
+            GenericValue testValue = delegator.create("TestingType", "testingTypeId", "TEST-CACHE-LISTENER", "description", "Testing Type cache listener");
+            assertTrue("Listener told of the create", clearedEntityNames.contains("TestingType"));
+            clearedEntityNames.clear();
+            testValue.remove();
+            assertTrue("Listener told of the remove", clearedEntityNames.contains("TestingType"));
+            clearedEntityNames.clear();
+            delegator.getCache().clear();
+            assertTrue("Listener told of the clear all with a null entity name", clearedEntityNames.contains(null));
+        } finally {
+            delegator.getCache().removeListener(listener);
+        }
+    }
+
     /*
      * Tests XML serialization by serializing/deserializing a GenericValue
      */
@@ -583,6 +641,50 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals("Test that transaction rollback removes value: ", testValueOut, null);
     }
 
+    /*
+     * Tests that the placeholders of the transaction begins and suspends whose stack is not recorded go through
+     * begin, suspend, resume and the warning about beginning in a rollback-only transaction.
+     */
+    public void testTransactionUtilUntrackedStacks() throws Exception {
+        int stackSampleRate = TransactionUtil.getStackSampleRate();
+        TransactionUtil.setStackSampleRate(1);
+        try {
+            assertTrue("transaction begun", TransactionUtil.begin());
+            assertTrue("full tracking records the begin stack", TransactionUtil.getTransactionBeginStack().getStackTrace().length > 0);
+            TransactionUtil.rollback();
+
+            TransactionUtil.setStackSampleRate(0);
+            assertTrue("transaction begun", TransactionUtil.begin());
+            try {
+                Exception beginStack = TransactionUtil.getTransactionBeginStack();
+                assertNotNull("begin placeholder", beginStack);
+                assertEquals("begin stack not recorded", 0, beginStack.getStackTrace().length);
+                assertTrue("begin placeholder tells the thread", beginStack.getMessage().contains(Thread.currentThread().getName()));
+                Transaction parentTx = TransactionUtil.suspend();
+                try {
+                    assertSame("begin placeholder saved", beginStack, TransactionUtil.getTransactionBeginStackSave().get(0));
+                    assertEquals("suspend stack not recorded", 0, TransactionUtil.getSuspendedTxLocationsStack().get(0).getStackTrace().length);
+                    assertTrue("nested transaction begun", TransactionUtil.begin());
+                    TransactionUtil.commit(true);
+                } finally {
+                    TransactionUtil.resume(parentTx);
+                }
+                assertSame("begin placeholder resumed", beginStack, TransactionUtil.getTransactionBeginStack());
+                // the placeholder is logged as where the rollback-only transaction began
+                TransactionUtil.setRollbackOnly("testTransactionUtilUntrackedStacks", null);
+                try {
+                    TransactionUtil.begin();
+                    fail("begun in a rollback-only transaction");
+                } catch (GenericTransactionException e) {
+                }
+            } finally {
+                TransactionUtil.rollback();
+            }
+        } finally {
+            TransactionUtil.setStackSampleRate(stackSampleRate);
+        }
+    }
+
     /*
      * This test will verify that a transaction which takes longer than the pre-set timeout are rolled back.
      */
@@ -618,6 +720,31 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * This test will verify that the connection pool counts the borrowed connections.
+     */
+    public void testDataSourceInfo() throws Exception {
+        String helperName = delegator.getGroupHelperName(delegator.getEntityGroupName("Testing"));
+        delegator.findOne("Testing", false, "testingId", "pool-info-test");
+        Map<String, Object> dataSourceInfo = DBCPConnectionFactory.getDataSourceInfo(helperName);
+        if (dataSourceInfo.isEmpty()) {
+            // the datasource does not use the DBCP connection factory
+            return;
+        }
+        long borrowCount = (Long) dataSourceInfo.get("poolBorrowCount");
+        assertTrue("borrowed connections counted", borrowCount > 0);
+        delegator.findOne("Testing", false, "testingId", "pool-info-test");
+        dataSourceInfo = DBCPConnectionFactory.getDataSourceInfo(helperName);
+        assertTrue("borrow count increased", (Long) dataSourceInfo.get("poolBorrowCount") > borrowCount);
+        long histogramTotal = 0;
+        for (Object count: ((Map<?, ?>) dataSourceInfo.get("poolBorrowLatencyHistogram")).values()) {
+            histogramTotal += (Long) count;
+        }
+        // other threads (ie the job poller) borrow connections meanwhile, some may be counted but not in the histogram yet
+        assertTrue("borrows in the histogram", histogramTotal > 0);
+        assertTrue("no more borrows in the histogram than counted", histogramTotal <= (Long) dataSourceInfo.get("poolBorrowCount"));
+    }
+
     /*
      * Tests field types.
      */
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.GenericDelegator;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.util.SequenceUtil;
+
+/**
+ * Allocates sequenced ids from many threads at once and checks they are unique, and that the
+ * bank grew with the allocation rate.
+ */
+public class SequenceUtilTests extends EntityTestCase {
+
+    public static final String module = SequenceUtilTests.class.getName();
+    public static final String SEQ_NAME = "SequenceUtilTests";
+    public static final int THREAD_COUNT = 16;
+    public static final int IDS_PER_THREAD = 5000;
+
+    public SequenceUtilTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByAnd("SequenceValueItem", "seqName", SEQ_NAME);
+    }
+
+    public void testConcurrentAllocation() throws Exception {
+        ModelEntity seqEntity = delegator.getModelEntity("SequenceValueItem");
+        final SequenceUtil sequencer = new SequenceUtil((GenericDelegator) delegator, delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")), seqEntity, "seqName", "seqId");
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        ExecutorService executor = ExecutionPool.getExecutor(null, "sequence-util-test", THREAD_COUNT, true);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        int duplicates = 0;
+                        for (int j = 0; j < IDS_PER_THREAD; j++) {
+                            Long id = sequencer.getNextSeqId(SEQ_NAME, 1, null);
+                            assertNotNull("got an id", id);
+                            if (!ids.add(id)) {
+                                duplicates++;
+                            }
+                        }
+                        return duplicates;
+                    }
+                }));
+            }
+            for (Future<Integer> future: futures) {
+                assertEquals("no duplicate ids", Integer.valueOf(0), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("all ids allocated", THREAD_COUNT * IDS_PER_THREAD, ids.size());
+
+        Map<String, Object> metrics = sequencer.getBankMetrics().get(SEQ_NAME);
+        Debug.logInfo("Allocated " + ids.size() + " ids in " + (System.currentTimeMillis() - startTime) + "ms, bank metrics: " + metrics, module);
+        assertEquals("allocated ids counted", Long.valueOf(THREAD_COUNT * IDS_PER_THREAD), metrics.get("idsAllocated"));
+        long bankSize = (Long) metrics.get("bankSize");
+        long initialBankSize = seqEntity.getSequenceBankSize() != null ? seqEntity.getSequenceBankSize().longValue() : 10;
+        assertTrue("bank grew with the allocation rate", bankSize > initialBankSize);
+        assertTrue("banks were prefetched", ((Long) metrics.get("prefetchCount")).longValue() > 0);
+    }
+}
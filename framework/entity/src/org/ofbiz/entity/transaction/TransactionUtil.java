@@ -27,6 +27,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.XAConnection;
 import javax.transaction.HeuristicMixedException;
@@ -48,6 +49,7 @@ import org.apache.commons.collections.map.ListOrderedMap;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.GenericEntityConfException;
 import org.ofbiz.entity.GenericEntityException;
@@ -72,6 +74,9 @@ public class TransactionUtil implements Status {
     private static ThreadLocal<List<RollbackOnlyCause>> setRollbackOnlyCauseSave = new ThreadLocal<List<RollbackOnlyCause>>();
     private static ThreadLocal<Timestamp> transactionStartStamp = new ThreadLocal<Timestamp>();
     private static ThreadLocal<Timestamp> transactionLastNowStamp = new ThreadLocal<Timestamp>();
+    /** Records the stack of one in this many begins and suspends, none when 0, see transaction.stack.tracking in general.properties */
+    private static volatile int stackSampleRate = getConfiguredStackSampleRate();
+    private static final AtomicLong stackPlaceholderCount = new AtomicLong(0);
 
     @Deprecated
     public static <V> V doNewTransaction(String ifErrorMessage, Callable<V> callable) throws GenericEntityException {
@@ -622,7 +627,7 @@ public class TransactionUtil implements Status {
         List<Transaction> tl = getSuspendedTxStack();
         tl.add(0, t);
         List<Exception> stls = getSuspendedTxLocationsStack();
-        stls.add(0, new Exception("TX Suspend Location"));
+        stls.add(0, makeStackPlaceholder("TX Suspend Location"));
         // save the current transaction start stamp
         pushTransactionStartStamp(t);
     }
@@ -740,10 +745,69 @@ public class TransactionUtil implements Status {
     }
 
     private static void setTransactionBeginStack() {
-        Exception e = new Exception("Tx Stack Placeholder");
+        Exception e = makeStackPlaceholder("Tx Stack Placeholder");
         setTransactionBeginStack(e);
     }
 
+    /**
+     * Returns one in how many transaction begins and suspends have their stack recorded: 1 for all of them, 0 for none
+     * @return int
+     */
+    public static int getStackSampleRate() {
+        return stackSampleRate;
+    }
+
+    /**
+     * Sets one in how many transaction begins and suspends have their stack recorded, in place of transaction.stack.tracking
+     * in general.properties, ie to get the stacks of a problem without a restart
+     * @param sampleRate 1 to record all of them, 0 for none
+     */
+    public static void setStackSampleRate(int sampleRate) {
+        stackSampleRate = Math.max(0, sampleRate);
+    }
+
+    private static int getConfiguredStackSampleRate() {
+        String stackTracking = UtilProperties.getPropertyValue("general.properties", "transaction.stack.tracking", "full");
+        if ("off".equals(stackTracking)) {
+            return 0;
+        } else if ("sampled".equals(stackTracking)) {
+            return Math.max(1, UtilProperties.getPropertyAsInteger("general.properties", "transaction.stack.tracking.sample", 100));
+        } else if (!"full".equals(stackTracking)) {
+            Debug.logWarning("Unknown transaction.stack.tracking [" + stackTracking + "], recording the stacks of all the transaction begins", module);
+        }
+        return 1;
+    }
+
+    /** Returns the placeholder of the current location, with its stack if it is tracked */
+    private static Exception makeStackPlaceholder(String message) {
+        if (stackSampleRate == 1 || (stackSampleRate > 1 && stackPlaceholderCount.getAndIncrement() % stackSampleRate == 0)) {
+            return new Exception(message);
+        }
+        return new UntrackedStackPlaceholder(message);
+    }
+
+    /** A placeholder whose stack is not recorded, which only tells the thread and time it was made in */
+    @SuppressWarnings("serial")
+    private static final class UntrackedStackPlaceholder extends Exception {
+        private final String threadName = Thread.currentThread().getName();
+        private final long createdMillis = System.currentTimeMillis();
+
+        private UntrackedStackPlaceholder(String message) {
+            super(message);
+        }
+
+        @Override
+        public String getMessage() {
+            return super.getMessage() + " in thread [" + threadName + "] at " + new Timestamp(createdMillis) + " (stack not recorded, see transaction.stack.tracking in general.properties)";
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // walking the stack is what is saved
+            return this;
+        }
+    }
+
     private static void setTransactionBeginStack(Exception newExc) {
         if (transactionBeginStack.get() != null) {
             Exception e = transactionBeginStack.get();
@@ -22,11 +22,23 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.transaction.Transaction;
 
+import javolution.util.FastMap;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.entity.GenericDelegator;
@@ -41,18 +53,26 @@ import org.ofbiz.entity.transaction.TransactionUtil;
 /**
  * Sequence Utility to get unique sequences from named sequence banks
  * Uses a collision detection approach to safely get unique sequenced ids in banks from the database
+ * <p>Ids are handed out from the current bank without locking. When a bank is mostly used the next
+ * one is fetched in the background, and the size of the banks follows the rate the ids are used:
+ * a bank that runs out faster than the target time doubles the next one (up to maxBankSize), a bank
+ * that lasts much longer halves it (down to the sequence-bank-size of the entity).
  */
 public class SequenceUtil {
 
     public static final String module = SequenceUtil.class.getName();
 
-    private final Map<String, SequenceBank> sequences = new Hashtable<String, SequenceBank>();
+    private static final ExecutorService prefetchExecutor = ExecutionPool.getExecutor(null, "OFBiz-sequence-prefetch", 2, false);
+
+    private final ConcurrentMap<String, SequenceBank> sequences = new ConcurrentHashMap<String, SequenceBank>();
     private final GenericHelperInfo helperInfo;
     private final long bankSize;
     private final String tableName;
     private final String nameColName;
     private final String idColName;
     private final boolean clustered;
+    private final long bankTargetMillis;
+    private final int prefetchPercent;
 
     public SequenceUtil(GenericDelegator delegator, GenericHelperInfo helperInfo, ModelEntity seqEntity, String nameFieldName, String idFieldName) {
         this.helperInfo = helperInfo;
@@ -80,6 +100,8 @@ public class SequenceUtil {
         }
         this.bankSize = bankSize;
         clustered = delegator.useDistributedCacheClear() || "Y".equals(UtilProperties.getPropertyValue("general.properties", "clustered"));                
+        this.bankTargetMillis = UtilProperties.getPropertyAsLong("general.properties", "sequence.bank.target.millis", 10000);
+        this.prefetchPercent = UtilProperties.getPropertyAsInteger("general.properties", "sequence.bank.prefetch.percent", 80);
     }
 
     public Long getNextSeqId(String seqName, long staggerMax, ModelEntity seqModelEntity) {
@@ -97,6 +119,18 @@ public class SequenceUtil {
         bank.refresh(staggerMax);
     }
 
+    /**
+     * Returns the metrics of each sequence bank: the ids allocated and their rate per second, the current
+     * bank size, the number of banks fetched and the time it took, and how often an allocation had to wait.
+     */
+    public Map<String, Map<String, Object>> getBankMetrics() {
+        Map<String, Map<String, Object>> metrics = FastMap.newInstance();
+        for (Map.Entry<String, SequenceBank> entry: sequences.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return metrics;
+    }
+
     private SequenceBank getBank(String seqName, ModelEntity seqModelEntity) {
         SequenceBank bank = sequences.get(seqName);
 
@@ -113,6 +147,26 @@ public class SequenceUtil {
         return bank;
     }
 
+    /** A range of reserved ids, handed out by moving next up to max (exclusive) */
+    private static final class SequenceRange {
+        private final long start;
+        private final long max;
+        private final long prefetchAt;
+        private final AtomicLong next;
+        private final AtomicBoolean prefetchStarted = new AtomicBoolean();
+
+        private SequenceRange(long start, long max, int prefetchPercent) {
+            this.start = start;
+            this.max = max;
+            this.prefetchAt = start + (max - start) * prefetchPercent / 100;
+            this.next = new AtomicLong(start);
+        }
+
+        private long getUsed() {
+            return Math.min(next.get(), max) - start;
+        }
+    }
+
     private class SequenceBank {
         public static final long defaultBankSize = 10;
         public static final long maxBankSize = 5000;
@@ -121,59 +175,175 @@ public class SequenceUtil {
         public static final long maxWaitMillis = 50;
         public static final int maxTries = 5;
 
-        private long curSeqId;
-        private long maxSeqId;
         private final String seqName;
+        private final AtomicReference<SequenceRange> current;
+        // the DB work of one sequence is done one reservation at a time, by the allocating or the prefetch thread
+        private final Object fetchLock = new Object();
+        // the fields below are guarded by this
+        private Future<SequenceRange> nextRange = null;
+        private long nextBankSize;
+        private long currentSinceNanos = System.nanoTime();
+        private long retiredIds = 0;
+
+        // metrics
+        private final long createdNanos = System.nanoTime();
+        private final AtomicLong fetchCount = new AtomicLong();
+        private final AtomicLong fetchTimeNanos = new AtomicLong();
+        private final AtomicLong prefetchCount = new AtomicLong();
+        private final AtomicLong waitCount = new AtomicLong();
+        private volatile long lastFetchNanos = 0;
 
         private SequenceBank(String seqName) {
             this.seqName = seqName;
-            curSeqId = 0;
-            maxSeqId = 0;
-            fillBank(1);
+            this.nextBankSize = Math.min(SequenceUtil.this.bankSize, maxBankSize);
+            SequenceRange range = fetch(nextBankSize, false);
+            this.current = new AtomicReference<SequenceRange>(range != null ? range : new SequenceRange(0, 0, 100));
         }
 
-        private synchronized Long getNextSeqId(long staggerMax) {
+        private Long getNextSeqId(long staggerMax) {
             long stagger = 1;
             if (staggerMax > 1) {
                 stagger = Math.round(Math.random() * staggerMax);
                 if (stagger == 0) stagger = 1;
             }
 
-            if ((curSeqId + stagger) <= maxSeqId) {
-                Long retSeqId = Long.valueOf(curSeqId);
-                curSeqId += stagger;
-                return retSeqId;
-            } else {
-                fillBank(stagger);
-                if ((curSeqId + stagger) <= maxSeqId) {
-                    Long retSeqId = Long.valueOf(curSeqId);
-                    curSeqId += stagger;
-                    return retSeqId;
-                } else {
+            while (true) {
+                SequenceRange range = current.get();
+                long seqId = range.next.getAndAdd(stagger);
+                if (seqId + stagger <= range.max) {
+                    if (seqId >= range.prefetchAt && !range.prefetchStarted.get() && range.prefetchStarted.compareAndSet(false, true)) {
+                        prefetch(range);
+                    }
+                    return Long.valueOf(seqId);
+                }
+                if (!nextRange(range, stagger)) {
                     Debug.logError("[SequenceUtil.SequenceBank.getNextSeqId] Fill bank failed, returning null", module);
                     return null;
                 }
             }
         }
 
-        private void refresh(long staggerMax) {
-            this.curSeqId = this.maxSeqId;
-            this.fillBank(staggerMax);
+        private long getBankSize(long stagger) {
+            long bankSize = nextBankSize;
+            if (stagger > 1) {
+                // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
+                bankSize = Math.max(bankSize, stagger * defaultBankSize);
+            }
+            return Math.min(bankSize, maxBankSize);
+        }
+
+        /** Starts fetching the range after the given one in the background */
+        private synchronized void prefetch(SequenceRange range) {
+            if (current.get() != range || nextRange != null || prefetchPercent >= 100) {
+                return;
+            }
+            final long bankSize = getBankSize(1);
+            nextRange = prefetchExecutor.submit(new Callable<SequenceRange>() {
+                public SequenceRange call() {
+                    return fetch(bankSize, true);
+                }
+            });
+        }
+
+        /** Replaces the used up range with the prefetched one, or a newly fetched one; returns false if no ids could be reserved */
+        private synchronized boolean nextRange(SequenceRange range, long stagger) {
+            if (current.get() != range) {
+                // another thread already moved on
+                return true;
+            }
+            long now = System.nanoTime();
+            long lifetimeMillis = TimeUnit.NANOSECONDS.toMillis(now - currentSinceNanos);
+            if (lifetimeMillis < bankTargetMillis / 2) {
+                nextBankSize = Math.min(nextBankSize * 2, maxBankSize);
+            } else if (lifetimeMillis > bankTargetMillis * 2) {
+                nextBankSize = Math.max(nextBankSize / 2, Math.min(SequenceUtil.this.bankSize, maxBankSize));
+            }
+
+            SequenceRange next = null;
+            boolean waited = false;
+            if (nextRange != null) {
+                waited = !nextRange.isDone();
+                try {
+                    next = nextRange.get();
+                } catch (InterruptedException e) {
+                    Debug.logWarning(e, "Interrupted waiting for the prefetched bank of sequence [" + seqName + "]", module);
+                } catch (ExecutionException e) {
+                    Debug.logError(e.getCause(), "Error prefetching the bank of sequence [" + seqName + "]", module);
+                }
+                nextRange = null;
+            }
+            if (next == null || next.start + stagger > next.max) {
+                waited = true;
+                next = fetch(getBankSize(stagger), false);
+            }
+            if (waited) {
+                waitCount.incrementAndGet();
+            }
+            if (next == null) {
+                return false;
+            }
+            retiredIds += range.getUsed();
+            currentSinceNanos = now;
+            current.set(next);
+            return true;
         }
 
-        private synchronized void fillBank(long stagger) {
-            //Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] Starting fillBank Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
+        private synchronized void refresh(long staggerMax) {
+            // a prefetched range may be as stale as the current one, drop it too
+            if (nextRange != null) {
+                nextRange.cancel(false);
+                nextRange = null;
+            }
+            SequenceRange range = current.get();
+            SequenceRange fresh = fetch(getBankSize(staggerMax), false);
+            retiredIds += range.getUsed();
+            currentSinceNanos = System.nanoTime();
+            // when the fetch failed the next allocation tries again
+            current.set(fresh != null ? fresh : new SequenceRange(0, 0, 100));
+        }
 
-            // no need to get a new bank, SeqIds available
-            if ((curSeqId + stagger) <= maxSeqId) return;
+        private SequenceRange fetch(long bankSize, boolean prefetch) {
+            long startNanos = System.nanoTime();
+            long[] reserved = reserve(bankSize);
+            long fetchNanos = System.nanoTime() - startNanos;
+            fetchCount.incrementAndGet();
+            fetchTimeNanos.addAndGet(fetchNanos);
+            lastFetchNanos = fetchNanos;
+            if (reserved == null) {
+                return null;
+            }
+            if (prefetch) {
+                prefetchCount.incrementAndGet();
+            }
+            if (Debug.infoOn()) Debug.logInfo("Got " + (prefetch ? "prefetched " : "") + "bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + reserved[0] + ", maxSeqId=" + reserved[1] + ", bankSize=" + bankSize
+                    + ", took " + TimeUnit.NANOSECONDS.toMillis(fetchNanos) + "ms", module);
+            return new SequenceRange(reserved[0], reserved[1], prefetchPercent);
+        }
 
-            long bankSize = SequenceUtil.this.bankSize;
-            if (stagger > 1) {
-                // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
-                bankSize = stagger * defaultBankSize;
+        private Map<String, Object> getMetrics() {
+            long allocated;
+            long bankSize;
+            synchronized (this) {
+                allocated = retiredIds + current.get().getUsed();
+                bankSize = nextBankSize;
             }
+            long fetches = fetchCount.get();
+            long uptimeMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos));
+            Map<String, Object> metrics = FastMap.newInstance();
+            metrics.put("idsAllocated", allocated);
+            metrics.put("idsPerSecond", allocated * 1000 / uptimeMillis);
+            metrics.put("bankSize", bankSize);
+            metrics.put("fetchCount", fetches);
+            metrics.put("prefetchCount", prefetchCount.get());
+            metrics.put("waitCount", waitCount.get());
+            metrics.put("fetchTimeAvgMillis", fetches > 0 ? TimeUnit.NANOSECONDS.toMillis(fetchTimeNanos.get() / fetches) : 0L);
+            metrics.put("fetchTimeLastMillis", TimeUnit.NANOSECONDS.toMillis(lastFetchNanos));
+            return metrics;
+        }
 
-            if (bankSize > maxBankSize) bankSize = maxBankSize;
+        /** Reserves bankSize ids in the database, returns the first and the max (exclusive) id or null if that failed */
+        private long[] reserve(long bankSize) {
+            //Debug.logWarning("[SequenceUtil.SequenceBank.reserve] Starting reserve Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
 
             long val1 = 0;
             long val2 = 0;
@@ -182,13 +352,13 @@ public class SequenceUtil {
             int numTries = 0;
 
             while (val1 + bankSize != val2) {
-                if (Debug.verboseOn()) Debug.logVerbose("[SequenceUtil.SequenceBank.fillBank] Trying to get a bank of sequenced ids for " +
+                if (Debug.verboseOn()) Debug.logVerbose("[SequenceUtil.SequenceBank.reserve] Trying to get a bank of sequenced ids for " +
                         this.seqName + "; start of loop val1=" + val1 + ", val2=" + val2 + ", bankSize=" + bankSize, module);
 
                 // not sure if this synchronized block is totally necessary, the method is synchronized but it does do a wait/sleep
                 // outside of this block, and this is the really sensitive block, so making sure it is isolated; there is some overhead
                 // to this, but very bad things can happen if we try to do too many of these at once for a single sequencer
-                synchronized (this) {
+                synchronized (fetchLock) {
                     Transaction suspendedTransaction = null;
                     try {
                         //if we can suspend the transaction, we'll try to do this in a local manual transaction
@@ -205,15 +375,15 @@ public class SequenceUtil {
                             try {
                                 connection = ConnectionFactory.getConnection(SequenceUtil.this.helperInfo);
                             } catch (SQLException sqle) {
-                                Debug.logWarning("[SequenceUtil.SequenceBank.fillBank]: Unable to esablish a connection with the database... Error was:" + sqle.toString(), module);
+                                Debug.logWarning("[SequenceUtil.SequenceBank.reserve]: Unable to esablish a connection with the database... Error was:" + sqle.toString(), module);
                                 throw sqle;
                             } catch (GenericEntityException e) {
-                                Debug.logWarning("[SequenceUtil.SequenceBank.fillBank]: Unable to esablish a connection with the database... Error was: " + e.toString(), module);
+                                Debug.logWarning("[SequenceUtil.SequenceBank.reserve]: Unable to esablish a connection with the database... Error was: " + e.toString(), module);
                                 throw e;
                             }
 
                             if (connection == null) {
-                                throw new GenericEntityException("[SequenceUtil.SequenceBank.fillBank]: Unable to esablish a connection with the database, connection was null...");
+                                throw new GenericEntityException("[SequenceUtil.SequenceBank.reserve]: Unable to esablish a connection with the database, connection was null...");
                             }
 
                             String sql = null;
@@ -236,7 +406,7 @@ public class SequenceUtil {
                                 rs.close();
 
                                 if (!gotVal1) {
-                                    Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] first select failed: will try to add new row, result set was empty for sequence [" + seqName + "] \nUsed SQL: " + sql + " \n Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
+                                    Debug.logWarning("[SequenceUtil.SequenceBank.reserve] first select failed: will try to add new row, result set was empty for sequence [" + seqName + "] \nUsed SQL: " + sql + " \n Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
                                     sql = "INSERT INTO " + SequenceUtil.this.tableName + " (" + SequenceUtil.this.nameColName + ", " + SequenceUtil.this.idColName + ") VALUES ('" + this.seqName + "', " + startSeqId + ")";
                                     if (stmt.executeUpdate(sql) <= 0) {
                                         throw new GenericEntityException("No rows changed when trying insert new sequence row with this SQL: " + sql);
@@ -246,7 +416,7 @@ public class SequenceUtil {
 
                                 sql = "UPDATE " + SequenceUtil.this.tableName + " SET " + SequenceUtil.this.idColName + "=" + SequenceUtil.this.idColName + "+" + bankSize + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
                                 if (stmt.executeUpdate(sql) <= 0) {
-                                    throw new GenericEntityException("[SequenceUtil.SequenceBank.fillBank] update failed, no rows changes for seqName: " + seqName);
+                                    throw new GenericEntityException("[SequenceUtil.SequenceBank.reserve] update failed, no rows changes for seqName: " + seqName);
                                 }
                                 if (clustered) {
                                     sql = "SELECT " + SequenceUtil.this.idColName + " FROM " + SequenceUtil.this.tableName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'" + " FOR UPDATE";                                    
@@ -264,7 +434,7 @@ public class SequenceUtil {
                                 rs.close();
 
                                 if (!gotVal2) {
-                                    throw new GenericEntityException("[SequenceUtil.SequenceBank.fillBank] second select failed: aborting, result set was empty for sequence: " + seqName);
+                                    throw new GenericEntityException("[SequenceUtil.SequenceBank.reserve] second select failed: aborting, result set was empty for sequence: " + seqName);
                                 }
 
                                 // got val1 and val2 at this point, if we don't have the right difference between them, force a rollback (with
@@ -274,7 +444,7 @@ public class SequenceUtil {
                                     TransactionUtil.setRollbackOnly("Forcing transaction rollback in sequence increment because we didn't get a clean update, ie a conflict was found, so not saving the results", null);
                                 }
                             } catch (SQLException sqle) {
-                                Debug.logWarning(sqle, "[SequenceUtil.SequenceBank.fillBank] SQL Exception while executing the following:\n" + sql + "\nError was:" + sqle.getMessage(), module);
+                                Debug.logWarning(sqle, "[SequenceUtil.SequenceBank.reserve] SQL Exception while executing the following:\n" + sql + "\nError was:" + sqle.getMessage(), module);
                                 throw sqle;
                             } finally {
                                 try {
@@ -321,32 +491,32 @@ public class SequenceUtil {
 
                 if (val1 + bankSize != val2) {
                     if (numTries >= maxTries) {
-                        String errMsg = "[SequenceUtil.SequenceBank.fillBank] maxTries (" + maxTries + ") reached for seqName [" + this.seqName + "], giving up.";
+                        String errMsg = "[SequenceUtil.SequenceBank.reserve] maxTries (" + maxTries + ") reached for seqName [" + this.seqName + "], giving up.";
                         Debug.logError(errMsg, module);
-                        return;
+                        return null;
                     }
 
                     // collision happened, wait a bounded random amount of time then continue
                     long waitTime = (long) (Math.random() * (maxWaitMillis - minWaitMillis) + minWaitMillis);
 
-                    Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] Collision found for seqName [" + seqName + "], val1=" + val1 + ", val2=" + val2 + ", val1+bankSize=" + (val1 + bankSize) + ", bankSize=" + bankSize + ", waitTime=" + waitTime, module);
+                    Debug.logWarning("[SequenceUtil.SequenceBank.reserve] Collision found for seqName [" + seqName + "], val1=" + val1 + ", val2=" + val2 + ", val1+bankSize=" + (val1 + bankSize) + ", bankSize=" + bankSize + ", waitTime=" + waitTime, module);
 
                     try {
                         // using the Thread.sleep to more reliably lock this thread: this.wait(waitTime);
                         java.lang.Thread.sleep(waitTime);
                     } catch (Exception e) {
                         Debug.logWarning(e, "Error waiting in sequence util", module);
-                        return;
+                        return null;
                     }
                 }
 
                 numTries++;
             }
 
-            curSeqId = val1;
-            maxSeqId = val2;
-            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + curSeqId + ", maxSeqId=" + maxSeqId + ", bankSize=" + bankSize, module);
-            //Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] Ending fillBank Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
+            if (val1 + bankSize != val2) {
+                return null;
+            }
+            return new long[] {val1, val2};
         }
     }
 }
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.cache;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.util.DistributedCacheClear;
+
+/**
+ * Distributed cache clear that buffers the clears for a few milliseconds and sends them as one
+ * CacheClearBatch, so a bulk write sends one message instead of one per value.
+ * <p>Configured in distributedcacheclear.properties: the transport class, the delay before a
+ * batch is sent, and the number of keys of one entity above which the whole entity is cleared.
+ * To use it set distributed-cache-clear-class-name on the delegator in entityengine.xml.
+ */
+public class BatchingCacheClear implements DistributedCacheClear {
+
+    public static final String module = BatchingCacheClear.class.getName();
+    public static final String resource = "distributedcacheclear";
+
+    private static final ScheduledExecutorService executor = ExecutionPool.getExecutor(null, "OFBiz-cache-clear", 1, false);
+
+    protected final long batchDelayMillis;
+    protected final int maxKeysPerEntity;
+    protected CacheClearTransport transport = null;
+    // the batch being filled, sent and replaced by the scheduled flush; guarded by this
+    private CacheClearBatch pending = null;
+
+    public BatchingCacheClear() {
+        this.batchDelayMillis = UtilProperties.getPropertyAsLong(resource, "batch.delay", 10);
+        this.maxKeysPerEntity = UtilProperties.getPropertyAsInteger(resource, "batch.max.keys.per.entity", 100);
+    }
+
+    /** Creates a cache clear with the given transport instead of the configured one, setDelegator need not be called */
+    public BatchingCacheClear(CacheClearTransport transport, long batchDelayMillis, int maxKeysPerEntity) {
+        this.transport = transport;
+        this.batchDelayMillis = batchDelayMillis;
+        this.maxKeysPerEntity = maxKeysPerEntity;
+    }
+
+    public void setDelegator(Delegator delegator, String userLoginId) {
+        String transportClassName = UtilProperties.getPropertyValue(resource, "transport.class", ServiceCacheClearTransport.class.getName());
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            CacheClearTransport transport = (CacheClearTransport) loader.loadClass(transportClassName).newInstance();
+            transport.setDelegator(delegator, userLoginId);
+            this.transport = transport;
+        } catch (Exception e) {
+            Debug.logError(e, "Could not create the cache clear transport [" + transportClassName + "], distributed cache clearing will be disabled", module);
+        }
+    }
+
+    /** Returns the batch to add to, scheduling the flush when a new one is started; call while holding the lock */
+    private CacheClearBatch getPending() {
+        if (pending == null) {
+            pending = new CacheClearBatch(maxKeysPerEntity);
+            executor.schedule(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, batchDelayMillis, TimeUnit.MILLISECONDS);
+        }
+        return pending;
+    }
+
+    /** Sends the pending clears now */
+    public void flush() {
+        CacheClearBatch batch;
+        synchronized (this) {
+            batch = pending;
+            pending = null;
+        }
+        if (batch == null || transport == null) {
+            return;
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Sending distributed cache clear " + batch, module);
+        try {
+            transport.send(batch);
+        } catch (RuntimeException e) {
+            Debug.logError(e, "Error sending distributed cache clear " + batch, module);
+        }
+    }
+
+    public void distributedClearCacheLine(GenericValue value) {
+        distributedClearCacheLine(value.getPrimaryKey());
+    }
+
+    public void distributedClearCacheLineFlexible(GenericEntity dummyPK) {
+        if (dummyPK.containsPrimaryKey()) {
+            distributedClearCacheLine(dummyPK.getPrimaryKey());
+        } else {
+            // a partial key has no cache line of its own, clearing the whole entity covers what it would clear
+            synchronized (this) {
+                getPending().addEntity(dummyPK.getEntityName());
+            }
+        }
+    }
+
+    public void distributedClearCacheLineByCondition(String entityName, EntityCondition condition) {
+        synchronized (this) {
+            getPending().addCondition(entityName, condition);
+        }
+    }
+
+    public void distributedClearCacheLine(GenericPK primaryKey) {
+        synchronized (this) {
+            getPending().addPrimaryKey(primaryKey.getEntityName(), primaryKey.getAllFields());
+        }
+    }
+
+    public void clearAllCaches() {
+        synchronized (this) {
+            getPending().addClearAll();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.cache;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.condition.EntityCondition;
+
+/**
+ * A set of entity cache clears that is sent to the other servers as one message.
+ * <p>Clears are de-duplicated: each primary key is kept once, only as its field values, and an
+ * entity that gets more than the maximum number of keys is cleared whole instead. Clearing all
+ * caches replaces everything else in the batch.
+ */
+public class CacheClearBatch implements Serializable {
+
+    private final int maxKeysPerEntity;
+    private boolean clearAll = false;
+    private final Set<String> entityNames = new HashSet<String>();
+    private final Map<String, Set<Map<String, Object>>> primaryKeys = new HashMap<String, Set<Map<String, Object>>>();
+    private final Map<String, Set<EntityCondition>> conditions = new HashMap<String, Set<EntityCondition>>();
+
+    /**
+     * @param maxKeysPerEntity the number of primary keys (and conditions) of one entity above
+     * which the whole entity is cleared instead
+     */
+    public CacheClearBatch(int maxKeysPerEntity) {
+        this.maxKeysPerEntity = maxKeysPerEntity;
+    }
+
+    public void addClearAll() {
+        clearAll = true;
+        entityNames.clear();
+        primaryKeys.clear();
+        conditions.clear();
+    }
+
+    public void addEntity(String entityName) {
+        if (clearAll) return;
+        entityNames.add(entityName);
+        primaryKeys.remove(entityName);
+        conditions.remove(entityName);
+    }
+
+    public void addPrimaryKey(String entityName, Map<String, Object> pkFields) {
+        if (clearAll || entityNames.contains(entityName)) return;
+        Set<Map<String, Object>> keys = primaryKeys.get(entityName);
+        if (keys == null) {
+            keys = new HashSet<Map<String, Object>>();
+            primaryKeys.put(entityName, keys);
+        }
+        keys.add(pkFields);
+        if (keys.size() > maxKeysPerEntity) {
+            addEntity(entityName);
+        }
+    }
+
+    public void addCondition(String entityName, EntityCondition condition) {
+        if (clearAll || entityNames.contains(entityName)) return;
+        Set<EntityCondition> entityConditions = conditions.get(entityName);
+        if (entityConditions == null) {
+            entityConditions = new HashSet<EntityCondition>();
+            conditions.put(entityName, entityConditions);
+        }
+        entityConditions.add(condition);
+        if (entityConditions.size() > maxKeysPerEntity) {
+            addEntity(entityName);
+        }
+    }
+
+    public boolean isClearAll() {
+        return clearAll;
+    }
+
+    public Set<String> getEntityNames() {
+        return entityNames;
+    }
+
+    public Map<String, Set<Map<String, Object>>> getPrimaryKeys() {
+        return primaryKeys;
+    }
+
+    public Map<String, Set<EntityCondition>> getConditions() {
+        return conditions;
+    }
+
+    /** Returns the number of clears in this batch */
+    public int size() {
+        if (clearAll) return 1;
+        int size = entityNames.size();
+        for (Set<Map<String, Object>> keys: primaryKeys.values()) {
+            size += keys.size();
+        }
+        for (Set<EntityCondition> entityConditions: conditions.values()) {
+            size += entityConditions.size();
+        }
+        return size;
+    }
+
+    /** Clears the caches of the delegator, without distributing the clears again */
+    public void apply(Delegator delegator) {
+        if (clearAll) {
+            delegator.clearAllCaches(false);
+            return;
+        }
+        for (String entityName: entityNames) {
+            delegator.clearCacheLine(entityName);
+        }
+        for (Map.Entry<String, Set<Map<String, Object>>> entry: primaryKeys.entrySet()) {
+            for (Map<String, Object> pkFields: entry.getValue()) {
+                delegator.clearCacheLine(delegator.makePK(entry.getKey(), pkFields), false);
+            }
+        }
+        for (Map.Entry<String, Set<EntityCondition>> entry: conditions.entrySet()) {
+            for (EntityCondition condition: entry.getValue()) {
+                delegator.clearCacheLineByCondition(entry.getKey(), condition, false);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CacheClearBatch[clearAll=" + clearAll + ", entities=" + entityNames + ", primaryKeys=" + primaryKeys.size() + " entities, conditions=" + conditions.size() + " entities, size=" + size() + "]";
+    }
+}
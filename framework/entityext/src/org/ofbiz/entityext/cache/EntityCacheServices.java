@@ -216,4 +216,18 @@ public class EntityCacheServices implements DistributedCacheClear {
         }
         return ServiceUtil.returnSuccess();
     }
+
+    /**
+     * Clear Cache Line Batch Service: applies a CacheClearBatch sent by a BatchingCacheClear, never distributes
+     * @param dctx The DispatchContext that this service is operating in
+     * @param context Map containing the input parameters
+     * @return Map with the result of the service, the output parameters
+     */
+    public static Map<String, Object> clearCacheLineBatch(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        CacheClearBatch batch = (CacheClearBatch) context.get("batch");
+        if (Debug.infoOn()) Debug.logInfo("Got a clear cache line batch service call; " + batch, module);
+        batch.apply(delegator);
+        return ServiceUtil.returnSuccess();
+    }
 }
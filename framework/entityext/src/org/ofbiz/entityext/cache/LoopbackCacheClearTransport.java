@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.ofbiz.entity.Delegator;
+
+/**
+ * Stands in for the other servers inside this JVM: each batch is recorded and applied to the
+ * registered delegators. Meant for tests and for trying out the batching on a single server.
+ */
+public class LoopbackCacheClearTransport implements CacheClearTransport {
+
+    private static final List<Delegator> receivers = new CopyOnWriteArrayList<Delegator>();
+    private static final List<CacheClearBatch> sentBatches = new CopyOnWriteArrayList<CacheClearBatch>();
+
+    public static void addReceiver(Delegator delegator) {
+        receivers.add(delegator);
+    }
+
+    public static void removeReceiver(Delegator delegator) {
+        receivers.remove(delegator);
+    }
+
+    /** Returns the batches sent so far, and forgets them */
+    public static List<CacheClearBatch> takeSentBatches() {
+        List<CacheClearBatch> batches = new CopyOnWriteArrayList<CacheClearBatch>(sentBatches);
+        sentBatches.removeAll(batches);
+        return batches;
+    }
+
+    public void setDelegator(Delegator delegator, String userLoginId) {
+    }
+
+    public void send(CacheClearBatch batch) {
+        sentBatches.add(batch);
+        for (Delegator receiver: receivers) {
+            batch.apply(receiver);
+        }
+    }
+}
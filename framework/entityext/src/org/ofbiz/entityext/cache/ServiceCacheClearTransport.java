@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.cache;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entityext.EntityServiceFactory;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.LocalDispatcher;
+
+/**
+ * Sends each batch with one asynchronous call of the distributedClearCacheLineBatch service, which
+ * is a JMS topic service by default, like the other distributed cache clear services.
+ */
+public class ServiceCacheClearTransport implements CacheClearTransport {
+
+    public static final String module = ServiceCacheClearTransport.class.getName();
+
+    protected Delegator delegator = null;
+    protected LocalDispatcher dispatcher = null;
+    protected String userLoginId = null;
+
+    public void setDelegator(Delegator delegator, String userLoginId) {
+        this.delegator = delegator;
+        this.dispatcher = EntityServiceFactory.getLocalDispatcher(delegator);
+        this.userLoginId = userLoginId;
+    }
+
+    public void send(CacheClearBatch batch) {
+        if (this.dispatcher == null) {
+            Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
+            return;
+        }
+
+        GenericValue userLogin = null;
+        try {
+            userLogin = delegator.findOne("UserLogin", UtilMisc.toMap("userLoginId", userLoginId), true);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error finding the userLogin for distributed cache clear", module);
+        }
+        if (userLogin == null) {
+            Debug.logWarning("The userLogin for distributed cache clear was not found with userLoginId [" + userLoginId + "], not clearing remote caches.", module);
+            return;
+        }
+
+        try {
+            this.dispatcher.runAsync("distributedClearCacheLineBatch", UtilMisc.toMap("batch", batch, "userLogin", userLogin), false);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error running the distributedClearCacheLineBatch service", module);
+        }
+    }
+}
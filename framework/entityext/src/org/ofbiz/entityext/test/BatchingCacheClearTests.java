@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.test;
+
+import java.util.List;
+
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entityext.cache.BatchingCacheClear;
+import org.ofbiz.entityext.cache.CacheClearBatch;
+import org.ofbiz.entityext.cache.LoopbackCacheClearTransport;
+
+/**
+ * Sends cache clears through a BatchingCacheClear with the loopback transport, which applies the
+ * batches to the test delegator as if it was another server.
+ */
+public class BatchingCacheClearTests extends EntityTestCase {
+
+    public BatchingCacheClearTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        LoopbackCacheClearTransport.takeSentBatches();
+        LoopbackCacheClearTransport.addReceiver(delegator);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        LoopbackCacheClearTransport.removeReceiver(delegator);
+        delegator.clearCacheLine("Testing");
+    }
+
+    private GenericValue makeTesting(String testingId) {
+        GenericValue value = delegator.makeValue("Testing", "testingId", testingId, "description", "cache clear");
+        delegator.getCache().put(value);
+        return value;
+    }
+
+    public void testBatchDeduplicatesPrimaryKeys() throws Exception {
+        BatchingCacheClear cacheClear = new BatchingCacheClear(new LoopbackCacheClearTransport(), 60000, 100);
+        GenericValue first = makeTesting("CACHE-CLEAR-1");
+        GenericValue second = makeTesting("CACHE-CLEAR-2");
+        for (int i = 0; i < 10; i++) {
+            cacheClear.distributedClearCacheLine(first);
+            cacheClear.distributedClearCacheLine(second.getPrimaryKey());
+        }
+        assertNotNull("nothing cleared before the flush", delegator.getCache().get(first.getPrimaryKey()));
+        cacheClear.flush();
+
+        List<CacheClearBatch> batches = LoopbackCacheClearTransport.takeSentBatches();
+        assertEquals("one batch sent", 1, batches.size());
+        CacheClearBatch batch = batches.get(0);
+        assertEquals("each key sent once", 2, batch.size());
+        assertTrue("key sent as its fields", batch.getPrimaryKeys().get("Testing").contains(first.getPrimaryKey().getAllFields()));
+        assertNull("first value cleared", delegator.getCache().get(first.getPrimaryKey()));
+        assertNull("second value cleared", delegator.getCache().get(second.getPrimaryKey()));
+    }
+
+    public void testLargeBatchClearsWholeEntity() throws Exception {
+        BatchingCacheClear cacheClear = new BatchingCacheClear(new LoopbackCacheClearTransport(), 60000, 10);
+        GenericValue cached = makeTesting("CACHE-CLEAR-KEPT");
+        for (int i = 0; i < 100; i++) {
+            cacheClear.distributedClearCacheLine(delegator.makePK("Testing", "testingId", "CACHE-CLEAR-" + i));
+        }
+        cacheClear.distributedClearCacheLineByCondition("Testing", EntityCondition.makeCondition("description", "cache clear"));
+        cacheClear.flush();
+
+        List<CacheClearBatch> batches = LoopbackCacheClearTransport.takeSentBatches();
+        assertEquals("one batch sent", 1, batches.size());
+        CacheClearBatch batch = batches.get(0);
+        assertTrue("whole entity cleared", batch.getEntityNames().contains("Testing"));
+        assertEquals("no keys sent", 1, batch.size());
+        assertNull("other value of the entity cleared too", delegator.getCache().get(cached.getPrimaryKey()));
+    }
+
+    public void testScheduledFlush() throws Exception {
+        BatchingCacheClear cacheClear = new BatchingCacheClear(new LoopbackCacheClearTransport(), 10, 100);
+        GenericValue value = makeTesting("CACHE-CLEAR-1");
+        cacheClear.distributedClearCacheLine(value);
+        cacheClear.clearAllCaches();
+        cacheClear.distributedClearCacheLine(value);
+        List<CacheClearBatch> batches = LoopbackCacheClearTransport.takeSentBatches();
+        for (int i = 0; i < 100 && batches.isEmpty(); i++) {
+            Thread.sleep(50);
+            batches = LoopbackCacheClearTransport.takeSentBatches();
+        }
+        assertEquals("one batch sent after the delay", 1, batches.size());
+        assertTrue("clear all replaces the other clears", batches.get(0).isClearAll());
+        assertEquals("clear all sent once", 1, batches.get(0).size());
+        assertNull("value cleared", delegator.getCache().get(value.getPrimaryKey()));
+    }
+}
@@ -18,20 +18,26 @@
  *******************************************************************************/
 package org.ofbiz.security;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpSession;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.EntityCacheListener;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
 import org.ofbiz.entity.condition.EntityExpr;
@@ -47,7 +53,27 @@ public class OFBizSecurity implements Security {
 
     public static final String module = OFBizSecurity.class.getName();
 
+    /** The permission snapshots of each delegator are in the cache named with this prefix followed by the delegator name */
+    protected static final String PERMISSION_SNAPSHOT_CACHE_PREFIX = "security.PermissionSnapshot.";
+    /** Incremented on each clear, a snapshot built while it changed may be stale and is not cached */
+    protected static final AtomicLong permissionGeneration = new AtomicLong();
+    /**
+     * Clears the permission snapshots when the security entities change. There is one for all instances, the
+     * SecurityFactory makes new ones when its cache is cleared and the entity cache keeps its listeners.
+     */
+    protected static final EntityCacheListener securityEntityListener = new EntityCacheListener() {
+        public void entityCacheCleared(String delegatorName, String entityName) {
+            if (entityName == null || "UserLoginSecurityGroup".equals(entityName) || "SecurityGroupPermission".equals(entityName) || "SecurityGroup".equals(entityName)) {
+                permissionGeneration.incrementAndGet();
+                // the clones of a delegator share its entity cache under other delegator names
+                UtilCache.clearCachesThatStartWith(PERMISSION_SNAPSHOT_CACHE_PREFIX);
+            }
+        }
+    };
+
     protected Delegator delegator = null;
+    /** The permission snapshots by userLoginId, cleared when the security entities change */
+    protected UtilCache<String, PermissionSnapshot> permissionSnapshots = null;
 
     protected static final Map<String, Map<String, String>> simpleRoleEntity = UtilMisc.toMap(
         "ORDERMGR", UtilMisc.<String, String>toMap("name", "OrderRole", "pkey", "orderId"),
@@ -57,7 +83,7 @@ public class OFBizSecurity implements Security {
     protected OFBizSecurity() {}
 
     protected OFBizSecurity(Delegator delegator) {
-        this.delegator = delegator;
+        setDelegator(delegator);
     }
 
     @Override
@@ -68,6 +94,78 @@ public class OFBizSecurity implements Security {
     @Override
     public void setDelegator(Delegator delegator) {
         this.delegator = delegator;
+        if (delegator != null) {
+            String cacheName = PERMISSION_SNAPSHOT_CACHE_PREFIX + delegator.getDelegatorName();
+            this.permissionSnapshots = UtilCache.getOrCreateUtilCache(cacheName, 0, 0, 0, true, false, cacheName);
+            // added once to each entity cache
+            delegator.getCache().addListener(securityEntityListener);
+        }
+    }
+
+    /**
+     * Returns the security groups of the user login and the permissions they grant, from the snapshot cache or
+     * made and cached if there is none or it expired.
+     */
+    public PermissionSnapshot getPermissionSnapshot(String userLoginId) {
+        PermissionSnapshot snapshot = permissionSnapshots.get(userLoginId);
+        if (snapshot != null && !snapshot.isExpired(System.currentTimeMillis())) {
+            return snapshot;
+        }
+        long generation = permissionGeneration.get();
+        snapshot = makePermissionSnapshot(userLoginId);
+        if (generation == permissionGeneration.get()) {
+            permissionSnapshots.put(userLoginId, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the security groups the user login is a member of now with {@link #findUserLoginSecurityGroupByUserLoginId(String)}
+     * and their permissions with {@link #findSecurityGroupPermissionsByGroupId(String)}, the snapshot expires at the next
+     * fromDate or thruDate of its memberships.
+     */
+    protected PermissionSnapshot makePermissionSnapshot(String userLoginId) {
+        long now = System.currentTimeMillis();
+        long expireTime = Long.MAX_VALUE;
+        List<String> groupIds = new ArrayList<String>();
+        Set<String> permissionIds = new HashSet<String>();
+        Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLoginId);
+        while (iterator.hasNext()) {
+            GenericValue userLoginSecurityGroup = iterator.next();
+            String groupId = userLoginSecurityGroup.getString("groupId");
+            groupIds.add(groupId);
+            expireTime = Math.min(expireTime, getNextChangeTime(userLoginSecurityGroup, now));
+            Iterator<GenericValue> permissionIterator = findSecurityGroupPermissionsByGroupId(groupId);
+            while (permissionIterator.hasNext()) {
+                permissionIds.add(permissionIterator.next().getString("permissionId"));
+            }
+        }
+        try {
+            // the groups above are the current memberships, the ones starting later change them too
+            List<GenericValue> userLoginSecurityGroups = delegator.findByAnd("UserLoginSecurityGroup", UtilMisc.toMap("userLoginId", userLoginId), null, true);
+            for (GenericValue userLoginSecurityGroup: userLoginSecurityGroups) {
+                expireTime = Math.min(expireTime, getNextChangeTime(userLoginSecurityGroup, now));
+            }
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, module);
+            // the groups may be missing too, the next check reads them again
+            expireTime = now;
+        }
+        return new PermissionSnapshot(userLoginId, groupIds, permissionIds, expireTime);
+    }
+
+    /** Returns the first fromDate or thruDate of the membership after now, or Long.MAX_VALUE if there is none */
+    private static long getNextChangeTime(GenericValue userLoginSecurityGroup, long now) {
+        long changeTime = Long.MAX_VALUE;
+        Timestamp fromDate = userLoginSecurityGroup.getTimestamp("fromDate");
+        if (fromDate != null && fromDate.getTime() > now) {
+            changeTime = fromDate.getTime();
+        }
+        Timestamp thruDate = userLoginSecurityGroup.getTimestamp("thruDate");
+        if (thruDate != null && thruDate.getTime() > now) {
+            changeTime = Math.min(changeTime, thruDate.getTime());
+        }
+        return changeTime;
     }
 
     @Override
@@ -81,6 +179,22 @@ public class OFBizSecurity implements Security {
         }
     }
 
+    /**
+     * Finds the permissions the security group grants, the permission snapshots are made with it. A subclass reading
+     * the permissions of a group from other data overrides this method, and securityGroupPermissionExists with it.
+     *
+     * @param groupId The security group
+     * @return An iterator of SecurityGroupPermission values, with at least the permissionId field
+     */
+    public Iterator<GenericValue> findSecurityGroupPermissionsByGroupId(String groupId) {
+        try {
+            return delegator.findByAnd("SecurityGroupPermission", UtilMisc.toMap("groupId", groupId), null, true).iterator();
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, module);
+            return Collections.<GenericValue>emptyList().iterator();
+        }
+    }
+
     @Override
     public boolean securityGroupPermissionExists(String groupId, String permission) {
         try {
@@ -104,15 +218,7 @@ public class OFBizSecurity implements Security {
     public boolean hasPermission(String permission, GenericValue userLogin) {
         if (userLogin == null) return false;
 
-        Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-        GenericValue userLoginSecurityGroup = null;
-
-        while (iterator.hasNext()) {
-            userLoginSecurityGroup = iterator.next();
-            if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission)) return true;
-        }
-
-        return false;
+        return getPermissionSnapshot(userLogin.getString("userLoginId")).hasPermission(permission);
     }
 
     @Override
@@ -134,18 +240,8 @@ public class OFBizSecurity implements Security {
         String adminPermission = entity.concat("_ADMIN");
 
         // if (Debug.infoOn()) Debug.logInfo("hasEntityPermission: entity=" + entity + ", action=" + action, module);
-        Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-        GenericValue userLoginSecurityGroup = null;
-
-        while (iterator.hasNext()) {
-            userLoginSecurityGroup = iterator.next();
-            if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission))
-                return true;
-            if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), adminPermission))
-                return true;
-        }
-
-        return false;
+        PermissionSnapshot snapshot = getPermissionSnapshot(userLogin.getString("userLoginId"));
+        return snapshot.hasPermission(permission) || snapshot.hasPermission(adminPermission);
     }
 
     @Override
@@ -247,6 +343,7 @@ public class OFBizSecurity implements Security {
     public void clearUserData(GenericValue userLogin) {
         if (userLogin != null) {
             delegator.getCache().remove("UserLoginSecurityGroup", EntityCondition.makeCondition("userLoginId", EntityOperator.EQUALS, userLogin.getString("userLoginId")));
+            permissionSnapshots.remove(userLogin.getString("userLoginId"));
         }
     }
 
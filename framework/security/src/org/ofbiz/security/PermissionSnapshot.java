@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.security;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The security groups one user login belonged to at the time it was made, with all the permissions
+ * these groups grant.
+ * <p>A snapshot is never changed once made, a permission is checked with one lookup in its set. It
+ * expires at the first fromDate or thruDate of the user login's security groups that was still in the
+ * future when it was made, from then on the groups granting the permissions are not the same.
+ */
+public final class PermissionSnapshot {
+
+    private final String userLoginId;
+    private final List<String> groupIds;
+    private final Set<String> permissionIds;
+    private final long expireTime;
+
+    /**
+     * @param userLoginId The user login the permissions are granted to
+     * @param groupIds The ids of the security groups of the user login
+     * @param permissionIds The ids of the permissions granted by these groups
+     * @param expireTime The time in milliseconds from which the snapshot must not be used, Long.MAX_VALUE if it does not expire
+     */
+    public PermissionSnapshot(String userLoginId, List<String> groupIds, Set<String> permissionIds, long expireTime) {
+        this.userLoginId = userLoginId;
+        this.groupIds = Collections.unmodifiableList(new ArrayList<String>(groupIds));
+        this.permissionIds = Collections.unmodifiableSet(new HashSet<String>(permissionIds));
+        this.expireTime = expireTime;
+    }
+
+    public String getUserLoginId() {
+        return this.userLoginId;
+    }
+
+    /** Returns the ids of the security groups of the user login */
+    public List<String> getGroupIds() {
+        return this.groupIds;
+    }
+
+    /** Returns the ids of the permissions granted by the security groups */
+    public Set<String> getPermissionIds() {
+        return this.permissionIds;
+    }
+
+    public long getExpireTime() {
+        return this.expireTime;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= this.expireTime;
+    }
+
+    /** Returns whether the permission is granted by one of the groups */
+    public boolean hasPermission(String permission) {
+        return this.permissionIds.contains(permission);
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionSnapshot[" + this.userLoginId + ", " + this.groupIds.size() + " groups, " + this.permissionIds.size() + " permissions]";
+    }
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.security.test;
+
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.security.OFBizSecurity;
+import org.ofbiz.security.PermissionSnapshot;
+import org.ofbiz.security.Security;
+import org.ofbiz.security.SecurityFactory;
+
+/**
+ * Checks that the permission snapshots of OFBizSecurity follow the changes of the security entities and the
+ * dates of the memberships, and that they are made with the lookups a subclass can override.
+ */
+@SuppressWarnings("deprecation")
+public class OFBizSecurityTests extends EntityTestCase {
+
+    private static final String GROUP_ID = "SNAPTEST";
+    private static final String PERMISSION = "SNAPTEST_VIEW";
+
+    public OFBizSecurityTests(String name) {
+        super(name);
+    }
+
+    private GenericValue makeUserLogin(String userLoginId) throws Exception {
+        return delegator.create("UserLogin", "userLoginId", userLoginId);
+    }
+
+    private GenericValue addMember(String userLoginId, long fromTime, Long thruTime) throws Exception {
+        return delegator.create("UserLoginSecurityGroup", "userLoginId", userLoginId, "groupId", GROUP_ID,
+                "fromDate", new Timestamp(fromTime), "thruDate", thruTime != null ? new Timestamp(thruTime.longValue()) : null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // the test delegator only rolls back at the end of the run, so the group of an earlier test is still there
+        if (delegator.findOne("SecurityGroup", false, "groupId", GROUP_ID) != null) {
+            return;
+        }
+        delegator.create("SecurityGroup", "groupId", GROUP_ID, "description", "Permission snapshot tests");
+        delegator.create("SecurityPermission", "permissionId", PERMISSION, "description", "Permission snapshot tests");
+        delegator.create("SecurityPermission", "permissionId", "SNAPTEST_ADMIN", "description", "Permission snapshot tests");
+        delegator.create("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", PERMISSION);
+    }
+
+    public void testRemoveMembership() throws Exception {
+        Security security = SecurityFactory.getInstance(delegator);
+        GenericValue userLogin = makeUserLogin("snaptest-member");
+        GenericValue member = addMember("snaptest-member", System.currentTimeMillis() - 1000, null);
+        assertTrue("member", security.hasPermission(PERMISSION, userLogin));
+        assertTrue("member, entity permission", security.hasEntityPermission("SNAPTEST", "_VIEW", userLogin));
+        assertFalse("not granted", security.hasEntityPermission("SNAPTEST", "_UPDATE", userLogin));
+        delegator.removeValue(member);
+        assertFalse("membership removed", security.hasPermission(PERMISSION, userLogin));
+        assertFalse("membership removed, entity permission", security.hasEntityPermission("SNAPTEST", "_VIEW", userLogin));
+    }
+
+    public void testChangeGroupPermission() throws Exception {
+        Security security = SecurityFactory.getInstance(delegator);
+        GenericValue userLogin = makeUserLogin("snaptest-permission");
+        addMember("snaptest-permission", System.currentTimeMillis() - 1000, null);
+        assertTrue("granted", security.hasPermission(PERMISSION, userLogin));
+        assertFalse("admin not granted", security.hasEntityPermission("SNAPTEST", "_UPDATE", userLogin));
+        try {
+            delegator.create("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", "SNAPTEST_ADMIN");
+            assertTrue("admin granted", security.hasEntityPermission("SNAPTEST", "_UPDATE", userLogin));
+            delegator.removeByAnd("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", PERMISSION);
+            assertFalse("group permission removed", security.hasPermission(PERMISSION, userLogin));
+        } finally {
+            // the other tests expect the group to grant only PERMISSION
+            delegator.removeByAnd("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", "SNAPTEST_ADMIN");
+            delegator.createOrStore(delegator.makeValue("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", PERMISSION));
+        }
+        assertTrue("group permission restored", security.hasPermission(PERMISSION, userLogin));
+        assertFalse("admin removed", security.hasEntityPermission("SNAPTEST", "_UPDATE", userLogin));
+    }
+
+    public void testMembershipDates() throws Exception {
+        OFBizSecurity security = (OFBizSecurity) SecurityFactory.getInstance(delegator);
+        GenericValue leaving = makeUserLogin("snaptest-leaving");
+        GenericValue joining = makeUserLogin("snaptest-joining");
+        long now = System.currentTimeMillis();
+        long changeTime = now + 1000;
+        addMember("snaptest-leaving", now - 1000, Long.valueOf(changeTime));
+        addMember("snaptest-joining", changeTime, null);
+        assertTrue("member until the thruDate", security.hasPermission(PERMISSION, leaving));
+        assertFalse("member from the fromDate", security.hasPermission(PERMISSION, joining));
+        assertEquals("expires at the thruDate", changeTime, security.getPermissionSnapshot("snaptest-leaving").getExpireTime());
+        assertEquals("expires at the fromDate", changeTime, security.getPermissionSnapshot("snaptest-joining").getExpireTime());
+        while (System.currentTimeMillis() <= changeTime) {
+            Thread.sleep(changeTime + 1 - System.currentTimeMillis());
+        }
+        assertFalse("thruDate passed", security.hasPermission(PERMISSION, leaving));
+        assertTrue("fromDate passed", security.hasPermission(PERMISSION, joining));
+        assertEquals("no later change", Long.MAX_VALUE, security.getPermissionSnapshot("snaptest-joining").getExpireTime());
+    }
+
+    public void testOverriddenLookups() throws Exception {
+        GenericValue userLogin = makeUserLogin("snaptest-override");
+        addMember("snaptest-override", System.currentTimeMillis() - 1000, null);
+        OFBizSecurity security = new ExternalGroupSecurity(delegator);
+        PermissionSnapshot snapshot = security.getPermissionSnapshot("snaptest-override");
+        assertEquals("groups of the overridden lookup", 2, snapshot.getGroupIds().size());
+        assertTrue("permissions of the group of the entity", snapshot.getPermissionIds().contains(PERMISSION));
+        assertTrue("permissions of the overridden lookup", snapshot.getPermissionIds().contains("SNAPTEST_EXTERNAL"));
+        assertTrue("group of the entity", security.hasPermission(PERMISSION, userLogin));
+        assertTrue("external group", security.hasPermission("SNAPTEST_EXTERNAL", userLogin));
+        assertFalse("not granted", security.hasPermission("SNAPTEST_UPDATE", userLogin));
+    }
+
+    /** Adds a group that is not in the UserLoginSecurityGroup entity to each user login, granting one permission */
+    private static class ExternalGroupSecurity extends OFBizSecurity {
+
+        private ExternalGroupSecurity(Delegator delegator) {
+            super(delegator);
+        }
+
+        @Override
+        public Iterator<GenericValue> findUserLoginSecurityGroupByUserLoginId(String userLoginId) {
+            List<GenericValue> userLoginSecurityGroups = FastList.newInstance();
+            Iterator<GenericValue> iterator = super.findUserLoginSecurityGroupByUserLoginId(userLoginId);
+            while (iterator.hasNext()) {
+                userLoginSecurityGroups.add(iterator.next());
+            }
+            userLoginSecurityGroups.add(delegator.makeValue("UserLoginSecurityGroup", "userLoginId", userLoginId, "groupId", "SNAPTEST_EXTERNAL"));
+            return userLoginSecurityGroups.iterator();
+        }
+
+        @Override
+        public Iterator<GenericValue> findSecurityGroupPermissionsByGroupId(String groupId) {
+            if ("SNAPTEST_EXTERNAL".equals(groupId)) {
+                return UtilMisc.toList(delegator.makeValue("SecurityGroupPermission", "groupId", groupId, "permissionId", "SNAPTEST_EXTERNAL")).iterator();
+            }
+            return super.findSecurityGroupPermissionsByGroupId(groupId);
+        }
+
+        @Override
+        public boolean securityGroupPermissionExists(String groupId, String permission) {
+            if ("SNAPTEST_EXTERNAL".equals(groupId)) {
+                return "SNAPTEST_EXTERNAL".equals(permission);
+            }
+            return super.securityGroupPermissionExists(groupId, permission);
+        }
+    }
+}
@@ -63,7 +63,6 @@ import org.ofbiz.base.metrics.Metrics;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.ObjectType;
-import org.ofbiz.base.util.StringUtil;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
@@ -206,6 +205,10 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Flag to say if we have pulled in our addition parameters from our implemented service(s) */
     protected boolean inheritedParameters = false;
 
+    /** The IN and OUT parameters compiled for validate and makeValid, made again when the parameters change */
+    private transient volatile ModelServiceParams inParams = null;
+    private transient volatile ModelServiceParams outParams = null;
+
     /**
      * Service metrics.
      */
@@ -389,7 +392,33 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (param != null) {
             contextInfo.put(param.name, param);
             contextParamList.add(param);
+            clearCompiledParams();
+        }
+    }
+
+    private void clearCompiledParams() {
+        this.inParams = null;
+        this.outParams = null;
+    }
+
+    /** Returns the parameters of the mode compiled for validate and makeValid, the IN and OUT ones are kept */
+    private ModelServiceParams getCompiledParams(String mode) {
+        if (IN_PARAM.equals(mode)) {
+            ModelServiceParams params = this.inParams;
+            if (params == null) {
+                params = new ModelServiceParams(this, IN_PARAM);
+                this.inParams = params;
+            }
+            return params;
+        } else if (OUT_PARAM.equals(mode)) {
+            ModelServiceParams params = this.outParams;
+            if (params == null) {
+                params = new ModelServiceParams(this, OUT_PARAM);
+                this.outParams = params;
+            }
+            return params;
         }
+        return new ModelServiceParams(this, mode);
     }
 
     /* DEJ20060125 This is private but not used locally, so just commenting it out for now... may remove later
@@ -486,113 +515,17 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param locale the actual locale to use
      */
     public void validate(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
-        Map<String, String> requiredInfo = FastMap.newInstance();
-        Map<String, String> optionalInfo = FastMap.newInstance();
-        boolean verboseOn = Debug.verboseOn();
-
-        if (verboseOn) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : Validating context - " + context, module);
+        if (Debug.verboseOn()) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : Validating context - " + context, module);
 
         // do not validate results with errors
         if (mode.equals(OUT_PARAM) && context != null && context.containsKey(RESPONSE_MESSAGE)) {
             if (RESPOND_ERROR.equals(context.get(RESPONSE_MESSAGE)) || RESPOND_FAIL.equals(context.get(RESPONSE_MESSAGE))) {
-                if (verboseOn) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : response was an error, not validating.", module);
+                if (Debug.verboseOn()) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : response was an error, not validating.", module);
                 return;
             }
         }
 
-        // get the info values
-        for (ModelParam modelParam: this.contextParamList) {
-            // Debug.logInfo("In ModelService.validate preparing parameter [" + modelParam.name + (modelParam.optional?"(optional):":"(required):") + modelParam.mode + "] for service [" + this.name + "]", module);
-            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
-                if (modelParam.optional) {
-                    optionalInfo.put(modelParam.name, modelParam.type);
-                } else {
-                    requiredInfo.put(modelParam.name, modelParam.type);
-                }
-            }
-        }
-
-        // get the test values
-        Map<String, Object> requiredTest = FastMap.newInstance();
-        Map<String, Object> optionalTest = FastMap.newInstance();
-
-        if (context == null) context = FastMap.newInstance();
-        requiredTest.putAll(context);
-
-        List<String> requiredButNull = FastList.newInstance();
-        List<String> keyList = FastList.newInstance();
-        keyList.addAll(requiredTest.keySet());
-        for (String key: keyList) {
-            Object value = requiredTest.get(key);
-
-            if (!requiredInfo.containsKey(key)) {
-                requiredTest.remove(key);
-                optionalTest.put(key, value);
-            } else if (value == null) {
-                requiredButNull.add(key);
-            }
-        }
-
-        // check for requiredButNull fields and return an error since null values are not allowed for required fields
-        if (requiredButNull.size() > 0) {
-            List<String> missingMsg = FastList.newInstance();
-            for (String missingKey: requiredButNull) {
-                String message = this.getParam(missingKey).getPrimaryFailMessage(locale);
-                if (message == null) {
-                    String errMsg = UtilProperties.getMessage(ServiceUtil.resource, "ModelService.following_required_parameter_missing", locale);
-                    message = errMsg + " [" + this.name + "." + missingKey + "]";
-                }
-                missingMsg.add(message);
-            }
-            throw new ServiceValidationException(missingMsg, this, requiredButNull, null, mode);
-        }
-
-        if (verboseOn) {
-            StringBuilder requiredNames = new StringBuilder();
-
-            for (String key: requiredInfo.keySet()) {
-                if (requiredNames.length() > 0) {
-                    requiredNames.append(", ");
-                }
-                requiredNames.append(key);
-            }
-            Debug.logVerbose("[ModelService.validate] : required fields - " + requiredNames, module);
-
-            Debug.logVerbose("[ModelService.validate] : {" + name + "} : (" + mode + ") Required - " +
-                requiredTest.size() + " / " + requiredInfo.size(), module);
-            Debug.logVerbose("[ModelService.validate] : {" + name + "} : (" + mode + ") Optional - " +
-                optionalTest.size() + " / " + optionalInfo.size(), module);
-        }
-
-        try {
-            validate(requiredInfo, requiredTest, true, this, mode, locale);
-            validate(optionalInfo, optionalTest, false, this, mode, locale);
-        } catch (ServiceValidationException e) {
-            Debug.logError("[ModelService.validate] : {" + name + "} : (" + mode + ") Required test error: " + e.toString(), module);
-            throw e;
-        }
-
-        // required and type validation complete, do allow-html validation
-        if ("IN".equals(mode)) {
-            List<String> errorMessageList = FastList.newInstance();
-            for (ModelParam modelParam: this.contextInfo.values()) {
-                if (context.get(modelParam.name) != null &&
-                        ("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type)) &&
-                        !"any".equals(modelParam.allowHtml) &&
-                        ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
-                    // the param is a String, allow-html is none or safe, and we are looking at an IN parameter during input parameter validation
-                    String value = (String) context.get(modelParam.name);
-                    if ("none".equals(modelParam.allowHtml)) {
-                        StringUtil.checkStringForHtmlStrictNone(modelParam.name, value, errorMessageList);
-                    } else if ("safe".equals(modelParam.allowHtml)) {
-                        StringUtil.checkStringForHtmlSafeOnly(modelParam.name, value, errorMessageList);
-                    }
-                }
-            }
-            if (errorMessageList.size() > 0) {
-                throw new ServiceValidationException(errorMessageList, this, mode);
-            }
-        }
+        getCompiledParams(mode).validate(context, locale);
     }
 
     /**
@@ -738,7 +671,11 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (validatorMethod == null) {
             throw new GeneralException("Unable to find validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "]");
         }
+        return typeValidate(vali, validatorMethod, foundObjectParam, testValue);
+    }
 
+    /** Runs the validation method found for the validator, foundObjectParam is false when it takes a String */
+    static boolean typeValidate(ModelParam.ModelParamValidator vali, Method validatorMethod, boolean foundObjectParam, Object testValue) throws GeneralException {
         Object param;
         if (!foundObjectParam) {
             // convert to string
@@ -877,50 +814,10 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             }
         }
 
-        for (ModelParam param: contextParamList) {
-            //boolean internalParam = param.internal;
-
-            if (param.mode.equals("INOUT") || param.mode.equals(mode)) {
-                String key = param.name;
-
-                // internal map of strings
-                if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
-                    Map<String, Object> paramMap = this.makePrefixMap(source, param);
-                    if (UtilValidate.isNotEmpty(paramMap)) {
-                        target.put(key, paramMap);
-                    }
-                // internal list of strings
-                } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
-                    List<Object> paramList = this.makeSuffixList(source, param);
-                    if (UtilValidate.isNotEmpty(paramList)) {
-                        target.put(key, paramList);
-                    }
-                // other attributes
-                } else {
-                    if (source.containsKey(key)) {
-                        if ((param.internal && includeInternal) || (!param.internal)) {
-                            Object value = source.get(key);
-
-                            try {
-                                // no need to fail on type conversion; the validator will catch this
-                                value = ObjectType.simpleTypeConvert(value, param.type, null, timeZone, locale, false);
-                            } catch (GeneralException e) {
-                                String errMsg = "Type conversion of field [" + key + "] to type [" + param.type + "] failed for value \"" + value + "\": " + e.toString();
-                                Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
-                                if (errorMessages != null) {
-                                    errorMessages.add(errMsg);
-                                }
-                            }
-                            target.put(key, value);
-                        }
-                    }
-                }
-            }
-        }
-        return target;
+        return getCompiledParams(mode).makeValid(source, includeInternal, errorMessages, timeZone, locale);
     }
 
-    private Map<String, Object> makePrefixMap(Map<String, ? extends Object> source, ModelParam param) {
+    Map<String, Object> makePrefixMap(Map<String, ? extends Object> source, ModelParam param) {
         Map<String, Object> paramMap = FastMap.newInstance();
         for (Map.Entry<String, ? extends Object> entry: source.entrySet()) {
             String key = entry.getKey();
@@ -931,7 +828,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         return paramMap;
     }
 
-    private List<Object> makeSuffixList(Map<String, ? extends Object> source, ModelParam param) {
+    List<Object> makeSuffixList(Map<String, ? extends Object> source, ModelParam param) {
         List<Object> paramList = FastList.newInstance();
         for (Map.Entry<String, ? extends Object> entry: source.entrySet()) {
             String key = entry.getKey();
@@ -1189,6 +1086,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
 
             // set the flag so we don't do this again
             this.inheritedParameters = true;
+            clearCompiledParams();
+            getCompiledParams(IN_PARAM);
+            getCompiledParams(OUT_PARAM);
         }
     }
 
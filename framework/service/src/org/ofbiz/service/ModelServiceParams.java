@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.ObjectType;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.w3c.dom.Node;
+
+/**
+ * The parameters of a ModelService for one mode, compiled for ModelService.validate and makeValid.
+ * <p>The parameter types and validator methods are resolved once, so validate checks the context in one pass
+ * without copying it, and makeValid does not convert values that already have the parameter type. The errors
+ * are the ones the map based validation reported, in the same order.
+ */
+final class ModelServiceParams {
+
+    public static final String module = ModelServiceParams.class.getName();
+
+    /** A parameter as validate sees it: required when one of its definitions for the mode is required */
+    private static final class Param {
+        final String name;
+        final String type;
+        final boolean optional;
+        /** The class of the type, null when it cannot be loaded so that ObjectType reports it on use */
+        final Class<?> infoClass;
+        /** The definition holding the validators and fail messages */
+        final ModelParam modelParam;
+        final Validator[] validators;
+
+        Param(String name, String type, boolean optional, ModelParam modelParam) {
+            this.name = name;
+            this.type = type;
+            this.optional = optional;
+            this.modelParam = modelParam;
+            Class<?> infoClass = null;
+            try {
+                infoClass = ObjectType.loadInfoClass(type, null);
+            } catch (IllegalArgumentException e) {
+                if (Debug.verboseOn()) Debug.logVerbose("Could not load the type [" + type + "] of parameter [" + name + "]: " + e.getMessage(), module);
+            }
+            this.infoClass = infoClass;
+            if (modelParam != null && UtilValidate.isNotEmpty(modelParam.validators)) {
+                this.validators = new Validator[modelParam.validators.size()];
+                for (int i = 0; i < this.validators.length; i++) {
+                    this.validators[i] = new Validator(modelParam.validators.get(i));
+                }
+            } else {
+                this.validators = null;
+            }
+        }
+
+        boolean isInstance(Object value) {
+            if (infoClass == null) {
+                return ObjectType.instanceOf(value, type, null);
+            }
+            return ObjectType.instanceOf(value, infoClass);
+        }
+    }
+
+    /** A validator with its method looked up once, see ModelService.typeValidate */
+    private static final class Validator {
+        final ModelParam.ModelParamValidator validator;
+        final boolean hasMethodName;
+        final Method method;
+        final boolean objectParam;
+
+        Validator(ModelParam.ModelParamValidator validator) {
+            this.validator = validator;
+            this.hasMethodName = UtilValidate.isNotEmpty(validator.getMethodName());
+            Method method = null;
+            boolean objectParam = true;
+            if (this.hasMethodName) {
+                try {
+                    Class<?> validatorClass = ObjectType.loadClass(validator.getClassName());
+                    try {
+                        method = validatorClass.getMethod(validator.getMethodName(), Object.class);
+                    } catch (NoSuchMethodException e) {
+                        objectParam = false;
+                        method = validatorClass.getMethod(validator.getMethodName(), String.class);
+                    }
+                } catch (Exception e) {
+                    // left to ModelService.typeValidate, which reports it on each use
+                    method = null;
+                }
+            }
+            this.method = method;
+            this.objectParam = objectParam;
+        }
+
+        boolean validate(Object value) throws GeneralException {
+            if (method == null) {
+                return ModelService.typeValidate(validator, value);
+            }
+            return ModelService.typeValidate(validator, method, objectParam, value);
+        }
+    }
+
+    private final ModelService model;
+    private final String mode;
+    private final Map<String, Param> params = new HashMap<String, Param>();
+    /** The required parameters ordered by name, the order missing parameters are reported in */
+    private final Param[] required;
+    /** The names and allow-html settings of the String parameters checked for html, for mode IN */
+    private final String[] htmlParamNames;
+    private final String[] htmlParamAllowHtml;
+    /** The parameters of the mode in definition order for makeValid, and the classes their values are converted to */
+    private final ModelParam[] validParams;
+    private final Class<?>[] validClasses;
+
+    ModelServiceParams(ModelService model, String mode) {
+        this.model = model;
+        this.mode = mode;
+        Map<String, String> requiredTypes = FastMap.newInstance();
+        Map<String, String> optionalTypes = FastMap.newInstance();
+        List<ModelParam> modeParams = FastList.newInstance();
+        for (ModelParam modelParam: model.contextParamList) {
+            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
+                modeParams.add(modelParam);
+                if (modelParam.optional) {
+                    optionalTypes.put(modelParam.name, modelParam.type);
+                } else {
+                    requiredTypes.put(modelParam.name, modelParam.type);
+                }
+            }
+        }
+        Map<String, Param> requiredByName = new TreeMap<String, Param>();
+        for (Map.Entry<String, String> entry: requiredTypes.entrySet()) {
+            Param param = new Param(entry.getKey(), entry.getValue(), false, model.getParam(entry.getKey()));
+            params.put(param.name, param);
+            requiredByName.put(param.name, param);
+        }
+        for (Map.Entry<String, String> entry: optionalTypes.entrySet()) {
+            if (!params.containsKey(entry.getKey())) {
+                params.put(entry.getKey(), new Param(entry.getKey(), entry.getValue(), true, model.getParam(entry.getKey())));
+            }
+        }
+        this.required = requiredByName.values().toArray(new Param[requiredByName.size()]);
+
+        List<String> htmlNames = FastList.newInstance();
+        List<String> htmlAllowHtml = FastList.newInstance();
+        if (ModelService.IN_PARAM.equals(mode)) {
+            for (ModelParam modelParam: model.contextInfo.values()) {
+                if (("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type)) &&
+                        ("none".equals(modelParam.allowHtml) || "safe".equals(modelParam.allowHtml)) &&
+                        ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
+                    htmlNames.add(modelParam.name);
+                    htmlAllowHtml.add(modelParam.allowHtml);
+                }
+            }
+        }
+        this.htmlParamNames = htmlNames.toArray(new String[htmlNames.size()]);
+        this.htmlParamAllowHtml = htmlAllowHtml.toArray(new String[htmlAllowHtml.size()]);
+
+        this.validParams = modeParams.toArray(new ModelParam[modeParams.size()]);
+        this.validClasses = new Class<?>[this.validParams.length];
+        for (int i = 0; i < this.validParams.length; i++) {
+            String type = this.validParams[i].type;
+            if (UtilValidate.isEmpty(type) || "PlainString".equals(type)) {
+                continue;
+            }
+            try {
+                Class<?> validClass = ObjectType.loadClass(type);
+                // nodes are converted to their text content even when they have the type
+                if (!Node.class.isAssignableFrom(validClass)) {
+                    this.validClasses[i] = validClass;
+                }
+            } catch (ClassNotFoundException e) {
+                // converted by ObjectType, which reports it
+            }
+        }
+    }
+
+    /** Validates the context, see ModelService.validate */
+    void validate(Map<String, Object> context, Locale locale) throws ServiceValidationException {
+        List<String> requiredButNull = null;
+        List<String> requiredTypeFailMsgs = null;
+        List<String> optionalTypeFailMsgs = null;
+        Set<String> extra = null;
+        int requiredCount = 0;
+        int optionalCount = 0;
+        if (context != null) {
+            for (Map.Entry<String, Object> entry: context.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                Param param = params.get(key);
+                if (param != null && !param.optional) {
+                    requiredCount++;
+                    if (value == null) {
+                        if (requiredButNull == null) requiredButNull = FastList.newInstance();
+                        requiredButNull.add(key);
+                    } else if (requiredButNull == null) {
+                        requiredTypeFailMsgs = checkType(param, value, locale, requiredTypeFailMsgs);
+                    }
+                } else {
+                    optionalCount++;
+                    if (param == null) {
+                        if (extra == null) extra = new TreeSet<String>();
+                        extra.add(key);
+                    } else {
+                        optionalTypeFailMsgs = checkType(param, value, locale, optionalTypeFailMsgs);
+                    }
+                }
+            }
+        }
+
+        // check for requiredButNull fields and return an error since null values are not allowed for required fields
+        if (requiredButNull != null) {
+            List<String> missingMsg = FastList.newInstance();
+            for (String missingKey: requiredButNull) {
+                String message = model.getParam(missingKey).getPrimaryFailMessage(locale);
+                if (message == null) {
+                    String errMsg = UtilProperties.getMessage(ServiceUtil.resource, "ModelService.following_required_parameter_missing", locale);
+                    message = errMsg + " [" + model.name + "." + missingKey + "]";
+                }
+                missingMsg.add(message);
+            }
+            throw new ServiceValidationException(missingMsg, model, requiredButNull, null, mode);
+        }
+
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("[ModelService.validate] : {" + model.name + "} : (" + mode + ") Required - " + requiredCount + " / " + required.length, module);
+            Debug.logVerbose("[ModelService.validate] : {" + model.name + "} : (" + mode + ") Optional - " + optionalCount + " / " + (params.size() - required.length), module);
+        }
+
+        try {
+            if (requiredCount < required.length) {
+                List<String> missingMsgs = FastList.newInstance();
+                List<String> missing = FastList.newInstance();
+                for (Param param: required) {
+                    if (context == null || !context.containsKey(param.name)) {
+                        String msg = model.getParam(param.name).getPrimaryFailMessage(locale);
+                        if (msg == null) {
+                            String errMsg = UtilProperties.getMessage(ServiceUtil.resource, "ModelService.following_required_parameter_missing", locale) ;
+                            msg = errMsg + " [" + mode + "] [" + model.name + "." + param.name + "]";
+                        }
+                        missingMsgs.add(msg);
+                        missing.add(param.name);
+                    }
+                }
+                throw new ServiceValidationException(missingMsgs, model, missing, null, mode);
+            }
+            if (requiredTypeFailMsgs != null) {
+                throw new ServiceValidationException(requiredTypeFailMsgs, model, mode);
+            }
+            if (extra != null) {
+                List<String> extraMsgs = FastList.newInstance();
+                for (String key: extra) {
+                    ModelParam param = model.getParam(key);
+                    String msg = null;
+                    if (param != null) {
+                        msg = param.getPrimaryFailMessage(locale);
+                    }
+                    if (msg == null) {
+                        msg = "Unknown parameter found: [" + model.name + "." + key + "]";
+                    }
+                    extraMsgs.add(msg);
+                }
+                List<String> extraCopy = FastList.newInstance();
+                extraCopy.addAll(extra);
+                throw new ServiceValidationException(extraMsgs, model, null, extraCopy, mode);
+            }
+            if (optionalTypeFailMsgs != null) {
+                throw new ServiceValidationException(optionalTypeFailMsgs, model, mode);
+            }
+        } catch (ServiceValidationException e) {
+            Debug.logError("[ModelService.validate] : {" + model.name + "} : (" + mode + ") Required test error: " + e.toString(), module);
+            throw e;
+        }
+
+        // required and type validation complete, do allow-html validation
+        if (htmlParamNames.length > 0 && context != null) {
+            List<String> errorMessageList = null;
+            for (int i = 0; i < htmlParamNames.length; i++) {
+                String value = (String) context.get(htmlParamNames[i]);
+                if (value != null) {
+                    if (errorMessageList == null) errorMessageList = FastList.newInstance();
+                    if ("none".equals(htmlParamAllowHtml[i])) {
+                        StringUtil.checkStringForHtmlStrictNone(htmlParamNames[i], value, errorMessageList);
+                    } else {
+                        StringUtil.checkStringForHtmlSafeOnly(htmlParamNames[i], value, errorMessageList);
+                    }
+                }
+            }
+            if (errorMessageList != null && errorMessageList.size() > 0) {
+                throw new ServiceValidationException(errorMessageList, model, mode);
+            }
+        }
+    }
+
+    /** Checks the type of a value like ModelService.validate(Map, Map, boolean, ModelService, String, Locale), returns the fail messages */
+    private List<String> checkType(Param param, Object value, Locale locale, List<String> typeFailMsgs) {
+        if (param.validators != null) {
+            for (Validator validator: param.validators) {
+                if (validator.hasMethodName) {
+                    try {
+                        if (!validator.validate(value)) {
+                            String msg = validator.validator.getFailMessage(locale);
+                            if (msg == null) {
+                                msg = "The following parameter failed validation: [" + model.name + "." + param.name + "]";
+                            }
+                            typeFailMsgs = addMessage(typeFailMsgs, msg);
+                        }
+                    } catch (GeneralException e) {
+                        Debug.logError(e, module);
+                        String msg = param.modelParam.getPrimaryFailMessage(locale);
+                        if (msg == null) {
+                            msg = "The following parameter failed validation: [" + model.name + "." + param.name + "]";
+                        }
+                        typeFailMsgs = addMessage(typeFailMsgs, msg);
+                    }
+                } else if (!param.isInstance(value)) {
+                    String msg = validator.validator.getFailMessage(locale);
+                    if (msg == null) {
+                        msg = "The following parameter failed validation: [" + model.name + "." + param.name + "]";
+                    }
+                    typeFailMsgs = addMessage(typeFailMsgs, msg);
+                }
+            }
+        } else if (!param.isInstance(value)) {
+            String testType = value == null ? "null" : value.getClass().getName();
+            String msg = "Type check failed for field [" + model.name + "." + param.name + "]; expected type is [" + param.type + "]; actual type is [" + testType + "]";
+            typeFailMsgs = addMessage(typeFailMsgs, msg);
+        }
+        return typeFailMsgs;
+    }
+
+    private static List<String> addMessage(List<String> messages, String message) {
+        if (messages == null) messages = FastList.newInstance();
+        messages.add(message);
+        return messages;
+    }
+
+    /** Copies the parameters of the mode from the source, converted to their types, see ModelService.makeValid */
+    Map<String, Object> makeValid(Map<String, ? extends Object> source, boolean includeInternal, List<Object> errorMessages, TimeZone timeZone, Locale locale) {
+        Map<String, Object> target = FastMap.newInstance();
+        for (int i = 0; i < validParams.length; i++) {
+            ModelParam param = validParams[i];
+            String key = param.name;
+
+            // internal map of strings
+            if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
+                Map<String, Object> paramMap = model.makePrefixMap(source, param);
+                if (UtilValidate.isNotEmpty(paramMap)) {
+                    target.put(key, paramMap);
+                }
+            // internal list of strings
+            } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
+                List<Object> paramList = model.makeSuffixList(source, param);
+                if (UtilValidate.isNotEmpty(paramList)) {
+                    target.put(key, paramList);
+                }
+            // other attributes
+            } else if ((!param.internal || includeInternal) && source.containsKey(key)) {
+                Object value = source.get(key);
+                if (value != null && value.getClass() != validClasses[i]) {
+                    try {
+                        // no need to fail on type conversion; the validator will catch this
+                        value = ObjectType.simpleTypeConvert(value, param.type, null, timeZone, locale, false);
+                    } catch (GeneralException e) {
+                        String errMsg = "Type conversion of field [" + key + "] to type [" + param.type + "] failed for value \"" + value + "\": " + e.toString();
+                        Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
+                        if (errorMessages != null) {
+                            errorMessages.add(errMsg);
+                        }
+                    }
+                }
+                target.put(key, value);
+            }
+        }
+        return target;
+    }
+}
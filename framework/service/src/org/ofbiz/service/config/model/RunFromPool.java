@@ -28,17 +28,91 @@ import org.w3c.dom.Element;
 @ThreadSafe
 public final class RunFromPool {
 
+    public static final int WEIGHT = 1;
+
+    private final int jobs;
+    private final int maxThreads;
+    private final int minThreads;
     private final String name;
+    private final int weight;
 
-    RunFromPool(Element runFromPoolElement) throws ServiceConfigException {
+    RunFromPool(Element runFromPoolElement, int defaultMinThreads, int defaultMaxThreads, int defaultJobs) throws ServiceConfigException {
         String name = runFromPoolElement.getAttribute("name").intern();
         if (name.isEmpty()) {
             throw new ServiceConfigException("<run-from-pool> element name attribute is empty");
         }
         this.name = name;
+        String jobs = runFromPoolElement.getAttribute("jobs").intern();
+        if (jobs.isEmpty()) {
+            this.jobs = defaultJobs;
+        } else {
+            try {
+                this.jobs = Integer.parseInt(jobs);
+                if (this.jobs < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element jobs attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element jobs attribute value is invalid");
+            }
+        }
+        String maxThreads = runFromPoolElement.getAttribute("max-threads").intern();
+        if (maxThreads.isEmpty()) {
+            this.maxThreads = defaultMaxThreads;
+        } else {
+            try {
+                this.maxThreads = Integer.parseInt(maxThreads);
+                if (this.maxThreads < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element max-threads attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element max-threads attribute value is invalid");
+            }
+        }
+        String minThreads = runFromPoolElement.getAttribute("min-threads").intern();
+        if (minThreads.isEmpty()) {
+            this.minThreads = Math.min(defaultMinThreads, this.maxThreads);
+        } else {
+            try {
+                this.minThreads = Integer.parseInt(minThreads);
+                if (this.minThreads < 1 || this.minThreads > this.maxThreads) {
+                    throw new ServiceConfigException("<run-from-pool> element min-threads attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element min-threads attribute value is invalid");
+            }
+        }
+        String weight = runFromPoolElement.getAttribute("weight").intern();
+        if (weight.isEmpty()) {
+            this.weight = WEIGHT;
+        } else {
+            try {
+                this.weight = Integer.parseInt(weight);
+                if (this.weight < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element weight attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element weight attribute value is invalid");
+            }
+        }
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
     }
 
     public String getName() {
         return name;
     }
+
+    public int getWeight() {
+        return weight;
+    }
 }
@@ -33,6 +33,8 @@ import org.w3c.dom.Element;
 @ThreadSafe
 public final class ThreadPool {
 
+    public static final String CLAIM_MODE_BULK = "bulk"; // Claim all due jobs with one UPDATE statement.
+    public static final String CLAIM_MODE_ROW = "row"; // Claim due jobs one UPDATE statement at a time.
     public static final int FAILED_RETRY_MIN = 30;
     public static final int MIN_THREADS = 1; // Must be no less than one or the executor will shut down.
     public static final int MAX_THREADS = 5; // Values higher than 5 might slow things down.
@@ -41,6 +43,7 @@ public final class ThreadPool {
     public static final int QUEUE_SIZE = 100;
     public static final int THREAD_TTL = 120000; // Idle thread lifespan - 2 minutes.
 
+    private final String claimMode;
     private final int failedRetryMin;
     private final int jobs;
     private final int maxThreads;
@@ -150,18 +153,30 @@ public final class ThreadPool {
                 throw new ServiceConfigException("<thread-pool> element poll-db-millis attribute value is invalid");
             }
         }
+        String claimMode = poolElement.getAttribute("claim-mode").intern();
+        if (claimMode.isEmpty()) {
+            this.claimMode = CLAIM_MODE_ROW;
+        } else if (CLAIM_MODE_ROW.equals(claimMode) || CLAIM_MODE_BULK.equals(claimMode)) {
+            this.claimMode = claimMode;
+        } else {
+            throw new ServiceConfigException("<thread-pool> element claim-mode attribute value is invalid");
+        }
         List<? extends Element> runFromPoolElementList = UtilXml.childElementList(poolElement, "run-from-pool");
         if (runFromPoolElementList.isEmpty()) {
             this.runFromPools = Collections.emptyList();
         } else {
             List<RunFromPool> runFromPools = new ArrayList<RunFromPool>(runFromPoolElementList.size());
             for (Element runFromPoolElement : runFromPoolElementList) {
-                runFromPools.add(new RunFromPool(runFromPoolElement));
+                runFromPools.add(new RunFromPool(runFromPoolElement, this.minThreads, this.maxThreads, this.jobs));
             }
             this.runFromPools = Collections.unmodifiableList(runFromPools);
         }
     }
 
+    public String getClaimMode() {
+        return claimMode;
+    }
+
     public int getFailedRetryMin() {
         return failedRetryMin;
     }
@@ -41,6 +41,7 @@ import org.ofbiz.service.job.GenericServiceJob;
 import org.ofbiz.service.job.Job;
 import org.ofbiz.service.job.JobManager;
 import org.ofbiz.service.job.JobManagerException;
+import org.ofbiz.service.job.JobPoller;
 
 /**
  * Generic Asynchronous Engine
@@ -135,6 +136,7 @@ public abstract class GenericAsyncEngine extends AbstractEngine {
                 throw new GenericServiceException("Persisted job not created");
             } else {
                 Debug.logInfo("Persisted job queued : " + jobV.getString("jobName"), module);
+                JobPoller.getInstance().wakeUp();
             }
         } else {
             JobManager jMgr = dispatcher.getJobManager();
@@ -18,14 +18,29 @@
  *******************************************************************************/
 package org.ofbiz.service.group;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javolution.util.FastList;
 import javolution.util.FastMap;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.ServiceDispatcher;
@@ -39,10 +54,25 @@ public class GroupModel {
 
     public static final String module = GroupModel.class.getName();
 
+    /** The threads the members of all the parallel groups run on */
+    private static final ScheduledExecutorService parallelExecutor = ExecutionPool.getExecutor(new ThreadGroup("ServiceGroup"), "OFBiz-service-group",
+            getParallelThreadCount(), false);
+    /** Set while a member of a parallel group runs, so the parallel groups it runs do not wait on the threads of the executor */
+    private static final ThreadLocal<Boolean> inParallelMember = new ThreadLocal<Boolean>();
+    private static final Executor callerExecutor = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private String groupName, sendMode;
     private List<GroupServiceModel> services;
     private boolean optional = false;
     private int lastServiceRan;
+    private int maxThreads = 0;
+    // for the parallel send mode, by service index: the services it waits for and the services whose results go to its context
+    private int[][] dependencies;
+    private int[][] contextSources;
 
     /**
      * Constructor using DOM Element
@@ -51,6 +81,14 @@ public class GroupModel {
     public GroupModel(Element group) {
         this.sendMode = group.getAttribute("send-mode");
         this.groupName = group.getAttribute("name");
+        String maxThreadsStr = group.getAttribute("max-threads");
+        if (UtilValidate.isNotEmpty(maxThreadsStr)) {
+            try {
+                this.maxThreads = Integer.parseInt(maxThreadsStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning("Setting max-threads to 0 (default) for service group [" + groupName + "], invalid value: " + maxThreadsStr, module);
+            }
+        }
         this.services = new LinkedList<GroupServiceModel>();
         this.lastServiceRan = -1;
 
@@ -69,6 +107,9 @@ public class GroupModel {
             }
             Debug.logWarning("Service Group Definition : [" + group.getAttribute("name") + "] found with OLD 'service' attribute, change to use 'invoke'", module);
         }
+        if ("parallel".equals(sendMode)) {
+            initDependencies();
+        }
 
         if (Debug.verboseOn()) Debug.logVerbose("Created Service Group Model --> " + this, module);
     }
@@ -84,6 +125,9 @@ public class GroupModel {
         this.groupName = groupName;
         this.sendMode = sendMode;
         this.services = services;
+        if ("parallel".equals(sendMode)) {
+            initDependencies();
+        }
     }
 
     /**
@@ -131,6 +175,8 @@ public class GroupModel {
             return runIndex(dispatcher, localName, context, randomIndex);
         } else if (this.getSendMode().equals("first-available")) {
             return runOne(dispatcher, localName, context);
+        } else if (this.getSendMode().equals("parallel")) {
+            return runParallel(dispatcher, localName, context);
         } else if (this.getSendMode().equals("none")) {
             return FastMap.newInstance();
         } else {
@@ -194,4 +240,217 @@ public class GroupModel {
         }
         return result;
     }
+
+    /**
+     * Runs the services at the same time, each in its own transaction, except the ones depending on other services
+     * which start when these have finished. The results are merged in the order the services are defined in, and
+     * the results of the services with result-to-context go to the context of the services depending on them. When
+     * a service fails or runs out of time, no more services are started and the result of the first failed service
+     * in the group is returned.
+     */
+    private Map<String, Object> runParallel(ServiceDispatcher dispatcher, String localName, Map<String, Object> context) throws GenericServiceException {
+        int size = services.size();
+        // a service of a parallel group waiting for threads of the executor could take the last one, so its group runs in its thread
+        boolean inMember = Boolean.TRUE.equals(inParallelMember.get());
+        int maxRunning = inMember ? 1 : (maxThreads > 0 ? maxThreads : size);
+        CompletionService<Map<String, Object>> completionService = new ExecutorCompletionService<Map<String, Object>>(inMember ? callerExecutor : parallelExecutor);
+        Map<Future<Map<String, Object>>, Integer> running = FastMap.newInstance();
+        List<Map<String, Object>> results = FastList.newInstance();
+        GenericServiceException[] exceptions = new GenericServiceException[size];
+        boolean[] started = new boolean[size];
+        boolean[] finished = new boolean[size];
+        long[] deadlines = new long[size];
+        int failed = -1;
+        for (int i = 0; i < size; i++) {
+            results.add(null);
+        }
+        try {
+            while (true) {
+                for (int i = 0; failed < 0 && i < size && running.size() < maxRunning; i++) {
+                    if (!started[i] && isReady(i, finished)) {
+                        GroupServiceModel model = services.get(i);
+                        Map<String, Object> runContext = UtilMisc.makeMapWritable(context);
+                        for (int source: contextSources[i]) {
+                            runContext.putAll(results.get(source));
+                        }
+                        if (Debug.verboseOn()) Debug.logVerbose("Using Context: " + runContext, module);
+                        started[i] = true;
+                        if (model.getTimeout() > 0) {
+                            deadlines[i] = System.currentTimeMillis() + model.getTimeout() * 1000L;
+                        }
+                        running.put(completionService.submit(new MemberCall(model, dispatcher, localName, runContext)), i);
+                    }
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+
+                long nextDeadline = 0;
+                for (Integer index: running.values()) {
+                    if (deadlines[index] > 0 && (nextDeadline == 0 || deadlines[index] < nextDeadline)) {
+                        nextDeadline = deadlines[index];
+                    }
+                }
+                Future<Map<String, Object>> future = null;
+                if (nextDeadline == 0) {
+                    future = completionService.take();
+                } else {
+                    future = completionService.poll(Math.max(0, nextDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                if (future == null) {
+                    long now = System.currentTimeMillis();
+                    List<Future<Map<String, Object>>> timedOut = FastList.newInstance();
+                    for (Map.Entry<Future<Map<String, Object>>, Integer> entry: running.entrySet()) {
+                        int index = entry.getValue();
+                        if (deadlines[index] > 0 && deadlines[index] <= now) {
+                            timedOut.add(entry.getKey());
+                        }
+                    }
+                    for (Future<Map<String, Object>> timedOutFuture: timedOut) {
+                        int index = running.remove(timedOutFuture);
+                        timedOutFuture.cancel(true);
+                        GroupServiceModel model = services.get(index);
+                        String errMsg = "Grouped service [" + model.getName() + "] did not finish within " + model.getTimeout() + " seconds";
+                        Debug.logError(errMsg, module);
+                        results.set(index, ServiceUtil.returnError(errMsg));
+                        finished[index] = true;
+                        failed = failed < 0 ? index : Math.min(failed, index);
+                    }
+                    continue;
+                }
+
+                Integer index = running.remove(future);
+                if (index == null) {
+                    // cancelled when it ran out of time
+                    continue;
+                }
+                finished[index] = true;
+                GroupServiceModel model = services.get(index);
+                try {
+                    Map<String, Object> thisResult = future.get();
+                    if (Debug.verboseOn()) Debug.logVerbose("Result: " + thisResult, module);
+                    results.set(index, thisResult);
+                    if (ServiceUtil.isError(thisResult)) {
+                        Debug.logError("Grouped service [" + model.getName() + "] failed.", module);
+                        failed = failed < 0 ? index : Math.min(failed, index);
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof GenericServiceException) {
+                        exceptions[index] = (GenericServiceException) cause;
+                    } else {
+                        exceptions[index] = new GenericServiceException("Grouped service [" + model.getName() + "] failed", cause);
+                    }
+                    Debug.logError(cause, "Grouped service [" + model.getName() + "] failed.", module);
+                    failed = failed < 0 ? index : Math.min(failed, index);
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Map<String, Object>> future: running.keySet()) {
+                future.cancel(true);
+            }
+            throw new GenericServiceException("Interrupted while running service group [" + groupName + "]", e);
+        }
+
+        if (failed >= 0) {
+            if (exceptions[failed] != null) {
+                throw exceptions[failed];
+            }
+            return results.get(failed);
+        }
+        Map<String, Object> result = FastMap.newInstance();
+        for (Map<String, Object> thisResult: results) {
+            result.putAll(thisResult);
+        }
+        return result;
+    }
+
+    private boolean isReady(int index, boolean[] finished) {
+        for (int dependency: dependencies[index]) {
+            if (!finished[dependency]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void initDependencies() {
+        int size = services.size();
+        List<Set<Integer>> allDependencies = FastList.newInstance();
+        this.dependencies = new int[size][];
+        this.contextSources = new int[size][];
+        for (int i = 0; i < size; i++) {
+            GroupServiceModel model = services.get(i);
+            Set<Integer> direct = new TreeSet<Integer>();
+            Set<Integer> all = new TreeSet<Integer>();
+            for (String name: model.getDependsOn()) {
+                boolean found = false;
+                for (int j = 0; j < i; j++) {
+                    if (name.equals(services.get(j).getName())) {
+                        direct.add(j);
+                        all.add(j);
+                        all.addAll(allDependencies.get(j));
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    throw new IllegalArgumentException("Service [" + model.getName() + "] of group [" + groupName + "] depends on [" + name + "], which is not invoked before it in the group");
+                }
+            }
+            allDependencies.add(all);
+            List<Integer> sources = FastList.newInstance();
+            for (Integer j: all) {
+                if (services.get(j).resultToContext()) {
+                    sources.add(j);
+                }
+            }
+            this.dependencies[i] = toIntArray(direct);
+            this.contextSources[i] = toIntArray(sources);
+        }
+    }
+
+    private static int[] toIntArray(Collection<Integer> values) {
+        int[] array = new int[values.size()];
+        int i = 0;
+        for (Integer value: values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    private static int getParallelThreadCount() {
+        String threadCount = UtilProperties.getPropertyValue("service", "servicegroup.parallel.threads", "-2");
+        try {
+            return Integer.parseInt(threadCount);
+        } catch (NumberFormatException e) {
+            Debug.logWarning("Invalid servicegroup.parallel.threads [" + threadCount + "] in service.properties, using two threads per processor", module);
+            return -2;
+        }
+    }
+
+    private static class MemberCall implements Callable<Map<String, Object>> {
+        private final GroupServiceModel model;
+        private final ServiceDispatcher dispatcher;
+        private final String localName;
+        private final Map<String, Object> context;
+
+        private MemberCall(GroupServiceModel model, ServiceDispatcher dispatcher, String localName, Map<String, Object> context) {
+            this.model = model;
+            this.dispatcher = dispatcher;
+            this.localName = localName;
+            this.context = context;
+        }
+
+        public Map<String, Object> call() throws GenericServiceException {
+            Boolean previous = inParallelMember.get();
+            inParallelMember.set(Boolean.TRUE);
+            try {
+                return model.invoke(dispatcher, localName, context);
+            } finally {
+                if (previous == null) {
+                    inParallelMember.remove();
+                }
+            }
+        }
+    }
 }
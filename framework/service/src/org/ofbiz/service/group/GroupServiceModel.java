@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.service.group;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +29,8 @@ import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceDispatcher;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilValidate;
 import org.w3c.dom.Element;
 
 /**
@@ -40,6 +43,8 @@ public class GroupServiceModel {
     private String serviceName, serviceMode;
     private boolean resultToContext = false;
     private boolean optionalParams = false;
+    private List<String> dependsOn = Collections.emptyList();
+    private int timeout = 0;
 
     /**
      * Constructor using DOM element
@@ -50,6 +55,18 @@ public class GroupServiceModel {
         this.serviceMode = service.getAttribute("mode");
         this.resultToContext = service.getAttribute("result-to-context").equalsIgnoreCase("true");
         this.optionalParams = service.getAttribute("parameters").equalsIgnoreCase("optional");
+        List<String> dependsOn = StringUtil.split(service.getAttribute("depends-on"), null);
+        if (dependsOn != null) {
+            this.dependsOn = Collections.unmodifiableList(dependsOn);
+        }
+        String timeoutStr = service.getAttribute("timeout");
+        if (UtilValidate.isNotEmpty(timeoutStr)) {
+            try {
+                this.timeout = Integer.parseInt(timeoutStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning("Setting timeout to 0 (default) for grouped service [" + serviceName + "], invalid value: " + timeoutStr, module);
+            }
+        }
     }
 
     /**
@@ -94,6 +111,23 @@ public class GroupServiceModel {
         return this.optionalParams;
     }
 
+    /**
+     * Returns the names of the services, invoked before this one in the group, this service waits for when the
+     * group is run in parallel
+     * @return List
+     */
+    public List<String> getDependsOn() {
+        return this.dependsOn;
+    }
+
+    /**
+     * Returns the number of seconds a parallel group waits for this service, 0 for no limit
+     * @return int
+     */
+    public int getTimeout() {
+        return this.timeout;
+    }
+
     /**
      * Invoker method to invoke this service
      * @param dispatcher ServiceDispatcher used for this invocation
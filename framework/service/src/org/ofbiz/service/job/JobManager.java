@@ -44,6 +44,7 @@ import org.ofbiz.entity.serialize.SerializeException;
 import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.LocalDispatcher;
@@ -51,7 +52,7 @@ import org.ofbiz.service.ServiceContainer;
 import org.ofbiz.service.calendar.RecurrenceInfo;
 import org.ofbiz.service.calendar.RecurrenceInfoException;
 import org.ofbiz.service.config.ServiceConfigUtil;
-import org.ofbiz.service.config.model.RunFromPool;
+import org.ofbiz.service.config.model.ThreadPool;
 
 import com.ibm.icu.util.Calendar;
 
@@ -135,21 +136,13 @@ public final class JobManager {
         return JobPoller.getInstance().getPoolState();
     }
 
-    private static List<String> getRunPools() throws GenericConfigException {
-        List<RunFromPool> runFromPools = ServiceConfigUtil.getServiceEngine().getThreadPool().getRunFromPools();
-        List<String> readPools = new ArrayList<String>(runFromPools.size());
-        for (RunFromPool runFromPool : runFromPools) {
-            readPools.add(runFromPool.getName());
-        }
-        return readPools;
-    }
-
     /**
-     * Scans the JobSandbox entity and returns a list of jobs that are due to run.
+     * Scans the JobSandbox entity and returns a list of jobs in the specified pool that are due to run.
+     * Jobs that are not assigned to a pool are returned when <code>poolName</code> is <code>null</code>.
      * Returns an empty list if there are no jobs due to run.
      * This method is called by the {@link JobPoller} polling thread.
      */
-    protected List<Job> poll(int limit) {
+    protected List<Job> poll(String poolName, int limit) {
         assertIsRunning();
         // The rest of this method logs exceptions and does not throw them.
         // The idea is to keep the JobPoller working even when a database
@@ -165,24 +158,16 @@ public final class JobManager {
                 EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null),
                 EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
                 EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-        // limit to just defined pools
-        List<String> pools = null;
+        // limit to just the requested pool
+        expressions.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolName));
+        boolean bulkClaim = false;
         try {
-            pools = getRunPools();
+            bulkClaim = ThreadPool.CLAIM_MODE_BULK.equals(ServiceConfigUtil.getServiceEngine().getThreadPool().getClaimMode());
         } catch (GenericConfigException e) {
-            Debug.logWarning(e, "Unable to get run pools - not running job: ", module);
+            Debug.logWarning(e, "Unable to get claim mode - not running job: ", module);
             return poll;
         }
-        List<EntityExpr> poolsExpr = UtilMisc.toList(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, null));
-        if (!pools.isEmpty()) {
-            for (String poolName : pools) {
-                poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolName));
-            }
-        }
-        // make the conditions
-        EntityCondition baseCondition = EntityCondition.makeCondition(expressions);
-        EntityCondition poolCondition = EntityCondition.makeCondition(poolsExpr, EntityOperator.OR);
-        EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(baseCondition, poolCondition));
+        EntityCondition mainCondition = EntityCondition.makeCondition(expressions);
         EntityListIterator jobsIterator = null;
         boolean beganTransaction = false;
         try {
@@ -191,19 +176,25 @@ public final class JobManager {
                 Debug.logWarning("Unable to poll JobSandbox for jobs; transaction was not started by this process", module);
                 return poll;
             }
-            jobsIterator = delegator.find("JobSandbox", mainCondition, null, null, UtilMisc.toList("runTime"), null);
-            GenericValue jobValue = jobsIterator.next();
-            while (jobValue != null) {
-                // Claim ownership of this value. Using storeByCondition to avoid a race condition.
-                List<EntityExpr> updateExpression = UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.EQUALS, jobValue.get("jobId")), EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-                int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), EntityCondition.makeCondition(updateExpression));
-                if (rowsUpdated == 1) {
+            if (bulkClaim) {
+                for (GenericValue jobValue : claimJobs(delegator, mainCondition, limit, instanceId)) {
                     poll.add(new PersistedServiceJob(dctx, jobValue, null));
-                    if (poll.size() == limit) {
-                        break;
+                }
+            } else {
+                jobsIterator = delegator.find("JobSandbox", mainCondition, null, null, UtilMisc.toList("runTime"), null);
+                GenericValue jobValue = jobsIterator.next();
+                while (jobValue != null) {
+                    // Claim ownership of this value. Using storeByCondition to avoid a race condition.
+                    List<EntityExpr> updateExpression = UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.EQUALS, jobValue.get("jobId")), EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
+                    int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), EntityCondition.makeCondition(updateExpression));
+                    if (rowsUpdated == 1) {
+                        poll.add(new PersistedServiceJob(dctx, jobValue, null));
+                        if (poll.size() == limit) {
+                            break;
+                        }
                     }
+                    jobValue = jobsIterator.next();
                 }
-                jobValue = jobsIterator.next();
             }
         } catch (Throwable t) {
             poll.clear();
@@ -228,65 +219,116 @@ public final class JobManager {
                 Debug.logWarning(e, "Transaction error trying to commit when polling and updating the JobSandbox: ", module);
             }
         }
-        if (poll.isEmpty()) {
-            // No jobs to run, see if there are any jobs to purge
-            Calendar cal = Calendar.getInstance();
-            try {
-                int daysToKeep = ServiceConfigUtil.getServiceEngine().getThreadPool().getPurgeJobDays();
-                cal.add(Calendar.DAY_OF_YEAR, -daysToKeep);
-            } catch (GenericConfigException e) {
-                Debug.logWarning(e, "Unable to get purge job days: ", module);
+        return poll;
+    }
+
+    /**
+     * Scans the JobSandbox entity and returns a list of finished or cancelled jobs that are due to be purged.
+     * Returns an empty list if there are no jobs to purge.
+     * This method is called by the {@link JobPoller} polling thread when there are no jobs to run.
+     */
+    protected List<Job> pollPurgeJobs(int limit) {
+        assertIsRunning();
+        // The rest of this method logs exceptions and does not throw them.
+        List<Job> poll = new ArrayList<Job>(limit);
+        Calendar cal = Calendar.getInstance();
+        try {
+            int daysToKeep = ServiceConfigUtil.getServiceEngine().getThreadPool().getPurgeJobDays();
+            cal.add(Calendar.DAY_OF_YEAR, -daysToKeep);
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get purge job days: ", module);
+            return poll;
+        }
+        Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
+        List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
+        List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
+        EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(canExp), EntityCondition.makeCondition(finExp)), EntityOperator.OR);
+        EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), doneCond));
+        EntityListIterator jobsIterator = null;
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            if (!beganTransaction) {
+                Debug.logWarning("Unable to poll JobSandbox for jobs; transaction was not started by this process", module);
                 return poll;
             }
-            Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
-            List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
-            List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
-            EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(canExp), EntityCondition.makeCondition(finExp)), EntityOperator.OR);
-            mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), doneCond));
-            beganTransaction = false;
-            jobsIterator = null;
-            try {
-                beganTransaction = TransactionUtil.begin();
-                if (!beganTransaction) {
-                    Debug.logWarning("Unable to poll JobSandbox for jobs; transaction was not started by this process", module);
-                    return poll;
-                }
-                jobsIterator = delegator.find("JobSandbox", mainCondition, null, null, UtilMisc.toList("jobId"), null);
-                GenericValue jobValue = jobsIterator.next();
-                while (jobValue != null) {
-                    poll.add(new PurgeJob(jobValue));
-                    if (poll.size() == limit) {
-                        break;
-                    }
-                    jobValue = jobsIterator.next();
+            jobsIterator = delegator.find("JobSandbox", mainCondition, null, null, UtilMisc.toList("jobId"), null);
+            GenericValue jobValue = jobsIterator.next();
+            while (jobValue != null) {
+                poll.add(new PurgeJob(jobValue));
+                if (poll.size() == limit) {
+                    break;
                 }
-            } catch (Throwable t) {
-                poll.clear();
-                String errMsg =  "Exception thrown while polling JobSandbox: ";
-                Debug.logWarning(t, errMsg, module);
+                jobValue = jobsIterator.next();
+            }
+        } catch (Throwable t) {
+            poll.clear();
+            String errMsg =  "Exception thrown while polling JobSandbox: ";
+            Debug.logWarning(t, errMsg, module);
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg + t.getMessage(), t);
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
+            }
+        } finally {
+            if (jobsIterator != null) {
                 try {
-                    TransactionUtil.rollback(beganTransaction, errMsg + t.getMessage(), t);
+                    jobsIterator.close();
                 } catch (GenericEntityException e) {
-                    Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
-                }
-            } finally {
-                if (jobsIterator != null) {
-                    try {
-                        jobsIterator.close();
-                    } catch (GenericEntityException e) {
-                        Debug.logWarning(e, module);
-                    }
-                }
-                try {
-                    TransactionUtil.commit(beganTransaction);
-                } catch (GenericTransactionException e) {
-                    Debug.logWarning(e, "Transaction error trying to commit when polling the JobSandbox: ", module);
+                    Debug.logWarning(e, module);
                 }
             }
+            try {
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericTransactionException e) {
+                Debug.logWarning(e, "Transaction error trying to commit when polling the JobSandbox: ", module);
+            }
         }
         return poll;
     }
 
+    /**
+     * Claims up to <code>limit</code> unclaimed JobSandbox rows that match <code>condition</code>
+     * and returns the claimed rows ordered by run time. The candidate job IDs are read with one
+     * SELECT, the candidates are claimed with one UPDATE that sets <code>runByInstanceId</code>
+     * to <code>claimantId</code> only where it is still empty, and the rows that were claimed
+     * are read back with one SELECT. Candidates claimed by a different instance in the meantime
+     * are not returned.
+     * <p>This method is called by {@link #poll(String, int)} when the <code>&lt;thread-pool&gt;</code>
+     * claim-mode attribute is set to "bulk". It is public so that job claiming can be tested
+     * with several claimant IDs.</p>
+     *
+     * @param delegator The delegator to use
+     * @param condition The condition that selects due and unclaimed jobs
+     * @param limit The maximum number of jobs to claim
+     * @param claimantId The instance ID to stamp on the claimed jobs
+     * @return The claimed JobSandbox rows, never <code>null</code>
+     * @throws GenericEntityException
+     */
+    public static List<GenericValue> claimJobs(Delegator delegator, EntityCondition condition, int limit, String claimantId) throws GenericEntityException {
+        List<GenericValue> claimed = new ArrayList<GenericValue>();
+        EntityFindOptions findOptions = new EntityFindOptions();
+        findOptions.setMaxRows(limit);
+        List<GenericValue> candidates = delegator.findList("JobSandbox", condition, UtilMisc.toSet("jobId"), UtilMisc.toList("runTime"), findOptions, false);
+        if (candidates.isEmpty()) {
+            return claimed;
+        }
+        List<String> jobIds = new ArrayList<String>(candidates.size());
+        for (GenericValue candidate : candidates) {
+            jobIds.add(candidate.getString("jobId"));
+        }
+        // Claim ownership of the candidates. The runByInstanceId condition avoids a race condition.
+        EntityExpr jobIdCondition = EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds);
+        List<EntityExpr> updateExpression = UtilMisc.toList(jobIdCondition, EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
+        int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", claimantId), EntityCondition.makeCondition(updateExpression));
+        if (rowsUpdated == 0) {
+            return claimed;
+        }
+        List<EntityExpr> claimedExpression = UtilMisc.toList(jobIdCondition, EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, claimantId));
+        claimed.addAll(delegator.findList("JobSandbox", EntityCondition.makeCondition(claimedExpression), null, UtilMisc.toList("runTime"), null, false));
+        return claimed;
+    }
+
     private synchronized void reloadCrashedJobs() {
         assertIsRunning();
         if (crashedJobsReloaded) {
@@ -564,5 +606,9 @@ public final class JobManager {
         } catch (GenericEntityException e) {
             throw new JobManagerException(e.getMessage(), e);
         }
+        if (startTime <= System.currentTimeMillis()) {
+            // the job is due now, no need to wait for the next poll
+            JobPoller.getInstance().wakeUp();
+        }
     }
 }
@@ -19,12 +19,12 @@
 package org.ofbiz.service.job;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -32,25 +32,38 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.start.Start;
 import org.ofbiz.base.util.Assert;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.service.config.ServiceConfigUtil;
 import org.ofbiz.service.config.ServiceConfigListener;
+import org.ofbiz.service.config.model.RunFromPool;
 import org.ofbiz.service.config.model.ServiceConfig;
 import org.ofbiz.service.config.model.ThreadPool;
 
 /**
  * Job poller. Queues and runs jobs.
+ * <p>Each job pool this server services (the <code>&lt;run-from-pool&gt;</code> elements) has its own
+ * executor, so a flood of jobs in one pool cannot starve the jobs in other pools. Jobs that are not
+ * assigned to a pool, jobs that are not persisted, and purge jobs are run by the executor of the
+ * <code>&lt;thread-pool&gt;</code> send-to-pool.</p>
  */
 public final class JobPoller implements ServiceConfigListener {
 
     public static final String module = JobPoller.class.getName();
     private static final AtomicInteger created = new AtomicInteger();
     private static final ConcurrentHashMap<String, JobManager> jobManagers = new ConcurrentHashMap<String, JobManager>();
-    private static final ThreadPoolExecutor executor = createThreadPoolExecutor();
+    private static final StartDelayStatistics startDelays = new StartDelayStatistics();
+    private static final ConcurrentHashMap<String, JobExecutor> executors = new ConcurrentHashMap<String, JobExecutor>();
+    private static final JobExecutor defaultExecutor = createExecutors();
     private static final JobPoller instance = new JobPoller();
 
     /**
@@ -60,15 +73,27 @@ public final class JobPoller implements ServiceConfigListener {
         return instance;
     }
 
-    private static ThreadPoolExecutor createThreadPoolExecutor() {
+    // Creates an executor for each run-from-pool, and returns the executor for the send-to-pool.
+    private static JobExecutor createExecutors() {
         try {
             ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.engine).getThreadPool();
-            return new ThreadPoolExecutor(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(),
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(threadPool.getJobs()), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                executors.put(runFromPool.getName(), new JobExecutor(runFromPool.getName(), runFromPool.getMinThreads(), runFromPool.getMaxThreads(),
+                        threadPool.getTtl(), runFromPool.getJobs()));
+            }
+            JobExecutor sendToExecutor = executors.get(threadPool.getSendToPool());
+            if (sendToExecutor == null) {
+                sendToExecutor = new JobExecutor(threadPool.getSendToPool(), threadPool.getMinThreads(), threadPool.getMaxThreads(),
+                        threadPool.getTtl(), threadPool.getJobs());
+                executors.put(threadPool.getSendToPool(), sendToExecutor);
+            }
+            return sendToExecutor;
         } catch (GenericConfigException e) {
             Debug.logError(e, "Exception thrown while getting <thread-pool> model, using default <thread-pool> values: ", module);
-            return new ThreadPoolExecutor(ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            JobExecutor sendToExecutor = new JobExecutor("pool", ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
+                    ThreadPool.QUEUE_SIZE);
+            executors.put(sendToExecutor.poolName, sendToExecutor);
+            return sendToExecutor;
         }
     }
 
@@ -96,6 +121,9 @@ public final class JobPoller implements ServiceConfigListener {
     // -------------------------------------- //
 
     private final Thread jobManagerPollerThread;
+    private final Object wakeUpLock = new Object();
+    private boolean wakeUpPending = false; // Guarded by wakeUpLock
+    private final AtomicLong wakeUpCount = new AtomicLong();
 
     private JobPoller() {
         if (pollEnabled()) {
@@ -110,45 +138,176 @@ public final class JobPoller implements ServiceConfigListener {
 
     /**
      * Returns a <code>Map</code> containing <code>JobPoller</code> statistics.
+     * The totals cover all job pools, the <code>poolList</code> entry contains
+     * the statistics of each job pool.
      */
     public Map<String, Object> getPoolState() {
         Map<String, Object> poolState = new HashMap<String, Object>();
-        poolState.put("keepAliveTimeInSeconds", executor.getKeepAliveTime(TimeUnit.SECONDS));
-        poolState.put("numberOfCoreInvokerThreads", executor.getCorePoolSize());
-        poolState.put("currentNumberOfInvokerThreads", executor.getPoolSize());
-        poolState.put("numberOfActiveInvokerThreads", executor.getActiveCount());
-        poolState.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
-        poolState.put("greatestNumberOfInvokerThreads", executor.getLargestPoolSize());
-        poolState.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
-        BlockingQueue<Runnable> queue = executor.getQueue();
+        poolState.put("keepAliveTimeInSeconds", defaultExecutor.getKeepAliveTime(TimeUnit.SECONDS));
+        int coreThreads = 0;
+        int currentThreads = 0;
+        int activeThreads = 0;
+        int maxThreads = 0;
+        int greatestThreads = 0;
+        long completedTasks = 0;
+        List<Map<String, Object>> poolList = new ArrayList<Map<String, Object>>();
         List<Map<String, Object>> taskList = new ArrayList<Map<String, Object>>();
-        Map<String, Object> taskInfo = null;
-        for (Runnable task : queue) {
-            Job job = (Job) task;
-            taskInfo = new HashMap<String, Object>();
-            taskInfo.put("id", job.getJobId());
-            taskInfo.put("name", job.getJobName());
-            String serviceName = "";
-            if (job instanceof GenericServiceJob) {
-                serviceName = ((GenericServiceJob) job).getServiceName();
+        for (JobExecutor executor : executors.values()) {
+            coreThreads += executor.getCorePoolSize();
+            currentThreads += executor.getPoolSize();
+            activeThreads += executor.getActiveCount();
+            maxThreads += executor.getMaximumPoolSize();
+            greatestThreads += executor.getLargestPoolSize();
+            completedTasks += executor.getCompletedTaskCount();
+            Map<String, Object> poolInfo = new HashMap<String, Object>();
+            poolInfo.put("poolName", executor.poolName);
+            poolInfo.put("weight", getWeight(executor.poolName));
+            poolInfo.put("numberOfCoreInvokerThreads", executor.getCorePoolSize());
+            poolInfo.put("currentNumberOfInvokerThreads", executor.getPoolSize());
+            poolInfo.put("numberOfActiveInvokerThreads", executor.getActiveCount());
+            poolInfo.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
+            poolInfo.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
+            poolInfo.put("queueSize", executor.getQueue().size());
+            poolInfo.put("queueRemainingCapacity", executor.getQueue().remainingCapacity());
+            executor.startDelays.addTo(poolInfo);
+            poolList.add(poolInfo);
+            for (Runnable task : executor.getQueue()) {
+                Job job = (Job) task;
+                Map<String, Object> taskInfo = new HashMap<String, Object>();
+                taskInfo.put("id", job.getJobId());
+                taskInfo.put("name", job.getJobName());
+                taskInfo.put("poolName", executor.poolName);
+                String serviceName = "";
+                if (job instanceof GenericServiceJob) {
+                    serviceName = ((GenericServiceJob) job).getServiceName();
+                }
+                taskInfo.put("serviceName", serviceName);
+                taskInfo.put("time", job.getStartTime());
+                taskInfo.put("runtime", job.getRuntime());
+                taskList.add(taskInfo);
             }
-            taskInfo.put("serviceName", serviceName);
-            taskInfo.put("time", job.getStartTime());
-            taskInfo.put("runtime", job.getRuntime());
-            taskList.add(taskInfo);
         }
+        poolState.put("numberOfCoreInvokerThreads", coreThreads);
+        poolState.put("currentNumberOfInvokerThreads", currentThreads);
+        poolState.put("numberOfActiveInvokerThreads", activeThreads);
+        poolState.put("maxNumberOfInvokerThreads", maxThreads);
+        poolState.put("greatestNumberOfInvokerThreads", greatestThreads);
+        poolState.put("numberOfCompletedTasks", completedTasks);
+        poolState.put("numberOfPollerWakeUps", wakeUpCount.get());
+        startDelays.addTo(poolState);
+        poolState.put("poolList", poolList);
         poolState.put("taskList", taskList);
         return poolState;
     }
 
+    private static int getWeight(String poolName) {
+        try {
+            RunFromPool runFromPool = getRunFromPool(ServiceConfigUtil.getServiceEngine().getThreadPool(), poolName);
+            if (runFromPool != null) {
+                return runFromPool.getWeight();
+            }
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Exception thrown while getting configuration: ", module);
+        }
+        return RunFromPool.WEIGHT;
+    }
+
+    /**
+     * Shares the jobs claimed by one poll between the job pools, in proportion to the weight of each pool times its
+     * free queue capacity. A pool never gets more than its free capacity, what it cannot take goes to the other pools,
+     * and the rounding remainders go to the pools with the largest fractions, so the shares add up to
+     * <code>jobs</code>, or to the free capacity of all pools if that is less.
+     *
+     * @param jobs The number of jobs claimed by one poll, the <code>&lt;thread-pool jobs&gt;</code> attribute
+     * @param weights The weight of each pool
+     * @param freeCapacities The free queue capacity of each pool
+     * @return The number of jobs to poll for each pool
+     */
+    public static int[] shareJobs(int jobs, int[] weights, int[] freeCapacities) {
+        int[] shares = new int[weights.length];
+        boolean[] full = new boolean[weights.length];
+        int remainingJobs = Math.max(jobs, 0);
+        boolean capped = true;
+        // Each round shares the remaining jobs between the pools that are not full, the pools that cannot take
+        // their part are given their free capacity and left out of the next round.
+        while (capped && remainingJobs > 0) {
+            capped = false;
+            long totalWeight = 0;
+            for (int i = 0; i < weights.length; i++) {
+                if (!full[i]) {
+                    totalWeight += (long) Math.max(weights[i], 0) * Math.max(freeCapacities[i] - shares[i], 0);
+                }
+            }
+            if (totalWeight == 0) {
+                break;
+            }
+            long[] parts = new long[weights.length];
+            long[] fractions = new long[weights.length];
+            int sharedJobs = 0;
+            for (int i = 0; i < weights.length; i++) {
+                if (!full[i]) {
+                    long numerator = (long) remainingJobs * Math.max(weights[i], 0) * Math.max(freeCapacities[i] - shares[i], 0);
+                    parts[i] = numerator / totalWeight;
+                    fractions[i] = numerator % totalWeight;
+                    sharedJobs += parts[i];
+                }
+            }
+            // Hand out the rounding remainder, one job each to the largest fractions.
+            for (int remainder = remainingJobs - sharedJobs; remainder > 0; remainder--) {
+                int largest = -1;
+                for (int i = 0; i < weights.length; i++) {
+                    if (!full[i] && fractions[i] > 0 && (largest < 0 || fractions[i] > fractions[largest])) {
+                        largest = i;
+                    }
+                }
+                if (largest < 0) {
+                    break;
+                }
+                parts[largest]++;
+                fractions[largest] = 0;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                if (!full[i]) {
+                    int freeCapacity = Math.max(freeCapacities[i] - shares[i], 0);
+                    if (parts[i] >= freeCapacity) {
+                        capped |= parts[i] > freeCapacity;
+                        parts[i] = freeCapacity;
+                        full[i] = true;
+                    }
+                    shares[i] += parts[i];
+                    remainingJobs -= parts[i];
+                }
+            }
+        }
+        return shares;
+    }
+
     @Override
     public void onServiceConfigChange(ServiceConfig serviceConfig) {
-        if (!executor.isShutdown()) {
+        if (!defaultExecutor.isShutdown()) {
             ThreadPool threadPool = serviceConfig.getServiceEngine(ServiceConfigUtil.engine).getThreadPool();
-            executor.setCorePoolSize(threadPool.getMinThreads());
-            executor.setMaximumPoolSize(threadPool.getMaxThreads());
-            executor.setKeepAliveTime(threadPool.getTtl(), TimeUnit.MILLISECONDS);
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                JobExecutor executor = executors.get(runFromPool.getName());
+                if (executor == null) {
+                    executors.putIfAbsent(runFromPool.getName(), new JobExecutor(runFromPool.getName(), runFromPool.getMinThreads(),
+                            runFromPool.getMaxThreads(), threadPool.getTtl(), runFromPool.getJobs()));
+                } else {
+                    executor.resize(runFromPool.getMinThreads(), runFromPool.getMaxThreads(), threadPool.getTtl());
+                }
+            }
+            if (getRunFromPool(threadPool, defaultExecutor.poolName) == null) {
+                defaultExecutor.resize(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl());
+            }
+        }
+    }
+
+    private static RunFromPool getRunFromPool(ThreadPool threadPool, String poolName) {
+        for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+            if (runFromPool.getName().equals(poolName)) {
+                return runFromPool;
+            }
         }
+        return null;
     }
 
     private boolean pollEnabled() {
@@ -161,11 +320,15 @@ public final class JobPoller implements ServiceConfigListener {
     }
 
     /**
-     * Adds a job to the job queue.
+     * Adds a job to the job queue of the send-to-pool.
      * @throws InvalidJobException if the job is in an invalid state.
      * @throws RejectedExecutionException if the poller is stopped.
      */
     public void queueNow(Job job) throws InvalidJobException {
+        queueNow(defaultExecutor, job);
+    }
+
+    private void queueNow(JobExecutor executor, Job job) throws InvalidJobException {
         job.queue();
         try {
             executor.execute(job);
@@ -174,6 +337,35 @@ public final class JobPoller implements ServiceConfigListener {
         }
     }
 
+    /**
+     * Wakes up the job poller thread so that jobs created by this instance are polled
+     * without waiting for the poll interval to elapse. If a transaction is in place,
+     * the poller thread is woken up after the transaction commits - so the new
+     * JobSandbox rows are visible to the poll. Other instances will pick up the jobs
+     * on their next poll as usual.
+     */
+    public void wakeUp() {
+        if (jobManagerPollerThread == null) {
+            return;
+        }
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new WakeUpSync());
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Exception thrown while registering JobPoller wake up, waking up now: ", module);
+        }
+        signalPoller();
+    }
+
+    private void signalPoller() {
+        synchronized (wakeUpLock) {
+            wakeUpPending = true;
+            wakeUpLock.notifyAll();
+        }
+    }
+
     /**
      * Stops the <code>JobPoller</code>. This method is called when OFBiz shuts down.
      * The <code>JobPoller</code> cannot be restarted.
@@ -183,13 +375,15 @@ public final class JobPoller implements ServiceConfigListener {
         if (jobManagerPollerThread != null) {
             jobManagerPollerThread.interrupt();
         }
-        List<Runnable> queuedJobs = executor.shutdownNow();
-        for (Runnable task : queuedJobs) {
-            try {
-                Job queuedJob = (Job) task;
-                queuedJob.deQueue();
-            } catch (Exception e) {
-                Debug.logWarning(e, module);
+        for (JobExecutor executor : executors.values()) {
+            List<Runnable> queuedJobs = executor.shutdownNow();
+            for (Runnable task : queuedJobs) {
+                try {
+                    Job queuedJob = (Job) task;
+                    queuedJob.deQueue();
+                } catch (Exception e) {
+                    Debug.logWarning(e, module);
+                }
             }
         }
         Debug.logInfo("JobPoller shutdown completed.", module);
@@ -197,14 +391,137 @@ public final class JobPoller implements ServiceConfigListener {
 
     private static class JobInvokerThreadFactory implements ThreadFactory {
 
+        private final String poolName;
+
+        private JobInvokerThreadFactory(String poolName) {
+            this.poolName = poolName;
+        }
+
         public Thread newThread(Runnable runnable) {
-            return new Thread(runnable, "OFBiz-JobQueue-" + created.getAndIncrement());
+            return new Thread(runnable, "OFBiz-JobQueue-" + poolName + "-" + created.getAndIncrement());
+        }
+    }
+
+    // Runs the jobs of one job pool and records the delay between the time a job is due and the time it starts.
+    private static class JobExecutor extends ThreadPoolExecutor {
+
+        private final String poolName;
+        private final StartDelayStatistics startDelays = new StartDelayStatistics();
+
+        private JobExecutor(String poolName, int minThreads, int maxThreads, long ttl, int queueSize) {
+            super(minThreads, maxThreads, ttl, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueSize),
+                    new JobInvokerThreadFactory(poolName), new ThreadPoolExecutor.AbortPolicy());
+            this.poolName = poolName;
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable task) {
+            super.beforeExecute(thread, task);
+            if (task instanceof Job) {
+                long delayMillis = System.currentTimeMillis() - ((Job) task).getStartTime().getTime();
+                startDelays.add(delayMillis);
+                JobPoller.startDelays.add(delayMillis);
+            }
+        }
+
+        private void resize(int minThreads, int maxThreads, long ttl) {
+            // Order matters - the core pool size cannot exceed the maximum pool size.
+            if (maxThreads < getCorePoolSize()) {
+                setCorePoolSize(minThreads);
+                setMaximumPoolSize(maxThreads);
+            } else {
+                setMaximumPoolSize(maxThreads);
+                setCorePoolSize(minThreads);
+            }
+            setKeepAliveTime(ttl, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Keeps the most recent job start delays so percentiles can be reported.
+    private static class StartDelayStatistics {
+
+        private static final int SAMPLE_SIZE = 1024;
+        private final long[] samples = new long[SAMPLE_SIZE]; // Guarded by this
+        private long count = 0; // Guarded by this
+
+        private synchronized void add(long delayMillis) {
+            samples[(int) (count % SAMPLE_SIZE)] = delayMillis < 0 ? 0 : delayMillis;
+            count++;
+        }
+
+        private void addTo(Map<String, Object> poolState) {
+            long[] sorted;
+            long total;
+            synchronized (this) {
+                total = count;
+                sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLE_SIZE));
+            }
+            Arrays.sort(sorted);
+            poolState.put("numberOfStartedJobs", total);
+            if (sorted.length > 0) {
+                poolState.put("jobStartDelayMillisP50", sorted[(sorted.length - 1) / 2]);
+                poolState.put("jobStartDelayMillisP90", sorted[(sorted.length - 1) * 9 / 10]);
+                poolState.put("jobStartDelayMillisMax", sorted[sorted.length - 1]);
+            }
+        }
+    }
+
+    // Wakes up the poller thread when the transaction that created a job commits.
+    private class WakeUpSync implements Synchronization {
+
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                signalPoller();
+            }
+        }
+
+        public void beforeCompletion() {
         }
     }
 
     // Polls all registered JobManagers for jobs to queue.
     private class JobManagerPoller implements Runnable {
 
+        // Polls all registered JobManagers for due jobs in a pool, and queues them
+        // to the executor of that pool. Returns true if any jobs were found.
+        private boolean pollJobs(String poolName, JobExecutor executor, int limit) {
+            if (limit <= 0) {
+                return false;
+            }
+            // Build "list of lists"
+            Collection<JobManager> jmCollection = jobManagers.values();
+            List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
+            for (JobManager jm : jmCollection) {
+                pollResults.add(jm.poll(poolName, limit).iterator());
+            }
+            return queueJobs(executor, pollResults);
+        }
+
+        private boolean queueJobs(JobExecutor executor, List<Iterator<Job>> pollResults) {
+            // Create queue candidate list from "list of lists"
+            List<Job> queueCandidates = new ArrayList<Job>();
+            boolean addingJobs = true;
+            while (addingJobs) {
+                addingJobs = false;
+                for (Iterator<Job> jobIterator : pollResults) {
+                    if (jobIterator.hasNext()) {
+                        queueCandidates.add(jobIterator.next());
+                        addingJobs = true;
+                    }
+                }
+            }
+            // The candidate list might be larger than the queue remaining capacity,
+            // but that is okay - the excess jobs will be dequeued and rescheduled.
+            for (Job job : queueCandidates) {
+                try {
+                    queueNow(executor, job);
+                } catch (InvalidJobException e) {
+                    Debug.logError(e, module);
+                }
+            }
+            return !queueCandidates.isEmpty();
+        }
+
         // Do not check for interrupts in this method. The design requires the
         // thread to complete the job manager poll uninterrupted.
         public void run() {
@@ -213,38 +530,56 @@ public final class JobPoller implements ServiceConfigListener {
                 while (Start.getInstance().getCurrentState() != Start.ServerState.RUNNING) {
                     Thread.sleep(1000);
                 }
-                while (!executor.isShutdown()) {
-                    int remainingCapacity = executor.getQueue().remainingCapacity();
-                    if (remainingCapacity > 0) {
-                        // Build "list of lists"
-                        Collection<JobManager> jmCollection = jobManagers.values();
-                        List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
-                        for (JobManager jm : jmCollection) {
-                            pollResults.add(jm.poll(remainingCapacity).iterator());
+                while (!defaultExecutor.isShutdown()) {
+                    boolean jobsQueued = false;
+                    ThreadPool threadPool = null;
+                    try {
+                        threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.engine).getThreadPool();
+                    } catch (GenericConfigException e) {
+                        Debug.logError(e, "Exception thrown while getting <thread-pool> model, not polling job pools: ", module);
+                    }
+                    if (threadPool != null) {
+                        // Share the jobs claimed by one poll between the pools, see shareJobs.
+                        List<RunFromPool> runFromPools = threadPool.getRunFromPools();
+                        List<JobExecutor> poolExecutors = new ArrayList<JobExecutor>(runFromPools.size());
+                        int[] weights = new int[runFromPools.size()];
+                        int[] freeCapacities = new int[runFromPools.size()];
+                        for (int i = 0; i < runFromPools.size(); i++) {
+                            JobExecutor executor = executors.get(runFromPools.get(i).getName());
+                            poolExecutors.add(executor);
+                            weights[i] = runFromPools.get(i).getWeight();
+                            freeCapacities[i] = executor != null ? executor.getQueue().remainingCapacity() : 0;
                         }
-                        // Create queue candidate list from "list of lists"
-                        List<Job> queueCandidates = new ArrayList<Job>();
-                        boolean addingJobs = true;
-                        while (addingJobs) {
-                            addingJobs = false;
-                            for (Iterator<Job> jobIterator : pollResults) {
-                                if (jobIterator.hasNext()) {
-                                    queueCandidates.add(jobIterator.next());
-                                    addingJobs = true;
-                                }
+                        int[] shares = shareJobs(threadPool.getJobs(), weights, freeCapacities);
+                        for (int i = 0; i < runFromPools.size(); i++) {
+                            if (poolExecutors.get(i) != null) {
+                                jobsQueued |= pollJobs(runFromPools.get(i).getName(), poolExecutors.get(i), shares[i]);
                             }
                         }
-                        // The candidate list might be larger than the queue remaining capacity,
-                        // but that is okay - the excess jobs will be dequeued and rescheduled.
-                        for (Job job : queueCandidates) {
-                            try {
-                                queueNow(job);
-                            } catch (InvalidJobException e) {
-                                Debug.logError(e, module);
+                    }
+                    // Jobs that are not assigned to a pool.
+                    jobsQueued |= pollJobs(null, defaultExecutor, defaultExecutor.getQueue().remainingCapacity());
+                    if (!jobsQueued) {
+                        // No jobs to run, see if there are any jobs to purge
+                        int remainingCapacity = defaultExecutor.getQueue().remainingCapacity();
+                        if (remainingCapacity > 0) {
+                            List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
+                            for (JobManager jm : jobManagers.values()) {
+                                pollResults.add(jm.pollPurgeJobs(remainingCapacity).iterator());
                             }
+                            queueJobs(defaultExecutor, pollResults);
+                        }
+                    }
+                    long waitTime = pollWaitTime();
+                    synchronized (wakeUpLock) {
+                        if (!wakeUpPending && waitTime > 0) {
+                            wakeUpLock.wait(waitTime);
+                        }
+                        if (wakeUpPending) {
+                            wakeUpCount.incrementAndGet();
+                            wakeUpPending = false;
                         }
                     }
-                    Thread.sleep(pollWaitTime());
                 }
             } catch (InterruptedException e) {
                 // Happens when JobPoller shuts down - nothing to do.
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.service.job.JobManager;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Tests bulk job claiming with several instances competing for the same jobs.
+ */
+public class JobClaimTests extends OFBizTestCase {
+
+    public static final String module = JobClaimTests.class.getName();
+    private static final String POOL_ID = "claimTestPool";
+    private static final int JOB_COUNT = 200;
+    private static final int INSTANCE_COUNT = 4;
+    private static final int CLAIM_LIMIT = 10;
+
+    public JobClaimTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        delegator.removeByAnd("JobSandbox", UtilMisc.toMap("poolId", POOL_ID));
+        Timestamp runTime = UtilDateTime.nowTimestamp();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            GenericValue job = delegator.makeValue("JobSandbox");
+            job.set("jobId", "CLAIM_TEST_" + i);
+            job.set("jobName", "claimTest" + i);
+            job.set("poolId", POOL_ID);
+            job.set("runTime", runTime);
+            job.set("serviceName", "testScv");
+            job.set("statusId", "SERVICE_PENDING");
+            job.create();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByAnd("JobSandbox", UtilMisc.toMap("poolId", POOL_ID));
+    }
+
+    public void testBulkClaimContention() throws Exception {
+        final EntityCondition dueCondition = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, POOL_ID),
+                EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null)));
+        ExecutorService executor = Executors.newFixedThreadPool(INSTANCE_COUNT);
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(INSTANCE_COUNT);
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            final String claimantId = "claimTest" + i;
+            futures.add(executor.submit(new Callable<List<String>>() {
+                public List<String> call() throws Exception {
+                    List<String> claimedIds = new ArrayList<String>();
+                    while (delegator.findCountByCondition("JobSandbox", dueCondition, null, null) > 0) {
+                        try {
+                            for (GenericValue job : JobManager.claimJobs(delegator, dueCondition, CLAIM_LIMIT, claimantId)) {
+                                assertEquals("Claimed job instance", claimantId, job.getString("runByInstanceId"));
+                                claimedIds.add(job.getString("jobId"));
+                            }
+                        } catch (GenericEntityException e) {
+                            // Lock conflicts are expected - the job poller simply tries again on the next poll.
+                            Debug.logInfo("Claim attempt by " + claimantId + " failed: " + e.getMessage(), module);
+                        }
+                    }
+                    return claimedIds;
+                }
+            }));
+        }
+        executor.shutdown();
+        Map<String, String> claimants = new HashMap<String, String>();
+        for (int i = 0; i < INSTANCE_COUNT; i++) {
+            for (String jobId : futures.get(i).get()) {
+                String previousClaimant = claimants.put(jobId, "claimTest" + i);
+                assertNull("Job " + jobId + " claimed only once", previousClaimant);
+            }
+        }
+        assertEquals("All jobs claimed", JOB_COUNT, claimants.size());
+        for (GenericValue job : delegator.findByAnd("JobSandbox", UtilMisc.toMap("poolId", POOL_ID), null, false)) {
+            assertEquals("Stored claimant for job " + job.getString("jobId"), claimants.get(job.getString("jobId")), job.getString("runByInstanceId"));
+        }
+    }
+}
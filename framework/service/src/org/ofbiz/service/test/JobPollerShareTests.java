@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.util.Arrays;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.service.job.JobPoller;
+
+/**
+ * Tests how the jobs claimed by one poll are shared between the job pools.
+ */
+public class JobPollerShareTests extends GenericTestCaseBase {
+
+    private static final int QUEUE_SIZE = 100;
+    private static final int JOBS = 10;
+
+    public JobPollerShareTests(String name) {
+        super(name);
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    public void testSharesWithinBudget() throws Exception {
+        int[][] weightSets = {{1, 1, 1}, {1, 2, 3}, {5, 1, 1}};
+        int[] capacities = {0, 1, 5, 50};
+        for (int jobs = 0; jobs <= 30; jobs++) {
+            for (int[] weights : weightSets) {
+                for (int a : capacities) {
+                    for (int b : capacities) {
+                        for (int c : capacities) {
+                            int[] freeCapacities = {a, b, c};
+                            int[] shares = JobPoller.shareJobs(jobs, weights, freeCapacities);
+                            String message = jobs + " jobs, weights " + Arrays.toString(weights) + ", free " + Arrays.toString(freeCapacities) + ": " + Arrays.toString(shares);
+                            assertEquals(message, Math.min(jobs, sum(freeCapacities)), sum(shares));
+                            for (int i = 0; i < shares.length; i++) {
+                                assertTrue(message, shares[i] >= 0 && shares[i] <= freeCapacities[i]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testRoundingRemainder() throws Exception {
+        int[] shares = JobPoller.shareJobs(JOBS, new int[] {1, 1, 1}, new int[] {QUEUE_SIZE, QUEUE_SIZE, QUEUE_SIZE});
+        assertEquals("all jobs, no more", JOBS, sum(shares));
+        for (int share : shares) {
+            assertTrue("equal shares " + Arrays.toString(shares), share == 3 || share == 4);
+        }
+    }
+
+    public void testShareSplit() throws Exception {
+        assertEquals("weights", Arrays.toString(new int[] {8, 4}), Arrays.toString(JobPoller.shareJobs(12, new int[] {2, 1}, new int[] {QUEUE_SIZE, QUEUE_SIZE})));
+        assertEquals("free capacity", Arrays.toString(new int[] {1, 9}), Arrays.toString(JobPoller.shareJobs(JOBS, new int[] {1, 1}, new int[] {10, 90})));
+        assertEquals("full pool", Arrays.toString(new int[] {0, 10}), Arrays.toString(JobPoller.shareJobs(JOBS, new int[] {1, 1}, new int[] {0, QUEUE_SIZE})));
+        assertEquals("small pool full, the rest to the other", Arrays.toString(new int[] {2, 8}), Arrays.toString(JobPoller.shareJobs(JOBS, new int[] {50, 1}, new int[] {2, QUEUE_SIZE})));
+        assertEquals("less free capacity than jobs", Arrays.toString(new int[] {3, 4}), Arrays.toString(JobPoller.shareJobs(JOBS, new int[] {1, 1}, new int[] {3, 4})));
+    }
+
+    // A flood of jobs in one pool does not hold back the few jobs of another pool.
+    public void testPoolFairness() throws Exception {
+        int floodQueued = 0;
+        int otherQueued = 0;
+        int otherPending = 0;
+        int jobsPerPoll = 3;
+        for (int poll = 0; poll < 50; poll++) {
+            otherPending += 2;
+            int[] shares = JobPoller.shareJobs(JOBS, new int[] {1, 1}, new int[] {QUEUE_SIZE - floodQueued, QUEUE_SIZE - otherQueued});
+            assertTrue("within the budget at poll " + poll, sum(shares) <= JOBS);
+            // the flooded pool always has more due jobs than its share
+            floodQueued += shares[0];
+            int otherClaimed = Math.min(shares[1], otherPending);
+            otherQueued += otherClaimed;
+            otherPending -= otherClaimed;
+            assertEquals("jobs of the other pool waiting at poll " + poll, 0, otherPending);
+            floodQueued -= Math.min(jobsPerPoll, floodQueued);
+            otherQueued -= Math.min(jobsPerPoll, otherQueued);
+        }
+        assertTrue("flooded pool kept busy", floodQueued > 0);
+    }
+}
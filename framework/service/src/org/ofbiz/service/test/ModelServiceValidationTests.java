@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.service.ModelParam;
+import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.ServiceValidationException;
+
+public class ModelServiceValidationTests extends GenericTestCaseBase {
+
+    public static final String module = ModelServiceValidationTests.class.getName();
+    private static final String[] TYPES = {"String", "java.math.BigDecimal", "Long", "java.sql.Timestamp", "List", "Map"};
+    private static final int CALL_COUNT = 20000;
+
+    public ModelServiceValidationTests(String name) {
+        super(name);
+    }
+
+    private static ModelService makeService(int attributeCount) {
+        ModelService model = new ModelService();
+        model.name = "testValidation" + attributeCount;
+        for (int i = 0; i < attributeCount; i++) {
+            ModelParam param = new ModelParam();
+            param.name = "attribute" + i;
+            param.type = TYPES[i % TYPES.length];
+            param.mode = i % 3 == 0 ? "IN" : (i % 3 == 1 ? "OUT" : "INOUT");
+            param.optional = i % 2 == 1;
+            model.addParam(param);
+        }
+        return model;
+    }
+
+    private static Object makeValue(String type, int i) {
+        if ("String".equals(type)) return "value" + i;
+        if ("java.math.BigDecimal".equals(type)) return new BigDecimal(i);
+        if ("Long".equals(type)) return Long.valueOf(i);
+        if ("java.sql.Timestamp".equals(type)) return new Timestamp(i);
+        if ("List".equals(type)) return FastList.newInstance();
+        return FastMap.newInstance();
+    }
+
+    /** Returns a context with all the parameters of the mode */
+    private static Map<String, Object> makeContext(ModelService model, String mode) {
+        Map<String, Object> context = FastMap.newInstance();
+        for (ModelParam param: model.getModelParamList()) {
+            if ("INOUT".equals(param.mode) || mode.equals(param.mode)) {
+                context.put(param.name, makeValue(param.type, context.size()));
+            }
+        }
+        return context;
+    }
+
+    // the way ModelService.validate checked a context before the parameters were compiled
+    private static void validateWithMaps(ModelService model, Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
+        Map<String, String> requiredInfo = FastMap.newInstance();
+        Map<String, String> optionalInfo = FastMap.newInstance();
+        for (ModelParam modelParam: model.getModelParamList()) {
+            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
+                if (modelParam.optional) {
+                    optionalInfo.put(modelParam.name, modelParam.type);
+                } else {
+                    requiredInfo.put(modelParam.name, modelParam.type);
+                }
+            }
+        }
+        Map<String, Object> requiredTest = FastMap.newInstance();
+        Map<String, Object> optionalTest = FastMap.newInstance();
+        requiredTest.putAll(context);
+        List<String> requiredButNull = FastList.newInstance();
+        List<String> keyList = FastList.newInstance();
+        keyList.addAll(requiredTest.keySet());
+        for (String key: keyList) {
+            if (!requiredInfo.containsKey(key)) {
+                optionalTest.put(key, requiredTest.remove(key));
+            } else if (requiredTest.get(key) == null) {
+                requiredButNull.add(key);
+            }
+        }
+        if (requiredButNull.size() > 0) {
+            List<String> missingMsg = FastList.newInstance();
+            for (String missingKey: requiredButNull) {
+                missingMsg.add(UtilProperties.getMessage(ServiceUtil.resource, "ModelService.following_required_parameter_missing", locale) + " [" + model.name + "." + missingKey + "]");
+            }
+            throw new ServiceValidationException(missingMsg, model, requiredButNull, null, mode);
+        }
+        ModelService.validate(requiredInfo, requiredTest, true, model, mode, locale);
+        ModelService.validate(optionalInfo, optionalTest, false, model, mode, locale);
+    }
+
+    private static List<String> getErrors(ModelService model, Map<String, Object> context, String mode, boolean withMaps) {
+        try {
+            if (withMaps) {
+                validateWithMaps(model, context, mode, Locale.US);
+            } else {
+                model.validate(context, mode, Locale.US);
+            }
+            return null;
+        } catch (ServiceValidationException e) {
+            return e.getMessageList();
+        }
+    }
+
+    private void assertSameErrors(String label, ModelService model, Map<String, Object> context, String mode) {
+        assertEquals(label, getErrors(model, context, mode, true), getErrors(model, context, mode, false));
+    }
+
+    public void testValidate() throws Exception {
+        ModelService model = makeService(20);
+        for (String mode: new String[] {ModelService.IN_PARAM, ModelService.OUT_PARAM}) {
+            Map<String, Object> context = makeContext(model, mode);
+            assertNull(mode + " valid context", getErrors(model, context, mode, false));
+
+            Map<String, Object> missing = UtilMisc.makeMapWritable(context);
+            missing.remove("attribute2");
+            missing.remove("attribute0");
+            assertNotNull(mode + " missing required", getErrors(model, missing, mode, false));
+            assertSameErrors(mode + " missing required", model, missing, mode);
+
+            Map<String, Object> extra = UtilMisc.makeMapWritable(context);
+            extra.put("unknownParameter", "x");
+            extra.put("anotherUnknown", "y");
+            assertSameErrors(mode + " unknown parameters", model, extra, mode);
+
+            Map<String, Object> wrongType = UtilMisc.makeMapWritable(context);
+            wrongType.put("attribute2", "not a number");
+            wrongType.put("attribute14", "not a number");
+            wrongType.put("attribute5", Boolean.TRUE);
+            assertSameErrors(mode + " wrong types", model, wrongType, mode);
+
+            Map<String, Object> optionalOnly = FastMap.newInstance();
+            optionalOnly.put("attribute5", null);
+            assertSameErrors(mode + " optional only", model, optionalOnly, mode);
+        }
+        Map<String, Object> requiredNull = makeContext(model, ModelService.IN_PARAM);
+        requiredNull.put("attribute0", null);
+        assertSameErrors("required null", model, requiredNull, ModelService.IN_PARAM);
+    }
+
+    public void testAddParam() throws Exception {
+        ModelService model = makeService(5);
+        Map<String, Object> context = makeContext(model, ModelService.IN_PARAM);
+        model.validate(context, ModelService.IN_PARAM, Locale.US);
+        ModelParam param = new ModelParam();
+        param.name = "addedParameter";
+        param.type = "String";
+        param.mode = "IN";
+        model.addParam(param);
+        assertNotNull("added parameter is required", getErrors(model, context, ModelService.IN_PARAM, false));
+        context.put("addedParameter", "x");
+        assertNull("added parameter given", getErrors(model, context, ModelService.IN_PARAM, false));
+    }
+
+    public void testMakeValid() throws Exception {
+        ModelService model = makeService(20);
+        Map<String, Object> source = makeContext(model, ModelService.IN_PARAM);
+        source.put("attribute2", "17");
+        source.put("attribute3", "2010-01-01 00:00:00.0");
+        source.put("unknownParameter", "x");
+        Map<String, Object> target = model.makeValid(source, ModelService.IN_PARAM);
+        assertEquals("converted long", Long.valueOf(17), target.get("attribute2"));
+        assertEquals("converted timestamp", Timestamp.valueOf("2010-01-01 00:00:00.0"), target.get("attribute3"));
+        assertSame("kept value of the type", source.get("attribute0"), target.get("attribute0"));
+        assertFalse("unknown parameter dropped", target.containsKey("unknownParameter"));
+        assertFalse("OUT parameter dropped", target.containsKey("attribute1"));
+    }
+
+    public void testValidationBenchmark() throws Exception {
+        for (int attributeCount: new int[] {5, 20, 60}) {
+            ModelService model = makeService(attributeCount);
+            for (String mode: new String[] {ModelService.IN_PARAM, ModelService.OUT_PARAM}) {
+                Map<String, Object> context = makeContext(model, mode);
+                // warm up both
+                for (int i = 0; i < CALL_COUNT / 10; i++) {
+                    validateWithMaps(model, context, mode, Locale.US);
+                    model.validate(context, mode, Locale.US);
+                }
+                long startTime = System.nanoTime();
+                for (int i = 0; i < CALL_COUNT; i++) {
+                    validateWithMaps(model, context, mode, Locale.US);
+                }
+                long mapsNanos = System.nanoTime() - startTime;
+                startTime = System.nanoTime();
+                for (int i = 0; i < CALL_COUNT; i++) {
+                    model.validate(context, mode, Locale.US);
+                }
+                long compiledNanos = System.nanoTime() - startTime;
+                startTime = System.nanoTime();
+                for (int i = 0; i < CALL_COUNT; i++) {
+                    model.makeValid(context, mode);
+                }
+                long makeValidNanos = System.nanoTime() - startTime;
+                Debug.logInfo("Validating " + mode + " of a service with " + attributeCount + " attributes, " + CALL_COUNT + " calls: "
+                        + (mapsNanos / CALL_COUNT) + "ns per call with maps, " + (compiledNanos / CALL_COUNT) + "ns compiled; makeValid "
+                        + (makeValidNanos / CALL_COUNT) + "ns per call", module);
+            }
+        }
+    }
+}
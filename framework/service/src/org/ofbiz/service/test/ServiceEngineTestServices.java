@@ -21,6 +21,8 @@ package org.ofbiz.service.test;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javolution.util.FastList;
 
@@ -375,4 +377,50 @@ public class ServiceEngineTestServices {
 
         return ServiceUtil.returnSuccess();
     }
+
+    // ==================================================
+
+    public static Map<String, Object> testServiceGroupMemberA(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return runGroupMember(context, "A");
+    }
+    public static Map<String, Object> testServiceGroupMemberB(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return runGroupMember(context, "B");
+    }
+    public static Map<String, Object> testServiceGroupMemberC(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return runGroupMember(context, "C");
+    }
+    private static Map<String, Object> runGroupMember(Map<String, ? extends Object> context, String memberName) {
+        Locale locale = (Locale) context.get("locale");
+        if (memberName.equals(context.get("slowMember")) && context.get("sleepMillis") != null) {
+            try {
+                Thread.sleep(((Long) context.get("sleepMillis")).longValue());
+            } catch (InterruptedException e) {
+                Debug.logInfo("Grouped service " + memberName + " interrupted", module);
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ServiceTestGroupMemberFailed", UtilMisc.toMap("memberName", memberName), locale));
+            }
+        }
+        CountDownLatch meetLatch = (CountDownLatch) context.get("meetLatch");
+        if (meetLatch != null) {
+            // only passes once as many services as the latch count got here, so they ran at the same time
+            meetLatch.countDown();
+            try {
+                if (!meetLatch.await(10, TimeUnit.SECONDS)) {
+                    Debug.logInfo("Grouped service " + memberName + " did not meet the other services", module);
+                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ServiceTestGroupMemberFailed", UtilMisc.toMap("memberName", memberName), locale));
+                }
+            } catch (InterruptedException e) {
+                Debug.logInfo("Grouped service " + memberName + " interrupted", module);
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ServiceTestGroupMemberFailed", UtilMisc.toMap("memberName", memberName), locale));
+            }
+        }
+        if (memberName.equals(context.get("failMember"))) {
+            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ServiceTestGroupMemberFailed", UtilMisc.toMap("memberName", memberName), locale));
+        }
+        // the path of the services whose results this one got
+        String memberPath = (context.get("memberPath") != null ? (String) context.get("memberPath") : "") + "/" + memberName;
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("memberPath", memberPath);
+        result.put("member" + memberName, memberPath);
+        return result;
+    }
 }
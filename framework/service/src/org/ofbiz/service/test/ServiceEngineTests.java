@@ -19,6 +19,7 @@
 package org.ofbiz.service.test;
 
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.service.ModelService;
@@ -42,4 +43,29 @@ public class ServiceEngineTests extends OFBizTestCase {
         Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
         assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
     }
+
+    public void testParallelServiceGroup() throws Exception {
+        // A and B each wait for the other one, C only starts after A so it goes through
+        CountDownLatch meetLatch = new CountDownLatch(2);
+        Map<String, Object> result = dispatcher.runSync("testServiceGroupParallel", UtilMisc.<String, Object>toMap("slowMember", "A", "sleepMillis", Long.valueOf(300), "meetLatch", meetLatch));
+        assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
+        assertEquals("A and B ran at the same time", 0, meetLatch.getCount());
+        assertEquals("Result of A", "/A", result.get("memberA"));
+        assertEquals("Result of B", "/B", result.get("memberB"));
+        assertEquals("Result of C, depending on A", "/A/C", result.get("memberC"));
+        assertEquals("Results merged in the group order", "/A/C", result.get("memberPath"));
+    }
+
+    public void testParallelServiceGroupFailure() throws Exception {
+        Map<String, Object> result = dispatcher.runSync("testServiceGroupParallel", UtilMisc.<String, Object>toMap("failMember", "A"));
+        assertEquals("Service result error", ModelService.RESPOND_ERROR, result.get(ModelService.RESPONSE_MESSAGE));
+        assertFalse("C, depending on A, did not run", result.containsKey("memberC"));
+    }
+
+    public void testParallelServiceGroupTimeout() throws Exception {
+        long startTime = System.currentTimeMillis();
+        Map<String, Object> result = dispatcher.runSync("testServiceGroupParallelTimeout", UtilMisc.<String, Object>toMap("slowMember", "A", "sleepMillis", Long.valueOf(10000)));
+        assertEquals("Service result error", ModelService.RESPOND_ERROR, result.get(ModelService.RESPONSE_MESSAGE));
+        assertTrue("Did not wait for the slow service", System.currentTimeMillis() - startTime < 10000);
+    }
 }
@@ -22,9 +22,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletContext;
 
@@ -41,6 +43,7 @@ import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.CacheListener;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.base.util.collections.MapContext;
 import org.w3c.dom.Document;
@@ -56,6 +59,24 @@ public class ConfigXMLReader {
 
     private static final UtilCache<URL, ControllerConfig> controllerCache = UtilCache.createUtilCache("webapp.ControllerConfig");
     private static final UtilCache<String, List<ControllerConfig>> controllerSearchResultsCache = UtilCache.createUtilCache("webapp.ControllerSearchResults");
+    // incremented whenever a controller is loaded, reloaded or removed from the cache, so the merged maps of the controllers that include it are rebuilt
+    private static final AtomicLong controllerCacheGeneration = new AtomicLong();
+
+    static {
+        controllerCache.addListener(new CacheListener<URL, ControllerConfig>() {
+            public void noteKeyRemoval(UtilCache<URL, ControllerConfig> cache, URL key, ControllerConfig oldValue) {
+                controllerCacheGeneration.incrementAndGet();
+            }
+
+            public void noteKeyAddition(UtilCache<URL, ControllerConfig> cache, URL key, ControllerConfig newValue) {
+                controllerCacheGeneration.incrementAndGet();
+            }
+
+            public void noteKeyUpdate(UtilCache<URL, ControllerConfig> cache, URL key, ControllerConfig newValue, ControllerConfig oldValue) {
+                controllerCacheGeneration.incrementAndGet();
+            }
+        });
+    }
 
     public static URL getControllerConfigURL(ServletContext context) {
         try {
@@ -97,6 +118,9 @@ public class ConfigXMLReader {
         private Map<String, RequestMap> requestMapMap = FastMap.newInstance();
         private Map<String, ViewMap> viewMapMap = FastMap.newInstance();
 
+        // the request and view maps merged with those of the included controllers
+        private volatile MergedMaps mergedMaps = null;
+
         public ControllerConfig(URL url) {
             this.url = url;
 
@@ -272,24 +296,35 @@ public class ConfigXMLReader {
             return result;
         }
 
+        /** Returns the request maps of this controller and its includes, this controller's request maps override the included ones */
         public Map<String, RequestMap> getRequestMapMap() {
-            MapContext<String, RequestMap> result = MapContext.getMapContext();
-            for (URL includeLocation: includes) {
-                ControllerConfig controllerConfig = getControllerConfig(includeLocation);
-                result.push(controllerConfig.getRequestMapMap());
-            }
-            result.push(requestMapMap);
-            return result;
+            return getMergedMaps().requestMapMap;
         }
 
+        /** Returns the view maps of this controller and its includes, this controller's view maps override the included ones */
         public Map<String, ViewMap> getViewMapMap() {
-            MapContext<String, ViewMap> result = MapContext.getMapContext();
-            for (URL includeLocation: includes) {
-                ControllerConfig controllerConfig = getControllerConfig(includeLocation);
-                result.push(controllerConfig.getViewMapMap());
+            return getMergedMaps().viewMapMap;
+        }
+
+        private MergedMaps getMergedMaps() {
+            // read the generation before merging, so an include reloaded while merging makes the result stale
+            long generation = controllerCacheGeneration.get();
+            MergedMaps mergedMaps = this.mergedMaps;
+            if (mergedMaps == null || mergedMaps.generation != generation) {
+                Map<String, RequestMap> mergedRequestMapMap = FastMap.newInstance();
+                Map<String, ViewMap> mergedViewMapMap = FastMap.newInstance();
+                // later includes override earlier ones, as they did when these were stacked in a MapContext
+                for (URL includeLocation: includes) {
+                    ControllerConfig controllerConfig = getControllerConfig(includeLocation);
+                    mergedRequestMapMap.putAll(controllerConfig.getRequestMapMap());
+                    mergedViewMapMap.putAll(controllerConfig.getViewMapMap());
+                }
+                mergedRequestMapMap.putAll(requestMapMap);
+                mergedViewMapMap.putAll(viewMapMap);
+                mergedMaps = new MergedMaps(generation, mergedRequestMapMap, mergedViewMapMap);
+                this.mergedMaps = mergedMaps;
             }
-            result.push(viewMapMap);
-            return result;
+            return mergedMaps;
         }
 
         protected void loadIncludes(Element rootElement) {
@@ -431,6 +466,18 @@ public class ConfigXMLReader {
 
     }
 
+    private static final class MergedMaps {
+        private final long generation;
+        private final Map<String, RequestMap> requestMapMap;
+        private final Map<String, ViewMap> viewMapMap;
+
+        private MergedMaps(long generation, Map<String, RequestMap> requestMapMap, Map<String, ViewMap> viewMapMap) {
+            this.generation = generation;
+            this.requestMapMap = Collections.unmodifiableMap(requestMapMap);
+            this.viewMapMap = Collections.unmodifiableMap(viewMapMap);
+        }
+    }
+
     public static Set<String> findControllerFilesWithRequest(String requestUri, String controllerPartialPath) throws GeneralException {
         Set<String> allControllerRequestSet = FastSet.newInstance();
 
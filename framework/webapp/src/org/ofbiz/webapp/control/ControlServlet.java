@@ -48,6 +48,7 @@ import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.security.Security;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.webapp.stats.ServerHitBin;
+import org.ofbiz.webapp.stats.ServerHitWriter;
 import org.ofbiz.webapp.stats.VisitHandler;
 
 import freemarker.ext.servlet.ServletContextHashModel;
@@ -333,6 +334,8 @@ public class ControlServlet extends HttpServlet {
      */
     @Override
     public void destroy() {
+        // write the ServerHits still waiting in the queue before the server goes down
+        ServerHitWriter.getInstance().flush();
         super.destroy();
     }
 
@@ -22,12 +22,12 @@ import java.net.InetAddress;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
-import javolution.util.FastList;
-import javolution.util.FastMap;
-
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilMisc;
@@ -45,6 +45,8 @@ import com.ibm.icu.util.Calendar;
  * <p>Counts server hits and tracks statistics for request, events and views
  * <p>Handles total stats since the server started and binned
  *  stats according to settings in the serverstats.properties file.
+ * <p>Counting a hit takes no lock: the bins are kept in concurrent maps and count with striped
+ *  counters, see {@link ServerHitBinHistory} for how the time bins are advanced.
  */
 public class ServerHitBin {
     // Debug module name
@@ -92,16 +94,57 @@ public class ServerHitBin {
         advanceAllBins(toTime, serviceHistory);
     }
 
-    static void advanceAllBins(long toTime, Map<String, List<ServerHitBin>> binMap) {
-        for (Map.Entry<String, List<ServerHitBin>> entry  :binMap.entrySet()) {
-            if (entry.getValue() != null) {
-                for (ServerHitBin bin: entry.getValue()) {
-                    bin.advanceBin(toTime);
-                }
-            }
+    static void advanceAllBins(long toTime, Map<String, ServerHitBinHistory> binMap) {
+        for (ServerHitBinHistory history : binMap.values()) {
+            history.advance(toTime);
+        }
+    }
+
+    /** Returns the bins with hits for the id, the most recent first, or null if there were no hits for the id */
+    public static List<ServerHitBin> getHistory(int type, String id) {
+        ServerHitBinHistory history = getHistoryMap(type).get(id);
+        return history != null ? history.getBins() : null;
+    }
+
+    static ConcurrentMap<String, ServerHitBinHistory> getHistoryMap(int type) {
+        switch (type) {
+        case REQUEST:
+            return requestHistory;
+        case EVENT:
+            return eventHistory;
+        case VIEW:
+            return viewHistory;
+        case ENTITY:
+            return entityHistory;
+        case SERVICE:
+            return serviceHistory;
+        }
+        throw new IllegalArgumentException("Unknown ServerHitBin type: " + type);
+    }
+
+    static ConcurrentMap<String, ServerHitBin> getSinceStartedMap(int type) {
+        switch (type) {
+        case REQUEST:
+            return requestSinceStarted;
+        case EVENT:
+            return eventSinceStarted;
+        case VIEW:
+            return viewSinceStarted;
+        case ENTITY:
+            return entitySinceStarted;
+        case SERVICE:
+            return serviceSinceStarted;
         }
+        throw new IllegalArgumentException("Unknown ServerHitBin type: " + type);
     }
-    
+
+    static int getMaxPastBins() {
+        // if not specified keep one day of bins
+        int maxPastBins = UtilProperties.getPropertyAsInteger("serverstats", "stats.bin.history.size", 0);
+        if (maxPastBins <= 0) maxPastBins = (int) (86400000 / getNewBinLength());
+        return maxPastBins;
+    }
+
     private static String makeIdTenantAware(String id, Delegator delegator) {
         if (UtilValidate.isNotEmpty(delegator.getDelegatorTenantId())) {
             return id + "#" + delegator.getDelegatorTenantId();
@@ -122,101 +165,17 @@ public class ServerHitBin {
         
         String id = makeIdTenantAware(baseId, delegator);
 
-        ServerHitBin bin = null;
-        List<ServerHitBin> binList = null;
-
-        switch (type) {
-        case REQUEST:
-            binList = requestHistory.get(id);
-            break;
-
-        case EVENT:
-            binList = eventHistory.get(id);
-            break;
-
-        case VIEW:
-            binList = viewHistory.get(id);
-            break;
-
-        case ENTITY:
-            binList = entityHistory.get(id);
-            break;
-
-        case SERVICE:
-            binList = serviceHistory.get(id);
-            break;
-        }
-
-        if (binList == null) {
-            synchronized (ServerHitBin.class) {
-                switch (type) {
-                case REQUEST:
-                    binList = requestHistory.get(id);
-                    break;
-
-                case EVENT:
-                    binList = eventHistory.get(id);
-                    break;
-
-                case VIEW:
-                    binList = viewHistory.get(id);
-                    break;
-
-                case ENTITY:
-                    binList = entityHistory.get(id);
-                    break;
-
-                case SERVICE:
-                    binList = serviceHistory.get(id);
-                    break;
-                }
-                if (binList == null) {
-                    binList = FastList.newInstance();
-                    switch (type) {
-                    case REQUEST:
-                        requestHistory.put(id, binList);
-                        break;
-
-                    case EVENT:
-                        eventHistory.put(id, binList);
-                        break;
-
-                    case VIEW:
-                        viewHistory.put(id, binList);
-                        break;
-
-                    case ENTITY:
-                        entityHistory.put(id, binList);
-                        break;
-
-                    case SERVICE:
-                        serviceHistory.put(id, binList);
-                        break;
-                    }
-                }
+        ConcurrentMap<String, ServerHitBinHistory> historyMap = getHistoryMap(type);
+        ServerHitBinHistory history = historyMap.get(id);
+        if (history == null) {
+            ServerHitBinHistory newHistory = new ServerHitBinHistory(new ServerHitBin(id, type, true, delegator), getMaxPastBins());
+            history = historyMap.putIfAbsent(id, newHistory);
+            if (history == null) {
+                history = newHistory;
             }
         }
 
-        if (binList.size() > 0) {
-            bin = binList.get(0);
-        }
-        if (bin == null) {
-            synchronized (ServerHitBin.class) {
-                if (binList.size() > 0) {
-                    bin = binList.get(0);
-                }
-                if (bin == null) {
-                    bin = new ServerHitBin(id, type, true, delegator);
-                    if (binList.size() > 0) {
-                        binList.add(0, bin);
-                    } else {
-                        binList.add(bin);
-                    }
-                }
-            }
-        }
-
-        bin.addHit(startTime, runningTime);
+        ServerHitBin bin = history.addHit(startTime, runningTime);
         if (isOriginal && !id.startsWith("GLOBAL")) {
             try {
                 bin.saveHit(request, startTime, runningTime, userLogin);
@@ -246,113 +205,49 @@ public class ServerHitBin {
 
         String id = makeIdTenantAware(baseId, delegator);
 
-        ServerHitBin bin = null;
-
         // save in global, and try to get bin by id
-        switch (type) {
-        case REQUEST:
-            bin = requestSinceStarted.get(id);
-            break;
-
-        case EVENT:
-            bin = eventSinceStarted.get(id);
-            break;
-
-        case VIEW:
-            bin = viewSinceStarted.get(id);
-            break;
-
-        case ENTITY:
-            bin = entitySinceStarted.get(id);
-            break;
-
-        case SERVICE:
-            bin = serviceSinceStarted.get(id);
-            break;
-        }
-
+        ConcurrentMap<String, ServerHitBin> sinceStartedMap = getSinceStartedMap(type);
+        ServerHitBin bin = sinceStartedMap.get(id);
         if (bin == null) {
-            synchronized (ServerHitBin.class) {
-                switch (type) {
-                case REQUEST:
-                    bin = requestSinceStarted.get(id);
-                    break;
-
-                case EVENT:
-                    bin = eventSinceStarted.get(id);
-                    break;
-
-                case VIEW:
-                    bin = viewSinceStarted.get(id);
-                    break;
-
-                case ENTITY:
-                    bin = entitySinceStarted.get(id);
-                    break;
-
-                case SERVICE:
-                    bin = serviceSinceStarted.get(id);
-                    break;
-                }
-
-                if (bin == null) {
-                    bin = new ServerHitBin(id, type, false, delegator);
-                    switch (type) {
-                    case REQUEST:
-                        requestSinceStarted.put(id, bin);
-                        break;
-
-                    case EVENT:
-                        eventSinceStarted.put(id, bin);
-                        break;
-
-                    case VIEW:
-                        viewSinceStarted.put(id, bin);
-                        break;
-
-                    case ENTITY:
-                        entitySinceStarted.put(id, bin);
-                        break;
-
-                    case SERVICE:
-                        serviceSinceStarted.put(id, bin);
-                        break;
-                    }
-                }
+            ServerHitBin newBin = new ServerHitBin(id, type, false, delegator);
+            bin = sinceStartedMap.putIfAbsent(id, newBin);
+            if (bin == null) {
+                bin = newBin;
             }
         }
 
-        bin.addHit(startTime, runningTime);
+        bin.addHit(runningTime);
 
         if (isOriginal)
             countHitSinceStart("GLOBAL", type, startTime, runningTime, false, delegator);
     }
 
-    // these Maps contain Lists of ServerHitBin objects by id, the most recent is first in the list
-    public static Map<String, List<ServerHitBin>> requestHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> eventHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> viewHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> entityHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> serviceHistory = FastMap.newInstance();
+    // these Maps contain the time binned history of ServerHitBin objects by id
+    public static final ConcurrentMap<String, ServerHitBinHistory> requestHistory = new ConcurrentHashMap<String, ServerHitBinHistory>();
+    public static final ConcurrentMap<String, ServerHitBinHistory> eventHistory = new ConcurrentHashMap<String, ServerHitBinHistory>();
+    public static final ConcurrentMap<String, ServerHitBinHistory> viewHistory = new ConcurrentHashMap<String, ServerHitBinHistory>();
+    public static final ConcurrentMap<String, ServerHitBinHistory> entityHistory = new ConcurrentHashMap<String, ServerHitBinHistory>();
+    public static final ConcurrentMap<String, ServerHitBinHistory> serviceHistory = new ConcurrentHashMap<String, ServerHitBinHistory>();
 
     // these Maps contain ServerHitBin objects by id
-    public static Map<String, ServerHitBin> requestSinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> eventSinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> viewSinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> entitySinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> serviceSinceStarted = FastMap.newInstance();
+    public static final ConcurrentMap<String, ServerHitBin> requestSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> eventSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> viewSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> entitySinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> serviceSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
 
     Delegator delegator;
-    String delegatorName;
-    String id;
-    int type;
-    boolean limitLength;
-    long startTime;
-    long endTime;
-    long numberHits;
-    long totalRunningTime;
-    long minTime;
-    long maxTime;
+    final String delegatorName;
+    final String id;
+    final int type;
+    final boolean limitLength;
+    final long startTime;
+    final long endTime;
+    // the counters are updated without locking, so hits on many threads don't wait on each other
+    private final StripedCounter numberHits = new StripedCounter();
+    private final StripedCounter totalRunningTime = new StripedCounter();
+    private final AtomicLong minTime = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxTime = new AtomicLong(0);
 
     public ServerHitBin(String id, int type, boolean limitLength, Delegator delegator) {
         super();
@@ -365,7 +260,27 @@ public class ServerHitBin {
         this.limitLength = limitLength;
         this.delegator = delegator;
         this.delegatorName = delegator.getDelegatorName();
-        reset(getEvenStartingTime());
+        this.startTime = getEvenStartingTime();
+        // subtract 1 millisecond to keep bin starting times even
+        this.endTime = limitLength ? this.startTime + getNewBinLength() - 1 : 0;
+    }
+
+    /** Creates the bin following oldBin that contains toTime, bins with no hits in between are skipped */
+    ServerHitBin(ServerHitBin oldBin, long toTime) {
+        super();
+
+        this.id = oldBin.id;
+        this.type = oldBin.type;
+        this.limitLength = oldBin.limitLength;
+        this.delegator = oldBin.delegator;
+        this.delegatorName = oldBin.delegatorName;
+        long binLength = getNewBinLength();
+        long startTime = oldBin.endTime + 1;
+        if (toTime >= startTime + binLength) {
+            startTime += ((toTime - startTime) / binLength) * binLength;
+        }
+        this.startTime = startTime;
+        this.endTime = startTime + binLength - 1;
     }
 
     public Delegator getDelegator() {
@@ -409,38 +324,6 @@ public class ServerHitBin {
         return binLength;
     }
 
-    void reset(long startTime) {
-        this.startTime = startTime;
-        if (limitLength) {
-            long binLength = getNewBinLength();
-
-            // subtract 1 millisecond to keep bin starting times even
-            this.endTime = startTime + binLength - 1;
-        } else {
-            this.endTime = 0;
-        }
-        this.numberHits = 0;
-        this.totalRunningTime = 0;
-        this.minTime = Long.MAX_VALUE;
-        this.maxTime = 0;
-    }
-
-    ServerHitBin(ServerHitBin oldBin) {
-        super();
-
-        this.id = oldBin.id;
-        this.type = oldBin.type;
-        this.limitLength = oldBin.limitLength;
-        this.delegator = oldBin.delegator;
-        this.delegatorName = oldBin.delegatorName;
-        this.startTime = oldBin.startTime;
-        this.endTime = oldBin.endTime;
-        this.numberHits = oldBin.numberHits;
-        this.totalRunningTime = oldBin.totalRunningTime;
-        this.minTime = oldBin.minTime;
-        this.maxTime = oldBin.maxTime;
-    }
-
     public String getId() {
         return this.id;
     }
@@ -485,31 +368,31 @@ public class ServerHitBin {
     }
 
     public long getNumberHits() {
-        return this.numberHits;
+        return this.numberHits.sum();
     }
 
     public long getTotalRunningTime() {
-        return this.totalRunningTime;
+        return this.totalRunningTime.sum();
     }
 
     public long getMinTime() {
-        return this.minTime;
+        return this.minTime.get();
     }
 
     public double getMinTimeSeconds() {
-        return (this.minTime) / 1000.0;
+        return (this.getMinTime()) / 1000.0;
     }
 
     public long getMaxTime() {
-        return this.maxTime;
+        return this.maxTime.get();
     }
 
     public double getMaxTimeSeconds() {
-        return (this.maxTime) / 1000.0;
+        return (this.getMaxTime()) / 1000.0;
     }
 
     public double getAvgTime() {
-        return ((double) this.totalRunningTime) / ((double) this.numberHits);
+        return ((double) this.getTotalRunningTime()) / ((double) this.getNumberHits());
     }
 
     public double getAvgTimeSeconds() {
@@ -518,86 +401,57 @@ public class ServerHitBin {
 
     /** return the hits per minute using the entire length of the bin as returned by getBinLengthMinutes() */
     public double getHitsPerMinute() {
-        return (this.numberHits) / this.getBinLengthMinutes();
+        return (this.getNumberHits()) / this.getBinLengthMinutes();
     }
 
-    synchronized void addHit(long startTime, long runningTime) {
-        advanceBin(startTime + runningTime);
-
-        this.numberHits++;
-        this.totalRunningTime += runningTime;
-        if (runningTime < this.minTime)
-            this.minTime = runningTime;
-        if (runningTime > this.maxTime)
-            this.maxTime = runningTime;
+    void addHit(long runningTime) {
+        this.numberHits.add(1);
+        this.totalRunningTime.add(runningTime);
+        long min = this.minTime.get();
+        while (runningTime < min && !this.minTime.compareAndSet(min, runningTime)) {
+            min = this.minTime.get();
+        }
+        long max = this.maxTime.get();
+        while (runningTime > max && !this.maxTime.compareAndSet(max, runningTime)) {
+            max = this.maxTime.get();
+        }
     }
 
-    synchronized void advanceBin(long toTime) {
-        // first check to see if this bin has expired, if so save and recycle it
-        while (limitLength && toTime > this.endTime) {
-            List<ServerHitBin> binList = null;
-
-            switch (type) {
-            case REQUEST:
-                binList = requestHistory.get(id);
-                break;
-
-            case EVENT:
-                binList = eventHistory.get(id);
-                break;
-
-            case VIEW:
-                binList = viewHistory.get(id);
-                break;
-
-            case ENTITY:
-                binList = entityHistory.get(id);
-                break;
+    ServerHitBin nextBin(long toTime) {
+        return new ServerHitBin(this, toTime);
+    }
 
-            case SERVICE:
-                binList = serviceHistory.get(id);
-                break;
-            }
+    /** Persists the bin in a ServerHitBin entity if the option is turned on for its type, called once the bin has ended */
+    void persist() {
+        if (UtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true")) {
+            Delegator delegator = getDelegator();
+            GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
+            serverHitBin.set("contentId", this.id);
+            serverHitBin.set("hitTypeId", ServerHitBin.typeIds[this.type]);
+            serverHitBin.set("binStartDateTime", new java.sql.Timestamp(this.startTime));
+            serverHitBin.set("binEndDateTime", new java.sql.Timestamp(this.endTime));
+            serverHitBin.set("numberHits", Long.valueOf(this.getNumberHits()));
+            serverHitBin.set("totalTimeMillis", Long.valueOf(this.getTotalRunningTime()));
+            serverHitBin.set("minTimeMillis", Long.valueOf(this.getMinTime()));
+            serverHitBin.set("maxTimeMillis", Long.valueOf(this.getMaxTime()));
+            // get localhost ip address and hostname to store
+            try {
+                InetAddress address = InetAddress.getLocalHost();
 
-            // the first in the list will be this object, remove and copy it,
-            // put the copy at the first of the list, then put this object back on
-            binList.remove(0);
-            if (this.numberHits > 0) {
-                binList.add(0, new ServerHitBin(this));
-
-                // persist each bin when time ends if option turned on
-                if (UtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true")) {
-                    GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
-                    serverHitBin.set("contentId", this.id);
-                    serverHitBin.set("hitTypeId", ServerHitBin.typeIds[this.type]);
-                    serverHitBin.set("binStartDateTime", new java.sql.Timestamp(this.startTime));
-                    serverHitBin.set("binEndDateTime", new java.sql.Timestamp(this.endTime));
-                    serverHitBin.set("numberHits", Long.valueOf(this.numberHits));
-                    serverHitBin.set("totalTimeMillis", Long.valueOf(this.totalRunningTime));
-                    serverHitBin.set("minTimeMillis", Long.valueOf(this.minTime));
-                    serverHitBin.set("maxTimeMillis", Long.valueOf(this.maxTime));
-                    // get localhost ip address and hostname to store
-                    try {
-                        InetAddress address = InetAddress.getLocalHost();
-
-                        if (address != null) {
-                            serverHitBin.set("serverIpAddress", address.getHostAddress());
-                            serverHitBin.set("serverHostName", address.getHostName());
-                        } else {
-                            Debug.logError("Unable to get localhost internet address, was null", module);
-                        }
-                    } catch (java.net.UnknownHostException e) {
-                        Debug.logError("Unable to get localhost internet address: " + e.toString(), module);
-                    }
-                    try {
-                        delegator.createSetNextSeqId(serverHitBin);
-                    } catch (GenericEntityException e) {
-                        Debug.logError(e, "Could not save ServerHitBin:", module);
-                    }
+                if (address != null) {
+                    serverHitBin.set("serverIpAddress", address.getHostAddress());
+                    serverHitBin.set("serverHostName", address.getHostName());
+                } else {
+                    Debug.logError("Unable to get localhost internet address, was null", module);
                 }
+            } catch (java.net.UnknownHostException e) {
+                Debug.logError("Unable to get localhost internet address: " + e.toString(), module);
+            }
+            try {
+                delegator.createSetNextSeqId(serverHitBin);
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Could not save ServerHitBin:", module);
             }
-            this.reset(this.endTime + 1);
-            binList.add(0, this);
         }
     }
 
@@ -627,34 +481,8 @@ public class ServerHitBin {
                 return;
             }
             String visitId = visit.getString("visitId");
-            visit = delegator.findOne("Visit", UtilMisc.toMap("visitId", visitId), false);
-            if (visit == null) {
-                // GenericValue stored in client session does not exist in database.
-                Debug.logInfo("The Visit GenericValue stored in the client session does not exist in the database, not storing server hit.", module);
-                return;
-            }
-            
-            Debug.logInfo("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
-            
-            /* this isn't needed, the problem was better solved elsewhere, and without adding another query; leaving it here because it might be useful for something in the future
-             * else {
-                try {
-                    // see if the error was caused by a bad visitId, and if so create a new visit and try again
-                    GenericValue freshVisit = delegator.findOne("Visit", false, "visitId", visitId);
-                    if (freshVisit == null) {
-                        Debug.logInfo("Visit with ID [" + visitId + "] does not exist in the database, removing from session and making a new one", module);
-                        // something happened, have a bad visit in the session so remove it and try again
-                        request.getSession().removeAttribute("visit");
-                        visitId = VisitHandler.getVisitId(request.getSession());
-                        Debug.logInfo("After making new Visit the ID is [" + visitId + "]", module);
-                    }
-                } catch (GenericEntityException e) {
-                    // this is an error on the retry and not part of the main flow, so log it and let it go
-                    Debug.logWarning(e, "Error retrying ServerHit: " + e.toString(), module);
-                }                
-                
-            }
-            */
+            // NOTE: not checking that the Visit is in the database here, that would cost a query per hit; a hit with a
+            // Visit that was never committed just fails to save in the ServerHitWriter, which logs and counts it
 
             GenericValue serverHit = delegator.makeValue("ServerHit");
 
@@ -692,23 +520,10 @@ public class ServerHitBin {
                 Debug.logError("Unable to get localhost internet address: " + e.toString(), module);
             }
 
-            // The problem with
-            //
-            //     serverHit.create();
-            //
-            // is that if there are two requests with the same startTime (this should only happen with MySQL see https://issues.apache.org/jira/browse/OFBIZ-2208)
-            // then this will go wrong and abort the actual
-            // transaction we are interested in.
-            // Another way instead of using create is to store or update,
-            // that is overwrite in case there already was an entry, thus
-            // avoiding the transaction being aborted which is not
-            // less desirable than having multiple requests with the
-            // same startTime overwriting each other.
-            // This may not satisfy those who want to record each and
-            // every server hit even with equal startTimes but that could be
-            // solved adding a counter to the ServerHit's PK (a counter
-            // counting multiple hits at the same startTime).
-            serverHit.create();
+            // The hit is created by the ServerHitWriter thread, in its own transaction, so a failure to save it (for
+            // example two requests with the same startTime on MySQL, see https://issues.apache.org/jira/browse/OFBIZ-2208)
+            // can no longer abort the transaction of the request, and the request doesn't wait on the stats tables.
+            ServerHitWriter.getInstance().enqueue(serverHit);
         }
     }
 }
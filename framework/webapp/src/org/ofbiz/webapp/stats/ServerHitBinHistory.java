@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javolution.util.FastList;
+
+/**
+ * The time binned ServerHitBins of one id: the current bin and a ring of the most recent past bins.
+ * <p>The current bin is swapped with a CAS when a hit falls after its end time; the thread that wins
+ * the swap moves the old bin to the ring and persists it. A bin keeps counting after it is retired,
+ * so a hit that raced with the swap still shows up in the history.
+ */
+public final class ServerHitBinHistory {
+
+    private final AtomicReference<ServerHitBin> current;
+    private final AtomicReferenceArray<ServerHitBin> past;
+    private final AtomicLong retiredCount = new AtomicLong();
+
+    /**
+     * @param first the bin for the current time window
+     * @param maxPastBins the number of past bins to keep, older ones are dropped from memory
+     */
+    public ServerHitBinHistory(ServerHitBin first, int maxPastBins) {
+        this.current = new AtomicReference<ServerHitBin>(first);
+        this.past = new AtomicReferenceArray<ServerHitBin>(Math.max(1, maxPastBins));
+    }
+
+    /** Counts a hit in the bin for its end time, or in the current bin if that time is before it */
+    public ServerHitBin addHit(long startTime, long runningTime) {
+        ServerHitBin bin = advance(startTime + runningTime);
+        bin.addHit(runningTime);
+        return bin;
+    }
+
+    /** Moves to the bin for toTime if the current bin ends before it, and returns the current bin */
+    public ServerHitBin advance(long toTime) {
+        while (true) {
+            ServerHitBin bin = current.get();
+            if (toTime <= bin.endTime) {
+                return bin;
+            }
+            ServerHitBin next = bin.nextBin(toTime);
+            if (current.compareAndSet(bin, next)) {
+                retire(bin);
+                return next;
+            }
+        }
+    }
+
+    private void retire(ServerHitBin bin) {
+        long index = retiredCount.getAndIncrement();
+        past.set((int) (index % past.length()), bin);
+        if (bin.getNumberHits() > 0) {
+            bin.persist();
+        }
+    }
+
+    /** Returns the bins with hits, the most recent first */
+    public List<ServerHitBin> getBins() {
+        List<ServerHitBin> bins = FastList.newInstance();
+        ServerHitBin bin = current.get();
+        if (bin.getNumberHits() > 0) {
+            bins.add(bin);
+        }
+        long newest = retiredCount.get() - 1;
+        long oldest = Math.max(0, newest - past.length() + 1);
+        for (long i = newest; i >= oldest; i--) {
+            bin = past.get((int) (i % past.length()));
+            // skip empty bins, and a slot already overwritten by a bin that is newer than the current one we read
+            if (bin != null && bin.getNumberHits() > 0 && (bins.isEmpty() || bin.startTime < bins.get(bins.size() - 1).startTime)) {
+                bins.add(bin);
+            }
+        }
+        return bins;
+    }
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+
+/**
+ * Writes ServerHit values in the background so that requests don't wait on the stats tables.
+ * <p>Hits are put on a bounded queue which a daemon thread drains every
+ * <code>stats.persist.hit.flush.millis</code>, or sooner once a full batch is waiting, inserting them
+ * with <code>Delegator.createAll</code>. When the queue is full new hits are dropped and counted.
+ */
+public final class ServerHitWriter {
+
+    public static final String module = ServerHitWriter.class.getName();
+
+    private static final int QUEUE_SIZE = UtilProperties.getPropertyAsInteger("serverstats", "stats.persist.hit.queue.size", 10000);
+    private static final int BATCH_SIZE = UtilProperties.getPropertyAsInteger("serverstats", "stats.persist.hit.batch.size", 500);
+    private static final long FLUSH_MILLIS = UtilProperties.getPropertyAsLong("serverstats", "stats.persist.hit.flush.millis", 1000);
+    private static final ServerHitWriter instance = new ServerHitWriter(QUEUE_SIZE, BATCH_SIZE, FLUSH_MILLIS);
+
+    /** Returns the writer of the hits of all webapps, configured in serverstats.properties. */
+    public static ServerHitWriter getInstance() {
+        return instance;
+    }
+
+    private final int queueSize;
+    private final int batchSize;
+    private final long flushMillis;
+    private final LinkedBlockingQueue<GenericValue> queue;
+    private final AtomicLong droppedHits = new AtomicLong();
+    private final AtomicLong writtenHits = new AtomicLong();
+    private final AtomicLong failedHits = new AtomicLong();
+    private final Object flushLock = new Object();
+    private final Object wakeUpLock = new Object();
+    private final AtomicReference<Thread> writerThread = new AtomicReference<Thread>();
+
+    /**
+     * @param queueSize The most hits waiting to be written, more are dropped
+     * @param batchSize The most hits inserted at once, the writer thread is woken up when that many are waiting
+     * @param flushMillis The time the writer thread waits for a full batch before it writes the waiting hits
+     */
+    public ServerHitWriter(int queueSize, int batchSize, long flushMillis) {
+        this.queueSize = Math.max(1, queueSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMillis = Math.max(1, flushMillis);
+        this.queue = new LinkedBlockingQueue<GenericValue>(this.queueSize);
+    }
+
+    /** Queues a ServerHit value to be created by the writer thread; returns false if the queue is full and the hit was dropped. */
+    public boolean enqueue(GenericValue serverHit) {
+        if (writerThread.get() == null) {
+            startWriter();
+        }
+        if (!queue.offer(serverHit)) {
+            long dropped = droppedHits.incrementAndGet();
+            // don't flood the log when the database can't keep up
+            if (dropped == 1 || dropped % 1000 == 0) {
+                Debug.logWarning("ServerHit queue is full (" + queueSize + " hits), " + dropped + " hits dropped so far", module);
+            }
+            return false;
+        }
+        if (queue.size() >= batchSize) {
+            synchronized (wakeUpLock) {
+                wakeUpLock.notify();
+            }
+        }
+        return true;
+    }
+
+    private void startWriter() {
+        Thread thread = new Thread("OFBiz-ServerHitWriter") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        synchronized (wakeUpLock) {
+                            if (queue.size() < batchSize) {
+                                wakeUpLock.wait(flushMillis);
+                            }
+                        }
+                        flush();
+                    } catch (InterruptedException e) {
+                        flush();
+                        return;
+                    } catch (Throwable t) {
+                        Debug.logError(t, "Error writing ServerHits", module);
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        if (writerThread.compareAndSet(null, thread)) {
+            thread.start();
+        }
+    }
+
+    /** Writes all queued hits in the calling thread; called by the writer thread and on shutdown. */
+    public void flush() {
+        synchronized (flushLock) {
+            List<GenericValue> batch = new ArrayList<GenericValue>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread, which writes the queued hits before it ends, and waits for it. Hits queued
+     * afterwards start a new writer thread.
+     */
+    public void stop() throws InterruptedException {
+        Thread thread = writerThread.getAndSet(null);
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private void write(List<GenericValue> batch) {
+        // hits of different tenants go to different delegators
+        Map<String, List<GenericValue>> hitsByDelegator = new LinkedHashMap<String, List<GenericValue>>();
+        for (GenericValue serverHit : batch) {
+            String delegatorName = serverHit.getDelegator().getDelegatorName();
+            List<GenericValue> hits = hitsByDelegator.get(delegatorName);
+            if (hits == null) {
+                hits = new ArrayList<GenericValue>();
+                hitsByDelegator.put(delegatorName, hits);
+            }
+            hits.add(serverHit);
+        }
+        for (List<GenericValue> hits : hitsByDelegator.values()) {
+            try {
+                hits.get(0).getDelegator().createAll(hits);
+                writtenHits.addAndGet(hits.size());
+            } catch (GenericEntityException e) {
+                // one bad hit (ie a Visit that was never committed) fails the whole batch, so retry them one by one
+                Debug.logWarning("Error saving a batch of " + hits.size() + " ServerHits, saving them one at a time: " + e.toString(), module);
+                for (GenericValue serverHit : hits) {
+                    try {
+                        serverHit.create();
+                        writtenHits.incrementAndGet();
+                    } catch (GenericEntityException e2) {
+                        failedHits.incrementAndGet();
+                        Debug.logWarning("Error saving ServerHit: " + e2.toString(), module);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns the number of hits waiting to be written. */
+    public int getQueuedHitCount() {
+        return queue.size();
+    }
+
+    /** Returns the number of hits dropped because the queue was full. */
+    public long getDroppedHitCount() {
+        return droppedHits.get();
+    }
+
+    /** Returns the number of hits written. */
+    public long getWrittenHitCount() {
+        return writtenHits.get();
+    }
+
+    /** Returns the number of hits that could not be written. */
+    public long getFailedHitCount() {
+        return failedHits.get();
+    }
+}
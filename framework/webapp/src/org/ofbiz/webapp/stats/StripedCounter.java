@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum that many threads can add to without contending on one memory location, in the style of
+ * the JDK 8 <code>LongAdder</code>.
+ * <p>Adds go to a single base value until a CAS on it fails, then the counter inflates to one
+ * cell per stripe, picked by thread id, so counters that are never contended stay small.
+ */
+final class StripedCounter {
+
+    private static final int STRIPES = stripeCount();
+    // longs between two cells, keeps each cell on its own cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells = null;
+
+    private static int stripeCount() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static int stripe() {
+        long threadId = Thread.currentThread().getId();
+        int h = (int) (threadId ^ (threadId >>> 32));
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    void add(long x) {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            long b = base.get();
+            if (base.compareAndSet(b, b + x)) {
+                return;
+            }
+            cs = inflate();
+        }
+        cs.getAndAdd(stripe() * PADDING, x);
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = new AtomicLongArray(STRIPES * PADDING);
+        }
+        return cells;
+    }
+
+    /** Returns the current sum; adds made while summing may or may not be included */
+    long sum() {
+        long sum = base.get();
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cs.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+}
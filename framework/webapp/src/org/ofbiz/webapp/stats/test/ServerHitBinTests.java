@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.webapp.stats.ServerHitBin;
+import org.ofbiz.webapp.stats.ServerHitBinHistory;
+
+/**
+ * Counts hits on many threads at once, across several time bins, and checks that none are lost.
+ */
+public class ServerHitBinTests extends EntityTestCase {
+
+    private static final int THREAD_COUNT = 32;
+    private static final int HITS_PER_THREAD = 20000;
+    private static final int BIN_COUNT = 10;
+
+    public ServerHitBinTests(String name) {
+        super(name);
+    }
+
+    public void testConcurrentHits() throws Exception {
+        // ENTITY bins are not persisted by default, so retiring bins doesn't write to the database
+        final ServerHitBin first = new ServerHitBin("ServerHitBinTests", ServerHitBin.ENTITY, true, delegator);
+        final ServerHitBinHistory history = new ServerHitBinHistory(first, BIN_COUNT * 2);
+        final long binLength = first.getBinLength() + 1;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        startSignal.await();
+                        for (int i = 0; i < HITS_PER_THREAD; i++) {
+                            // move forward through the bins, so that bins are advanced while other threads count
+                            long startTime = first.getStartTime() + ((long) i * BIN_COUNT / HITS_PER_THREAD) * binLength;
+                            history.addHit(startTime, i % 100);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            startSignal.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<ServerHitBin> bins = history.getBins();
+        assertEquals("bins", BIN_COUNT, bins.size());
+        long numberHits = 0;
+        long totalRunningTime = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = 0;
+        long previousStartTime = Long.MAX_VALUE;
+        for (ServerHitBin bin : bins) {
+            assertTrue("bins are most recent first", bin.getStartTime() < previousStartTime);
+            previousStartTime = bin.getStartTime();
+            numberHits += bin.getNumberHits();
+            totalRunningTime += bin.getTotalRunningTime();
+            minTime = Math.min(minTime, bin.getMinTime());
+            maxTime = Math.max(maxTime, bin.getMaxTime());
+        }
+        assertEquals("hits", (long) THREAD_COUNT * HITS_PER_THREAD, numberHits);
+        assertEquals("total running time", (long) THREAD_COUNT * (HITS_PER_THREAD / 100) * 4950, totalRunningTime);
+        assertEquals("min time", 0, minTime);
+        assertEquals("max time", 99, maxTime);
+    }
+}
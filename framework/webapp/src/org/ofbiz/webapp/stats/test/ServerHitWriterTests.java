@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats.test;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import javolution.util.FastList;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.webapp.stats.ServerHitWriter;
+
+/**
+ * Checks that the ServerHitWriter drops and counts the hits of a full queue, and writes the queued hits on
+ * flush, after the flush interval and when it stops, even when one hit of a batch cannot be written.
+ */
+public class ServerHitWriterTests extends EntityTestCase {
+
+    private static final String VISIT_ID = "SHW_TEST";
+    // the writer thread of these writers only writes when it is stopped
+    private static final long NEVER = 3600000;
+
+    private final long startTime = System.currentTimeMillis();
+    private ServerHitWriter writer = null;
+
+    public ServerHitWriterTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // the test delegator only rolls back at the end of the run, so the visit of an earlier test is still there
+        if (delegator.findOne("Visit", false, "visitId", VISIT_ID) == null) {
+            delegator.create("Visit", "visitId", VISIT_ID, "fromDate", UtilDateTime.nowTimestamp());
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    private GenericValue makeHit(int index) {
+        return delegator.makeValue("ServerHit", "visitId", VISIT_ID, "contentId", getName() + "." + index,
+                "hitStartDateTime", new Timestamp(startTime + index), "hitTypeId", "REQUEST");
+    }
+
+    private List<GenericValue> enqueueHits(int count) {
+        List<GenericValue> hits = FastList.newInstance();
+        for (int i = 0; i < count; i++) {
+            GenericValue hit = makeHit(i);
+            assertTrue("hit " + i + " queued", writer.enqueue(hit));
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    private void assertWritten(List<GenericValue> hits) throws Exception {
+        for (GenericValue hit : hits) {
+            assertNotNull("hit " + hit.getString("contentId") + " written", delegator.findOne("ServerHit", hit.getPrimaryKey(), false));
+        }
+    }
+
+    public void testQueueFull() throws Exception {
+        writer = new ServerHitWriter(3, 100, NEVER);
+        List<GenericValue> hits = enqueueHits(3);
+        assertFalse("queue full", writer.enqueue(makeHit(3)));
+        assertFalse("queue still full", writer.enqueue(makeHit(4)));
+        assertEquals("dropped hits", 2, writer.getDroppedHitCount());
+        assertEquals("queued hits", 3, writer.getQueuedHitCount());
+
+        writer.flush();
+        assertEquals("queued hits after flush", 0, writer.getQueuedHitCount());
+        assertEquals("written hits", 3, writer.getWrittenHitCount());
+        assertWritten(hits);
+        assertNull("dropped hit not written", delegator.findOne("ServerHit", makeHit(3).getPrimaryKey(), false));
+    }
+
+    public void testFlushInterval() throws Exception {
+        writer = new ServerHitWriter(10, 100, 50);
+        List<GenericValue> hits = enqueueHits(3);
+        // less than a batch, so only the flush interval writes them
+        long timeout = System.currentTimeMillis() + 10000;
+        while (writer.getWrittenHitCount() < 3 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+        }
+        assertEquals("written hits", 3, writer.getWrittenHitCount());
+        assertWritten(hits);
+    }
+
+    public void testFlushOnStop() throws Exception {
+        writer = new ServerHitWriter(10, 100, NEVER);
+        List<GenericValue> hits = enqueueHits(3);
+        writer.stop();
+        assertEquals("queued hits after stop", 0, writer.getQueuedHitCount());
+        assertEquals("written hits", 3, writer.getWrittenHitCount());
+        assertWritten(hits);
+    }
+
+    public void testBadHitInBatch() throws Exception {
+        writer = new ServerHitWriter(10, 10, NEVER);
+        List<GenericValue> hits = enqueueHits(4);
+        // the same primary key as the first hit, so the batch insert fails
+        assertTrue("bad hit queued", writer.enqueue(makeHit(0)));
+        writer.flush();
+        assertEquals("written hits", 4, writer.getWrittenHitCount());
+        assertEquals("failed hits", 1, writer.getFailedHitCount());
+        assertWritten(hits);
+    }
+}
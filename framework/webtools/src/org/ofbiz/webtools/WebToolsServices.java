@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringReader;
@@ -41,6 +42,11 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -48,6 +54,7 @@ import javolution.util.FastList;
 import javolution.util.FastMap;
 import javolution.util.FastSet;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.location.FlexibleLocation;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
@@ -78,6 +85,7 @@ import org.ofbiz.entity.model.ModelViewEntity;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityDataAssert;
 import org.ofbiz.entity.util.EntityDataLoader;
+import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntitySaxReader;
 import org.ofbiz.entityext.EntityGroupUtil;
@@ -475,6 +483,15 @@ public class WebToolsServices {
         if (txTimeout == null) {
             txTimeout = Integer.valueOf(7200);
         }
+        Integer threads = (Integer)context.get("threads");
+        if (threads == null) {
+            threads = Integer.valueOf(1);
+        }
+        Integer fetchSize = (Integer)context.get("fetchSize");
+        if (fetchSize == null) {
+            fetchSize = Integer.valueOf(1000);
+        }
+        boolean compress = Boolean.TRUE.equals(context.get("compress"));
 
         List<String> results = FastList.newInstance();
 
@@ -492,68 +509,37 @@ public class WebToolsServices {
                 } catch (Exception exc) {
                     return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityImportErrorRetrievingEntityNames", locale));
                 }
+                long startTime = System.currentTimeMillis();
+                AtomicInteger entitiesDone = new AtomicInteger();
+                List<Callable<String>> exports = FastList.newInstance();
                 int fileNumber = 1;
-
                 for (String curEntityName: passedEntityNames) {
-                    long numberWritten = 0;
-                    EntityListIterator values = null;
+                    exports.add(createEntityExportCallable(delegator, curEntityName, fileNumber, outdir, fromDate, txTimeout.intValue(), fetchSize.intValue(), compress, entitiesDone, passedEntityNames.size()));
+                    fileNumber++;
+                }
 
+                if (threads.intValue() > 1) {
+                    // each entity is exported in its own thread and transaction, the results are listed in entity name order
+                    ScheduledExecutorService executor = ExecutionPool.getExecutor(null, "OFBiz-entityExportAll", Math.min(threads.intValue(), exports.size()), false);
                     try {
-                        ModelEntity me = delegator.getModelEntity(curEntityName);
-                        if (me instanceof ModelViewEntity) {
-                            results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
-                            continue;
+                        List<Future<String>> futures = FastList.newInstance();
+                        for (Callable<String> export: exports) {
+                            futures.add(executor.submit(export));
                         }
-
-                        boolean beganTx = TransactionUtil.begin();
-                        // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
+                        results.addAll(ExecutionPool.getAllFutures(futures));
+                    } finally {
+                        executor.shutdown();
+                    }
+                } else {
+                    for (Callable<String> export: exports) {
                         try {
-                            List<EntityCondition> conds = FastList.newInstance();
-                            if (UtilValidate.isNotEmpty(fromDate)) {
-                                conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
-                            }
-                            values = delegator.find(curEntityName, EntityCondition.makeCondition(conds), null, null, me.getPkFieldNames(), null);
-                        } catch (Exception entityEx) {
-                            results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + entityEx);
-                            continue;
-                        }
-
-                        //Don't bother writing the file if there's nothing
-                        //to put into it
-                        GenericValue value = values.next();
-                        if (value != null) {
-                            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outdir, curEntityName +".xml")), "UTF-8")));
-                            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                            writer.println("<entity-engine-xml>");
-
-                            do {
-                                value.writeXmlText(writer, "");
-                                numberWritten++;
-                                if (numberWritten % 500 == 0) {
-                                    TransactionUtil.commit(beganTx);
-                                    beganTx = TransactionUtil.begin();
-                                }
-                            } while ((value = values.next()) != null);
-                            writer.println("</entity-engine-xml>");
-                            writer.close();
-                            results.add("["+fileNumber +"] [" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records");
-                        } else {
-                            results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
-                        }
-                        values.close();
-                        TransactionUtil.commit(beganTx);
-                    } catch (Exception ex) {
-                        if (values != null) {
-                            try {
-                                values.close();
-                            } catch (Exception exc) {
-                                //Debug.warning();
-                            }
+                            results.add(export.call());
+                        } catch (Exception e) {
+                            Debug.logError(e, module);
                         }
-                        results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + ex);
                     }
-                    fileNumber++;
                 }
+                results.add("Exported " + passedEntityNames.size() + " entities in " + ((System.currentTimeMillis() - startTime) / 1000.0) + "s");
             } else {
                 results.add("Path not found or no write access.");
             }
@@ -565,6 +551,90 @@ public class WebToolsServices {
         return resp;
     }
 
+    private static Callable<String> createEntityExportCallable(final Delegator delegator, final String entityName, final int fileNumber, final File outdir,
+            final Timestamp fromDate, final int txTimeout, final int fetchSize, final boolean compress, final AtomicInteger entitiesDone, final int entityCount) {
+        return new Callable<String>() {
+            public String call() {
+                String result = exportEntity(delegator, entityName, fileNumber, outdir, fromDate, txTimeout, fetchSize, compress);
+                Debug.logInfo("entityExportAll " + entitiesDone.incrementAndGet() + "/" + entityCount + ": " + result, module);
+                return result;
+            }
+        };
+    }
+
+    /** Writes the records of one entity to an xml file in outdir, in a single transaction so the rows can be streamed from a cursor */
+    private static String exportEntity(Delegator delegator, String entityName, int fileNumber, File outdir, Timestamp fromDate, int txTimeout, int fetchSize, boolean compress) {
+        long startTime = System.currentTimeMillis();
+        long numberWritten = 0;
+        EntityListIterator values = null;
+        boolean beganTx = false;
+
+        try {
+            ModelEntity me = delegator.getModelEntity(entityName);
+            if (me instanceof ModelViewEntity) {
+                return "["+fileNumber +"] [vvv] " + entityName + " skipping view entity";
+            }
+
+            beganTx = TransactionUtil.begin(txTimeout);
+            // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
+            try {
+                List<EntityCondition> conds = FastList.newInstance();
+                if (UtilValidate.isNotEmpty(fromDate)) {
+                    conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
+                }
+                EntityFindOptions findOptions = new EntityFindOptions(true, EntityFindOptions.TYPE_FORWARD_ONLY, EntityFindOptions.CONCUR_READ_ONLY, fetchSize, -1, false);
+                values = delegator.find(entityName, EntityCondition.makeCondition(conds), null, null, me.getPkFieldNames(), findOptions);
+            } catch (Exception entityEx) {
+                TransactionUtil.rollback(beganTx, "Error finding " + entityName, entityEx);
+                return "["+fileNumber +"] [xxx] Error when writing " + entityName + ": " + entityEx;
+            }
+
+            String result;
+            //Don't bother writing the file if there's nothing
+            //to put into it
+            GenericValue value = values.next();
+            if (value != null) {
+                OutputStream out = new FileOutputStream(new File(outdir, entityName + (compress ? ".xml.gz" : ".xml")));
+                if (compress) {
+                    out = new GZIPOutputStream(out, 65536);
+                }
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 65536));
+                try {
+                    writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                    writer.println("<entity-engine-xml>");
+
+                    do {
+                        value.writeXmlText(writer, "");
+                        numberWritten++;
+                    } while ((value = values.next()) != null);
+                    writer.println("</entity-engine-xml>");
+                } finally {
+                    writer.close();
+                }
+                result = "["+fileNumber +"] [" + numberWritten + "] " + entityName + " wrote " + numberWritten + " records in " + ((System.currentTimeMillis() - startTime) / 1000.0) + "s";
+            } else {
+                result = "["+fileNumber +"] [---] " + entityName + " has no records, not writing file";
+            }
+            values.close();
+            TransactionUtil.commit(beganTx);
+            return result;
+        } catch (Exception ex) {
+            if (values != null) {
+                try {
+                    values.close();
+                } catch (Exception exc) {
+                    //Debug.warning();
+                }
+            }
+            try {
+                TransactionUtil.rollback(beganTx, "Error when writing " + entityName, ex);
+            } catch (GenericEntityException e) {
+                Debug.logError(e, module);
+            }
+            return "["+fileNumber +"] [xxx] Error when writing " + entityName + ": " + ex;
+        }
+    }
+
     /** Get entity reference data. Returns the number of entities in
      * <code>numberOfEntities</code> and a List of Maps -
      * <code>packagesList</code>.<br/> Each Map contains:<br/>
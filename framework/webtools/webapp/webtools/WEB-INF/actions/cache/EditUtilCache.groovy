@@ -38,6 +38,10 @@ if (cacheName) {
         cache.missCountSoftRef = UtilFormatOut.formatQuantity(utilCache.getMissCountSoftRef());
         cache.removeHitCount = UtilFormatOut.formatQuantity(utilCache.getRemoveHitCount());
         cache.removeMissCount = UtilFormatOut.formatQuantity(utilCache.getRemoveMissCount());
+        cache.loadCount = UtilFormatOut.formatQuantity(utilCache.getLoadCount());
+        cache.loadTime = UtilFormatOut.formatQuantity(utilCache.getLoadTimeMillis());
+        cache.coalescedMissCount = UtilFormatOut.formatQuantity(utilCache.getCoalescedMissCount());
+        cache.refreshAheadCount = UtilFormatOut.formatQuantity(utilCache.getRefreshAheadCount());
         cache.maxInMemory = UtilFormatOut.formatQuantity(utilCache.getMaxInMemory());
         cache.expireTime = UtilFormatOut.formatQuantity(utilCache.getExpireTime());
         cache.useSoftReference = utilCache.getUseSoftReference().toString();
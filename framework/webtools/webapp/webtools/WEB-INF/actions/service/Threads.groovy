@@ -37,6 +37,7 @@ threads = [];
 poolState = dispatcher.getJobManager().getPoolState();
 context.poolState = poolState;
 context.threads = poolState.taskList;
+context.jobPools = poolState.poolList;
 
 // Some stuff for general threads on the server
 currentThread = Thread.currentThread();
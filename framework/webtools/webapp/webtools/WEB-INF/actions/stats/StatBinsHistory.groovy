@@ -29,12 +29,8 @@ try {
 } catch (NumberFormatException e) {}
 
 binList = null;
-if (type == ServerHitBin.REQUEST) {
-    binList = ServerHitBin.requestHistory.get(id);
-} else if (type == ServerHitBin.EVENT) {
-    binList = ServerHitBin.eventHistory.get(id);
-} else if (type == ServerHitBin.VIEW) {
-    binList = ServerHitBin.viewHistory.get(id);
+if (type == ServerHitBin.REQUEST || type == ServerHitBin.EVENT || type == ServerHitBin.VIEW) {
+    binList = ServerHitBin.getHistory(type, id);
 }
 
 if (binList) {
@@ -30,6 +30,12 @@ under the License.
         <td>Min Idle</td>
         <td>Min Evictable Idle Time</td>
         <td>Max Wait</td>
+        <td>Borrows</td>
+        <td>Avg/Max Borrow Time (ms)</td>
+        <td>Waits</td>
+        <td>Wait Time (ms)</td>
+        <td>Borrow Time Histogram</td>
+        <td>Statement Pool</td>
     </tr>
     <#assign alt_row = false>
     <#if (groups?has_content)>
@@ -48,6 +54,16 @@ under the License.
                         <td>${dataSourceInfo.poolMinIdle?if_exists}</td>
                         <td>${dataSourceInfo.poolMinEvictableIdleTimeMillis?if_exists}</td>
                         <td>${dataSourceInfo.poolMaxWait?if_exists}</td>
+                        <td>${dataSourceInfo.poolBorrowCount?if_exists}</td>
+                        <td>${dataSourceInfo.poolBorrowTimeAvgMillis?if_exists}/${dataSourceInfo.poolBorrowTimeMaxMillis?if_exists}</td>
+                        <td>${dataSourceInfo.poolWaitCount?if_exists}</td>
+                        <td>${dataSourceInfo.poolWaitTimeMillis?if_exists}</td>
+                        <td>
+                            <#if dataSourceInfo.poolBorrowLatencyHistogram?has_content>
+                                <#list dataSourceInfo.poolBorrowLatencyHistogram?keys as bucket>${bucket}: ${dataSourceInfo.poolBorrowLatencyHistogram[bucket]}<#if bucket_has_next><br/></#if></#list>
+                            </#if>
+                        </td>
+                        <td><#if dataSourceInfo.poolPreparedStatements?if_exists>${dataSourceInfo.poolMaxPreparedStatements?if_exists}<#else>off</#if></td>
                     </tr>
                 </#if>
             </#if>
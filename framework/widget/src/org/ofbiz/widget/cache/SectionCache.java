@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.widget.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.base.util.collections.FlexibleMapAccessor;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.cache.EntityCacheListener;
+import org.w3c.dom.Element;
+
+/**
+ * Cache of the rendered output of one section or decorator-section with use-cache="true", keyed by the values of
+ * its cache-key context fields.
+ * <p>The output is cleared when the entity cache of one of the cache-entities is cleared in any delegator, the
+ * delegator name is part of the key so a section renders separately for each tenant.
+ */
+public class SectionCache extends AbstractCache {
+
+    public static final String module = SectionCache.class.getName();
+
+    /** The names of the section caches built from each entity */
+    private static final ConcurrentMap<String, Set<String>> sectionsByEntity = new ConcurrentHashMap<String, Set<String>>();
+    /** The delegators the listener was added to */
+    private static final Set<String> listenedDelegators = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final EntityCacheListener listener = new EntityCacheListener() {
+        public void entityCacheCleared(String delegatorName, String entityName) {
+            if (entityName == null) {
+                new SectionCache().clear();
+                return;
+            }
+            Set<String> sectionNames = sectionsByEntity.get(entityName);
+            if (sectionNames != null) {
+                for (String sectionName: sectionNames) {
+                    if (Debug.verboseOn()) Debug.logVerbose("Entity [" + entityName + "] changed, clearing section cache [" + sectionName + "]", module);
+                    UtilCache.clearCache(sectionName);
+                }
+            }
+        }
+    };
+
+    protected final String sectionName;
+    protected final List<FlexibleMapAccessor<Object>> keyFields = new ArrayList<FlexibleMapAccessor<Object>>();
+    protected final List<String> entityNames = new ArrayList<String>();
+
+    protected SectionCache() {
+        super("section");
+        this.sectionName = null;
+    }
+
+    protected SectionCache(String sectionName, Element sectionElement) {
+        super("section");
+        this.sectionName = sectionName;
+        for (String keyField: StringUtil.split(sectionElement.getAttribute("cache-key"), ",")) {
+            if (UtilValidate.isNotEmpty(keyField.trim())) {
+                this.keyFields.add(FlexibleMapAccessor.<Object>getInstance(keyField.trim()));
+            }
+        }
+        for (String entityName: StringUtil.split(sectionElement.getAttribute("cache-entities"), ",")) {
+            if (UtilValidate.isNotEmpty(entityName.trim())) {
+                this.entityNames.add(entityName.trim());
+            }
+        }
+        String cacheName = getCacheName(sectionName);
+        for (String entityName: this.entityNames) {
+            Set<String> sectionNames = sectionsByEntity.get(entityName);
+            if (sectionNames == null) {
+                sectionNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> existing = sectionsByEntity.putIfAbsent(entityName, sectionNames);
+                if (existing != null) {
+                    sectionNames = existing;
+                }
+            }
+            sectionNames.add(cacheName);
+        }
+    }
+
+    /**
+     * Returns the cache for the section element, or null when it does not have use-cache="true".
+     * @param sectionName Name of the section that is unique among all screens, like the screen location and name followed by the section name
+     */
+    public static SectionCache getInstance(String sectionName, Element sectionElement) {
+        if (!"true".equals(sectionElement.getAttribute("use-cache"))) {
+            return null;
+        }
+        if (UtilValidate.isEmpty(sectionElement.getAttribute("name"))) {
+            Debug.logWarning("Section [" + sectionName + "] has use-cache=\"true\" but no name, it will not be cached", module);
+            return null;
+        }
+        return new SectionCache(sectionName, sectionElement);
+    }
+
+    /** Returns the key of the output for the context: the delegator name and the values of the cache-key fields */
+    public List<Object> getKey(Map<String, Object> context) {
+        List<Object> key = new ArrayList<Object>(this.keyFields.size() + 1);
+        Delegator delegator = (Delegator) context.get("delegator");
+        key.add(delegator != null ? delegator.getDelegatorName() : null);
+        for (FlexibleMapAccessor<Object> keyField: this.keyFields) {
+            key.add(keyField.get(context));
+        }
+        return key;
+    }
+
+    public GenericWidgetOutput get(List<Object> key) {
+        UtilCache<List<Object>, GenericWidgetOutput> sectionCache = getCache(this.sectionName);
+        if (sectionCache == null) return null;
+        return sectionCache.get(key);
+    }
+
+    /** Caches the output, returns false when it was not cached because the entities it depends on cannot be followed */
+    public boolean put(List<Object> key, GenericWidgetOutput output, Map<String, Object> context) {
+        if (!this.entityNames.isEmpty()) {
+            Delegator delegator = (Delegator) context.get("delegator");
+            if (delegator == null) {
+                return false;
+            }
+            if (listenedDelegators.add(delegator.getDelegatorName())) {
+                delegator.getCache().addListener(listener);
+            }
+        }
+        String name = getCacheName(this.sectionName);
+        UtilCache<List<Object>, GenericWidgetOutput> sectionCache = UtilCache.getOrCreateUtilCache(name, 0, 0, 0, true, false, name);
+        sectionCache.put(key, output);
+        return true;
+    }
+}
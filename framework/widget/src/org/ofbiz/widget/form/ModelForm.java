@@ -2098,11 +2098,9 @@ public class ModelForm extends ModelWidget {
         }
 
         try {
-            // use the same Interpreter (ie with the same context setup) for all evals
-            Interpreter bsh = this.getBshInterpreter(context);
             for (AltTarget altTarget: this.altTargets) {
                 String useWhen = FlexibleStringExpander.expandString(altTarget.useWhen, context);
-                Object retVal = bsh.eval(StringUtil.convertOperatorSubstitutions(useWhen));
+                Object retVal = UseWhenCondition.eval(useWhen, altTarget.useWhen.contains(FlexibleStringExpander.openBracket), context);
                 boolean condTrue = false;
                 // retVal should be a Boolean, if not something weird is up...
                 if (retVal instanceof Boolean) {
@@ -2855,10 +2853,8 @@ public class ModelForm extends ModelWidget {
     public String getStyleAltRowStyle(Map<String, Object> context) {
         String styles = "";
         try {
-            // use the same Interpreter (ie with the same context setup) for all evals
-            Interpreter bsh = this.getBshInterpreter(context);
             for (AltRowStyle altRowStyle : this.altRowStyles) {
-                Object retVal = bsh.eval(StringUtil.convertOperatorSubstitutions(altRowStyle.useWhen));
+                Object retVal = UseWhenCondition.eval(altRowStyle.useWhen, false, context);
                 // retVal should be a Boolean, if not something weird is up...
                 if (retVal instanceof Boolean) {
                     Boolean boolVal = (Boolean) retVal;
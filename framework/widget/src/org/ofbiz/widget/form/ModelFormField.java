@@ -38,7 +38,6 @@ import javolution.util.FastMap;
 import org.ofbiz.base.conversion.ConversionException;
 import org.ofbiz.base.conversion.DateTimeConverters;
 import org.ofbiz.base.conversion.DateTimeConverters.StringToTimestamp;
-import org.ofbiz.base.util.BshUtil;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.ObjectType;
@@ -72,7 +71,6 @@ import org.ofbiz.widget.form.ModelForm.UpdateArea;
 import org.w3c.dom.Element;
 
 import bsh.EvalError;
-import bsh.Interpreter;
 
 /**
  * Widget Library - Form model class
@@ -1024,8 +1022,7 @@ public class ModelFormField {
         if (UtilValidate.isEmpty(useWhenStr)) return true;
         
         try {
-            Interpreter bsh = this.modelForm.getBshInterpreter(context);
-            Object retVal = bsh.eval(StringUtil.convertOperatorSubstitutions(useWhenStr));
+            Object retVal = UseWhenCondition.eval(useWhenStr, FlexibleStringExpander.containsExpression(this.useWhen), context);
             boolean condTrue = false;
             // retVal should be a Boolean, if not something weird is up...
             if (retVal instanceof Boolean) {
@@ -2560,13 +2557,7 @@ public class ModelFormField {
             String useWhen = this.getUseWhen(context);
             if (UtilValidate.isNotEmpty(useWhen)) {
                 try {
-                    Interpreter bsh = (Interpreter) context.get("bshInterpreter");
-                    if (bsh == null) {
-                        bsh = BshUtil.makeInterpreter(context);
-                        context.put("bshInterpreter", bsh);
-                    }
-
-                    Object retVal = bsh.eval(StringUtil.convertOperatorSubstitutions(useWhen));
+                    Object retVal = UseWhenCondition.eval(useWhen, FlexibleStringExpander.containsExpression(this.useWhen), context);
 
                     // retVal should be a Boolean, if not something weird is up...
                     if (retVal instanceof Boolean) {
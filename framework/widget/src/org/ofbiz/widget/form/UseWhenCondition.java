@@ -0,0 +1,455 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.widget.form;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.ofbiz.base.util.BshUtil;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.cache.UtilCache;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+
+/**
+ * A use-when condition of a form, compiled once.
+ * <p>The conditions made of variables, <code>null</code>, <code>true</code>, <code>false</code> and String
+ * literals, <code>equals</code> calls and the <code>!</code>, <code>&amp;&amp;</code>, <code>||</code>,
+ * <code>==</code> and <code>!=</code> operators, comparing with <code>null</code> or a boolean, are evaluated
+ * directly on the context, the way BeanShell does. The other conditions, and the evaluations finding a variable
+ * not in the context or a value BeanShell would not take, are run by the BeanShell interpreter of the context,
+ * parsed once.</p>
+ */
+public final class UseWhenCondition {
+
+    public static final String module = UseWhenCondition.class.getName();
+
+    private static final UtilCache<String, UseWhenCondition> conditionCache = UtilCache.createUtilCache("widget.form.useWhenCondition", 0, 0, false);
+
+    /** The value of a compiled condition which BeanShell has to evaluate */
+    private static final Object UNKNOWN = new Object();
+
+    /**
+     * Evaluates a use-when condition; only the conditions without <code>${}</code> expression, the same for all
+     * the contexts, are compiled.
+     * @param useWhen The expanded use-when condition
+     * @param hasExpression Whether the use-when condition contained expressions before being expanded
+     * @param context The context of the form
+     * @return The value of the condition
+     * @throws EvalError
+     */
+    public static Object eval(String useWhen, boolean hasExpression, Map<String, Object> context) throws EvalError {
+        if (hasExpression) {
+            return getBshInterpreter(context).eval(StringUtil.convertOperatorSubstitutions(useWhen));
+        }
+        return getInstance(useWhen).eval(context);
+    }
+
+    public static UseWhenCondition getInstance(String useWhen) {
+        UseWhenCondition condition = conditionCache.get(useWhen);
+        if (condition == null) {
+            condition = conditionCache.putIfAbsentAndGet(useWhen, new UseWhenCondition(useWhen));
+        }
+        return condition;
+    }
+
+    private static Interpreter getBshInterpreter(Map<String, Object> context) throws EvalError {
+        Interpreter bsh = (Interpreter) context.get("bshInterpreter");
+        if (bsh == null) {
+            bsh = BshUtil.makeInterpreter(context);
+            context.put("bshInterpreter", bsh);
+        }
+        return bsh;
+    }
+
+    private final String expression;
+    private final Node node;
+    private volatile Interpreter.ParsedScript parsedScript = null;
+
+    private UseWhenCondition(String useWhen) {
+        this.expression = StringUtil.convertOperatorSubstitutions(useWhen);
+        this.node = new Parser(this.expression).parse();
+    }
+
+    /**
+     * Returns true when the condition is evaluated without BeanShell, as long as the context has its variables
+     * @return boolean
+     */
+    public boolean isCompiled() {
+        return this.node != null;
+    }
+
+    public Object eval(Map<String, Object> context) throws EvalError {
+        if (this.node != null) {
+            Object value = this.node.eval(context);
+            if (value != UNKNOWN) {
+                return value;
+            }
+        }
+        Interpreter bsh = getBshInterpreter(context);
+        Interpreter.ParsedScript parsedScript = this.parsedScript;
+        if (parsedScript == null) {
+            // like Interpreter.eval(String)
+            parsedScript = bsh.parseScript(this.expression, new StringReader(this.expression.endsWith(";") ? this.expression : this.expression + ";"));
+            this.parsedScript = parsedScript;
+        }
+        return bsh.evalParsedScript(parsedScript);
+    }
+
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+
+    private static abstract class Node {
+        abstract Object eval(Map<String, Object> context);
+    }
+
+    private static final class Literal extends Node {
+        private final Object value;
+
+        private Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Map<String, Object> context) {
+            return this.value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final String name;
+
+        private Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object eval(Map<String, Object> context) {
+            if ("context".equals(this.name)) {
+                return context;
+            }
+            // an undefined variable is void in BeanShell, which only compares with itself
+            if (!context.containsKey(this.name)) {
+                return UNKNOWN;
+            }
+            return context.get(this.name);
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node operand;
+
+        private Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object eval(Map<String, Object> context) {
+            Object value = this.operand.eval(context);
+            if (!(value instanceof Boolean)) {
+                return UNKNOWN;
+            }
+            return ((Boolean) value).booleanValue() ? Boolean.FALSE : Boolean.TRUE;
+        }
+    }
+
+    private static final class Logical extends Node {
+        private final Node left;
+        private final Node right;
+        private final boolean and;
+
+        private Logical(Node left, Node right, boolean and) {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        @Override
+        Object eval(Map<String, Object> context) {
+            Object value = this.left.eval(context);
+            if (!(value instanceof Boolean)) {
+                return UNKNOWN;
+            }
+            if (((Boolean) value).booleanValue() != this.and) {
+                return value;
+            }
+            value = this.right.eval(context);
+            if (!(value instanceof Boolean)) {
+                return UNKNOWN;
+            }
+            return value;
+        }
+    }
+
+    /** A comparison of a value with null or a boolean literal */
+    private static final class Comparison extends Node {
+        private final Node operand;
+        private final Object literal;
+        private final boolean notEqual;
+
+        private Comparison(Node operand, Object literal, boolean notEqual) {
+            this.operand = operand;
+            this.literal = literal;
+            this.notEqual = notEqual;
+        }
+
+        @Override
+        Object eval(Map<String, Object> context) {
+            Object value = this.operand.eval(context);
+            boolean equal;
+            if (value == UNKNOWN) {
+                return UNKNOWN;
+            } else if (value == null || this.literal == null) {
+                // BeanShell compares null by identity
+                equal = value == this.literal;
+            } else if (value instanceof Boolean) {
+                // and a boolean wrapper with a boolean literal by value
+                equal = value.equals(this.literal);
+            } else {
+                return UNKNOWN;
+            }
+            return equal != this.notEqual ? Boolean.TRUE : Boolean.FALSE;
+        }
+    }
+
+    private static final class EqualsCall extends Node {
+        private final Node target;
+        private final Node argument;
+
+        private EqualsCall(Node target, Node argument) {
+            this.target = target;
+            this.argument = argument;
+        }
+
+        @Override
+        Object eval(Map<String, Object> context) {
+            Object target = this.target.eval(context);
+            if (target == null || target == UNKNOWN) {
+                return UNKNOWN;
+            }
+            Object argument = this.argument.eval(context);
+            if (argument == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return target.equals(argument) ? Boolean.TRUE : Boolean.FALSE;
+        }
+    }
+
+    /**
+     * Parses the conditions that can be compiled:
+     * <pre>
+     * or := and ('||' and)*
+     * and := comparison ('&&' comparison)*
+     * comparison := unary (('==' | '!=') unary)?
+     * unary := '!' unary | primary
+     * primary := '(' or ')' | (identifier | string) ('.' 'equals' '(' primary ')')? | 'null' | 'true' | 'false'
+     * </pre>
+     */
+    private static final class Parser {
+        private static final Object NO_LITERAL = new Object();
+
+        private final String text;
+        private int pos = 0;
+
+        private Parser(String text) {
+            this.text = text;
+        }
+
+        /** Returns the compiled condition, or null if it can not be compiled */
+        private Node parse() {
+            Node node = parseOr();
+            skipWhitespace();
+            if (node == null || pos != text.length()) {
+                return null;
+            }
+            return node;
+        }
+
+        private Node parseOr() {
+            Node node = parseAnd();
+            while (node != null && accept("||")) {
+                Node right = parseAnd();
+                node = right != null ? new Logical(node, right, false) : null;
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseComparison();
+            while (node != null && accept("&&")) {
+                Node right = parseComparison();
+                node = right != null ? new Logical(node, right, true) : null;
+            }
+            return node;
+        }
+
+        private Node parseComparison() {
+            Node left = parseUnary();
+            if (left == null) {
+                return null;
+            }
+            boolean notEqual;
+            if (accept("==")) {
+                notEqual = false;
+            } else if (accept("!=")) {
+                notEqual = true;
+            } else {
+                return left;
+            }
+            Node right = parseUnary();
+            if (right == null) {
+                return null;
+            }
+            // BeanShell compares other objects by identity, not compiled
+            Object literal = getComparableLiteral(right);
+            if (literal != NO_LITERAL) {
+                return new Comparison(left, literal, notEqual);
+            }
+            literal = getComparableLiteral(left);
+            if (literal != NO_LITERAL) {
+                return new Comparison(right, literal, notEqual);
+            }
+            return null;
+        }
+
+        private Object getComparableLiteral(Node node) {
+            if (node instanceof Literal) {
+                Object value = ((Literal) node).value;
+                if (value == null || value instanceof Boolean) {
+                    return value;
+                }
+            }
+            return NO_LITERAL;
+        }
+
+        private Node parseUnary() {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '!' && !text.startsWith("!=", pos)) {
+                pos++;
+                Node operand = parseUnary();
+                return operand != null ? new Not(operand) : null;
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                return null;
+            }
+            char c = text.charAt(pos);
+            Node node;
+            if (c == '(') {
+                pos++;
+                node = parseOr();
+                if (node == null || !accept(")")) {
+                    return null;
+                }
+                return node;
+            } else if (c == '"') {
+                node = parseString();
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = pos;
+                while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+                    pos++;
+                }
+                String name = text.substring(start, pos);
+                if ("null".equals(name)) {
+                    return new Literal(null);
+                } else if ("true".equals(name)) {
+                    return new Literal(Boolean.TRUE);
+                } else if ("false".equals(name)) {
+                    return new Literal(Boolean.FALSE);
+                } else if ("void".equals(name) || "new".equals(name) || "instanceof".equals(name)) {
+                    return null;
+                }
+                node = new Variable(name);
+            } else {
+                return null;
+            }
+            if (node == null) {
+                return null;
+            }
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '.') {
+                pos++;
+                skipWhitespace();
+                if (!text.startsWith("equals", pos)) {
+                    return null;
+                }
+                pos += "equals".length();
+                if (!accept("(")) {
+                    return null;
+                }
+                Node argument = parsePrimary();
+                if (argument == null || !accept(")")) {
+                    return null;
+                }
+                node = new EqualsCall(node, argument);
+            }
+            return node;
+        }
+
+        private Node parseString() {
+            StringBuilder value = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return new Literal(value.toString());
+                } else if (c == '\\') {
+                    if (pos >= text.length()) {
+                        return null;
+                    }
+                    c = text.charAt(pos++);
+                    switch (c) {
+                        case 'n': value.append('\n'); break;
+                        case 't': value.append('\t'); break;
+                        case 'r': value.append('\r'); break;
+                        case '"': value.append('"'); break;
+                        case '\'': value.append('\''); break;
+                        case '\\': value.append('\\'); break;
+                        default: return null;
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            return null;
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
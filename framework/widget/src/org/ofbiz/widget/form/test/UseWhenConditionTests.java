@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.widget.form.test;
+
+import java.util.List;
+import java.util.Map;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.BshUtil;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.widget.form.UseWhenCondition;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+
+/**
+ * Checks that the compiled use-when conditions give the values of BeanShell, and compares their speed on the rows
+ * of a list form.
+ */
+public class UseWhenConditionTests extends GenericTestCaseBase {
+
+    public static final String module = UseWhenConditionTests.class.getName();
+    private static final int ROW_COUNT = 500;
+    private static final String[] LIST_CONDITIONS = {
+        "statusId == null",
+        "\"ITEM_APPROVED\".equals(statusId)",
+        "!\"ITEM_CANCELLED\".equals(statusId) @and isEditable",
+        "orderItemSeqId != null || shipGroupSeqId != null",
+        "isEditable == true"
+    };
+
+    public UseWhenConditionTests(String name) {
+        super(name);
+    }
+
+    private static Map<String, Object> makeContext(int row) {
+        Map<String, Object> context = FastMap.newInstance();
+        // the variables of a screen, which BeanShell copies into each interpreter
+        for (int i = 0; i < 100; i++) {
+            context.put("screenVariable" + i, "value" + i);
+        }
+        context.put("statusId", row % 3 == 0 ? null : (row % 3 == 1 ? "ITEM_APPROVED" : "ITEM_CANCELLED"));
+        context.put("isEditable", Boolean.valueOf(row % 2 == 0));
+        context.put("orderItemSeqId", row % 5 == 0 ? null : "0000" + row);
+        context.put("shipGroupSeqId", null);
+        context.put("flag", new String("Y"));
+        context.put("itemIndex", Integer.valueOf(row));
+        return context;
+    }
+
+    private static Object evalWithBsh(String useWhen, Map<String, Object> context) {
+        try {
+            return BshUtil.makeInterpreter(context).eval(StringUtil.convertOperatorSubstitutions(useWhen));
+        } catch (EvalError e) {
+            return EvalError.class;
+        }
+    }
+
+    private static Object evalCompiled(String useWhen, Map<String, Object> context) {
+        try {
+            return UseWhenCondition.eval(useWhen, false, context);
+        } catch (EvalError e) {
+            return EvalError.class;
+        }
+    }
+
+    private void assertSameValue(String useWhen, Map<String, Object> context) {
+        assertEquals(useWhen, evalWithBsh(useWhen, context), evalCompiled(useWhen, context));
+    }
+
+    public void testCompiled() throws Exception {
+        for (String useWhen: LIST_CONDITIONS) {
+            assertTrue(useWhen + " compiled", UseWhenCondition.getInstance(useWhen).isCompiled());
+        }
+        assertTrue("parentheses", UseWhenCondition.getInstance("(a == null || b != null) && !(c == false)").isCompiled());
+        assertTrue("context", UseWhenCondition.getInstance("context.equals(null)").isCompiled());
+        assertFalse("method call", UseWhenCondition.getInstance("statusId.startsWith(\"ITEM\")").isCompiled());
+        assertFalse("number", UseWhenCondition.getInstance("itemIndex > 10").isCompiled());
+        assertFalse("String comparison", UseWhenCondition.getInstance("flag == \"Y\"").isCompiled());
+        assertFalse("void", UseWhenCondition.getInstance("missing == void").isCompiled());
+        assertFalse("statement", UseWhenCondition.getInstance("x = 1; x == 1").isCompiled());
+    }
+
+    public void testSameAsBeanShell() throws Exception {
+        List<String> conditions = FastList.newInstance();
+        for (String useWhen: LIST_CONDITIONS) {
+            conditions.add(useWhen);
+        }
+        conditions.add("missing == null");
+        conditions.add("missing != null");
+        conditions.add("\"A\".equals(missing)");
+        conditions.add("!missing");
+        conditions.add("statusId.equals(\"ITEM_APPROVED\")");
+        conditions.add("flag == \"Y\"");
+        conditions.add("flag.equals(\"Y\")");
+        conditions.add("\"Y\".equals(flag) && itemIndex > 10");
+        conditions.add("isEditable || statusId.equals(\"ITEM_APPROVED\")");
+        conditions.add("!isEditable && orderItemSeqId == null");
+        conditions.add("statusId @and isEditable");
+        conditions.add("true != isEditable");
+        conditions.add("null == shipGroupSeqId");
+        conditions.add("context.get(\"statusId\") == null");
+        conditions.add("\"it\\\"s\".equals(flag)");
+        conditions.add("missing == void");
+        for (int row = 0; row < 30; row++) {
+            Map<String, Object> context = makeContext(row);
+            for (String useWhen: conditions) {
+                assertSameValue(useWhen + " row " + row, context);
+            }
+        }
+    }
+
+    public void testListBenchmark() throws Exception {
+        List<Map<String, Object>> rows = FastList.newInstance();
+        for (int row = 0; row < ROW_COUNT; row++) {
+            rows.add(makeContext(row));
+        }
+        // warm up both
+        for (Map<String, Object> context: rows.subList(0, 50)) {
+            for (String useWhen: LIST_CONDITIONS) {
+                assertEquals(useWhen, evalWithBsh(useWhen, context), evalCompiled(useWhen, context));
+                context.remove("bshInterpreter");
+            }
+        }
+        // like ModelForm.renderItemRows, one interpreter for the fields of a row
+        long startTime = System.nanoTime();
+        for (Map<String, Object> context: rows) {
+            Interpreter bsh = BshUtil.makeInterpreter(context);
+            for (String useWhen: LIST_CONDITIONS) {
+                bsh.eval(StringUtil.convertOperatorSubstitutions(useWhen));
+            }
+        }
+        long bshNanos = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (Map<String, Object> context: rows) {
+            for (String useWhen: LIST_CONDITIONS) {
+                UseWhenCondition.eval(useWhen, false, context);
+            }
+        }
+        long compiledNanos = System.nanoTime() - startTime;
+        Debug.logInfo("Evaluating " + LIST_CONDITIONS.length + " use-when conditions on " + ROW_COUNT + " rows: "
+                + (bshNanos / 1000000) + "ms with BeanShell, " + (compiledNanos / 1000000) + "ms compiled", module);
+    }
+}
@@ -19,6 +19,7 @@
 package org.ofbiz.widget.screen;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -51,6 +52,8 @@ import org.ofbiz.widget.ModelWidgetAction;
 import org.ofbiz.widget.PortalPageWorker;
 import org.ofbiz.widget.WidgetFactory;
 import org.ofbiz.widget.WidgetWorker;
+import org.ofbiz.widget.cache.GenericWidgetOutput;
+import org.ofbiz.widget.cache.SectionCache;
 import org.ofbiz.widget.form.FormFactory;
 import org.ofbiz.widget.form.FormStringRenderer;
 import org.ofbiz.widget.form.ModelForm;
@@ -136,10 +139,12 @@ public abstract class ModelScreenWidget extends ModelWidget {
         protected List<ModelWidgetAction> actions;
         protected List<ModelScreenWidget> subWidgets;
         protected List<ModelScreenWidget> failWidgets;
+        protected SectionCache sectionCache;
         public boolean isMainSection = false;
 
         public Section(ModelScreen modelScreen, Element sectionElement) {
             super(modelScreen, sectionElement);
+            this.sectionCache = SectionCache.getInstance(modelScreen.getSourceLocation() + "#" + modelScreen.getName() + "#" + this.name, sectionElement);
 
             // read condition under the "condition" element
             Element conditionElement = UtilXml.firstChildElement(sectionElement, "condition");
@@ -168,6 +173,22 @@ public abstract class ModelScreenWidget extends ModelWidget {
 
         @Override
         public void renderWidgetString(Appendable writer, Map<String, Object> context, ScreenStringRenderer screenStringRenderer) throws GeneralException, IOException {
+            if (this.sectionCache == null) {
+                renderSectionString(writer, context, screenStringRenderer);
+                return;
+            }
+            List<Object> cacheKey = this.sectionCache.getKey(context);
+            GenericWidgetOutput output = this.sectionCache.get(cacheKey);
+            if (output == null) {
+                StringWriter sw = new StringWriter();
+                renderSectionString(sw, context, screenStringRenderer);
+                output = new GenericWidgetOutput(sw.toString());
+                this.sectionCache.put(cacheKey, output, context);
+            }
+            writer.append(output.toString());
+        }
+
+        protected void renderSectionString(Appendable writer, Map<String, Object> context, ScreenStringRenderer screenStringRenderer) throws GeneralException, IOException {
             // check the condition, if there is one
             boolean condTrue = true;
             if (this.condition != null) {
@@ -682,18 +703,32 @@ public abstract class ModelScreenWidget extends ModelWidget {
     public static class DecoratorSection extends ModelScreenWidget {
         public static final String TAG_NAME = "decorator-section";
         protected List<ModelScreenWidget> subWidgets;
+        protected SectionCache sectionCache;
 
         public DecoratorSection(ModelScreen modelScreen, Element decoratorSectionElement) {
             super(modelScreen, decoratorSectionElement);
             // read sub-widgets
             List<? extends Element> subElementList = UtilXml.childElementList(decoratorSectionElement);
             this.subWidgets = ModelScreenWidget.readSubWidgets(this.modelScreen, subElementList);
+            this.sectionCache = SectionCache.getInstance(modelScreen.getSourceLocation() + "#" + modelScreen.getName() + "#decorator-section#" + this.name, decoratorSectionElement);
         }
 
         @Override
         public void renderWidgetString(Appendable writer, Map<String, Object> context, ScreenStringRenderer screenStringRenderer) throws GeneralException, IOException {
-            // render sub-widgets
-            renderSubWidgetsString(this.subWidgets, writer, context, screenStringRenderer);
+            if (this.sectionCache == null) {
+                // render sub-widgets
+                renderSubWidgetsString(this.subWidgets, writer, context, screenStringRenderer);
+                return;
+            }
+            List<Object> cacheKey = this.sectionCache.getKey(context);
+            GenericWidgetOutput output = this.sectionCache.get(cacheKey);
+            if (output == null) {
+                StringWriter sw = new StringWriter();
+                renderSubWidgetsString(this.subWidgets, sw, context, screenStringRenderer);
+                output = new GenericWidgetOutput(sw.toString());
+                this.sectionCache.put(cacheKey, output, context);
+            }
+            writer.append(output.toString());
         }
 
         @Override
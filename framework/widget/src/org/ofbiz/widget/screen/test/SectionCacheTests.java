@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.widget.screen.test;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.base.util.collections.MapStack;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.widget.screen.ModelScreen;
+import org.ofbiz.widget.screen.ModelScreenWidget;
+import org.ofbiz.widget.text.TextScreenRenderer;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that a section and a decorator-section with use-cache="true" render from the cache, once for each
+ * delegator and value of the cache-key fields, and render again after a write to one of their cache-entities.
+ * The label of the sections shows the note of the context, which is not part of the key, so a rendering from
+ * the cache still shows the note of the first rendering.
+ */
+public class SectionCacheTests extends EntityTestCase {
+
+    private static final String LOCATION = "component://widget/testdef/SectionCacheTests.xml";
+    private static final String SCREENS = "<screens>"
+            + "<screen name=\"CachedSection\">"
+            + "<section name=\"cached\" use-cache=\"true\" cache-key=\"productId\" cache-entities=\"TestingType\">"
+            + "<widgets><label text=\"${productId} ${note}\"/></widgets>"
+            + "</section>"
+            + "</screen>"
+            + "<decorator-section name=\"body\" use-cache=\"true\" cache-key=\"productId\" cache-entities=\"TestingType\">"
+            + "<label text=\"${productId} ${note}\"/>"
+            + "</decorator-section>"
+            + "</screens>";
+
+    private ModelScreen screen = null;
+    private ModelScreenWidget.DecoratorSection decoratorSection = null;
+
+    public SectionCacheTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        UtilCache.clearCachesThatStartWith("widgetcache.section." + LOCATION);
+        Element screensElement = UtilXml.readXmlDocument(SCREENS).getDocumentElement();
+        screen = new ModelScreen(UtilXml.firstChildElement(screensElement, "screen"), null, LOCATION);
+        decoratorSection = new ModelScreenWidget.DecoratorSection(screen, UtilXml.firstChildElement(screensElement, "decorator-section"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        UtilCache.clearCachesThatStartWith("widgetcache.section." + LOCATION);
+    }
+
+    private static Map<String, Object> makeContext(Delegator delegator, String productId, String note) {
+        MapStack<String> context = MapStack.create();
+        context.put("delegator", delegator);
+        context.put("productId", productId);
+        context.put("note", note);
+        return context;
+    }
+
+    @SuppressWarnings("deprecation")
+    private String renderSection(Delegator delegator, String productId, String note) throws Exception {
+        StringWriter writer = new StringWriter();
+        screen.renderScreenString(writer, makeContext(delegator, productId, note), new TextScreenRenderer());
+        return writer.toString().trim();
+    }
+
+    @SuppressWarnings("deprecation")
+    private String renderDecoratorSection(Delegator delegator, String productId, String note) throws Exception {
+        StringWriter writer = new StringWriter();
+        decoratorSection.renderWidgetString(writer, makeContext(delegator, productId, note), new TextScreenRenderer());
+        return writer.toString().trim();
+    }
+
+    public void testSectionCache() throws Exception {
+        assertEquals("first rendering", "P1 first", renderSection(delegator, "P1", "first"));
+        assertEquals("from the cache", "P1 first", renderSection(delegator, "P1", "second"));
+        assertEquals("other cache-key value", "P2 second", renderSection(delegator, "P2", "second"));
+        assertEquals("other delegator", "P1 second", renderSection(delegator.cloneDelegator("sectionCacheTest"), "P1", "second"));
+        assertEquals("still from the cache", "P1 first", renderSection(delegator, "P1", "third"));
+
+        delegator.create("Testing", "testingId", "SECTIONCACHE-1", "description", "not a cache-entity");
+        assertEquals("write to another entity", "P1 first", renderSection(delegator, "P1", "third"));
+
+        delegator.create("TestingType", "testingTypeId", "SECTIONCACHE", "description", "cache-entity");
+        assertEquals("rendered after a write", "P1 third", renderSection(delegator, "P1", "third"));
+        assertEquals("cached again", "P1 third", renderSection(delegator, "P1", "fourth"));
+        assertEquals("other cache-key value rendered after a write", "P2 fourth", renderSection(delegator, "P2", "fourth"));
+    }
+
+    public void testDecoratorSectionCache() throws Exception {
+        assertEquals("first rendering", "P1 first", renderDecoratorSection(delegator, "P1", "first"));
+        assertEquals("from the cache", "P1 first", renderDecoratorSection(delegator, "P1", "second"));
+        assertEquals("other cache-key value", "P2 second", renderDecoratorSection(delegator, "P2", "second"));
+
+        delegator.create("TestingType", "testingTypeId", "SECTIONCACHE-DECORATOR", "description", "cache-entity");
+        assertEquals("rendered after a write", "P1 third", renderDecoratorSection(delegator, "P1", "third"));
+    }
+}